@@ -65,6 +65,9 @@ import com.vmware.xenon.common.UriUtils;
  * The task SHOULD be started as privileged service in order to call
  * {@link ResourceOperationSpecService} with system auth context to get non-tenanted
  * {@link ResourceOperationSpec} data.
+ * <p>
+ * The service starts the {@link ResourceOperationSpecRegistry} of its host, which serves the
+ * spec lookups without querying.
  */
 public class ResourceOperationService extends StatelessService {
 
@@ -74,6 +77,18 @@ public class ResourceOperationService extends StatelessService {
 
     public static final String QUERY_PARAM_OPERATION = "operation";
 
+    @Override
+    public void handleStart(Operation start) {
+        ResourceOperationSpecRegistry.start(getHost(), getSystemAuthorizationContext());
+        start.complete();
+    }
+
+    @Override
+    public void handleStop(Operation stop) {
+        ResourceOperationSpecRegistry.stop(getHost());
+        super.handleStop(stop);
+    }
+
     @Override
     public void handleGet(Operation get) {
         Map<String, String> params = UriUtils.parseUriQueryParams(get.getUri());
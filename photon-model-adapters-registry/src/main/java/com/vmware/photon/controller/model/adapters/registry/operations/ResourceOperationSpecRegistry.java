@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.registry.operations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationSpecService.ResourceOperationSpec;
+import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationSpecService.ResourceType;
+import com.vmware.photon.controller.model.query.QueryUtils;
+import com.vmware.photon.controller.model.query.QueryUtils.QueryByPages;
+import com.vmware.photon.controller.model.resources.EndpointService.EndpointState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Operation.AuthorizationContext;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+
+/**
+ * In-memory, per host registry of {@link ResourceOperationSpec}s indexed by endpoint type,
+ * resource type and operation, and of the endpoint type of endpoint links.
+ * <p>
+ * The registry is started by {@link ResourceOperationService} and loads all specs once. It is
+ * kept current by {@link ResourceOperationSpecService}, which updates the registry of its owner
+ * host, and by continuous queries over specs and endpoints, which update the registries of all
+ * hosts. Until the specs are loaded, and for lookups the registry cannot answer,
+ * {@link ResourceOperationUtils} falls back to querying the specs.
+ * <p>
+ * The registry keeps copies of the given specs and returns copies of its specs, so callers may
+ * modify them. It answers lookups without authorization checks, which is why
+ * {@link ResourceOperationUtils} uses it only for lookups on behalf of the system user, such as
+ * those of {@link ResourceOperationService}.
+ */
+public class ResourceOperationSpecRegistry {
+
+    private static final Map<ServiceHost, ResourceOperationSpecRegistry> registries =
+            new ConcurrentHashMap<>();
+
+    private final ServiceHost host;
+    private final AuthorizationContext authorizationContext;
+
+    /**
+     * Specs by endpoint type and resource type, and by operation.
+     */
+    private final Map<String, Map<String, ResourceOperationSpec>> specs =
+            new ConcurrentHashMap<>();
+    private final Map<String, String> endpointTypes = new ConcurrentHashMap<>();
+    private final List<String> queryTaskLinks = Collections.synchronizedList(new ArrayList<>());
+
+    private volatile boolean loaded;
+
+    private ResourceOperationSpecRegistry(ServiceHost host,
+            AuthorizationContext authorizationContext) {
+        this.host = host;
+        this.authorizationContext = authorizationContext;
+    }
+
+    /**
+     * Starts the registry of the given host, which subscribes for spec and endpoint changes and
+     * loads all specs.
+     *
+     * @param authorizationContext
+     *         authorization context used to query the specs and endpoints
+     */
+    static void start(ServiceHost host, AuthorizationContext authorizationContext) {
+        ResourceOperationSpecRegistry registry = new ResourceOperationSpecRegistry(host,
+                authorizationContext);
+        if (registries.putIfAbsent(host, registry) != null) {
+            return;
+        }
+        registry.subscribe(ResourceOperationSpec.class, registry::specsChanged);
+        registry.subscribe(EndpointState.class, registry::endpointsChanged);
+        registry.load();
+    }
+
+    /**
+     * Stops the registry of the given host and its continuous queries.
+     */
+    static void stop(ServiceHost host) {
+        ResourceOperationSpecRegistry registry = registries.remove(host);
+        if (registry == null) {
+            return;
+        }
+        synchronized (registry.queryTaskLinks) {
+            for (String queryTaskLink : registry.queryTaskLinks) {
+                Operation.createDelete(host, queryTaskLink)
+                        .setReferer(host.getUri())
+                        .setAuthorizationContext(registry.authorizationContext)
+                        .sendWith(host);
+            }
+        }
+    }
+
+    /**
+     * Returns the registry of the given host, {@code null} if it is not started.
+     */
+    static ResourceOperationSpecRegistry getInstance(ServiceHost host) {
+        return registries.get(host);
+    }
+
+    /**
+     * Returns the loaded registry of the given host, {@code null} if it is not started or has not
+     * loaded the specs yet.
+     */
+    static ResourceOperationSpecRegistry getLoadedInstance(ServiceHost host) {
+        ResourceOperationSpecRegistry registry = registries.get(host);
+        return registry != null && registry.loaded ? registry : null;
+    }
+
+    /**
+     * Returns the specs for the given endpoint type and resource type, or the spec of the given
+     * operation if it is not {@code null}. Returns {@code null} if no spec is known.
+     */
+    List<ResourceOperationSpec> getSpecs(String endpointType, ResourceType resourceType,
+            String operation) {
+        Map<String, ResourceOperationSpec> byOperation = this.specs
+                .get(key(endpointType, resourceType));
+        if (byOperation == null || byOperation.isEmpty()) {
+            return null;
+        }
+        if (operation == null) {
+            List<ResourceOperationSpec> specs = new ArrayList<>(byOperation.size());
+            for (ResourceOperationSpec spec : byOperation.values()) {
+                specs.add(Utils.clone(spec));
+            }
+            return specs;
+        }
+        ResourceOperationSpec spec = byOperation.get(operation);
+        return spec != null ? Collections.singletonList(Utils.clone(spec)) : null;
+    }
+
+    /**
+     * Returns the cached endpoint type of the given endpoint, {@code null} if it is not cached.
+     */
+    String getEndpointType(String endpointLink) {
+        return this.endpointTypes.get(endpointLink);
+    }
+
+    void putEndpointType(String endpointLink, String endpointType) {
+        if (endpointLink != null && endpointType != null) {
+            this.endpointTypes.put(endpointLink, endpointType);
+        }
+    }
+
+    /**
+     * Adds or replaces the given specs unless a newer version of them is registered already.
+     */
+    void update(Collection<ResourceOperationSpec> specs) {
+        for (ResourceOperationSpec spec : specs) {
+            update(spec);
+        }
+    }
+
+    void update(ResourceOperationSpec spec) {
+        if (spec.endpointType == null || spec.resourceType == null || spec.operation == null) {
+            return;
+        }
+        this.specs.computeIfAbsent(key(spec.endpointType, spec.resourceType),
+                k -> new ConcurrentHashMap<>())
+                .merge(spec.operation, Utils.clone(spec), (current, updated) ->
+                        updated.documentVersion >= current.documentVersion ? updated : current);
+    }
+
+    void remove(ResourceOperationSpec spec) {
+        if (spec.endpointType == null || spec.resourceType == null || spec.operation == null) {
+            return;
+        }
+        Map<String, ResourceOperationSpec> byOperation = this.specs
+                .get(key(spec.endpointType, spec.resourceType));
+        if (byOperation != null) {
+            byOperation.remove(spec.operation);
+        }
+    }
+
+    private static String key(String endpointType, ResourceType resourceType) {
+        return endpointType + ResourceOperationSpecFactoryService.TOKEN_SEPARATOR + resourceType;
+    }
+
+    private void load() {
+        Query query = Query.Builder.create()
+                .addKindFieldClause(ResourceOperationSpec.class)
+                .build();
+
+        new QueryByPages<>(this.host, query, ResourceOperationSpec.class, null)
+                .setAuthorizationContext(this.authorizationContext)
+                .queryDocuments(this::update)
+                .whenComplete((ignore, e) -> {
+                    if (e != null) {
+                        this.host.log(Level.WARNING,
+                                "Cannot load resource operation specs, they are queried on "
+                                        + "every lookup: %s", Utils.toString(e));
+                        return;
+                    }
+                    this.loaded = true;
+                    this.host.log(Level.FINE, "Resource operation specs loaded.");
+                });
+    }
+
+    private void specsChanged(Operation notification) {
+        notification.complete();
+        for (ResourceOperationSpec spec : getDocuments(notification,
+                ResourceOperationSpec.class)) {
+            if (Action.DELETE.toString().equals(spec.documentUpdateAction)) {
+                remove(spec);
+            } else {
+                update(spec);
+            }
+        }
+    }
+
+    private void endpointsChanged(Operation notification) {
+        notification.complete();
+        for (EndpointState endpoint : getDocuments(notification, EndpointState.class)) {
+            if (Action.DELETE.toString().equals(endpoint.documentUpdateAction)) {
+                this.endpointTypes.remove(endpoint.documentSelfLink);
+            } else {
+                this.endpointTypes.computeIfPresent(endpoint.documentSelfLink,
+                        (link, type) -> endpoint.endpointType != null
+                                ? endpoint.endpointType : type);
+            }
+        }
+    }
+
+    private static <T extends ServiceDocument> List<T> getDocuments(Operation notification,
+            Class<T> type) {
+        QueryTask queryTask = notification.getBody(QueryTask.class);
+        if (queryTask.results == null || queryTask.results.documents == null) {
+            return Collections.emptyList();
+        }
+        List<T> documents = new ArrayList<>();
+        for (Object document : queryTask.results.documents.values()) {
+            documents.add(Utils.fromJson(document, type));
+        }
+        return documents;
+    }
+
+    /**
+     * Subscribes the given consumer to a continuous query over the documents of the given kind.
+     */
+    private void subscribe(Class<? extends ServiceDocument> kind, Consumer<Operation> consumer) {
+        QueryUtils.subscribeToContinuousQuery(this.host, kind, this.authorizationContext,
+                consumer)
+                .whenComplete((queryTaskLink, e) -> {
+                    if (e != null) {
+                        this.host.log(Level.SEVERE, "Cannot subscribe for %s changes: %s",
+                                kind.getSimpleName(), Utils.toString(e));
+                        return;
+                    }
+                    this.queryTaskLinks.add(queryTaskLink);
+                });
+    }
+}
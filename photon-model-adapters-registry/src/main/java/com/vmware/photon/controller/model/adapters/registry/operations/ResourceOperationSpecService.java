@@ -195,6 +195,48 @@ public class ResourceOperationSpecService extends StatefulService {
                 operation.toLowerCase() + "-adapter");
     }
 
+    @Override
+    public void handleStart(Operation start) {
+        if (start.hasBody()) {
+            ResourceOperationSpec body = start.getBody(ResourceOperationSpec.class);
+            updateRegistry(body, body.documentVersion);
+        }
+        start.complete();
+    }
+
+    @Override
+    public void handlePut(Operation put) {
+        ResourceOperationSpec currentState = getState(put);
+        updateRegistry(put.getBody(ResourceOperationSpec.class),
+                currentState.documentVersion + 1);
+        super.handlePut(put);
+    }
+
+    @Override
+    public void handleDelete(Operation delete) {
+        ResourceOperationSpecRegistry registry = ResourceOperationSpecRegistry
+                .getInstance(getHost());
+        ResourceOperationSpec currentState = getState(delete);
+        if (registry != null && currentState != null) {
+            registry.remove(currentState);
+        }
+        super.handleDelete(delete);
+    }
+
+    /**
+     * Updates the {@link ResourceOperationSpecRegistry} of this host with the given state, so
+     * that lookups on this host see the change as soon as it completes.
+     */
+    private void updateRegistry(ResourceOperationSpec state, long documentVersion) {
+        ResourceOperationSpecRegistry registry = ResourceOperationSpecRegistry
+                .getInstance(getHost());
+        if (registry != null) {
+            ResourceOperationSpec spec = Utils.clone(state);
+            spec.documentVersion = documentVersion;
+            registry.update(spec);
+        }
+    }
+
     @Override
     public void handlePatch(Operation patch) {
         ResourceOperationSpec currentState = getState(patch);
@@ -204,6 +246,7 @@ public class ResourceOperationSpecService extends StatefulService {
         boolean merged = Utils.mergeWithState(getStateDescription(), currentState, body);
 
         if (merged) {
+            updateRegistry(currentState, currentState.documentVersion + 1);
             logFine("%s updated.", currentState);
         } else {
             patch.setStatusCode(Operation.STATUS_CODE_NOT_MODIFIED);
@@ -17,15 +17,12 @@ import static com.vmware.photon.controller.model.util.ClusterUtil.ServiceTypeClu
 
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
-import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
-
 import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationSpecService.ResourceOperationSpec;
 import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationSpecService.ResourceType;
 import com.vmware.photon.controller.model.query.QueryUtils.QueryTop;
@@ -40,6 +37,7 @@ import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Operation.AuthorizationContext;
 import com.vmware.xenon.common.Operation.CompletionHandler;
+import com.vmware.xenon.common.OperationContext;
 import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.ServiceHost;
 import com.vmware.xenon.common.UriUtils;
@@ -154,13 +152,37 @@ public class ResourceOperationUtils {
         }
         AssertUtil.assertNotNull(endpointLink, " must be set.");
 
+        return lookUpEndpointType(host, refererURI, endpointLink, authorizationContext)
+                .thenCompose(endpointType -> lookUp(
+                        host, refererURI, endpointType, resourceType, operation,
+                        resourceState.tenantLinks, authorizationContext)
+                );
+    }
+
+    /**
+     * Returns the endpoint type of the given endpoint from the
+     * {@link ResourceOperationSpecRegistry} of the host, or from the endpoint state if it is not
+     * cached. For lookups on behalf of a user the endpoint state is always read, since reading it
+     * is the access check of the user for the endpoint.
+     */
+    private static DeferredResult<String> lookUpEndpointType(ServiceHost host, URI refererURI,
+            String endpointLink, AuthorizationContext authorizationContext) {
+        ResourceOperationSpecRegistry registry = ResourceOperationSpecRegistry
+                .getInstance(host);
+        String endpointType = registry != null && isSystemLookup(host, authorizationContext)
+                ? registry.getEndpointType(endpointLink) : null;
+        if (endpointType != null) {
+            return DeferredResult.completed(endpointType);
+        }
         return host.sendWithDeferredResult(
                 Operation.createGet(host, endpointLink).setReferer(refererURI),
                 EndpointState.class)
-                .thenCompose(ep -> lookUp(
-                        host, refererURI, (ep).endpointType, resourceType, operation,
-                        resourceState.tenantLinks, authorizationContext)
-                );
+                .thenApply(ep -> {
+                    if (registry != null) {
+                        registry.putEndpointType(endpointLink, ep.endpointType);
+                    }
+                    return ep.endpointType;
+                });
     }
 
     /**
@@ -181,40 +203,25 @@ public class ResourceOperationUtils {
             return true;
         }
 
-        ScriptEngine engine = new ScriptEngineManager().getEngineByName(SCRIPT_ENGINE_NAME_JS);
-
-        if (resourceState != null) {
-            //Clone original object to avoid changing props of original object from vulnerable
-            // targetCriteria
-            ResourceState clone = Utils.cloneObject(resourceState);
-            engine.getBindings(ScriptContext.ENGINE_SCOPE).put(SCRIPT_CONTEXT_RESOURCE, clone);
-        }
-        try {
-            Object res = engine.eval(spec.targetCriteria);
-            if (res instanceof Boolean) {
-                return ((Boolean) res).booleanValue();
-            } else {
-                Utils.log(ResourceOperationUtils.class, "isAvailable",
-                        Level.WARNING,
-                        "Expect boolean result when evaluate targetCriteria \"%s\" of "
-                                + "endpointType: %s, resourceType: %s, operation: %s, "
-                                + "adapterReference: %s. Result: %s",
-                        spec.targetCriteria,
-                        spec.endpointType, spec.resourceType, spec.operation,
-                        spec.adapterReference, res);
-            }
-        } catch (ScriptException e) {
-            Utils.log(ResourceOperationUtils.class, "isAvailable",
-                    Level.SEVERE,
-                    "Cannot evaluate targetCriteria '%s' of "
-                            + "endpointType: %s, resourceType: %s, operation: %s, "
-                            + "adapterReference: %s. Cause: %s",
-                    spec.targetCriteria,
-                    spec.endpointType, spec.resourceType, spec.operation, spec.adapterReference,
-                    Utils.toString(e));
+        return TargetCriteriaEvaluator.isAvailable(resourceState, spec);
+    }
 
-        }
-        return false;
+    /**
+     * Evaluates the target criteria of all given {@code specs} against each of the given
+     * {@code resourceStates}, see {@link #isAvailable(ResourceState, ResourceOperationSpec)}.
+     * @param resourceStates
+     *         the resource states for which to check which of the given {@code specs} are
+     *         available
+     * @param specs
+     *         the {@link ResourceOperationSpec}s which to check
+     * @return the available specs of every resource state, in the iteration order of the given
+     * {@code resourceStates}
+     */
+    public static <T extends ResourceState> Map<T, List<ResourceOperationSpec>> getAvailableSpecs(
+            Collection<T> resourceStates, Collection<ResourceOperationSpec> specs) {
+        AssertUtil.assertNotNull(resourceStates, "'resourceStates' must be set.");
+        AssertUtil.assertNotNull(specs, "'specs' must be set.");
+        return TargetCriteriaEvaluator.getAvailableSpecs(resourceStates, specs);
     }
 
     /**
@@ -307,6 +314,13 @@ public class ResourceOperationUtils {
      * <p>
      * If operation not specified then return all resource operation specs for the given
      * {@code endpointType} and {@code resourceType}
+     * <p>
+     * Lookups on behalf of the system user are served from the
+     * {@link ResourceOperationSpecRegistry} of the host, and queried only if it is not loaded or
+     * does not know any matching spec. Specs are not tenanted, and the tenant links are set on the
+     * query task only, so the registry returns the same specs for any tenant links. Lookups on
+     * behalf of a user are always queried with their authorization context, which checks their
+     * access to the specs.
      * @param host
      *         host to use to create operation
      * @param refererURI
@@ -333,6 +347,16 @@ public class ResourceOperationUtils {
             List<String> queryTaskTenantLinks,
             AuthorizationContext authorizationContext) {
 
+        ResourceOperationSpecRegistry registry = ResourceOperationSpecRegistry
+                .getLoadedInstance(host);
+        if (registry != null && isSystemLookup(host, authorizationContext)) {
+            List<ResourceOperationSpec> specs = registry.getSpecs(endpointType, resourceType,
+                    operation);
+            if (specs != null) {
+                return DeferredResult.completed(specs);
+            }
+        }
+
         Query.Builder builder = Query.Builder.create()
                 .addKindFieldClause(ResourceOperationSpec.class)
                 .addFieldClause(
@@ -362,7 +386,28 @@ public class ResourceOperationUtils {
             top.setMaxResultsLimit(1);
         }
         top.setReferer(refererURI);
-        return top.collectDocuments(Collectors.toList());
+        return top.collectDocuments(Collectors.toList())
+                .thenApply(specs -> {
+                    if (registry != null) {
+                        registry.update(specs);
+                    }
+                    return specs;
+                });
+    }
+
+    /**
+     * Returns whether a lookup runs on behalf of the system user, with the given authorization
+     * context or else with the one of the current operation, and so may be served by the
+     * {@link ResourceOperationSpecRegistry} without access checks.
+     */
+    private static boolean isSystemLookup(ServiceHost host,
+            AuthorizationContext authorizationContext) {
+        if (!host.isAuthorizationEnabled()) {
+            return true;
+        }
+        AuthorizationContext lookupContext = authorizationContext != null
+                ? authorizationContext : OperationContext.getAuthorizationContext();
+        return lookupContext != null && lookupContext.isSystemUser();
     }
 
     private static Operation createOperation(ServiceHost host, ResourceOperationSpec spec) {
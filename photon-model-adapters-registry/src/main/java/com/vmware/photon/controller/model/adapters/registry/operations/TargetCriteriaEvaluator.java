@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.registry.operations;
+
+import static com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationUtils.SCRIPT_CONTEXT_RESOURCE;
+import static com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationUtils.SCRIPT_ENGINE_NAME_JS;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationSpecService.ResourceOperationSpec;
+import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationUtils.TargetCriteria;
+import com.vmware.photon.controller.model.resources.ResourceState;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Evaluates {@link ResourceOperationSpec#targetCriteria} against resource states.
+ * <p>
+ * Criteria which only compare a resource property with a string literal, as well as the
+ * {@link TargetCriteria} ones, are evaluated in Java. Any other criteria are compiled once per
+ * thread with a JavaScript engine owned by that thread, since script engines are not safe for
+ * concurrent use, and the compiled scripts are cached by criteria source.
+ * <p>
+ * Scripts see a read-only view of the resource state instead of a clone, so the criteria can
+ * neither change the resource state nor pay for copying it.
+ */
+class TargetCriteriaEvaluator {
+
+    /**
+     * Maximum number of compiled criteria kept per thread, and of criteria with a Java
+     * evaluation.
+     */
+    private static final int MAX_COMPILED_CRITERIA = 256;
+
+    /**
+     * {@code resource.a.b == 'literal'}
+     */
+    private static final Pattern PROPERTY_EQUALS_PATTERN = Pattern.compile("^\\s*"
+            + SCRIPT_CONTEXT_RESOURCE + "((?:\\.[A-Za-z_$][\\w$]*)+)\\s*==\\s*'([^'\\\\]*)'\\s*$");
+
+    private static final Map<String, Function<Object, Boolean>> KNOWN_CRITERIA = new HashMap<>();
+
+    static {
+        KNOWN_CRITERIA.put("true", resource -> Boolean.TRUE);
+        KNOWN_CRITERIA.put("false", resource -> Boolean.FALSE);
+        KNOWN_CRITERIA.put(TargetCriteria.RESOURCE_HAS_SNAPSHOTS.getCriteria(),
+                TargetCriteriaEvaluator::hasSnapshots);
+    }
+
+    private static final Map<String, Function<Object, Boolean>> fastPaths =
+            new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<ThreadEngine> threadEngine =
+            ThreadLocal.withInitial(ThreadEngine::new);
+
+    private static final Map<Class<?>, Map<String, Field>> fieldsByClass =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Compiled criteria of a script engine owned by a single thread.
+     */
+    private static class ThreadEngine {
+        private final ScriptEngine engine = new ScriptEngineManager()
+                .getEngineByName(SCRIPT_ENGINE_NAME_JS);
+
+        private final Map<String, CompiledScript> scripts =
+                new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Entry<String, CompiledScript> eldest) {
+                        return size() > MAX_COMPILED_CRITERIA;
+                    }
+                };
+
+        CompiledScript compile(String criteria) throws ScriptException {
+            CompiledScript script = this.scripts.get(criteria);
+            if (script == null) {
+                if (!(this.engine instanceof Compilable)) {
+                    throw new ScriptException("No compilable '" + SCRIPT_ENGINE_NAME_JS
+                            + "' script engine available");
+                }
+                script = ((Compilable) this.engine).compile(criteria);
+                this.scripts.put(criteria, script);
+            }
+            return script;
+        }
+
+        Object eval(String criteria, Object resource) throws ScriptException {
+            CompiledScript script = compile(criteria);
+            Bindings bindings = this.engine.getBindings(ScriptContext.ENGINE_SCOPE);
+            if (resource != null) {
+                bindings.put(SCRIPT_CONTEXT_RESOURCE, resource);
+            }
+            try {
+                return script.eval();
+            } finally {
+                bindings.remove(SCRIPT_CONTEXT_RESOURCE);
+            }
+        }
+    }
+
+    private TargetCriteriaEvaluator() {
+    }
+
+    /**
+     * @see ResourceOperationUtils#isAvailable(ResourceState, ResourceOperationSpec)
+     */
+    static boolean isAvailable(ResourceState resourceState, ResourceOperationSpec spec) {
+        if (spec.targetCriteria == null) {
+            return true;
+        }
+        return evaluate(spec, resourceState != null ? readOnlyView(resourceState) : null);
+    }
+
+    /**
+     * @see ResourceOperationUtils#getAvailableSpecs(Collection, Collection)
+     */
+    static <T extends ResourceState> Map<T, List<ResourceOperationSpec>> getAvailableSpecs(
+            Collection<T> resourceStates, Collection<ResourceOperationSpec> specs) {
+        Map<T, List<ResourceOperationSpec>> result = new LinkedHashMap<>();
+        for (T resourceState : resourceStates) {
+            Object view = readOnlyView(resourceState);
+            List<ResourceOperationSpec> available = new ArrayList<>();
+            for (ResourceOperationSpec spec : specs) {
+                if (spec.targetCriteria == null || evaluate(spec, view)) {
+                    available.add(spec);
+                }
+            }
+            result.put(resourceState, available);
+        }
+        return result;
+    }
+
+    private static boolean evaluate(ResourceOperationSpec spec, Object resource) {
+        if (fastPaths.size() > MAX_COMPILED_CRITERIA) {
+            fastPaths.clear();
+        }
+        Function<Object, Boolean> fastPath = fastPaths.computeIfAbsent(spec.targetCriteria,
+                TargetCriteriaEvaluator::createFastPath);
+        Boolean fastResult = fastPath.apply(resource);
+        if (fastResult != null) {
+            return fastResult;
+        }
+
+        try {
+            Object res = threadEngine.get().eval(spec.targetCriteria, resource);
+            if (res instanceof Boolean) {
+                return ((Boolean) res).booleanValue();
+            } else {
+                Utils.log(ResourceOperationUtils.class, "isAvailable",
+                        Level.WARNING,
+                        "Expect boolean result when evaluate targetCriteria \"%s\" of "
+                                + "endpointType: %s, resourceType: %s, operation: %s, "
+                                + "adapterReference: %s. Result: %s",
+                        spec.targetCriteria,
+                        spec.endpointType, spec.resourceType, spec.operation,
+                        spec.adapterReference, res);
+            }
+        } catch (ScriptException | RuntimeException e) {
+            // changing the read-only resource view fails with an UnsupportedOperationException
+            Utils.log(ResourceOperationUtils.class, "isAvailable",
+                    Level.SEVERE,
+                    "Cannot evaluate targetCriteria '%s' of "
+                            + "endpointType: %s, resourceType: %s, operation: %s, "
+                            + "adapterReference: %s. Cause: %s",
+                    spec.targetCriteria,
+                    spec.endpointType, spec.resourceType, spec.operation, spec.adapterReference,
+                    Utils.toString(e));
+        }
+        return false;
+    }
+
+    /**
+     * Creates the Java evaluation of the given criteria. It returns {@code null} when the result
+     * cannot be decided without the script engine.
+     */
+    private static Function<Object, Boolean> createFastPath(String criteria) {
+        Function<Object, Boolean> known = KNOWN_CRITERIA.get(criteria);
+        if (known != null) {
+            return known;
+        }
+        Matcher matcher = PROPERTY_EQUALS_PATTERN.matcher(criteria);
+        if (!matcher.matches()) {
+            return resource -> null;
+        }
+        String[] path = matcher.group(1).substring(1).split("\\.");
+        String literal = matcher.group(2);
+        return resource -> {
+            Object value = resource;
+            for (String name : path) {
+                if (!(value instanceof Map)) {
+                    // undefined resource or property of a non-object, let the script decide
+                    return null;
+                }
+                value = ((Map<?, ?>) value).get(name);
+            }
+            if (value == null) {
+                return false;
+            }
+            if (value instanceof CharSequence || value instanceof Enum) {
+                return literal.equals(value.toString());
+            }
+            // numbers and booleans follow the JavaScript type conversion rules
+            return null;
+        };
+    }
+
+    private static Boolean hasSnapshots(Object resource) {
+        if (!(resource instanceof Map)) {
+            return null;
+        }
+        Object customProperties = ((Map<?, ?>) resource).get("customProperties");
+        if (customProperties == null) {
+            return false;
+        }
+        if (!(customProperties instanceof Map)) {
+            return null;
+        }
+        Object hasSnapshot = ((Map<?, ?>) customProperties).get("__hasSnapshot");
+        if (hasSnapshot == null) {
+            return false;
+        }
+        return hasSnapshot instanceof String ? "true".equalsIgnoreCase((String) hasSnapshot)
+                : null;
+    }
+
+    /**
+     * Returns a read-only view of the given value. Objects are viewed as maps of their public
+     * fields, maps and collections are wrapped, and immutable values are returned as they are.
+     */
+    @SuppressWarnings("unchecked")
+    static Object readOnlyView(Object value) {
+        if (value == null || value instanceof CharSequence || value instanceof Number
+                || value instanceof Boolean || value instanceof Character
+                || value instanceof Enum || value instanceof URI) {
+            return value;
+        }
+        if (value instanceof Map) {
+            return new ReadOnlyMap((Map<Object, Object>) value);
+        }
+        if (value instanceof List) {
+            return Collections.unmodifiableList((List<Object>) value);
+        }
+        if (value instanceof Set) {
+            return Collections.unmodifiableSet((Set<Object>) value);
+        }
+        if (value instanceof Collection) {
+            return Collections.unmodifiableCollection((Collection<Object>) value);
+        }
+        if (value.getClass().isArray()) {
+            return value;
+        }
+        return new ObjectView(value);
+    }
+
+    private static Map<String, Field> getFields(Class<?> type) {
+        return fieldsByClass.computeIfAbsent(type, t -> {
+            Map<String, Field> fields = new LinkedHashMap<>();
+            for (Field field : t.getFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    fields.putIfAbsent(field.getName(), field);
+                }
+            }
+            return fields;
+        });
+    }
+
+    /**
+     * Read-only view of a map, whose values are viewed read-only as well.
+     */
+    private static class ReadOnlyMap extends AbstractMap<Object, Object> {
+        private final Map<Object, Object> map;
+
+        ReadOnlyMap(Map<Object, Object> map) {
+            this.map = map;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return readOnlyView(this.map.get(key));
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return this.map.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return this.map.size();
+        }
+
+        @Override
+        public Set<Entry<Object, Object>> entrySet() {
+            return new AbstractSet<Entry<Object, Object>>() {
+                @Override
+                public Iterator<Entry<Object, Object>> iterator() {
+                    Iterator<Entry<Object, Object>> it = ReadOnlyMap.this.map.entrySet()
+                            .iterator();
+                    return new Iterator<Entry<Object, Object>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Entry<Object, Object> next() {
+                            Entry<Object, Object> entry = it.next();
+                            return new SimpleImmutableEntry<>(entry.getKey(),
+                                    readOnlyView(entry.getValue()));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return ReadOnlyMap.this.map.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only view of the public fields of an object, whose values are viewed read-only as
+     * well.
+     */
+    private static class ObjectView extends AbstractMap<Object, Object> {
+        private final Object object;
+        private final Map<String, Field> fields;
+
+        ObjectView(Object object) {
+            this.object = object;
+            this.fields = getFields(object.getClass());
+        }
+
+        @Override
+        public Object get(Object key) {
+            Field field = this.fields.get(key);
+            return field != null ? readOnlyView(getValue(field)) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return this.fields.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return this.fields.size();
+        }
+
+        @Override
+        public Set<Entry<Object, Object>> entrySet() {
+            return new AbstractSet<Entry<Object, Object>>() {
+                @Override
+                public Iterator<Entry<Object, Object>> iterator() {
+                    Iterator<Field> it = ObjectView.this.fields.values().iterator();
+                    return new Iterator<Entry<Object, Object>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Entry<Object, Object> next() {
+                            Field field = it.next();
+                            return new SimpleImmutableEntry<>(field.getName(),
+                                    readOnlyView(getValue(field)));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return ObjectView.this.fields.size();
+                }
+            };
+        }
+
+        private Object getValue(Field field) {
+            try {
+                return field.get(this.object);
+            } catch (IllegalAccessException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -77,6 +77,40 @@ public class ResourceOperationServiceTest extends BaseResourceOperationTest {
         Assert.assertNotNull(list.get(1));
     }
 
+    @Test
+    public void testGetResourceOperationsFromRegistry() throws Throwable {
+        super.host.waitFor("Specs not loaded into the registry",
+                () -> ResourceOperationSpecRegistry.getLoadedInstance(super.host) != null);
+
+        EndpointState endpoint = registerEndpoint(this.endpointType);
+        ComputeState computeState = new ComputeState();
+        computeState.descriptionLink = "dummy-descriptionLink";
+        computeState.endpointLink = endpoint.documentSelfLink;
+        computeState.tenantLinks = endpoint.tenantLinks;
+        ComputeState createdComputeState = registerComputeState(computeState);
+
+        // known to the registry only, so found only if the lookup is served by the registry
+        ResourceOperationSpec spec = createResourceOperationSpec(endpoint.endpointType,
+                ResourceType.COMPUTE, "testGetResourceOperationsFromRegistry");
+        ResourceOperationSpecRegistry.getInstance(super.host).update(spec);
+
+        String query = UriUtils.buildUriQuery(
+                ResourceOperationService.QUERY_PARAM_RESOURCE,
+                createdComputeState.documentSelfLink,
+                ResourceOperationService.QUERY_PARAM_OPERATION, spec.operation);
+        URI uri = UriUtils.buildUri(super.host, ResourceOperationService.SELF_LINK, query);
+        Operation operation = sendOperationSynchronously(Operation.createGet(uri)
+                .setReferer(super.host.getReferer()));
+
+        List<ResourceOperationSpec> list = Utils.fromJson(
+                Utils.toJson(operation.getBodyRaw()),
+                new TypeToken<List<ResourceOperationSpec>>() {
+                }.getType());
+        Assert.assertNotNull(list);
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals(spec.operation, list.get(0).operation);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testGetResourceOperations_neg() throws Throwable {
         URI uri = UriUtils.buildUri(super.host, ResourceOperationService.SELF_LINK, null);
@@ -153,6 +153,60 @@ public class ResourceOperationSpecServiceTest extends BaseResourceOperationTest
         Assert.assertEquals(operation, resourceOperationSpec.operation);
     }
 
+    @Test
+    public void testRegistry() throws Throwable {
+        String operation = "testRegistry";
+        ResourceOperationSpec[] states = registerResourceOperation(
+                this.endpointType, ResourceType.COMPUTE, operation);
+        ResourceOperationSpec persistedState = states[1];
+
+        ResourceOperationSpecRegistry registry = ResourceOperationSpecRegistry
+                .getInstance(super.host);
+        Assert.assertNotNull(registry);
+        // updated by the spec service before the registration completes
+        List<ResourceOperationSpec> found = registry.getSpecs(
+                this.endpointType, ResourceType.COMPUTE, operation);
+        Assert.assertNotNull(found);
+        Assert.assertEquals(persistedState.documentSelfLink, found.get(0).documentSelfLink);
+
+        super.host.getTestRequestSender().sendAndWait(
+                Operation.createDelete(super.host, persistedState.documentSelfLink));
+        super.host.waitFor("Spec not removed from the registry", () -> registry.getSpecs(
+                this.endpointType, ResourceType.COMPUTE, operation) == null);
+    }
+
+    @Test
+    public void testGetByResourceStateCachesEndpointType() throws Throwable {
+        ComputeState computeState = prepare(this.endpointType,
+                "testGetByResourceStateCachesEndpointType");
+
+        join(ResourceOperationUtils.lookupByResourceState(super.host, super.host.getReferer(),
+                computeState, null, null));
+        ResourceOperationSpecRegistry registry = ResourceOperationSpecRegistry
+                .getInstance(super.host);
+        Assert.assertEquals(this.endpointType,
+                registry.getEndpointType(computeState.endpointLink));
+
+        super.host.getTestRequestSender().sendAndWait(
+                Operation.createDelete(super.host, computeState.endpointLink));
+        super.host.waitFor("Endpoint type not removed from the registry",
+                () -> registry.getEndpointType(computeState.endpointLink) == null);
+    }
+
+    @Test
+    public void testRegistryReturnsCopies() throws Throwable {
+        String operation = "testRegistryReturnsCopies";
+        registerResourceOperation(this.endpointType, ResourceType.COMPUTE, operation);
+
+        ResourceOperationSpecRegistry registry = ResourceOperationSpecRegistry
+                .getInstance(super.host);
+        registry.getSpecs(this.endpointType, ResourceType.COMPUTE, operation).get(0).name =
+                "modified";
+
+        Assert.assertNotEquals("modified", registry.getSpecs(
+                this.endpointType, ResourceType.COMPUTE, operation).get(0).name);
+    }
+
     @Test
     public void testGetByEndpointType() {
         getByEndpointXXX("testGetByEndpointType");
@@ -17,11 +17,17 @@ import static com.vmware.photon.controller.model.adapters.registry.operations.Ba
 import static com.vmware.photon.controller.model.adapters.registry.operations.BaseResourceOperationTest.createResourceOperationSpec;
 import static com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationUtils.SCRIPT_CONTEXT_RESOURCE;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Assert;
 import org.junit.Test;
 
 import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationSpecService.ResourceOperationSpec;
+import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationUtils.TargetCriteria;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ComputeService.PowerState;
 
 public class ResourceOperationUtilsTest {
 
@@ -105,4 +111,55 @@ public class ResourceOperationUtilsTest {
         Assert.assertEquals(originalValue, computeState.hostName);
     }
 
+    @Test
+    public void testIsAvailable_changeCustPropsFromScript() {
+        ResourceOperationSpec spec = createResourceOperationSpec();
+        spec.targetCriteria = SCRIPT_CONTEXT_RESOURCE + ".customProperties.put('p1', 'changed')"
+                + " == null";
+
+        ComputeState computeState = createComputeState("testIsAvailable_changeCustPropsFromScript");
+
+        Assert.assertFalse(ResourceOperationUtils.isAvailable(computeState, spec));
+        Assert.assertEquals("v1", computeState.customProperties.get("p1"));
+    }
+
+    @Test
+    public void testIsAvailable_targetCriteria() {
+        ResourceOperationSpec powerOnSpec = createResourceOperationSpec();
+        powerOnSpec.targetCriteria = TargetCriteria.RESOURCE_POWER_STATE_ON.getCriteria();
+        ResourceOperationSpec snapshotSpec = createResourceOperationSpec();
+        snapshotSpec.targetCriteria = TargetCriteria.RESOURCE_HAS_SNAPSHOTS.getCriteria();
+
+        ComputeState computeState = createComputeState("testIsAvailable_targetCriteria");
+        Assert.assertFalse(ResourceOperationUtils.isAvailable(computeState, powerOnSpec));
+        Assert.assertFalse(ResourceOperationUtils.isAvailable(computeState, snapshotSpec));
+
+        computeState.powerState = PowerState.ON;
+        computeState.customProperties.put("__hasSnapshot", "True");
+        Assert.assertTrue(ResourceOperationUtils.isAvailable(computeState, powerOnSpec));
+        Assert.assertTrue(ResourceOperationUtils.isAvailable(computeState, snapshotSpec));
+    }
+
+    @Test
+    public void testGetAvailableSpecs() {
+        ResourceOperationSpec anySpec = createResourceOperationSpec();
+        ResourceOperationSpec powerOnSpec = createResourceOperationSpec();
+        powerOnSpec.targetCriteria = TargetCriteria.RESOURCE_POWER_STATE_ON.getCriteria();
+        ResourceOperationSpec hostNameSpec = createResourceOperationSpec();
+        hostNameSpec.targetCriteria = SCRIPT_CONTEXT_RESOURCE + ".hostName.startsWith('on')";
+
+        ComputeState on = createComputeState("on");
+        on.powerState = PowerState.ON;
+        ComputeState off = createComputeState("off");
+        off.powerState = PowerState.OFF;
+
+        Map<ComputeState, List<ResourceOperationSpec>> available = ResourceOperationUtils
+                .getAvailableSpecs(Arrays.asList(on, off),
+                        Arrays.asList(anySpec, powerOnSpec, hostNameSpec));
+
+        Assert.assertEquals(Arrays.asList(on, off), Arrays.asList(available.keySet().toArray()));
+        Assert.assertEquals(Arrays.asList(anySpec, powerOnSpec, hostNameSpec), available.get(on));
+        Assert.assertEquals(Arrays.asList(anySpec), available.get(off));
+    }
+
 }
\ No newline at end of file
@@ -43,6 +43,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -882,16 +883,32 @@ public class AWSCostStatsService extends StatelessService {
                     UUID.randomUUID().toString());
             Files.createDirectories(workingDirPath);
 
-            AWSCsvBillParser parser = new AWSCsvBillParser();
+            AWSCsvBillParser parser = new AWSCsvBillParser(this.executor);
             final String csvBillZipFileName = parser
                     .getCsvBillFileName(statsData.billMonthToDownload, statsData.accountId, true);
             Path csvBillZipFilePath = Paths.get(workingDirPath.toString(), csvBillZipFileName);
+            // The Transfer Manager is leased for the time of the download so that it is not shut
+            // down under the download when it is evicted from the client cache meanwhile.
+            TransferManager transferManager = statsData.s3Client;
+            if (!this.clientManager.leaseS3TransferManager(transferManager)) {
+                billDownloadFailureHandler(statsData, awsBucketName, new IllegalStateException(
+                        "S3 Transfer Manager was shut down before downloading the AWS CSV Bill '"
+                                + csvBillZipFileName + "'."));
+                return;
+            }
+            AtomicBoolean released = new AtomicBoolean();
+            Runnable releaseTransferManager = () -> {
+                if (released.compareAndSet(false, true)) {
+                    this.clientManager.releaseS3TransferManager(transferManager);
+                }
+            };
             ProgressListener listener = new ProgressListener() {
                 @Override
                 public void progressChanged(ProgressEvent progressEvent) {
                     try {
                         ProgressEventType eventType = progressEvent.getEventType();
                         if (ProgressEventType.TRANSFER_COMPLETED_EVENT.equals(eventType)) {
+                            releaseTransferManager.run();
                             OperationContext.restoreOperationContext(statsData.opContext);
                             LocalDate billMonth = new LocalDate(
                                     statsData.billMonthToDownload.getYear(),
@@ -909,11 +926,13 @@ public class AWSCostStatsService extends StatelessService {
                             statsData.billMonthToDownload = statsData.billMonthToDownload.plusMonths(1);
                             handleCostStatsCreationRequest(statsData);
                         } else if (ProgressEventType.TRANSFER_FAILED_EVENT.equals(eventType)) {
+                            releaseTransferManager.run();
                             deleteTempFiles();
                             billDownloadFailureHandler(statsData, awsBucketName, new IOException(
                                     "Download of AWS CSV Bill '" + csvBillZipFileName + "' failed."));
                         }
                     } catch (Exception exception) {
+                        releaseTransferManager.run();
                         deleteTempFiles();
                         billDownloadFailureHandler(statsData, awsBucketName, exception);
                     }
@@ -930,7 +949,12 @@ public class AWSCostStatsService extends StatelessService {
             };
             GetObjectRequest getObjectRequest = new GetObjectRequest(awsBucketName,
                     csvBillZipFileName).withGeneralProgressListener(listener);
-            statsData.s3Client.download(getObjectRequest, csvBillZipFilePath.toFile());
+            try {
+                transferManager.download(getObjectRequest, csvBillZipFilePath.toFile());
+            } catch (RuntimeException e) {
+                releaseTransferManager.run();
+                throw e;
+            }
         } catch (AmazonS3Exception s3Exception) {
             billDownloadFailureHandler(statsData, awsBucketName, s3Exception);
         }
@@ -971,6 +995,8 @@ public class AWSCostStatsService extends StatelessService {
         }
         // We use root compute state representing this account to save the account level stats
         Map<String, ComputeState> rootComputesByEndpoint = findRootAccountComputeStateByEndpoint(accountComputeStates);
+        // Marker metrics are always stored as ResourceMetrics, also when raw metrics are stored in
+        // blocks, since they are read back as such by getQueryTaskForMetric.
         URI uri = UriUtils.buildUri(ClusterUtil.getClusterUri(getHost(), ServiceTypeCluster.METRIC_SERVICE),
                 ResourceMetricsService.FACTORY_LINK);
         for (ComputeState compute : rootComputesByEndpoint.values()) {
@@ -1176,6 +1202,11 @@ public class AWSCostStatsService extends StatelessService {
         });
     }
 
+    /**
+     * Returns the query for the latest marker metrics of the account. These are posted directly
+     * by {@link #createMarkerMetrics} and never stored in
+     * {@link com.vmware.photon.controller.model.monitoring.ResourceMetricsBlockService} blocks.
+     */
     private QueryTask getQueryTaskForMetric(ComputeState accountComputeState) {
         Query.Builder builder = Query.Builder.create();
         builder.addKindFieldClause(ResourceMetrics.class);
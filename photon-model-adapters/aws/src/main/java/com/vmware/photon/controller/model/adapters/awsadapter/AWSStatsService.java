@@ -20,7 +20,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -38,6 +40,7 @@ import com.vmware.photon.controller.model.adapterapi.ComputeStatsRequest;
 import com.vmware.photon.controller.model.adapterapi.ComputeStatsResponse.ComputeStats;
 import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSClientManager;
 import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSClientManagerFactory;
+import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSMetricDataCollector;
 import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSStatsNormalizer;
 import com.vmware.photon.controller.model.adapters.util.AdapterUtils;
 import com.vmware.photon.controller.model.adapters.util.TaskManager;
@@ -61,10 +64,19 @@ import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsSe
  */
 public class AWSStatsService extends StatelessService {
     private AWSClientManager clientManager;
+    private AWSMetricDataCollector metricDataCollector;
 
     public static final String AWS_COLLECTION_PERIOD_SECONDS = UriPaths.PROPERTY_PREFIX + "AWSStatsService.collectionPeriod";
     private static final long DEFAULT_AWS_COLLECTION_PERIOD_SECONDS = TimeUnit.HOURS.toSeconds(1);
 
+    /**
+     * Whether the EC2 stats of the instances of an account and region are collected in bulk
+     * with {@code GetMetricData} by {@link AWSMetricDataCollector}, rather than with one
+     * {@code GetMetricStatistics} call per metric and instance.
+     */
+    public static final String AWS_BULK_COLLECTION = UriPaths.PROPERTY_PREFIX
+            + "AWSStatsService.bulkCollection";
+
     public AWSStatsService() {
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
     }
@@ -76,6 +88,28 @@ public class AWSStatsService extends StatelessService {
     public static final String[] AGGREGATE_METRIC_NAMES_ACROSS_INSTANCES = {
             AWSConstants.CPU_UTILIZATION};
 
+    /**
+     * The CloudWatch units of the EC2 metrics, which are not returned by {@code GetMetricData}.
+     */
+    private static final Map<String, String> METRIC_UNITS = new HashMap<>();
+
+    static {
+        METRIC_UNITS.put(AWSConstants.CPU_UTILIZATION, AWSConstants.UNIT_PERCENT);
+        METRIC_UNITS.put(AWSConstants.DISK_READ_BYTES, AWSConstants.UNIT_BYTES);
+        METRIC_UNITS.put(AWSConstants.DISK_WRITE_BYTES, AWSConstants.UNIT_BYTES);
+        METRIC_UNITS.put(AWSConstants.NETWORK_IN, AWSConstants.UNIT_BYTES);
+        METRIC_UNITS.put(AWSConstants.NETWORK_OUT, AWSConstants.UNIT_BYTES);
+        METRIC_UNITS.put(AWSConstants.CPU_CREDIT_USAGE, AWSConstants.UNIT_COUNT);
+        METRIC_UNITS.put(AWSConstants.CPU_CREDIT_BALANCE, AWSConstants.UNIT_COUNT);
+        METRIC_UNITS.put(AWSConstants.DISK_READ_OPS, AWSConstants.UNIT_COUNT);
+        METRIC_UNITS.put(AWSConstants.DISK_WRITE_OPS, AWSConstants.UNIT_COUNT);
+        METRIC_UNITS.put(AWSConstants.NETWORK_PACKETS_IN, AWSConstants.UNIT_COUNT);
+        METRIC_UNITS.put(AWSConstants.NETWORK_PACKETS_OUT, AWSConstants.UNIT_COUNT);
+        METRIC_UNITS.put(AWSConstants.STATUS_CHECK_FAILED, AWSConstants.UNIT_COUNT);
+        METRIC_UNITS.put(AWSConstants.STATUS_CHECK_FAILED_INSTANCE, AWSConstants.UNIT_COUNT);
+        METRIC_UNITS.put(AWSConstants.STATUS_CHECK_FAILED_SYSTEM, AWSConstants.UNIT_COUNT);
+    }
+
     private static final String[] STATISTICS = { "Average", "SampleCount" };
     private static final String NAMESPACE = "AWS/EC2";
     private static final String DIMENSION_INSTANCE_ID = "InstanceId";
@@ -122,6 +156,7 @@ public class AWSStatsService extends StatelessService {
 
         this.clientManager = AWSClientManagerFactory
                 .getClientManager(AWSConstants.AwsClientType.CLOUD_WATCH);
+        this.metricDataCollector = new AWSMetricDataCollector(this);
 
         super.handleStart(op);
     }
@@ -244,6 +279,10 @@ public class AWSStatsService extends StatelessService {
             boolean isAggregateStats) {
         Long collectionPeriod = Long.getLong(AWS_COLLECTION_PERIOD_SECONDS,
                 DEFAULT_AWS_COLLECTION_PERIOD_SECONDS);
+        if (!isAggregateStats && Boolean.getBoolean(AWS_BULK_COLLECTION)) {
+            getEC2StatsInBulk(statsData, metricNames, collectionPeriod);
+            return;
+        }
         for (String metricName : metricNames) {
             GetMetricStatisticsRequest metricRequest = new GetMetricStatisticsRequest();
             // get datapoint for the for the passed in time window.
@@ -281,6 +320,50 @@ public class AWSStatsService extends StatelessService {
         }
     }
 
+    /**
+     * Gets EC2 statistics of the instance through the {@link AWSMetricDataCollector}, which
+     * batches them with the statistics of other instances of the same account and region.
+     */
+    private void getEC2StatsInBulk(AWSStatsDataHolder statsData, String[] metricNames,
+            Long collectionPeriod) {
+        // the collection window is the same as the one of GetMetricStatistics requests
+        GetMetricStatisticsRequest window = new GetMetricStatisticsRequest();
+        try {
+            setRequestCollectionWindow(
+                    TimeUnit.MINUTES.toMicros(MAX_METRIC_COLLECTION_WINDOW_IN_MINUTES),
+                    statsData.statsRequest.lastCollectionTimeMicrosUtc, collectionPeriod,
+                    window);
+        } catch (IllegalStateException e) {
+            // no data to process. notify parent
+            statsData.taskManager.finishTask();
+            return;
+        }
+        Date startTime = window.getStartTime() != null
+                ? window.getStartTime()
+                : new Date(window.getEndTime().getTime()
+                        - TimeUnit.MINUTES.toMillis(MAX_METRIC_COLLECTION_WINDOW_IN_MINUTES));
+
+        OperationContext opContext = OperationContext.getOperationContext();
+        this.metricDataCollector.collect(statsData.statsClient, statsData.computeDesc.id,
+                metricNames, startTime, window.getEndTime(), collectionPeriod.intValue())
+                .whenComplete((datapointsByMetric, e) -> {
+                    OperationContext.restoreOperationContext(opContext);
+                    if (e != null) {
+                        statsData.taskManager.patchTaskToFailure(e);
+                        return;
+                    }
+                    datapointsByMetric.forEach((metricName, datapoints) -> {
+                        String unit = AWSStatsNormalizer.getNormalizedUnitValue(
+                                METRIC_UNITS.get(metricName));
+                        datapoints.forEach(stat -> stat.unit = unit);
+                        statsData.statsResponse.statValues.put(
+                                AWSStatsNormalizer.getNormalizedStatKeyValue(metricName),
+                                datapoints);
+                    });
+                    sendStats(statsData);
+                });
+    }
+
     private void getBillingStats(AWSStatsDataHolder statsData) {
         Dimension dimension = new Dimension();
         dimension.setName(DIMENSION_CURRENCY);
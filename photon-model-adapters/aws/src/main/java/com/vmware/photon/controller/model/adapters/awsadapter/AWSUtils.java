@@ -755,6 +755,23 @@ public class AWSUtils {
         return regiondId;
     }
 
+    /**
+     * Returns the region Id for the location of an S3 bucket, as returned by getBucketLocation().
+     * The location is empty or {@code US} for buckets in us-east-1, and {@code EU} for some buckets
+     * in eu-west-1.
+     *
+     * @return the region id
+     */
+    public static String getS3BucketRegionId(String bucketLocation) {
+        if (bucketLocation == null || bucketLocation.isEmpty() || bucketLocation.equals("US")) {
+            return Regions.US_EAST_1.getName();
+        }
+        if (bucketLocation.equals("EU")) {
+            return Regions.EU_WEST_1.getName();
+        }
+        return bucketLocation;
+    }
+
     /**
      * Maps the Aws machine state to {@link PowerState}
      *
@@ -28,11 +28,15 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3Client;
@@ -40,15 +44,18 @@ import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.Bucket;
 import com.amazonaws.services.s3.model.BucketTaggingConfiguration;
 
+import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.adapterapi.EnumerationAction;
 import com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants;
 import com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.AWSResourceType;
 import com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.AwsClientType;
 import com.vmware.photon.controller.model.adapters.awsadapter.AWSUriPaths;
+import com.vmware.photon.controller.model.adapters.awsadapter.AWSUtils;
 import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSClientManager;
 import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSClientManagerFactory;
 import com.vmware.photon.controller.model.adapters.util.AdapterUtils;
 import com.vmware.photon.controller.model.adapters.util.ComputeEnumerateAdapterRequest;
+import com.vmware.photon.controller.model.adapters.util.LRUCache;
 import com.vmware.photon.controller.model.adapters.util.TagsUtil;
 import com.vmware.photon.controller.model.query.QueryUtils;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeStateWithDescription;
@@ -79,8 +86,26 @@ import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption
 public class AWSS3StorageEnumerationAdapterService extends StatelessService {
 
     public static final String SELF_LINK = AWSUriPaths.AWS_S3_STORAGE_ENUMERATION_ADAPTER_SERVICE;
+
+    /**
+     * @see #getTagEnumerationConcurrency()
+     */
+    public static final String TAG_ENUMERATION_CONCURRENCY_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "AWSS3StorageEnumerationAdapterService.tagEnumerationConcurrency";
+    private static final int DEFAULT_TAG_ENUMERATION_CONCURRENCY = 4;
+
+    private static final int BUCKET_REGION_CACHE_INITIAL_SIZE = 128;
+    private static final int BUCKET_REGION_CACHE_MAX_SIZE = 10000;
+
     private ExecutorService executorService;
 
+    // The regions of the buckets looked up by previous enumerations. Bucket names are unique, and
+    // the cache entry of a bucket is removed if the bucket is found in another region. The cache is
+    // an in-memory LRU of this service instance only, it is not persisted, so it is empty again
+    // after a restart and the regions of new buckets are looked up once more.
+    final Map<String, String> bucketRegionCache = Collections.synchronizedMap(
+            new LRUCache<>(BUCKET_REGION_CACHE_INITIAL_SIZE, BUCKET_REGION_CACHE_MAX_SIZE));
+
     public enum S3StorageEnumerationStages {
         CLIENT, ENUMERATE, ERROR, FINISHED
     }
@@ -94,6 +119,17 @@ public class AWSS3StorageEnumerationAdapterService extends StatelessService {
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
     }
 
+    /**
+     * Get max number of buckets of an enumeration whose tags are enumerated concurrently from
+     * {@value #TAG_ENUMERATION_CONCURRENCY_PROPERTY} system property.
+     *
+     * @return by default return 4
+     */
+    public static int getTagEnumerationConcurrency() {
+        return Math.max(1, Integer.getInteger(TAG_ENUMERATION_CONCURRENCY_PROPERTY,
+                DEFAULT_TAG_ENUMERATION_CONCURRENCY));
+    }
+
     /**
      * The enumeration service context that holds all the information needed to determine the list
      * of buckets that need to be represented in the system.
@@ -486,11 +522,16 @@ public class AWSS3StorageEnumerationAdapterService extends StatelessService {
     /**
      * Calls getBucketTaggingConfiguration() on every bucket to enumerate bucket tags.
      * getBucketTaggingConfiguration() method is region aware and only returns valid results when we
-     * call it with the client region same as the S3 bucket region. Since S3 bucket region is not
-     * available through API, when a new bucket is discovered, we try to get tags for it by calling
-     * getBucketTaggingConfiguration() with client in every AWS region. We then store the client region
-     * for which we received successful response as region in DiskState for that S3 bucket. This region
-     * in DiskState is then used for any subsequent calls for enumerating tags.
+     * call it with the client region same as the S3 bucket region. The region of previously
+     * enumerated buckets is stored in their DiskState. The region of a new bucket is looked up with
+     * a single getBucketLocation() call, and kept in the bucket region cache of the service since
+     * the bucket may not get a DiskState in this enumeration. For a new bucket whose location can
+     * not be looked up, we try to get tags for it by calling getBucketTaggingConfiguration() with
+     * client in every AWS region, and store the client region for which we received successful
+     * response as region in DiskState for that S3 bucket.
+     * <p>
+     * The calls for the buckets run on the executor, for at most
+     * {@link #getTagEnumerationConcurrency()} buckets of the enumeration at a time.
      */
     private void enumerateTags(S3StorageEnumerationContext aws,
             S3StorageEnumerationSubStage next) {
@@ -498,11 +539,7 @@ public class AWSS3StorageEnumerationAdapterService extends StatelessService {
         this.executorService.submit(() -> {
             OperationContext.restoreOperationContext(operationContext);
 
-            List<DeferredResult<S3ClientHandler>> s3ClientsEnumeratePreviousBuckets =
-                    new ArrayList<>();
-
             // We have previously enumerated these disks so we know which region they belong to.
-            // Get a client for that region and make a call to enumerate tags.
             for (Map.Entry<String, DiskState> entry : aws.diskStatesToBeUpdatedByBucketName.entrySet()) {
                 // We need valid S3 bucket region in diskState in order to enumerate S3 tags. If we
                 // encounter a diskState with null region, we delete that disk, it will get re-enumerated
@@ -526,131 +563,217 @@ public class AWSS3StorageEnumerationAdapterService extends StatelessService {
                                         Utils.toJsonHtml(entry.getValue()));
                             })
                             .sendWith(aws.service);
-                    continue;
                 }
-
-                s3ClientsEnumeratePreviousBuckets.add(
-                        aws.clientManager.getOrCreateS3ClientAsync(aws.endpointAuth,
-                                entry.getValue().regionId, aws.service)
-                                .thenApply(s3Client -> {
-                                    S3ClientHandler s3ClientHandler = new S3ClientHandler();
-                                    s3ClientHandler.s3Client = s3Client;
-                                    s3ClientHandler.bucketName = entry.getKey();
-                                    s3ClientHandler.diskState = entry.getValue();
-                                    return s3ClientHandler;
-                                }));
             }
 
-            // Handler to enumerate new buckets not previously enumerated.
-            BiConsumer<List<S3ClientHandler>, Throwable> enumerateNewBuckets = (s3ClientHandlers, throwable) -> {
+            getBucketTags(aws).whenComplete((ignore, e) -> {
                 OperationContext.restoreOperationContext(operationContext);
-                for (Bucket bucket : aws.bucketsToBeCreated) {
-                    for (S3ClientHandler s3ClientHandler : s3ClientHandlers) {
-                        try {
-                            BucketTaggingConfiguration bucketTaggingConfiguration =
-                                    s3ClientHandler.s3Client.getBucketTaggingConfiguration(
-                                            bucket.getName());
-
-                            aws.regionsByBucketName.put(bucket.getName(),
-                                    s3ClientHandler.region.getName());
-
-                            if (bucketTaggingConfiguration != null) {
-                                aws.tagsByBucketName.put(bucket.getName(),
-                                        new ConcurrentHashMap<>());
-
-                                bucketTaggingConfiguration.getAllTagSets().forEach(
-                                        tagSet -> aws.tagsByBucketName.get(bucket.getName())
-                                                .putAll(tagSet.getAllTags()));
-                            }
-                            break;
-                        } catch (Exception e) {
-                            // If AmazonS3Exception is thrown due to region mismatch, ignore it and continue.
-                            // 301 or 403 is thrown when a client with a different region than S3 bucket
-                            // calls getbucketTaggingConfiguration().
-                            // 400 is thrown when a client in invalid region (such as government region) calls
-                            // getbucketTaggingConfiguration().
-                            if (e instanceof AmazonS3Exception && (
-                                    ((AmazonS3Exception) e).getStatusCode() ==
-                                            Operation.STATUS_CODE_MOVED_PERM ||
-                                            ((AmazonS3Exception) e).getStatusCode() ==
-                                                    Operation.STATUS_CODE_FORBIDDEN ||
-                                            ((AmazonS3Exception) e).getStatusCode() ==
-                                                    Operation.STATUS_CODE_BAD_REQUEST)) {
-                                continue;
-                            } else {
-                                logSevere(
-                                        "Exception enumerating tags for S3 bucket with unknown region "
-                                                +
-                                                "[endpoint=%s] [region=%s] [ex=%s]",
-                                        aws.request.original.endpointLink,
-                                        s3ClientHandler.region.getName(), e.getMessage());
-                                continue;
-                            }
-                        }
-                    }
+                if (e != null) {
+                    logSevere("Exception enumerating tags for S3 buckets [endpoint=%s] "
+                            + "[ex=%s]", aws.request.original.endpointLink, e.getMessage());
                 }
 
                 // Once completed, move to next stage.
                 aws.subStage = next;
                 handleReceivedEnumerationData(aws);
-            };
+            });
+        });
+    }
 
-            // Handler to enumerate tags for buckets already previously enumerated.
-            BiConsumer<List<S3ClientHandler>, Throwable> enumeratePreviousBuckets = (s3ClientHandlers, ignored) -> {
-                OperationContext.restoreOperationContext(operationContext);
-                for (S3ClientHandler s3ClientHandler : s3ClientHandlers) {
-                    try {
-                        BucketTaggingConfiguration bucketTaggingConfiguration =
-                                s3ClientHandler.s3Client.getBucketTaggingConfiguration(
-                                        s3ClientHandler.bucketName);
+    /**
+     * Gets the tags of the buckets to be created and of the buckets whose region is known from
+     * their DiskState. The region of a new bucket is taken from the bucket region cache, or else
+     * looked up.
+     */
+    DeferredResult<Void> getBucketTags(S3StorageEnumerationContext aws) {
+        List<String> newBucketsWithoutRegion = new ArrayList<>();
+        for (Bucket bucket : aws.bucketsToBeCreated) {
+            String regionId = this.bucketRegionCache.get(bucket.getName());
+            if (regionId != null) {
+                aws.regionsByBucketName.put(bucket.getName(), regionId);
+            } else {
+                newBucketsWithoutRegion.add(bucket.getName());
+            }
+        }
 
-                        if (bucketTaggingConfiguration != null) {
-                            aws.tagsByBucketName.put(s3ClientHandler.bucketName,
-                                    new ConcurrentHashMap<>());
+        return lookupBucketRegions(aws, newBucketsWithoutRegion)
+                .thenCompose(ignore -> getS3ClientsByRegion(aws))
+                .thenCompose(s3ClientsByRegion -> {
+                    Set<String> bucketNames = new HashSet<>(aws.regionsByBucketName.keySet());
+                    aws.bucketsToBeCreated.forEach(bucket -> bucketNames.add(bucket.getName()));
+                    return forEachBucket(bucketNames,
+                            bucketName -> enumerateBucketTags(aws, s3ClientsByRegion,
+                                    bucketName));
+                });
+    }
 
-                            bucketTaggingConfiguration.getAllTagSets().forEach(tagSet ->
-                                    aws.tagsByBucketName.get(s3ClientHandler.bucketName)
-                                            .putAll(tagSet.getAllTags()));
-                        }
+    /**
+     * Looks up the region of new buckets with getBucketLocation(). A us-east-1 client returns the
+     * location of a bucket in any region of the partition, so a bucket takes a single call. The
+     * region of the buckets which can not be looked up is left unknown.
+     */
+    private DeferredResult<Void> lookupBucketRegions(S3StorageEnumerationContext aws,
+            Collection<String> bucketNames) {
+        if (bucketNames.isEmpty()) {
+            return DeferredResult.completed(null);
+        }
+
+        return aws.clientManager.getOrCreateS3ClientAsync(aws.endpointAuth,
+                Regions.US_EAST_1.getName(), aws.service)
+                .thenCompose(s3Client -> forEachBucket(bucketNames, bucketName -> {
+                    try {
+                        String regionId = AWSUtils.getS3BucketRegionId(
+                                s3Client.getBucketLocation(bucketName));
+                        aws.regionsByBucketName.put(bucketName, regionId);
+                        this.bucketRegionCache.put(bucketName, regionId);
                     } catch (Exception e) {
-                        logSevere(
-                                "Exception enumerating tags for S3 bucket with known region "
-                                        +
-                                        "[endpoint=%s] [bucketName=%s - %s] [region=%s] [ex=%s]",
-                                aws.request.original.endpointLink, s3ClientHandler.bucketName,
-                                s3ClientHandler.diskState.id,
-                                s3ClientHandler.diskState.regionId, e.getMessage());
+                        logFine(() -> String.format("Failed to look up location of S3 bucket "
+                                + "[bucketName=%s] [ex=%s]", bucketName, e.getMessage()));
                     }
+                }))
+                .exceptionally(e -> {
+                    logWarning("Failed to get S3 client to look up bucket locations "
+                            + "[endpoint=%s] [ex=%s]", aws.request.original.endpointLink,
+                            e.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Gets a client for the region of every bucket. Clients for every AWS region are needed if the
+     * region of a new bucket is still unknown.
+     */
+    private DeferredResult<Map<String, AmazonS3Client>> getS3ClientsByRegion(
+            S3StorageEnumerationContext aws) {
+        Set<String> regionIds = new HashSet<>(aws.regionsByBucketName.values());
+        if (aws.bucketsToBeCreated.stream()
+                .anyMatch(bucket -> !aws.regionsByBucketName.containsKey(bucket.getName()))) {
+            for (Regions region : Regions.values()) {
+                regionIds.add(region.getName());
+            }
+        }
+
+        Map<String, AmazonS3Client> s3ClientsByRegion = new ConcurrentHashMap<>();
+        List<DeferredResult<Void>> s3Clients = regionIds.stream()
+                .map(regionId -> aws.clientManager.getOrCreateS3ClientAsync(aws.endpointAuth,
+                        regionId, aws.service)
+                        .thenAccept(s3Client -> s3ClientsByRegion.put(regionId, s3Client))
+                        .exceptionally(e -> {
+                            logWarning("Failed to get S3 client [endpoint=%s] [region=%s] "
+                                    + "[ex=%s]", aws.request.original.endpointLink, regionId,
+                                    e.getMessage());
+                            return null;
+                        }))
+                .collect(Collectors.toList());
+
+        return DeferredResult.allOf(s3Clients).thenApply(ignore -> s3ClientsByRegion);
+    }
+
+    /**
+     * Gets the tags of a bucket with the client in the region of the bucket. If the region of a new
+     * bucket is unknown, brute force and try every region until we find the correct region.
+     */
+    private void enumerateBucketTags(S3StorageEnumerationContext aws,
+            Map<String, AmazonS3Client> s3ClientsByRegion, String bucketName) {
+        String regionId = aws.regionsByBucketName.get(bucketName);
+        if (regionId != null) {
+            AmazonS3Client s3Client = s3ClientsByRegion.get(regionId);
+            if (s3Client == null) {
+                logWarning("No S3 client to enumerate tags for S3 bucket [endpoint=%s] "
+                        + "[bucketName=%s] [region=%s]", aws.request.original.endpointLink,
+                        bucketName, regionId);
+                return;
+            }
+            try {
+                putBucketTags(aws, bucketName,
+                        s3Client.getBucketTaggingConfiguration(bucketName));
+            } catch (Exception e) {
+                // 301 is thrown when a new bucket has been recreated in another region since its
+                // region was cached. Look up its region again in the next enumeration.
+                if (e instanceof AmazonS3Exception && ((AmazonS3Exception) e).getStatusCode()
+                        == Operation.STATUS_CODE_MOVED_PERM
+                        && !aws.diskStatesToBeUpdatedByBucketName.containsKey(bucketName)) {
+                    this.bucketRegionCache.remove(bucketName);
+                    aws.regionsByBucketName.remove(bucketName);
                 }
+                logSevere("Exception enumerating tags for S3 bucket with known region "
+                        + "[endpoint=%s] [bucketName=%s] [region=%s] [ex=%s]",
+                        aws.request.original.endpointLink, bucketName, regionId, e.getMessage());
+            }
+            return;
+        }
+
+        for (Map.Entry<String, AmazonS3Client> s3ClientEntry : s3ClientsByRegion.entrySet()) {
+            try {
+                BucketTaggingConfiguration bucketTaggingConfiguration =
+                        s3ClientEntry.getValue().getBucketTaggingConfiguration(bucketName);
 
-                // For remaining buckets, they have yet to be enumerated. Brute force and try to
-                // enumerate tags for these buckets over every region until we find the correct
-                // region and then store it in DiskState for future reference.
-                List<DeferredResult<S3ClientHandler>> s3ClientBucketsToEnumerate = new ArrayList<>();
-                for (Regions region : Regions.values()) {
-
-                    // Get an s3 client in the region asynchronously. Once all completed, these
-                    // clients will be used to test each bucket.
-                    s3ClientBucketsToEnumerate.add(
-                            aws.clientManager.getOrCreateS3ClientAsync(aws.endpointAuth,
-                                    region.getName(), aws.service)
-                                    .thenApply(s3Client -> {
-                                        S3ClientHandler s3ClientHandler = new S3ClientHandler();
-                                        s3ClientHandler.s3Client = s3Client;
-                                        s3ClientHandler.region = region;
-                                        return s3ClientHandler;
-                                    }));
+                aws.regionsByBucketName.put(bucketName, s3ClientEntry.getKey());
+                this.bucketRegionCache.put(bucketName, s3ClientEntry.getKey());
+                putBucketTags(aws, bucketName, bucketTaggingConfiguration);
+                return;
+            } catch (Exception e) {
+                // If AmazonS3Exception is thrown due to region mismatch, ignore it and continue.
+                // 301 or 403 is thrown when a client with a different region than S3 bucket
+                // calls getbucketTaggingConfiguration().
+                // 400 is thrown when a client in invalid region (such as government region) calls
+                // getbucketTaggingConfiguration().
+                if (!(e instanceof AmazonS3Exception && (
+                        ((AmazonS3Exception) e).getStatusCode() ==
+                                Operation.STATUS_CODE_MOVED_PERM ||
+                                ((AmazonS3Exception) e).getStatusCode() ==
+                                        Operation.STATUS_CODE_FORBIDDEN ||
+                                ((AmazonS3Exception) e).getStatusCode() ==
+                                        Operation.STATUS_CODE_BAD_REQUEST))) {
+                    logSevere("Exception enumerating tags for S3 bucket with unknown region "
+                                    + "[endpoint=%s] [region=%s] [ex=%s]",
+                            aws.request.original.endpointLink, s3ClientEntry.getKey(),
+                            e.getMessage());
                 }
+            }
+        }
+    }
 
-                // Once finished, attempt to enumerate each of the "new" buckets.
-                DeferredResult.allOf(s3ClientBucketsToEnumerate)
-                        .whenComplete(enumerateNewBuckets);
-            };
+    private static void putBucketTags(S3StorageEnumerationContext aws, String bucketName,
+            BucketTaggingConfiguration bucketTaggingConfiguration) {
+        if (bucketTaggingConfiguration == null) {
+            return;
+        }
+        Map<String, String> tags = new HashMap<>();
+        bucketTaggingConfiguration.getAllTagSets()
+                .forEach(tagSet -> tags.putAll(tagSet.getAllTags()));
+        aws.tagsByBucketName.put(bucketName, tags);
+    }
 
-            // Enumerate tags of previously enumerated buckets first
-            DeferredResult.allOf(s3ClientsEnumeratePreviousBuckets)
-                    .whenComplete(enumeratePreviousBuckets);
-        });
+    /**
+     * Runs the action for each bucket on the executor, for at most
+     * {@link #getTagEnumerationConcurrency()} buckets at a time. The action is expected to handle
+     * the failures of its calls to AWS.
+     */
+    private DeferredResult<Void> forEachBucket(Collection<String> bucketNames,
+            Consumer<String> action) {
+        Queue<String> remainingBucketNames = new ConcurrentLinkedQueue<>(bucketNames);
+        int workers = Math.min(getTagEnumerationConcurrency(), bucketNames.size());
+
+        OperationContext operationContext = OperationContext.getOperationContext();
+        List<DeferredResult<Void>> workerResults = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            DeferredResult<Void> workerResult = new DeferredResult<>();
+            workerResults.add(workerResult);
+            this.executorService.submit(() -> {
+                OperationContext.restoreOperationContext(operationContext);
+                try {
+                    String bucketName;
+                    while ((bucketName = remainingBucketNames.poll()) != null) {
+                        action.accept(bucketName);
+                    }
+                    workerResult.complete(null);
+                } catch (Throwable t) {
+                    workerResult.fail(t);
+                }
+            });
+        }
+        return DeferredResult.allOf(workerResults).thenApply(ignore -> (Void) null);
     }
 
     /**
@@ -754,7 +877,9 @@ public class AWSS3StorageEnumerationAdapterService extends StatelessService {
     }
 
     /**
-     * Create tag states for S3 buckets. States are created only for newly discovered tags.
+     * Create tag states for S3 buckets. States are created only for newly discovered tags. S3 does
+     * not tell whether the tags of a bucket have changed, so disk states whose tag links are
+     * already the links of the bucket tags are skipped.
      */
     private DeferredResult<S3StorageEnumerationContext>
             createTagStatesAndUpdateTagLinks(S3StorageEnumerationContext aws) {
@@ -765,6 +890,8 @@ public class AWSS3StorageEnumerationAdapterService extends StatelessService {
         aws.diskStatesEnumerated.stream()
                 .filter(diskState -> diskState.id != null && aws.tagsByBucketName.containsKey
                         (diskState.id))
+                .filter(diskState -> !hasTagLinks(diskState,
+                        aws.tagsByBucketName.get(diskState.id), aws.internalTypeTagSelfLink))
                 .forEach(diskState ->
                         updateCSTagLinksOps.add(TagsUtil.updateLocalTagStates(aws.service, diskState,
                                 aws.tagsByBucketName.get(diskState.id), null)));
@@ -772,6 +899,25 @@ public class AWSS3StorageEnumerationAdapterService extends StatelessService {
         return DeferredResult.allOf(updateCSTagLinksOps).thenApply(gnore -> aws);
     }
 
+    /**
+     * Returns whether the tag links of a disk state, other than the internal type tag link, are
+     * exactly the links of the given bucket tags.
+     */
+    static boolean hasTagLinks(DiskState diskState, Map<String, String> tags,
+            String internalTypeTagSelfLink) {
+        Set<String> localTagLinks = new HashSet<>();
+        if (diskState.tagLinks != null) {
+            localTagLinks.addAll(diskState.tagLinks);
+        }
+        localTagLinks.remove(internalTypeTagSelfLink);
+
+        Set<String> remoteTagLinks = tags.entrySet().stream()
+                .map(tag -> TagsUtil.newTagState(tag.getKey(), tag.getValue(), true,
+                        diskState.tenantLinks).documentSelfLink)
+                .collect(Collectors.toSet());
+        return localTagLinks.equals(remoteTagLinks);
+    }
+
     /**
      * Deletes undiscovered resources.
      * <p>
@@ -960,14 +1106,4 @@ public class AWSS3StorageEnumerationAdapterService extends StatelessService {
         };
     }
 
-    /**
-     * Handler class to help maintain s3 client and relevant bits of data for asynchronous handling
-     */
-    private class S3ClientHandler {
-        public AmazonS3Client s3Client;
-        public String bucketName;
-        public DiskState diskState;
-        public Regions region;
-    }
-
 }
\ No newline at end of file
@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.awsadapter.util;
+
+import java.util.ArrayList;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Concurrent cache of AWS clients keyed by credentials and region.
+ *
+ * <p>Lookups of existing clients do not lock. A missing client is created once per key: callers
+ * asking for the same key while it is being created wait on that key only, while other keys are
+ * served concurrently. Clients not used for the idle timeout are evicted, and when the cache
+ * grows over its maximum size the least recently used clients are evicted.
+ *
+ * <p>An evicted client may still be in use by the callers that got it before the eviction, so it
+ * is shut down through the shutdown handler of the cache only once it is no longer leased, see
+ * {@link #lease(Object)}, and was not handed out for the shutdown delay. Callers that use a client
+ * for longer than that, such as a long download, lease it for the time of use.
+ *
+ * <p>Clients can also be marked invalid, for example when their credentials are rejected by
+ * AWS. An invalid client is evicted and its key is reported as invalid until the retry interval
+ * passes.
+ *
+ * <p>Hits, misses, evictions and client creation latency are counted by the cache and reported
+ * to the stats of the service performing the lookup.
+ */
+public class AWSClientCache<T> {
+
+    public static final String STAT_NAME_HIT_COUNT = "clientCacheHitCount";
+    public static final String STAT_NAME_MISS_COUNT = "clientCacheMissCount";
+    public static final String STAT_NAME_EVICTION_COUNT = "clientCacheEvictionCount";
+    public static final String STAT_NAME_SIZE = "clientCacheSize";
+    public static final String STAT_NAME_CREATION_LATENCY = "clientCreationLatencyMicros";
+    public static final String STAT_UNIT_COUNT = "count";
+    public static final String STAT_UNIT_MICROS = "microseconds";
+
+    private static final Logger logger = Logger.getLogger(AWSClientCache.class.getName());
+
+    private static class CacheEntry<T> {
+        private final String key;
+        private volatile T client;
+        private volatile long lastAccessMicros;
+        // number of leases, -1 once the client is shut down
+        private final AtomicInteger leases = new AtomicInteger();
+
+        private CacheEntry(String key) {
+            this.key = key;
+        }
+    }
+
+    private final String name;
+    private final int maxSize;
+    private final long idleTimeoutMicros;
+    private final int maxInvalidSize;
+    private final long invalidRetryMicros;
+    private final long shutdownDelayMicros;
+    private final Consumer<T> shutdownHandler;
+
+    private final ConcurrentHashMap<String, CacheEntry<T>> clients;
+    private final ConcurrentHashMap<String, Long> invalidClients;
+    // evicted clients that are not shut down yet
+    private final Queue<CacheEntry<T>> evictedClients = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong lastSweepMicros = new AtomicLong(Utils.getNowMicrosUtc());
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong creationTimeMicros = new AtomicLong();
+
+    /**
+     * @param name Name of the cache, used as prefix of the stat names.
+     * @param initialSize Initial capacity of the cache.
+     * @param maxSize Maximum number of cached clients.
+     * @param idleTimeoutMicros Time after which a client that is not used is evicted.
+     * @param maxInvalidSize Maximum number of keys remembered as invalid.
+     * @param invalidRetryMicros Time for which a key marked invalid is reported as invalid.
+     * @param shutdownDelayMicros Time after it was last handed out before an evicted client that
+     *                            is not leased is shut down.
+     * @param shutdownHandler Releases the resources of an evicted client.
+     */
+    public AWSClientCache(String name, int initialSize, int maxSize, long idleTimeoutMicros,
+            int maxInvalidSize, long invalidRetryMicros, long shutdownDelayMicros,
+            Consumer<T> shutdownHandler) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.idleTimeoutMicros = idleTimeoutMicros;
+        this.maxInvalidSize = maxInvalidSize;
+        this.invalidRetryMicros = invalidRetryMicros;
+        this.shutdownDelayMicros = shutdownDelayMicros;
+        this.shutdownHandler = shutdownHandler;
+        this.clients = new ConcurrentHashMap<>(initialSize);
+        this.invalidClients = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the client cached for the given key, creating it with the given factory if it is
+     * not cached. A failure of the factory is thrown to the caller and nothing is cached.
+     *
+     * @param key The cache key, see {@link AWSClientManager#createCredentialRegionCacheKey}.
+     * @param factory Creates the client.
+     * @param service The service performing the lookup, to which cache stats are reported. Can be
+     *                {@code null}.
+     */
+    public T getOrCreate(String key, Supplier<T> factory, Service service) {
+        long nowMicros = Utils.getNowMicrosUtc();
+        sweepIfNeeded(nowMicros);
+        shutdownEvicted(nowMicros, false);
+
+        CacheEntry<T> entry = this.clients.computeIfAbsent(key, CacheEntry::new);
+        T client = entry.client;
+        if (client == null) {
+            // single-flight creation, concurrent lookups of the same key wait for it
+            synchronized (entry) {
+                client = entry.client;
+                if (client == null) {
+                    client = create(key, entry, factory, service);
+                } else {
+                    recordHit(service);
+                }
+            }
+        } else {
+            recordHit(service);
+        }
+        entry.lastAccessMicros = nowMicros;
+        return client;
+    }
+
+    private T create(String key, CacheEntry<T> entry, Supplier<T> factory, Service service) {
+        this.missCount.incrementAndGet();
+        adjustStat(service, STAT_NAME_MISS_COUNT);
+
+        long startNanos = System.nanoTime();
+        T client;
+        try {
+            client = factory.get();
+        } catch (RuntimeException e) {
+            this.clients.remove(key, entry);
+            throw e;
+        }
+        long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        this.creationTimeMicros.addAndGet(latencyMicros);
+        setStat(service, STAT_NAME_CREATION_LATENCY, STAT_UNIT_MICROS, latencyMicros);
+
+        entry.lastAccessMicros = Utils.getNowMicrosUtc();
+        entry.client = client;
+
+        evictOverflow();
+        setStat(service, STAT_NAME_SIZE, STAT_UNIT_COUNT, this.clients.size());
+        setStat(service, STAT_NAME_EVICTION_COUNT, STAT_UNIT_COUNT, this.evictionCount.get());
+        return client;
+    }
+
+    private void recordHit(Service service) {
+        this.hitCount.incrementAndGet();
+        adjustStat(service, STAT_NAME_HIT_COUNT);
+    }
+
+    /**
+     * Leases a client handed out by this cache, so that it is not shut down until released, even
+     * if it is evicted meanwhile. Every successful lease must be followed by
+     * {@link #release(Object)}.
+     *
+     * @return {@code false} if the client is not held by this cache or is already shut down, in
+     *         which case it must not be released.
+     */
+    public boolean lease(T client) {
+        CacheEntry<T> entry = findEntry(client);
+        if (entry == null) {
+            return false;
+        }
+        int leases;
+        do {
+            leases = entry.leases.get();
+            if (leases < 0) {
+                return false;
+            }
+        } while (!entry.leases.compareAndSet(leases, leases + 1));
+        entry.lastAccessMicros = Utils.getNowMicrosUtc();
+        return true;
+    }
+
+    /**
+     * Releases a lease taken with {@link #lease(Object)}. An evicted client is shut down once its
+     * last lease is released and the shutdown delay passed.
+     */
+    public void release(T client) {
+        CacheEntry<T> entry = findEntry(client);
+        if (entry == null) {
+            return;
+        }
+        long nowMicros = Utils.getNowMicrosUtc();
+        entry.lastAccessMicros = nowMicros;
+        entry.leases.decrementAndGet();
+        shutdownEvicted(nowMicros, false);
+    }
+
+    private CacheEntry<T> findEntry(T client) {
+        for (CacheEntry<T> entry : this.clients.values()) {
+            if (entry.client == client) {
+                return entry;
+            }
+        }
+        for (CacheEntry<T> entry : this.evictedClients) {
+            if (entry.client == client) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Evicts the client cached for the given key and marks the key invalid for the retry interval.
+     */
+    public void markInvalid(String key) {
+        this.invalidClients.put(key, Utils.getNowMicrosUtc());
+        if (this.invalidClients.size() > this.maxInvalidSize) {
+            removeOldest(this.invalidClients);
+        }
+        evict(key);
+    }
+
+    /**
+     * Returns true if the given key was marked invalid within the retry interval.
+     */
+    public boolean isInvalid(String key) {
+        Long invalidMicros = this.invalidClients.get(key);
+        if (invalidMicros == null) {
+            return false;
+        }
+        if (invalidMicros + this.invalidRetryMicros < Utils.getNowMicrosUtc()) {
+            this.invalidClients.remove(key, invalidMicros);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Evicts all cached clients, shuts down all evicted clients, leased or not, and forgets the
+     * invalid keys. Used when the clients are no longer needed at all.
+     */
+    public void clear() {
+        for (String key : new ArrayList<>(this.clients.keySet())) {
+            evict(key);
+        }
+        shutdownEvicted(Utils.getNowMicrosUtc(), true);
+        this.invalidClients.clear();
+    }
+
+    public int size() {
+        return this.clients.size();
+    }
+
+    /**
+     * Returns the number of evicted clients that are not shut down yet.
+     */
+    public int getPendingShutdownCount() {
+        return this.evictedClients.size();
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * Returns the average time taken to create a client, in microseconds.
+     */
+    public long getAverageCreationLatencyMicros() {
+        long misses = this.missCount.get();
+        return misses == 0 ? 0 : this.creationTimeMicros.get() / misses;
+    }
+
+    /**
+     * Evicts idle clients, at most once per tenth of the idle timeout so that lookups stay cheap.
+     */
+    private void sweepIfNeeded(long nowMicros) {
+        long lastSweep = this.lastSweepMicros.get();
+        if (nowMicros - lastSweep < this.idleTimeoutMicros / 10
+                || !this.lastSweepMicros.compareAndSet(lastSweep, nowMicros)) {
+            return;
+        }
+        for (Entry<String, CacheEntry<T>> entry : this.clients.entrySet()) {
+            CacheEntry<T> cacheEntry = entry.getValue();
+            if (cacheEntry.client != null
+                    && nowMicros - cacheEntry.lastAccessMicros > this.idleTimeoutMicros) {
+                evict(entry.getKey(), cacheEntry);
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used clients while the cache is over its maximum size. Entries
+     * whose client is still being created are left alone.
+     */
+    private void evictOverflow() {
+        while (this.clients.size() > this.maxSize) {
+            String eldestKey = null;
+            CacheEntry<T> eldest = null;
+            for (Entry<String, CacheEntry<T>> entry : this.clients.entrySet()) {
+                CacheEntry<T> cacheEntry = entry.getValue();
+                if (cacheEntry.client != null && (eldest == null
+                        || cacheEntry.lastAccessMicros < eldest.lastAccessMicros)) {
+                    eldestKey = entry.getKey();
+                    eldest = cacheEntry;
+                }
+            }
+            if (eldest == null || !evict(eldestKey, eldest)) {
+                return;
+            }
+        }
+    }
+
+    private void evict(String key) {
+        CacheEntry<T> entry = this.clients.get(key);
+        if (entry != null) {
+            evict(key, entry);
+        }
+    }
+
+    private boolean evict(String key, CacheEntry<T> entry) {
+        if (!this.clients.remove(key, entry)) {
+            return false;
+        }
+        this.evictionCount.incrementAndGet();
+        if (entry.client != null) {
+            this.evictedClients.add(entry);
+            shutdownEvicted(Utils.getNowMicrosUtc(), false);
+        }
+        return true;
+    }
+
+    /**
+     * Shuts down the evicted clients that are not leased and were not handed out for the shutdown
+     * delay, or all of them if {@code force} is set.
+     */
+    private void shutdownEvicted(long nowMicros, boolean force) {
+        for (CacheEntry<T> entry : this.evictedClients) {
+            if (!force && nowMicros - entry.lastAccessMicros < this.shutdownDelayMicros) {
+                continue;
+            }
+            // a leased client is left alone, unless forced, and cannot be leased once shut down
+            if (!entry.leases.compareAndSet(0, -1)) {
+                if (!force) {
+                    continue;
+                }
+                entry.leases.set(-1);
+            }
+            if (!this.evictedClients.remove(entry)) {
+                continue;
+            }
+            try {
+                this.shutdownHandler.accept(entry.client);
+            } catch (Throwable t) {
+                logger.log(Level.WARNING, String.format("Failed to shut down %s client %s: %s",
+                        this.name, entry.key, Utils.toString(t)));
+            }
+        }
+    }
+
+    private static void removeOldest(ConcurrentHashMap<String, Long> timestamps) {
+        String oldestKey = null;
+        long oldest = Long.MAX_VALUE;
+        for (Entry<String, Long> entry : timestamps.entrySet()) {
+            if (entry.getValue() < oldest) {
+                oldest = entry.getValue();
+                oldestKey = entry.getKey();
+            }
+        }
+        if (oldestKey != null) {
+            timestamps.remove(oldestKey, oldest);
+        }
+    }
+
+    private String statName(String statName) {
+        return this.name + "." + statName;
+    }
+
+    private void adjustStat(Service service, String statName) {
+        if (service == null) {
+            return;
+        }
+        ServiceStat stat = new ServiceStat();
+        stat.name = statName(statName);
+        stat.unit = STAT_UNIT_COUNT;
+        service.adjustStat(stat, 1);
+    }
+
+    private void setStat(Service service, String statName, String unit, double value) {
+        if (service == null) {
+            return;
+        }
+        ServiceStat stat = new ServiceStat();
+        stat.name = statName(statName);
+        stat.unit = unit;
+        service.setStat(stat, value);
+    }
+}
@@ -19,7 +19,6 @@ import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstant
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.CW_CLIENT_CACHE_MAX_SIZE;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.EC2_CLIENT_CACHE_INITIAL_SIZE;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.EC2_CLIENT_CACHE_MAX_SIZE;
-import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.INVALID_CLIENT_CACHE_INITIAL_SIZE;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.INVALID_CLIENT_CACHE_MAX_SIZE;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.LB_CLIENT_CACHE_INITIAL_SIZE;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.LB_CLIENT_CACHE_MAX_SIZE;
@@ -33,9 +32,10 @@ import static com.vmware.photon.controller.model.adapters.awsadapter.AWSUtils.ge
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSUtils.isArnCredentials;
 
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -52,7 +52,6 @@ import com.amazonaws.services.s3.transfer.TransferManager;
 import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.AwsClientType;
 import com.vmware.photon.controller.model.adapters.awsadapter.AWSUtils;
-import com.vmware.photon.controller.model.adapters.util.LRUCache;
 import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.OperationContext;
 import com.vmware.xenon.common.StatelessService;
@@ -61,24 +60,26 @@ import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsSe
 
 /**
  * Holds the cache for managing the AWS Clients used to make calls to AWS from the photon model adapters.
+ *
+ * <p>Clients are cached in an {@link AWSClientCache}, so lookups for different accounts and
+ * regions do not block each other. Client cache hits, misses and creation latency are reported
+ * to the stats of the service asking for the client.
  */
 public class AWSClientManager {
 
     private static String SEPARATOR = "-";
     // Flag for determining the type of AWS client managed by this client manager.
     private AwsClientType awsClientType;
-    private Map<String, AmazonEC2AsyncClient> ec2ClientCache;
-    private Map<String, AmazonCloudWatchAsyncClient> cloudWatchClientCache;
-    private Map<String, AmazonS3Client> s3clientCache;
-    private Map<String, TransferManager> s3TransferManagerCache;
-    private Map<String, AmazonElasticLoadBalancingAsyncClient> loadBalancingClientCache;
-    private Map<String, DeferredResult<AuthCredentialsServiceState>> arnCredentialsCache;
+    private AWSClientCache<AmazonEC2AsyncClient> ec2ClientCache;
+    private AWSClientCache<AmazonCloudWatchAsyncClient> cloudWatchClientCache;
+    private AWSClientCache<AmazonS3Client> s3clientCache;
+    private AWSClientCache<TransferManager> s3TransferManagerCache;
+    private AWSClientCache<AmazonElasticLoadBalancingAsyncClient> loadBalancingClientCache;
+    private ConcurrentHashMap<String, DeferredResult<AuthCredentialsServiceState>> arnCredentialsCache;
     private ExecutorService executorService;
-
-    private LRUCache<String, Long> invalidEc2Clients;
-    private LRUCache<String, Long> invalidCloudWatchClients;
-    private LRUCache<String, Long> invalidLoadBalancingClients;
-    private LRUCache<String, Long> invalidS3Clients;
+    // The executor handed to the clients. Shutting down an evicted client must not shut down the
+    // executor shared by all clients of this manager.
+    private ExecutorService clientExecutorService;
 
     public static final String AWS_RETRY_AFTER_INTERVAL_MINUTES = UriPaths.PROPERTY_PREFIX
             + "AWSClientManager.retryInterval";
@@ -86,42 +87,49 @@ public class AWSClientManager {
     private static final int RETRY_AFTER_INTERVAL_MINUTES = Integer
             .getInteger(AWS_RETRY_AFTER_INTERVAL_MINUTES, DEFAULT_RETRY_AFTER_INTERVAL_MINUTES);
 
-    AWSClientManager(AwsClientType awsClientType) {
-        this.arnCredentialsCache = Collections.synchronizedMap(new HashMap<>());
+    public static final String AWS_CLIENT_IDLE_TIMEOUT_MINUTES = UriPaths.PROPERTY_PREFIX
+            + "AWSClientManager.clientIdleTimeout";
+    private static final int DEFAULT_CLIENT_IDLE_TIMEOUT_MINUTES = 60;
+    private static final int CLIENT_IDLE_TIMEOUT_MINUTES = Integer
+            .getInteger(AWS_CLIENT_IDLE_TIMEOUT_MINUTES, DEFAULT_CLIENT_IDLE_TIMEOUT_MINUTES);
+
+    /**
+     * Time after it was last handed out before an evicted client is shut down, so that requests
+     * started with it just before the eviction can complete.
+     */
+    public static final String AWS_EVICTED_CLIENT_SHUTDOWN_DELAY_MINUTES = UriPaths.PROPERTY_PREFIX
+            + "AWSClientManager.evictedClientShutdownDelay";
+    private static final int DEFAULT_EVICTED_CLIENT_SHUTDOWN_DELAY_MINUTES = 10;
+    private static final int EVICTED_CLIENT_SHUTDOWN_DELAY_MINUTES = Integer.getInteger(
+            AWS_EVICTED_CLIENT_SHUTDOWN_DELAY_MINUTES,
+            DEFAULT_EVICTED_CLIENT_SHUTDOWN_DELAY_MINUTES);
+
+    public AWSClientManager(AwsClientType awsClientType, ExecutorService executorService) {
+        this.arnCredentialsCache = new ConcurrentHashMap<>();
         this.awsClientType = awsClientType;
+        this.executorService = executorService;
+        this.clientExecutorService = executorService == null ? null
+                : new SharedExecutorService(executorService);
         switch (awsClientType) {
         case EC2:
-            this.ec2ClientCache = Collections
-                    .synchronizedMap(new LRUCache<>(EC2_CLIENT_CACHE_INITIAL_SIZE,
-                            EC2_CLIENT_CACHE_MAX_SIZE));
-            this.invalidEc2Clients = new LRUCache<>(INVALID_CLIENT_CACHE_INITIAL_SIZE,
-                    INVALID_CLIENT_CACHE_MAX_SIZE);
+            this.ec2ClientCache = createClientCache(EC2_CLIENT_CACHE_INITIAL_SIZE,
+                    EC2_CLIENT_CACHE_MAX_SIZE, c -> c.shutdown());
             return;
         case CLOUD_WATCH:
-            this.cloudWatchClientCache = Collections
-                    .synchronizedMap(new LRUCache<>(CW_CLIENT_CACHE_INITIAL_SIZE,
-                            CW_CLIENT_CACHE_MAX_SIZE));
-            this.invalidCloudWatchClients = new LRUCache<>(INVALID_CLIENT_CACHE_INITIAL_SIZE,
-                    INVALID_CLIENT_CACHE_MAX_SIZE);
+            this.cloudWatchClientCache = createClientCache(CW_CLIENT_CACHE_INITIAL_SIZE,
+                    CW_CLIENT_CACHE_MAX_SIZE, c -> c.shutdown());
             return;
         case S3:
-            this.s3clientCache = Collections
-                    .synchronizedMap(new LRUCache<>(S3_CLIENT_CACHE_INITIAL_SIZE,
-                            S3_CLIENT_CACHE_MAX_SIZE));
-            this.invalidS3Clients = new LRUCache<>(INVALID_CLIENT_CACHE_INITIAL_SIZE,
-                    INVALID_CLIENT_CACHE_MAX_SIZE);
+            this.s3clientCache = createClientCache(S3_CLIENT_CACHE_INITIAL_SIZE,
+                    S3_CLIENT_CACHE_MAX_SIZE, c -> c.shutdown());
             return;
         case S3_TRANSFER_MANAGER:
-            this.s3TransferManagerCache = Collections
-                    .synchronizedMap(new LRUCache<>(S3_TM_CLIENT_CACHE_INITIAL_SIZE,
-                            S3_TM_CLIENT_CACHE_MAX_SIZE));
+            this.s3TransferManagerCache = createClientCache(S3_TM_CLIENT_CACHE_INITIAL_SIZE,
+                    S3_TM_CLIENT_CACHE_MAX_SIZE, c -> c.shutdownNow());
             return;
         case LOAD_BALANCING:
-            this.loadBalancingClientCache = Collections
-                    .synchronizedMap(new LRUCache<>(LB_CLIENT_CACHE_INITIAL_SIZE,
-                            LB_CLIENT_CACHE_MAX_SIZE));
-            this.invalidLoadBalancingClients = new LRUCache<>(INVALID_CLIENT_CACHE_INITIAL_SIZE,
-                    INVALID_CLIENT_CACHE_MAX_SIZE);
+            this.loadBalancingClientCache = createClientCache(LB_CLIENT_CACHE_INITIAL_SIZE,
+                    LB_CLIENT_CACHE_MAX_SIZE, c -> c.shutdown());
             return;
         default:
             String msg = "The specified AWS client type " + awsClientType
@@ -130,9 +138,13 @@ public class AWSClientManager {
         }
     }
 
-    public AWSClientManager(AwsClientType awsClientType, ExecutorService executorService) {
-        this(awsClientType);
-        this.executorService = executorService;
+    private <T> AWSClientCache<T> createClientCache(int initialSize, int maxSize,
+            Consumer<T> shutdownHandler) {
+        return new AWSClientCache<>(this.awsClientType.name(), initialSize, maxSize,
+                TimeUnit.MINUTES.toMicros(CLIENT_IDLE_TIMEOUT_MINUTES),
+                INVALID_CLIENT_CACHE_MAX_SIZE,
+                TimeUnit.MINUTES.toMicros(RETRY_AFTER_INTERVAL_MINUTES),
+                TimeUnit.MINUTES.toMicros(EVICTED_CLIENT_SHUTDOWN_DELAY_MINUTES), shutdownHandler);
     }
 
     /**
@@ -151,7 +163,7 @@ public class AWSClientManager {
      *                to be allocated.
      * @return A {@link DeferredResult} of the AWS client.
      */
-    public synchronized DeferredResult<AmazonEC2AsyncClient> getOrCreateEC2ClientAsync(
+    public DeferredResult<AmazonEC2AsyncClient> getOrCreateEC2ClientAsync(
             AuthCredentialsServiceState credentials, String regionId, StatelessService service) {
         if (this.awsClientType != AwsClientType.EC2) {
             return DeferredResult.failed(new UnsupportedOperationException(
@@ -197,8 +209,8 @@ public class AWSClientManager {
         AmazonEC2AsyncClient amazonEC2Client = null;
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
         try {
-            amazonEC2Client = this.ec2ClientCache.computeIfAbsent(cacheKey, key -> AWSUtils
-                    .getAsyncClient(credentials, regionId, getExecutor()));
+            amazonEC2Client = this.ec2ClientCache.getOrCreate(cacheKey, () -> AWSUtils
+                    .getAsyncClient(credentials, regionId, this.clientExecutorService), service);
         } catch (Throwable e) {
             service.logSevere(e);
             failConsumer.accept(e);
@@ -229,9 +241,7 @@ public class AWSClientManager {
     public boolean isEc2ClientInvalid(AuthCredentialsServiceState credentials,
             String regionId) {
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
-        synchronized (this.ec2ClientCache) {
-            return isInvalidClient(this.invalidEc2Clients, cacheKey);
-        }
+        return this.ec2ClientCache.isInvalid(cacheKey);
     }
 
     /**
@@ -247,10 +257,7 @@ public class AWSClientManager {
             AuthCredentialsServiceState credentials, String regionId) {
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
         service.logWarning("Marking EC2 client cache entry invalid for key: " + cacheKey);
-        synchronized (this.ec2ClientCache) {
-            this.invalidEc2Clients.put(cacheKey, Utils.getNowMicrosUtc());
-            this.ec2ClientCache.remove(cacheKey);
-        }
+        this.ec2ClientCache.markInvalid(cacheKey);
     }
 
     /**
@@ -266,7 +273,7 @@ public class AWSClientManager {
      *                to be allocated.
      * @return The AWSClient
      */
-    public synchronized DeferredResult<AmazonCloudWatchAsyncClient> getOrCreateCloudWatchClientAsync(
+    public DeferredResult<AmazonCloudWatchAsyncClient> getOrCreateCloudWatchClientAsync(
             AuthCredentialsServiceState credentials, String regionId, StatelessService service,
             boolean isMock) {
         if (this.awsClientType != AwsClientType.CLOUD_WATCH) {
@@ -319,9 +326,9 @@ public class AWSClientManager {
         }
         AmazonCloudWatchAsyncClient amazonCloudWatchClient = null;
         try {
-            amazonCloudWatchClient = this.cloudWatchClientCache.computeIfAbsent(cacheKey, key -> {
+            amazonCloudWatchClient = this.cloudWatchClientCache.getOrCreate(cacheKey, () -> {
                 AmazonCloudWatchAsyncClient client = AWSUtils.getStatsAsyncClient
-                        (credentials, regionId, getExecutor(), isMock);
+                        (credentials, regionId, this.clientExecutorService, isMock);
                 client.describeAlarmsAsync(
                         new AsyncHandler<DescribeAlarmsRequest, DescribeAlarmsResult>() {
                             @Override
@@ -336,7 +343,7 @@ public class AWSClientManager {
                             }
                         });
                 return client;
-            });
+            }, service);
         } catch (Throwable e) {
             service.logSevere(e);
             failConsumer.accept(e);
@@ -345,18 +352,13 @@ public class AWSClientManager {
     }
 
     private boolean isCloudWatchClientInvalid(String cacheKey) {
-        synchronized (this.cloudWatchClientCache) {
-            return isInvalidClient(this.invalidCloudWatchClients, cacheKey);
-        }
+        return this.cloudWatchClientCache.isInvalid(cacheKey);
     }
 
     public void markCloudWatchClientInvalid(StatelessService service,
             String cacheKey) {
         service.logWarning("Marking cloudwatch client cache entry invalid for key: " + cacheKey);
-        synchronized (this.cloudWatchClientCache) {
-            this.invalidCloudWatchClients.put(cacheKey, Utils.getNowMicrosUtc());
-            this.cloudWatchClientCache.remove(cacheKey);
-        }
+        this.cloudWatchClientCache.markInvalid(cacheKey);
     }
 
     /**
@@ -372,7 +374,7 @@ public class AWSClientManager {
      *                to be allocated.
      * @return The AWSClient
      */
-    public synchronized DeferredResult<TransferManager> getOrCreateS3TransferManagerAsync(
+    public DeferredResult<TransferManager> getOrCreateS3TransferManagerAsync(
             AuthCredentialsServiceState credentials, String regionId, StatelessService service) {
         if (this.awsClientType != AwsClientType.S3_TRANSFER_MANAGER) {
             return DeferredResult.failed(new UnsupportedOperationException(
@@ -403,7 +405,7 @@ public class AWSClientManager {
      * @param failConsumer A callback to handle failure responses.
      * @return The AWSClient
      */
-    public synchronized TransferManager getOrCreateS3TransferManager(
+    public TransferManager getOrCreateS3TransferManager(
             AuthCredentialsServiceState credentials,
             String regionId, StatelessService service, Consumer<Throwable> failConsumer) {
         if (this.awsClientType != AwsClientType.S3_TRANSFER_MANAGER) {
@@ -418,8 +420,9 @@ public class AWSClientManager {
 
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
         try {
-            return this.s3TransferManagerCache.computeIfAbsent(cacheKey, key -> AWSUtils
-                    .getS3TransferManager(credentials, regionId, getExecutor()));
+            return this.s3TransferManagerCache.getOrCreate(cacheKey, () -> AWSUtils
+                    .getS3TransferManager(credentials, regionId, this.clientExecutorService),
+                    service);
 
         } catch (Throwable t) {
             service.logSevere(t);
@@ -428,6 +431,32 @@ public class AWSClientManager {
         }
     }
 
+    /**
+     * Leases an S3 Transfer Manager got from this client manager, so that it is not shut down
+     * while transfers started with it are in progress, even if it is evicted from the cache
+     * meanwhile. A successful lease must be followed by {@link #releaseS3TransferManager}.
+     *
+     * @return {@code false} if the Transfer Manager is already shut down and cannot be used.
+     */
+    public boolean leaseS3TransferManager(TransferManager transferManager) {
+        if (this.awsClientType != AwsClientType.S3_TRANSFER_MANAGER) {
+            throw new UnsupportedOperationException(
+                    "This client manager supports only AWS " + this.awsClientType + " clients.");
+        }
+        return this.s3TransferManagerCache.lease(transferManager);
+    }
+
+    /**
+     * Releases a lease taken with {@link #leaseS3TransferManager}.
+     */
+    public void releaseS3TransferManager(TransferManager transferManager) {
+        if (this.awsClientType != AwsClientType.S3_TRANSFER_MANAGER) {
+            throw new UnsupportedOperationException(
+                    "This client manager supports only AWS " + this.awsClientType + " clients.");
+        }
+        this.s3TransferManagerCache.release(transferManager);
+    }
+
     /**
      * Get or create a ElasticLoadBalancing Client instance that will be used to create/delete
      * load balancers from AWS.
@@ -442,7 +471,7 @@ public class AWSClientManager {
      *                to be allocated.
      * @return The AWSClient
      */
-    public synchronized DeferredResult<AmazonElasticLoadBalancingAsyncClient> getOrCreateLoadBalancingClientAsync(
+    public DeferredResult<AmazonElasticLoadBalancingAsyncClient> getOrCreateLoadBalancingClientAsync(
             AuthCredentialsServiceState credentials, String regionId, StatelessService service,
             boolean isMock) {
         if (this.awsClientType != AwsClientType.LOAD_BALANCING) {
@@ -494,8 +523,9 @@ public class AWSClientManager {
             return null;
         }
         try {
-            return this.loadBalancingClientCache.computeIfAbsent(cacheKey, key -> AWSUtils
-                    .getLoadBalancingAsyncClient(credentials, regionId, getExecutor()));
+            return this.loadBalancingClientCache.getOrCreate(cacheKey, () -> AWSUtils
+                    .getLoadBalancingAsyncClient(credentials, regionId,
+                            this.clientExecutorService), service);
         } catch (Throwable e) {
             service.logSevere(e);
             failConsumer.accept(e);
@@ -504,9 +534,7 @@ public class AWSClientManager {
     }
 
     private boolean isLoadBalancingClientInvalid(String cacheKey) {
-        synchronized (this.loadBalancingClientCache) {
-            return isInvalidClient(this.invalidLoadBalancingClients, cacheKey);
-        }
+        return this.loadBalancingClientCache.isInvalid(cacheKey);
     }
 
     /**
@@ -523,10 +551,7 @@ public class AWSClientManager {
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
         service.logWarning(
                 "Marking load balancing client cache entry invalid for key: " + cacheKey);
-        synchronized (this.loadBalancingClientCache) {
-            this.invalidLoadBalancingClients.put(cacheKey, Utils.getNowMicrosUtc());
-            this.loadBalancingClientCache.remove(cacheKey);
-        }
+        this.loadBalancingClientCache.markInvalid(cacheKey);
     }
 
     /**
@@ -542,7 +567,7 @@ public class AWSClientManager {
      *                to be allocated.
      * @return The AWSClient
      */
-    public synchronized DeferredResult<AmazonS3Client> getOrCreateS3ClientAsync(
+    public DeferredResult<AmazonS3Client> getOrCreateS3ClientAsync(
             AuthCredentialsServiceState credentials, String regionId, StatelessService service) {
         if (this.awsClientType != AwsClientType.S3) {
             return DeferredResult.failed(new UnsupportedOperationException(
@@ -588,8 +613,8 @@ public class AWSClientManager {
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
 
         try {
-            return this.s3clientCache.computeIfAbsent(cacheKey, key -> AWSUtils.getS3Client
-                    (credentials, regionId));
+            return this.s3clientCache.getOrCreate(cacheKey, () -> AWSUtils.getS3Client
+                    (credentials, regionId), service);
         } catch (Exception e) {
             markS3ClientInvalid(service, credentials, regionId);
             service.logSevere(e);
@@ -611,10 +636,7 @@ public class AWSClientManager {
             AuthCredentialsServiceState credentials, String regionId) {
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
         service.logWarning("Marking S3 client cache entry invalid for key: " + cacheKey);
-        synchronized (this.s3clientCache) {
-            this.invalidS3Clients.put(cacheKey, Utils.getNowMicrosUtc());
-            this.s3clientCache.remove(cacheKey);
-        }
+        this.s3clientCache.markInvalid(cacheKey);
     }
 
     /**
@@ -628,33 +650,7 @@ public class AWSClientManager {
     public boolean isS3ClientInvalid(AuthCredentialsServiceState credentials,
             String regionId) {
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
-        synchronized (this.s3clientCache) {
-            return isInvalidClient(this.invalidS3Clients, cacheKey);
-        }
-    }
-
-    /**
-     * Checks if a client (via cache key) has been marked as invalid within the last
-     * {@link #RETRY_AFTER_INTERVAL_MINUTES} minutes. If a client has been marked before, but
-     * {@link #RETRY_AFTER_INTERVAL_MINUTES} minutes has passed, the client is removed from the
-     * cache and it is no longer considered invalid.
-     * @param cache
-     *         The cache to check.
-     * @param cacheKey
-     *         The commonly used key to identify a client in the cache.
-     * @return true if the client is marked as invalid, false otherwise.
-     */
-    private boolean isInvalidClient(LRUCache<String, Long> cache, String cacheKey) {
-        Long entryTimestamp = cache.get(cacheKey);
-        if (entryTimestamp != null) {
-            if ((entryTimestamp + TimeUnit.MINUTES.toMicros(RETRY_AFTER_INTERVAL_MINUTES)) < Utils
-                    .getNowMicrosUtc()) {
-                cache.remove(cacheKey);
-            } else {
-                return true;
-            }
-        }
-        return false;
+        return this.s3clientCache.isInvalid(cacheKey);
     }
 
     /**
@@ -681,7 +677,7 @@ public class AWSClientManager {
      * @param credentials The auth credentials to be used for the client creation
      * @param service A service to issue requests
      */
-    public synchronized DeferredResult<AuthCredentialsServiceState> getArnCredentialsFromCache(
+    public DeferredResult<AuthCredentialsServiceState> getArnCredentialsFromCache(
             AuthCredentialsServiceState credentials, StatelessService service) {
         if (!isArnCredentials(credentials)) {
             return DeferredResult.completed(credentials);
@@ -691,35 +687,42 @@ public class AWSClientManager {
         String arnCacheKey = Utils.computeHash(arn);
 
         // If the ARN is in the arnCredentialsCache, then retrieve the credentials and check
-        // if they are expired. If not expired, continue to use them.
-        if (this.arnCredentialsCache.containsKey(arnCacheKey)) {
-
-            // If there is already a cache entry, but it has not been completed, just return the
-            // cache reference.
-            if (!this.arnCredentialsCache.get(arnCacheKey).isDone()) {
-                return this.arnCredentialsCache.get(arnCacheKey);
-            }
-
-            // Check if the credentials are expired. If not, return. If so, refresh.
-            AuthCredentialsServiceState arnCredentials = this.arnCredentialsCache.get(arnCacheKey)
-                    .getNow(new AuthCredentialsServiceState());
-
-            if (!AWSUtils.isExpiredCredentials(arnCredentials)) {
-                return this.arnCredentialsCache.get(arnCacheKey);
-            }
+        // if they are expired. If not expired, continue to use them. The entry is replaced
+        // atomically, so concurrent callers share a single refresh.
+        boolean[] isRefreshing = new boolean[1];
+        DeferredResult<AuthCredentialsServiceState> arnCredentialsResult = this.arnCredentialsCache
+                .compute(arnCacheKey, (key, cachedResult) -> {
+                    if (cachedResult != null) {
+                        // If there is already a cache entry, but it has not been completed, just
+                        // return the cache reference.
+                        if (!cachedResult.isDone()) {
+                            return cachedResult;
+                        }
+
+                        // Check if the credentials are expired. If not, return. If so, refresh.
+                        AuthCredentialsServiceState arnCredentials = cachedResult
+                                .getNow(new AuthCredentialsServiceState());
+                        if (!AWSUtils.isExpiredCredentials(arnCredentials)) {
+                            return cachedResult;
+                        }
+
+                        service.logInfo("Refreshing session credentials for arn: '%s'", arn);
+                    }
+                    isRefreshing[0] = true;
+                    return new DeferredResult<>();
+                });
 
-            service.logInfo("Refreshing session credentials for arn: '%s'", arn);
+        if (!isRefreshing[0]) {
+            return arnCredentialsResult;
         }
 
-        this.arnCredentialsCache.put(arnCacheKey, new DeferredResult<>());
-
         // If unavailable in the cache, or expired, generate a new set of session credentials.
         OperationContext operationContext = OperationContext.getOperationContext();
         getArnSessionCredentialsAsync(arn, credentials.customProperties.get(EXTERNAL_ID_KEY),
                 getExecutor()).whenComplete((awsSessionCredentials, t) -> {
                     OperationContext.restoreOperationContext(operationContext);
                     if (t != null) {
-                        this.arnCredentialsCache.get(arnCacheKey).fail(t);
+                        arnCredentialsResult.fail(t);
                         return;
                     }
 
@@ -729,9 +732,9 @@ public class AWSClientManager {
                             awsSessionCredentialsToAuthCredentialsState(awsSessionCredentials);
 
                     // Update the cache with the new credentials.
-                    this.arnCredentialsCache.get(arnCacheKey).complete(arnCredentials);
+                    arnCredentialsResult.complete(arnCredentials);
                 });
-        return this.arnCredentialsCache.get(arnCacheKey);
+        return arnCredentialsResult;
     }
 
     /**
@@ -746,42 +749,7 @@ public class AWSClientManager {
      */
     public void cleanUp() {
         cleanUpArnCache();
-        switch (this.awsClientType) {
-        case CLOUD_WATCH:
-            cleanupCache(this.cloudWatchClientCache, c -> c.shutdown());
-            break;
-
-        case EC2:
-            this.ec2ClientCache.values().forEach(c -> c.shutdown());
-            this.ec2ClientCache.clear();
-            cleanupCache(this.ec2ClientCache, c -> c.shutdown());
-            break;
-
-        case S3:
-            this.s3clientCache.values().forEach(c -> c.shutdown());
-            this.s3clientCache.clear();
-            cleanupCache(this.s3clientCache, c -> c.shutdown());
-            break;
-
-        case S3_TRANSFER_MANAGER:
-            cleanupCache(this.s3TransferManagerCache, c -> c.shutdownNow());
-            break;
-
-        case LOAD_BALANCING:
-            cleanupCache(this.loadBalancingClientCache, c -> c.shutdown());
-            break;
-
-        default:
-            throw new UnsupportedOperationException(
-                    "AWS client type not supported by this client manager");
-        }
-    }
-
-    private <T> void cleanupCache(Map<?, T> cache, Consumer<T> consumer) {
-        synchronized (cache) {
-            cache.values().forEach(c -> consumer.accept(c));
-            cache.clear();
-        }
+        getClientCache().clear();
     }
 
     /**
@@ -796,25 +764,72 @@ public class AWSClientManager {
      * Returns the count of the clients that are cached in the client cache for the specified client type.
      */
     public int getCacheCount() {
-        int size = 0;
+        return getClientCache().size();
+    }
+
+    /**
+     * Returns the client cache for the type of client managed by this client manager.
+     */
+    public AWSClientCache<?> getClientCache() {
         switch (this.awsClientType) {
         case EC2:
-            size = this.ec2ClientCache.size();
-            break;
+            return this.ec2ClientCache;
         case CLOUD_WATCH:
-            size = this.cloudWatchClientCache.size();
-            break;
+            return this.cloudWatchClientCache;
         case S3:
-            size = this.s3clientCache.size();
-            break;
+            return this.s3clientCache;
         case S3_TRANSFER_MANAGER:
-            size = this.s3TransferManagerCache.size();
-            break;
+            return this.s3TransferManagerCache;
         case LOAD_BALANCING:
-            size = this.loadBalancingClientCache.size();
-            break;
+            return this.loadBalancingClientCache;
         default:
+            throw new UnsupportedOperationException(
+                    "AWS client type not supported by this client manager");
+        }
+    }
+
+    /**
+     * Executor handed to the AWS clients. Shutting down an AWS async client or transfer manager
+     * also shuts down its executor, which here is shared by all clients of the manager, so
+     * shutdown requests are ignored. The shared executor is shut down by
+     * {@link AWSClientManagerFactory}.
+     */
+    private static class SharedExecutorService extends AbstractExecutorService {
+
+        private final ExecutorService executorService;
+
+        SharedExecutorService(ExecutorService executorService) {
+            this.executorService = executorService;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            this.executorService.execute(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return this.executorService.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return this.executorService.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            return this.executorService.awaitTermination(timeout, unit);
         }
-        return size;
     }
 }
@@ -16,22 +16,28 @@ package com.vmware.photon.controller.model.adapters.awsadapter.util;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.AWS_INSTANCE_ID_PREFIX;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.AWS_VOLUME_ID_PREFIX;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -48,13 +54,10 @@ import org.joda.time.format.DateTimeFormatter;
 import org.supercsv.cellprocessor.CellProcessorAdaptor;
 import org.supercsv.cellprocessor.Optional;
 import org.supercsv.cellprocessor.ift.CellProcessor;
-import org.supercsv.comment.CommentStartsWith;
 import org.supercsv.exception.SuperCsvCellProcessorException;
-import org.supercsv.io.CsvMapReader;
-import org.supercsv.io.ICsvMapReader;
-import org.supercsv.prefs.CsvPreference;
 import org.supercsv.util.CsvContext;
 
+import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.adapters.aws.dto.AwsAccountDetailDto;
 import com.vmware.photon.controller.model.adapters.aws.dto.AwsResourceDetailDto;
 import com.vmware.photon.controller.model.adapters.aws.dto.AwsServiceDetailDto;
@@ -73,11 +76,54 @@ public class AWSCsvBillParser {
     public static final String ACCOUNT_TOTAL = "AccountTotal";
     private static Logger logger = Logger.getLogger(AWSCsvBillParser.class.getName());
 
+    /**
+     * The number of threads of the executor of the parser splitting the records of a bill into
+     * rows at a time. By default the rows are split by the thread reading the bill.
+     */
+    public static final String PARSER_THREADS_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "AWSCsvBillParser.parserThreads";
+    private static final int PARSER_THREADS = Integer.getInteger(PARSER_THREADS_PROPERTY, 1);
+    private static final int ROWS_PER_CHUNK = 1000;
+    private static final int ZIP_BUFFER_SIZE = 64 * 1024;
+
+    private static final DateTimeFormatter DETAILED_CSV_DATE_FORMATTER = DateTimeFormat
+            .forPattern(DETAILED_CSV_DATE_FORMAT_YYYY_MM_DD_HH_MM_SS);
+
+    // The number of the basic columns of a bill, the remaining columns are tags
+    private static final int BASIC_COLUMN_COUNT = 20;
+    private static final int BASIC_COLUMN_COUNT_WITH_BLENDED_COST = 22;
+
     private Long monthStartMillis = LocalDate.now(DateTimeZone.UTC).withDayOfMonth(1)
             .toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
     private Long monthEndMillis = LocalDate.now(DateTimeZone.UTC).withDayOfMonth(1)
             .toDateTimeAtStartOfDay(DateTimeZone.UTC).plusMonths(1).getMillis();
     private String billInvoiceId = null;
+    private DetailedCsvColumns columns;
+    private Long prevRowTime = null;
+    private String interval = null;
+    private final ExecutorService executor;
+    private final int parserThreads;
+
+    /**
+     * Creates a parser which parses the bill on the thread reading it.
+     */
+    public AWSCsvBillParser() {
+        this(null, 1);
+    }
+
+    /**
+     * Creates a parser which splits the records of the bill into rows on the given executor, with
+     * up to {@link #PARSER_THREADS_PROPERTY} threads at a time. The executor is not shut down by
+     * the parser.
+     */
+    public AWSCsvBillParser(ExecutorService executor) {
+        this(executor, PARSER_THREADS);
+    }
+
+    AWSCsvBillParser(ExecutorService executor, int parserThreads) {
+        this.executor = executor;
+        this.parserThreads = parserThreads;
+    }
 
     public void parseDetailedCsvBill(List<String> ignorableInvoiceCharge,
             Path csvBillZipFilePath, Set<String> configuredAccounts,
@@ -85,82 +131,128 @@ public class AWSCsvBillParser {
             Consumer<Map<String, AwsAccountDetailDto>> monthlyStatsConsumer)
             throws IOException {
 
-        Path workingDirPath = csvBillZipFilePath.getParent();
-        unzip(csvBillZipFilePath.toString(), workingDirPath.toString());
-        String unzippedCsvFilePathStr = csvBillZipFilePath.toString()
-                .substring(0, csvBillZipFilePath.toString().lastIndexOf('.'));
-        Path unzippedCsvFilePath = Paths.get(unzippedCsvFilePathStr);
-        try (InputStream extractedObjectContentInputStream = new FileInputStream(unzippedCsvFilePath.toFile())) {
-            parseDetailedCsvBill(extractedObjectContentInputStream, ignorableInvoiceCharge, configuredAccounts,
+        // Read the bill straight out of the zip file instead of extracting it to another file
+        try (ZipInputStream zipInputStream = new ZipInputStream(new BufferedInputStream(
+                Files.newInputStream(csvBillZipFilePath), ZIP_BUFFER_SIZE))) {
+            if (zipInputStream.getNextEntry() == null) {
+                throw new IOException("No bill found in " + csvBillZipFilePath);
+            }
+            parseDetailedCsvBill(zipInputStream, ignorableInvoiceCharge, configuredAccounts,
                     hourlyStatsConsumer, monthlyStatsConsumer);
-        } finally {
-            Files.deleteIfExists(unzippedCsvFilePath);
         }
     }
 
     private void parseDetailedCsvBill(InputStream inputStream, Collection<String> ignorableInvoiceCharge,
             Set<String> configuredAccounts, BiConsumer<Map<String, AwsAccountDetailDto>, String> hourlyStatsConsumer,
             Consumer<Map<String, AwsAccountDetailDto>> monthlyStatsConsumer) throws IOException {
-        final CsvPreference STANDARD_SKIP_COMMENTS = new CsvPreference.Builder(
-                CsvPreference.STANDARD_PREFERENCE)
-                .skipComments(new CommentStartsWith(AWS_SKIP_COMMENTS))
-                .build();
-
-        try (InputStreamReader reader = new InputStreamReader(inputStream, "UTF-8");
-                ICsvMapReader mapReader = new CsvMapReader(reader, STANDARD_SKIP_COMMENTS)) {
-            final String[] header = mapReader.getHeader(true);
-
-            List<CellProcessor> processorList = new ArrayList<>();
-            final CellProcessor[] basicProcessors = getDetailedProcessors(header);
-
-            processorList.addAll(Arrays.asList(basicProcessors));
-            List<String> tagHeaders = new ArrayList<>();
-
-            // Add new cell-processors for each extra tag column
-            int numberOfTags = header.length - basicProcessors.length;
-            if (numberOfTags > 0) {
-                for (int i = 0; i < numberOfTags; i++) {
-                    processorList.add(new Optional());
-                    tagHeaders.add(header[basicProcessors.length + i]);
-                }
+
+        ExecutorService executor = this.parserThreads > 1 ? this.executor : null;
+        Deque<Future<List<DetailedCsvRow>>> pendingChunks = new ArrayDeque<>();
+        try (AWSCsvBillRecordReader reader = new AWSCsvBillRecordReader(
+                new InputStreamReader(inputStream, StandardCharsets.UTF_8), AWS_SKIP_COMMENTS)) {
+            String headerRecord = reader.nextRecord();
+            if (headerRecord == null) {
+                throw new IOException("The bill has no header");
             }
-            CellProcessor[] cellProcessorArray = new CellProcessor[processorList.size()];
+            this.columns = new DetailedCsvColumns(AWSCsvBillRecordReader.split(headerRecord, 0));
 
+            // Only the splitting of the records into rows runs in parallel, the rows are read into
+            // the monthly bill in the order of the bill
             Map<String, AwsAccountDetailDto> monthlyBill = new HashMap<>();
-            cellProcessorArray = processorList.toArray(cellProcessorArray);
-            Map<String, Object> rowMap;
-            Long prevRowTime = null;
-            Long prevRowEndTime;
-            String interval = null;
-            while ((rowMap = mapReader.read(header, cellProcessorArray)) != null) {
-                LocalDateTime currRowLocalDateTime = (LocalDateTime) rowMap
-                        .get(DetailedCsvHeaders.USAGE_START_DATE);
-                Long curRowTime = getMillisForHour(currRowLocalDateTime);
-                if (prevRowTime != null && curRowTime != null && !prevRowTime.equals(curRowTime)
-                        && !StringUtils.contains(interval, "-")) {
-                    // This indicates that we have processed all rows belonging to a corresponding hour in the
-                    // current month bill. Consume the batch
-                    hourlyStatsConsumer.accept(monthlyBill, interval);
-                }
-                try {
-                    readRow(rowMap, monthlyBill, tagHeaders, ignorableInvoiceCharge, configuredAccounts);
-                } catch (Exception e) {
-                    this.logger.warning(String.format("Got error while parsing a row in aws bill of %s",
-                            getStringFieldValue(rowMap, DetailedCsvHeaders.PAYER_ACCOUNT_ID) + e));
+            List<String> records = new ArrayList<>(ROWS_PER_CHUNK);
+            String record;
+            do {
+                record = reader.nextRecord();
+                if (record != null) {
+                    records.add(record);
+                    if (records.size() < ROWS_PER_CHUNK) {
+                        continue;
+                    }
                 }
-                if (curRowTime != null) {
-                    prevRowTime = curRowTime;
-                    prevRowEndTime = getMillisForHour((LocalDateTime) rowMap.get(DetailedCsvHeaders.USAGE_END_DATE));
-                    interval = createInterval(prevRowTime, prevRowEndTime);
+                if (executor == null) {
+                    readRows(toRows(records, this.columns), monthlyBill, ignorableInvoiceCharge,
+                            configuredAccounts, hourlyStatsConsumer);
+                } else {
+                    List<String> chunk = records;
+                    DetailedCsvColumns chunkColumns = this.columns;
+                    pendingChunks.add(executor.submit(() -> toRows(chunk, chunkColumns)));
+                    while (!pendingChunks.isEmpty() && (record == null
+                            || pendingChunks.size() > 2 * this.parserThreads)) {
+                        readRows(getRows(pendingChunks.poll()), monthlyBill,
+                                ignorableInvoiceCharge, configuredAccounts, hourlyStatsConsumer);
+                    }
                 }
-            }
+                records = new ArrayList<>(ROWS_PER_CHUNK);
+            } while (record != null);
 
             // Consume the final batch of parsed rows
-            hourlyStatsConsumer.accept(monthlyBill, interval);
+            hourlyStatsConsumer.accept(monthlyBill, this.interval);
             monthlyStatsConsumer.accept(monthlyBill);
+        } finally {
+            // the chunks left after a failure are not needed anymore
+            for (Future<List<DetailedCsvRow>> chunk : pendingChunks) {
+                chunk.cancel(true);
+            }
         }
     }
 
+    private void readRows(List<DetailedCsvRow> rows, Map<String, AwsAccountDetailDto> monthlyBill,
+            Collection<String> ignorableInvoiceCharge, Set<String> configuredAccounts,
+            BiConsumer<Map<String, AwsAccountDetailDto>, String> hourlyStatsConsumer) {
+        for (DetailedCsvRow row : rows) {
+            Long curRowTime = row.usageStartMillis;
+            if (this.prevRowTime != null && curRowTime != null
+                    && !this.prevRowTime.equals(curRowTime)
+                    && !StringUtils.contains(this.interval, "-")) {
+                // This indicates that we have processed all rows belonging to a corresponding hour
+                // in the current month bill. Consume the batch
+                hourlyStatsConsumer.accept(monthlyBill, this.interval);
+            }
+            try {
+                readRow(row, monthlyBill, ignorableInvoiceCharge, configuredAccounts);
+            } catch (Exception e) {
+                this.logger.warning(String.format("Got error while parsing a row in aws bill of %s",
+                        getStringFieldValue(row, this.columns.payerAccountId) + e));
+            }
+            if (curRowTime != null) {
+                this.prevRowTime = curRowTime;
+                this.interval = createInterval(this.prevRowTime, row.usageEndMillis);
+            }
+        }
+    }
+
+    private static List<DetailedCsvRow> getRows(Future<List<DetailedCsvRow>> chunk)
+            throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing the bill", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Splits the records of a chunk of the bill into rows, and parses their usage dates.
+     */
+    private static List<DetailedCsvRow> toRows(List<String> records, DetailedCsvColumns columns) {
+        List<DetailedCsvRow> rows = new ArrayList<>(records.size());
+        // the rows of an hour have the same dates, so each is parsed once
+        LocalDateTimeCache startDates = new LocalDateTimeCache();
+        LocalDateTimeCache endDates = new LocalDateTimeCache();
+        for (String record : records) {
+            String[] values = AWSCsvBillRecordReader.split(record, columns.count);
+            rows.add(new DetailedCsvRow(values,
+                    startDates.parse(DetailedCsvRow.get(values, columns.usageStartDate)),
+                    endDates.parse(DetailedCsvRow.get(values, columns.usageEndDate))));
+        }
+        return rows;
+    }
+
     public String getCsvBillFileName(LocalDate date, String accountId, boolean isZipFile) {
         StringBuilder monthStrBuffer = new StringBuilder();
         int month = date.getMonthOfYear();
@@ -207,12 +299,12 @@ public class AWSCsvBillParser {
      * are not required, creates or updates the corresponding entry in
      * monthlyBill Map.
      **/
-    private void readRow(Map<String, Object> rowMap, Map<String, AwsAccountDetailDto> monthlyBill,
-            List<String> tagHeaders, Collection<String> ignorableInvoiceCharge, Set<String> configuredAccounts) {
+    private void readRow(DetailedCsvRow row, Map<String, AwsAccountDetailDto> monthlyBill,
+            Collection<String> ignorableInvoiceCharge, Set<String> configuredAccounts) {
 
-        final String linkedAccountId = getStringFieldValue(rowMap, DetailedCsvHeaders.LINKED_ACCOUNT_ID);
-        String serviceName = getStringFieldValue(rowMap, DetailedCsvHeaders.PRODUCT_NAME);
-        String subscriptionId = getStringFieldValue(rowMap, DetailedCsvHeaders.SUBSCRIPTION_ID);
+        final String linkedAccountId = getStringFieldValue(row, this.columns.linkedAccountId);
+        String serviceName = getStringFieldValue(row, this.columns.productName);
+        String subscriptionId = getStringFieldValue(row, this.columns.subscriptionId);
 
         //------------------------------------------------------------------------------------
         // Summary Row: For all rows except summary rows this is not null.
@@ -220,7 +312,7 @@ public class AWSCsvBillParser {
                 || serviceName.length() == 0) {
             // Reads the summary lines in bill file, which consists of the
             // account cost and puts it in the monthly bill map
-            readSummaryRow(rowMap, linkedAccountId, serviceName, monthlyBill, ignorableInvoiceCharge);
+            readSummaryRow(row, linkedAccountId, serviceName, monthlyBill, ignorableInvoiceCharge);
             return;
         }
 
@@ -235,19 +327,18 @@ public class AWSCsvBillParser {
         //------------------------------------------------------------------------------------
         // Non-summary rows.
         if (this.billInvoiceId == null) {
-            this.billInvoiceId = getStringFieldValue(rowMap, DetailedCsvHeaders.INVOICE_ID);
+            this.billInvoiceId = getStringFieldValue(row, this.columns.invoiceId);
         }
-        LocalDateTime usageStartTimeFromCsv = (LocalDateTime) rowMap.get(DetailedCsvHeaders.USAGE_START_DATE);
-        Long millisForBillHour = getMillisForHour(usageStartTimeFromCsv);
-        boolean isRowMarkedAsReserved = isRowReservedInstanceRecurringCost(rowMap);
+        Long millisForBillHour = row.usageStartMillis;
+        boolean isRowMarkedAsReserved = isRowReservedInstanceRecurringCost(row);
 
         // Populate hourly resource and service stats only for current month since they are not needed
         // for previous months.
         if (millisForBillHour == null || (millisForBillHour >= this.monthStartMillis)) {
 
-            String resourceId = getStringFieldValue(rowMap, DetailedCsvHeaders.RESOURCE_ID);
+            String resourceId = getStringFieldValue(row, this.columns.resourceId);
             AwsServiceDetailDto serviceDetail = createOrGetServiceDetailObject(accountDetails, serviceName, resourceId);
-            Double resourceCost = getResourceCost(rowMap);
+            Double resourceCost = getResourceCost(row);
             // In case we do not have resource id, this might be unknown
             // cost(unallocated) or one of summary line items {otherCost
             // (recurring charges for reserved instance)or sign up charges(which we have to ignore)}
@@ -255,7 +346,7 @@ public class AWSCsvBillParser {
                 // Check if this row has usageStartTime, if so set otherCost for
                 // day, otherwise set it as common for month, can divide later for all days
                 if (millisForBillHour != null) {
-                    if (isRowMarkedAsReserved && matchFieldValue(rowMap, DetailedCsvHeaders.OPERATION, RUN_INSTANCES)) {
+                    if (isRowMarkedAsReserved && matchFieldValue(row, this.columns.operation, RUN_INSTANCES)) {
                         serviceDetail.addToReservedRecurringCosts(millisForBillHour, resourceCost);
                     } else {
                         serviceDetail.addToOtherCosts(millisForBillHour, resourceCost);
@@ -270,10 +361,10 @@ public class AWSCsvBillParser {
                     //currently we need only EC2 instances,volumes and s3 buckets
                     if (resourceId.startsWith(AWS_INSTANCE_ID_PREFIX) || resourceId.startsWith(AWS_VOLUME_ID_PREFIX)
                             || AwsServices.S3.getName().equalsIgnoreCase(serviceName)) {
-                        AwsResourceDetailDto resourceDetail = createOrGetResourceDetailObject(rowMap, serviceDetail,
+                        AwsResourceDetailDto resourceDetail = createOrGetResourceDetailObject(row, serviceDetail,
                                 resourceId);
                         resourceDetail.addToDirectCosts(millisForBillHour, resourceCost);
-                        setLatestResourceValues(rowMap, tagHeaders, resourceDetail);
+                        setLatestResourceValues(row, resourceDetail);
                     }
                 }
             }
@@ -286,16 +377,14 @@ public class AWSCsvBillParser {
 
         // update the line count of the account to whom this row belongs to
         if (millisForBillHour != null) {
-            LocalDateTime usageEndTimeFromCsv = (LocalDateTime) rowMap.get(DetailedCsvHeaders.USAGE_END_DATE);
-            Long endMillisForBillHour = getMillisForHour(usageEndTimeFromCsv);
-            String interval = createInterval(millisForBillHour, endMillisForBillHour);
+            String interval = createInterval(millisForBillHour, row.usageEndMillis);
             Integer currentLineCount = accountDetails.lineCountPerInterval.getOrDefault(interval, 0);
             accountDetails.lineCountPerInterval.put(interval, currentLineCount + 1);
         }
     }
 
-    private boolean isRowReservedInstanceRecurringCost(Map<String, Object> rowMap) {
-        return convertReservedInstance(getStringFieldValue(rowMap, DetailedCsvHeaders.IS_RESERVED_INSTANCE));
+    private boolean isRowReservedInstanceRecurringCost(DetailedCsvRow row) {
+        return convertReservedInstance(getStringFieldValue(row, this.columns.reservedInstance));
     }
 
     private String createInterval(Long startMillis, Long endMillis) {
@@ -305,38 +394,37 @@ public class AWSCsvBillParser {
         return String.format("%d-%d", this.monthStartMillis, this.monthEndMillis);
     }
 
-    private Long getMillisForHour(LocalDateTime localDateTime) {
+    private static Long getMillisForHour(LocalDateTime localDateTime) {
         if (localDateTime == null) {
             return null;
         }
         return localDateTime.toDateTime(DateTimeZone.UTC).getMillis();
     }
 
-    private Double getResourceCost(Map<String, Object> rowMap) {
+    private Double getResourceCost(DetailedCsvRow row) {
         Double resourceCost = 0d;
-        if (rowMap.containsKey(DetailedCsvHeaders.BLENDED_COST)) {
-            resourceCost = getAmountFieldValue(rowMap, DetailedCsvHeaders.BLENDED_COST);
-        } else if (rowMap.containsKey(DetailedCsvHeaders.COST)) {
-            resourceCost = getAmountFieldValue(rowMap, DetailedCsvHeaders.COST);
+        if (this.columns.blendedCost >= 0) {
+            resourceCost = getAmountFieldValue(row, this.columns.blendedCost);
+        } else if (this.columns.cost >= 0) {
+            resourceCost = getAmountFieldValue(row, this.columns.cost);
         }
         return resourceCost;
     }
 
-    private void setLatestResourceValues(Map<String, Object> rowMap, List<String> tagHeaders,
+    private void setLatestResourceValues(DetailedCsvRow row,
             AwsResourceDetailDto resourceDetail) {
-        LocalDateTime usageStartTimeFromCsv = (LocalDateTime) rowMap
-                .get(DetailedCsvHeaders.USAGE_START_DATE);
+        LocalDateTime usageStartTimeFromCsv = row.usageStartTime;
         LocalDateTime existingUsageStartTime = null;
         if (resourceDetail.usageStartTime != null) {
             existingUsageStartTime = new LocalDateTime(resourceDetail.usageStartTime);
         }
         if (existingUsageStartTime == null
                 || existingUsageStartTime.compareTo(usageStartTimeFromCsv) <= 0) {
-            resourceDetail.itemDescription = getStringFieldValue(rowMap,
-                    DetailedCsvHeaders.ITEM_DESCRIPTION);
+            resourceDetail.itemDescription = getStringFieldValue(row,
+                    this.columns.itemDescription);
             resourceDetail.usageStartTime = usageStartTimeFromCsv.toDate().getTime();
-            resourceDetail.tags = getTagsForResources(rowMap, tagHeaders);
-            boolean isRowMarkedAsReserved = isRowReservedInstanceRecurringCost(rowMap);
+            resourceDetail.tags = getTagsForResources(row);
+            boolean isRowMarkedAsReserved = isRowReservedInstanceRecurringCost(row);
             boolean isResourceReservedForThisHour;
             Long millisForBillDay = getMillisForHour(usageStartTimeFromCsv);
             if (existingUsageStartTime != null
@@ -356,39 +444,38 @@ public class AWSCsvBillParser {
         }
     }
 
-    private AwsResourceDetailDto createOrGetResourceDetailObject(Map<String, Object> rowMap,
+    private AwsResourceDetailDto createOrGetResourceDetailObject(DetailedCsvRow row,
             AwsServiceDetailDto serviceDetail, String resourceId) {
         AwsResourceDetailDto resourceDetail = serviceDetail.getResourceDetail(resourceId);
         if (resourceDetail == null) {
             resourceDetail = new AwsResourceDetailDto();
-            resourceDetail.availabilityZone = ((String) rowMap
-                    .get(DetailedCsvHeaders.AVAILABILITY_ZONE));
+            resourceDetail.availabilityZone = row.get(this.columns.availabilityZone);
             resourceDetail.type = "OTHERS";
             serviceDetail.addToResourceDetailMap(resourceId, resourceDetail);
         }
         return resourceDetail;
     }
 
-    private String getStringFieldValue(Map<String, Object> rowMap, String fieldName) {
-        Object obj = rowMap.get(fieldName);
-        if (obj != null) {
-            return obj.toString();
+    private String getStringFieldValue(DetailedCsvRow row, int column) {
+        String value = row.get(column);
+        if (value != null) {
+            return value;
         }
         return "";
     }
 
-    private Double getAmountFieldValue(Map<String, Object> rowMap, String fieldName) {
-        Object obj = rowMap.get(fieldName);
-        if (obj != null) {
-            return Double.valueOf(obj.toString());
+    private Double getAmountFieldValue(DetailedCsvRow row, int column) {
+        String value = row.get(column);
+        if (value != null) {
+            return Double.valueOf(value);
         }
         return 0d;
     }
 
-    private boolean matchFieldValue(Map<String, Object> rowMap, String fieldName, String value) {
-        Object fieldObj = rowMap.get(fieldName);
-        if (fieldObj != null) {
-            if (fieldObj.toString().equalsIgnoreCase(value)) {
+    private boolean matchFieldValue(DetailedCsvRow row, int column, String value) {
+        String fieldValue = row.get(column);
+        if (fieldValue != null) {
+            if (fieldValue.equalsIgnoreCase(value)) {
                 return true;
             }
         }
@@ -444,20 +531,18 @@ public class AWSCsvBillParser {
         }
     }
 
-    private Map<String, String> getTagsForResources(Map<String, Object> rowMap,
-            List<String> tagHeaders) {
+    private Map<String, String> getTagsForResources(DetailedCsvRow row) {
         Map<String, String> tagMappings = new HashMap<>();
-        for (String tagKey : tagHeaders) {
-            String tagValue = (String) rowMap.get(tagKey);
+        for (int i = 0; i < this.columns.tagColumns.length; i++) {
+            String tagValue = row.get(this.columns.tagColumns[i]);
             if (tagValue != null) {
-                // tags are always like [user | somethingelse]:tagFamily
-                tagMappings.put(tagKey.split(TAG_KEY_DELIMITTER)[1], tagValue);
+                tagMappings.put(this.columns.tagKeys[i], tagValue);
             }
         }
         return tagMappings;
     }
 
-    private void readSummaryRow(Map<String, Object> rowMap, String linkedAccountId,
+    private void readSummaryRow(DetailedCsvRow row, String linkedAccountId,
             String productName,
             Map<String, AwsAccountDetailDto> accountDetails,
             Collection<String> ignorableInvoiceCharge) {
@@ -467,21 +552,20 @@ public class AWSCsvBillParser {
             // non-consolidated bills and has to be fetched from PayerAccountId
             // column from the bill file
             awsAccountDetail = createOrGetAccountDetailObject(accountDetails,
-                    getStringFieldValue(rowMap, DetailedCsvHeaders.PAYER_ACCOUNT_ID));
+                    getStringFieldValue(row, this.columns.payerAccountId));
         } else {
             awsAccountDetail = createOrGetAccountDetailObject(accountDetails, linkedAccountId);
         }
-        String lineInvoiceId = getStringFieldValue(rowMap, DetailedCsvHeaders.INVOICE_ID);
-        Double resourceCost = getResourceCost(rowMap);
+        String lineInvoiceId = getStringFieldValue(row, this.columns.invoiceId);
+        Double resourceCost = getResourceCost(row);
 
-        if (matchFieldValue(rowMap, DetailedCsvHeaders.RECORD_TYPE, DetailedCsvHeaders.LINE_ITEM)) {
+        if (matchFieldValue(row, this.columns.recordType, DetailedCsvHeaders.LINE_ITEM)) {
 
-            LocalDateTime usageStartTimeFromCsv = (LocalDateTime) rowMap.get(DetailedCsvHeaders.USAGE_START_DATE);
-            Long millisForBillHour = getMillisForHour(usageStartTimeFromCsv);
+            Long millisForBillHour = row.usageStartMillis;
             AwsServiceDetailDto serviceDetail = createOrGetServiceDetailObject(awsAccountDetail, productName, null);
 
             if (serviceDetail != null && millisForBillHour != null) {
-                if (matchFieldValue(rowMap, DetailedCsvHeaders.OPERATION, RUN_INSTANCES)) {
+                if (matchFieldValue(row, this.columns.operation, RUN_INSTANCES)) {
                     serviceDetail.addToReservedRecurringCosts(millisForBillHour, resourceCost);
                     return;
                 }
@@ -497,10 +581,10 @@ public class AWSCsvBillParser {
 
             awsAccountDetail.otherCharges += resourceCost;
 
-        } else if (matchFieldValue(rowMap, DetailedCsvHeaders.RECORD_TYPE, ACCOUNT_TOTAL)) {
+        } else if (matchFieldValue(row, this.columns.recordType, ACCOUNT_TOTAL)) {
             // If the RecordType is AccountTotal, this is the account monthly cost for consolidated bills
             awsAccountDetail.cost = resourceCost;
-        } else if (matchFieldValue(rowMap, DetailedCsvHeaders.RECORD_TYPE, INVOICE_TOTAL)) {
+        } else if (matchFieldValue(row, this.columns.recordType, INVOICE_TOTAL)) {
             // If the RecordType is InvoiceTotal, this is the account monthly cost for non-consolidated bills
             // ie, for primary accounts with no linked accounts
             if (!ignorableInvoiceCharge.contains(lineInvoiceId)) {
@@ -561,10 +645,8 @@ public class AWSCsvBillParser {
 
             validateInputNotNull(value, context);
             try {
-                DateTimeFormatter pattern = DateTimeFormat
-                        .forPattern(DETAILED_CSV_DATE_FORMAT_YYYY_MM_DD_HH_MM_SS);
-                LocalDateTime localDate = new LocalDateTime(
-                        pattern.parseLocalDateTime(value.toString()));
+                LocalDateTime localDate = DETAILED_CSV_DATE_FORMATTER
+                        .parseLocalDateTime(value.toString());
 
                 return next.execute(localDate, context);
             } catch (IllegalArgumentException e) {
@@ -575,6 +657,118 @@ public class AWSCsvBillParser {
         }
     }
 
+    /**
+     * The indexes of the columns of a bill, resolved once from its header. The index of a column
+     * missing from the bill is {@code -1}.
+     */
+    private static final class DetailedCsvColumns {
+        final int count;
+        final int payerAccountId;
+        final int linkedAccountId;
+        final int cost;
+        final int blendedCost;
+        final int usageStartDate;
+        final int usageEndDate;
+        final int productName;
+        final int resourceId;
+        final int availabilityZone;
+        final int reservedInstance;
+        final int itemDescription;
+        final int recordType;
+        final int subscriptionId;
+        final int operation;
+        final int invoiceId;
+        final int[] tagColumns;
+        final String[] tagKeys;
+
+        DetailedCsvColumns(String[] header) {
+            List<String> headerList = Arrays.asList(header);
+            this.count = header.length;
+            this.payerAccountId = headerList.indexOf(DetailedCsvHeaders.PAYER_ACCOUNT_ID);
+            this.linkedAccountId = headerList.indexOf(DetailedCsvHeaders.LINKED_ACCOUNT_ID);
+            this.cost = headerList.indexOf(DetailedCsvHeaders.COST);
+            this.blendedCost = headerList.indexOf(DetailedCsvHeaders.BLENDED_COST);
+            this.usageStartDate = headerList.indexOf(DetailedCsvHeaders.USAGE_START_DATE);
+            this.usageEndDate = headerList.indexOf(DetailedCsvHeaders.USAGE_END_DATE);
+            this.productName = headerList.indexOf(DetailedCsvHeaders.PRODUCT_NAME);
+            this.resourceId = headerList.indexOf(DetailedCsvHeaders.RESOURCE_ID);
+            this.availabilityZone = headerList.indexOf(DetailedCsvHeaders.AVAILABILITY_ZONE);
+            this.reservedInstance = headerList.indexOf(DetailedCsvHeaders.IS_RESERVED_INSTANCE);
+            this.itemDescription = headerList.indexOf(DetailedCsvHeaders.ITEM_DESCRIPTION);
+            this.recordType = headerList.indexOf(DetailedCsvHeaders.RECORD_TYPE);
+            this.subscriptionId = headerList.indexOf(DetailedCsvHeaders.SUBSCRIPTION_ID);
+            this.operation = headerList.indexOf(DetailedCsvHeaders.OPERATION);
+            this.invoiceId = headerList.indexOf(DetailedCsvHeaders.INVOICE_ID);
+
+            // The columns after the basic columns are tags
+            int firstTagColumn = this.blendedCost >= 0 ? BASIC_COLUMN_COUNT_WITH_BLENDED_COST
+                    : BASIC_COLUMN_COUNT;
+            List<Integer> tagColumnList = new ArrayList<>();
+            List<String> tagKeyList = new ArrayList<>();
+            for (int i = firstTagColumn; i < header.length; i++) {
+                // tags are always like [user | somethingelse]:tagFamily
+                String[] tagKeyParts = header[i] == null ? new String[0]
+                        : header[i].split(TAG_KEY_DELIMITTER);
+                if (tagKeyParts.length > 1) {
+                    tagColumnList.add(i);
+                    tagKeyList.add(tagKeyParts[1]);
+                }
+            }
+            this.tagColumns = tagColumnList.stream().mapToInt(Integer::intValue).toArray();
+            this.tagKeys = tagKeyList.toArray(new String[tagKeyList.size()]);
+        }
+    }
+
+    /**
+     * The values of a row of a bill by column index, with its parsed usage dates.
+     */
+    private static final class DetailedCsvRow {
+        final String[] values;
+        final LocalDateTime usageStartTime;
+        final Long usageStartMillis;
+        final Long usageEndMillis;
+
+        DetailedCsvRow(String[] values, LocalDateTime usageStartTime,
+                LocalDateTime usageEndTime) {
+            this.values = values;
+            this.usageStartTime = usageStartTime;
+            this.usageStartMillis = getMillisForHour(usageStartTime);
+            this.usageEndMillis = getMillisForHour(usageEndTime);
+        }
+
+        String get(int column) {
+            return get(this.values, column);
+        }
+
+        static String get(String[] values, int column) {
+            return column >= 0 && column < values.length ? values[column] : null;
+        }
+    }
+
+    /**
+     * Parses the dates of a bill, reusing the last parsed date.
+     */
+    private static final class LocalDateTimeCache {
+        private String text;
+        private LocalDateTime value;
+
+        LocalDateTime parse(String text) {
+            if (text == null) {
+                return null;
+            }
+            if (!text.equals(this.text)) {
+                try {
+                    this.value = DETAILED_CSV_DATE_FORMATTER.parseLocalDateTime(text);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(
+                            String.format("Could not parse '%s' as a LocalDateTime", text), e);
+                }
+                this.text = text;
+            }
+            return this.value;
+        }
+    }
+
     public static class DetailedCsvHeaders {
         static final String COST = "Cost";
         static final String PAYER_ACCOUNT_ID = "PayerAccountId";
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.awsadapter.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Reads the records of a CSV bill one at a time, without a per row map of the columns.
+ * <p>
+ * {@link #nextRecord()} only finds the end of a record, which may span several lines within a
+ * quoted value, so that the records can be split into their columns with
+ * {@link #split(String, int)} on other threads. Empty lines and lines starting with the comment
+ * prefix are skipped.
+ */
+class AWSCsvBillRecordReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char DELIMITER = ',';
+    private static final char QUOTE = '"';
+
+    private final BufferedReader reader;
+    private final String commentPrefix;
+
+    AWSCsvBillRecordReader(Reader reader, String commentPrefix) {
+        this.reader = new BufferedReader(reader, BUFFER_SIZE);
+        this.commentPrefix = commentPrefix;
+    }
+
+    /**
+     * Returns the next record, or {@code null} at the end of the input.
+     */
+    String nextRecord() throws IOException {
+        String line;
+        do {
+            line = this.reader.readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (line.isEmpty()
+                || (this.commentPrefix != null && line.startsWith(this.commentPrefix)));
+
+        int quotes = countQuotes(line);
+        if (quotes % 2 == 0) {
+            return line;
+        }
+
+        // a quoted value with line breaks
+        StringBuilder record = new StringBuilder(line);
+        while (quotes % 2 != 0) {
+            String next = this.reader.readLine();
+            if (next == null) {
+                throw new IOException("Unterminated quoted value in record: " + record);
+            }
+            record.append('\n').append(next);
+            quotes += countQuotes(next);
+        }
+        return record.toString();
+    }
+
+    /**
+     * Splits a record into its values. Empty values are returned as {@code null}.
+     *
+     * @param record The record to split.
+     * @param columnCount The expected number of values. Missing values are {@code null}; the
+     *         array is larger if the record has more values.
+     */
+    static String[] split(String record, int columnCount) {
+        String[] values = new String[Math.max(columnCount, 1)];
+        int count = 0;
+        int length = record.length();
+        int i = 0;
+        StringBuilder quoted = null;
+        while (true) {
+            String value;
+            int end;
+            if (i < length && record.charAt(i) == QUOTE) {
+                if (quoted == null) {
+                    quoted = new StringBuilder();
+                } else {
+                    quoted.setLength(0);
+                }
+                i++;
+                while (i < length) {
+                    char c = record.charAt(i++);
+                    if (c != QUOTE) {
+                        quoted.append(c);
+                    } else if (i < length && record.charAt(i) == QUOTE) {
+                        // escaped quote
+                        quoted.append(QUOTE);
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                end = indexOfDelimiter(record, i);
+                quoted.append(record, i, end);
+                value = quoted.toString();
+            } else {
+                end = indexOfDelimiter(record, i);
+                value = record.substring(i, end);
+            }
+
+            if (count == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count++] = value.isEmpty() ? null : value;
+
+            if (end >= length) {
+                break;
+            }
+            i = end + 1;
+        }
+        if (count > columnCount && count < values.length) {
+            values = Arrays.copyOf(values, count);
+        }
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+
+    private static int indexOfDelimiter(String record, int from) {
+        int index = record.indexOf(DELIMITER, from);
+        return index < 0 ? record.length() : index;
+    }
+
+    private static int countQuotes(String line) {
+        int count = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == QUOTE) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
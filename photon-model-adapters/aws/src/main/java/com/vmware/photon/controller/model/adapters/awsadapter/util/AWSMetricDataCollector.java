@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.awsadapter.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.Metric;
+import com.amazonaws.services.cloudwatch.model.MetricDataQuery;
+import com.amazonaws.services.cloudwatch.model.MetricDataResult;
+import com.amazonaws.services.cloudwatch.model.MetricStat;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.StatelessService;
+
+/**
+ * Collects EC2 instance metrics of many instances with few CloudWatch {@code GetMetricData}
+ * calls, instead of one {@code GetMetricStatistics} call per metric and instance.
+ * <p>
+ * Concurrent {@link #collect} calls for the same CloudWatch client, i.e. the same account and
+ * region, and the same end time and period are batched for {@link #BATCH_DELAY_MILLIS}. Each
+ * batch is sent as requests of up to {@link #MAX_QUERIES_PER_REQUEST} metric queries, whose
+ * results are paginated with {@code NextToken} and fanned back to the callers.
+ */
+public class AWSMetricDataCollector {
+
+    public static final String MAX_QUERIES_PER_REQUEST_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "AWSMetricDataCollector.maxQueriesPerRequest";
+    public static final int MAX_QUERIES_PER_REQUEST = Integer
+            .getInteger(MAX_QUERIES_PER_REQUEST_PROPERTY, 100);
+
+    public static final String BATCH_DELAY_MILLIS_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "AWSMetricDataCollector.batchDelayMillis";
+    public static final long BATCH_DELAY_MILLIS = Long
+            .getLong(BATCH_DELAY_MILLIS_PROPERTY, 1000);
+
+    private static final String NAMESPACE = "AWS/EC2";
+    private static final String DIMENSION_INSTANCE_ID = "InstanceId";
+    private static final String STATISTIC = "Average";
+    private static final String QUERY_ID_PREFIX = "q";
+
+    private final StatelessService service;
+    private final int maxQueriesPerRequest;
+    private final long batchDelayMillis;
+
+    private final Map<BatchKey, List<MetricQuery>> batches = new HashMap<>();
+
+    public AWSMetricDataCollector(StatelessService service) {
+        this(service, MAX_QUERIES_PER_REQUEST, BATCH_DELAY_MILLIS);
+    }
+
+    public AWSMetricDataCollector(StatelessService service, int maxQueriesPerRequest,
+            long batchDelayMillis) {
+        this.service = service;
+        this.maxQueriesPerRequest = maxQueriesPerRequest;
+        this.batchDelayMillis = batchDelayMillis;
+    }
+
+    /**
+     * Collects the average of the given metrics of an EC2 instance.
+     *
+     * @param client The CloudWatch client of the account and region of the instance.
+     * @param instanceId The id of the instance.
+     * @param metricNames The names of the EC2 metrics to collect.
+     * @param startTime The start of the collection window.
+     * @param endTime The end of the collection window.
+     * @param period The period of the datapoints in seconds.
+     * @return The datapoints by metric name, in increasing order of time. Metrics without
+     *         datapoints are not contained. The units of the datapoints are not set.
+     */
+    public DeferredResult<Map<String, List<ServiceStat>>> collect(AmazonCloudWatchAsync client,
+            String instanceId, String[] metricNames, Date startTime, Date endTime, int period) {
+
+        InstanceMetrics instanceMetrics = new InstanceMetrics(metricNames.length);
+
+        List<MetricQuery> ready = null;
+        BatchKey key = new BatchKey(client, endTime, period);
+        synchronized (this.batches) {
+            List<MetricQuery> batch = this.batches.get(key);
+            boolean isNewBatch = batch == null;
+            if (isNewBatch) {
+                batch = new ArrayList<>();
+                this.batches.put(key, batch);
+            }
+            for (String metricName : metricNames) {
+                batch.add(new MetricQuery(instanceId, metricName, startTime, instanceMetrics));
+            }
+            if (batch.size() >= this.maxQueriesPerRequest) {
+                ready = this.batches.remove(key);
+            } else if (isNewBatch) {
+                this.service.getHost().schedule(() -> flush(key), this.batchDelayMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (ready != null) {
+            send(key, ready);
+        }
+        return instanceMetrics.result;
+    }
+
+    /**
+     * Sends the batch of the given key, unless it has been sent already.
+     */
+    private void flush(BatchKey key) {
+        List<MetricQuery> batch;
+        synchronized (this.batches) {
+            batch = this.batches.remove(key);
+        }
+        if (batch != null) {
+            send(key, batch);
+        }
+    }
+
+    private void send(BatchKey key, List<MetricQuery> batch) {
+        for (int from = 0; from < batch.size(); from += this.maxQueriesPerRequest) {
+            List<MetricQuery> queries = batch.subList(from,
+                    Math.min(from + this.maxQueriesPerRequest, batch.size()));
+
+            Date startTime = queries.get(0).startTime;
+            List<MetricDataQuery> metricDataQueries = new ArrayList<>(queries.size());
+            for (int i = 0; i < queries.size(); i++) {
+                MetricQuery query = queries.get(i);
+                if (query.startTime.before(startTime)) {
+                    startTime = query.startTime;
+                }
+                metricDataQueries.add(query.toMetricDataQuery(QUERY_ID_PREFIX + i, key.period));
+            }
+
+            GetMetricDataRequest request = new GetMetricDataRequest()
+                    .withStartTime(startTime)
+                    .withEndTime(key.endTime)
+                    .withMetricDataQueries(metricDataQueries);
+
+            getMetricData(key.client, request, new HashMap<>())
+                    .whenComplete((results, e) -> {
+                        for (int i = 0; i < queries.size(); i++) {
+                            MetricQuery query = queries.get(i);
+                            if (e != null) {
+                                query.instanceMetrics.fail(e);
+                            } else {
+                                query.complete(results.get(QUERY_ID_PREFIX + i));
+                            }
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Gets all pages of the metric data, merging the results with the same query id.
+     */
+    private DeferredResult<Map<String, MetricDataResult>> getMetricData(
+            AmazonCloudWatchAsync client, GetMetricDataRequest request,
+            Map<String, MetricDataResult> results) {
+
+        AWSDeferredResultAsyncHandler<GetMetricDataRequest, GetMetricDataResult> handler =
+                new AWSDeferredResultAsyncHandler<>(this.service,
+                        "Get metric data of " + request.getMetricDataQueries().size()
+                                + " metric queries");
+        client.getMetricDataAsync(request, handler);
+
+        return handler.toDeferredResult().thenCompose(result -> {
+            for (MetricDataResult page : result.getMetricDataResults()) {
+                results.merge(page.getId(), page, (merged, next) -> {
+                    merged.getTimestamps().addAll(next.getTimestamps());
+                    merged.getValues().addAll(next.getValues());
+                    return merged;
+                });
+            }
+            if (result.getNextToken() == null) {
+                return DeferredResult.completed(results);
+            }
+            return getMetricData(client, request.withNextToken(result.getNextToken()), results);
+        });
+    }
+
+    /**
+     * Key of the metric queries which can be sent in the same request.
+     */
+    private static final class BatchKey {
+        final AmazonCloudWatchAsync client;
+        final Date endTime;
+        final int period;
+
+        BatchKey(AmazonCloudWatchAsync client, Date endTime, int period) {
+            this.client = client;
+            this.endTime = endTime;
+            this.period = period;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BatchKey)) {
+                return false;
+            }
+            BatchKey other = (BatchKey) o;
+            // the clients are cached per account and region, so compare them by identity
+            return this.client == other.client && this.endTime.equals(other.endTime)
+                    && this.period == other.period;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(this.client), this.endTime, this.period);
+        }
+    }
+
+    /**
+     * The query of one metric of one instance.
+     */
+    private static final class MetricQuery {
+        final String instanceId;
+        final String metricName;
+        final Date startTime;
+        final InstanceMetrics instanceMetrics;
+
+        MetricQuery(String instanceId, String metricName, Date startTime,
+                InstanceMetrics instanceMetrics) {
+            this.instanceId = instanceId;
+            this.metricName = metricName;
+            this.startTime = startTime;
+            this.instanceMetrics = instanceMetrics;
+        }
+
+        MetricDataQuery toMetricDataQuery(String id, int period) {
+            Metric metric = new Metric()
+                    .withNamespace(NAMESPACE)
+                    .withMetricName(this.metricName)
+                    .withDimensions(new Dimension()
+                            .withName(DIMENSION_INSTANCE_ID)
+                            .withValue(this.instanceId));
+            return new MetricDataQuery()
+                    .withId(id)
+                    .withMetricStat(new MetricStat()
+                            .withMetric(metric)
+                            .withPeriod(period)
+                            .withStat(STATISTIC))
+                    .withReturnData(true);
+        }
+
+        /**
+         * Adds the datapoints of the result within the collection window of this query.
+         */
+        void complete(MetricDataResult result) {
+            List<ServiceStat> datapoints = new ArrayList<>();
+            if (result != null && result.getTimestamps() != null) {
+                for (int i = 0; i < result.getTimestamps().size(); i++) {
+                    Date timestamp = result.getTimestamps().get(i);
+                    if (timestamp.before(this.startTime)) {
+                        continue;
+                    }
+                    ServiceStat stat = new ServiceStat();
+                    stat.latestValue = result.getValues().get(i);
+                    stat.sourceTimeMicrosUtc = TimeUnit.MILLISECONDS.toMicros(
+                            timestamp.getTime());
+                    datapoints.add(stat);
+                }
+            }
+            datapoints.sort((s1, s2) -> Long.compare(s1.sourceTimeMicrosUtc,
+                    s2.sourceTimeMicrosUtc));
+            this.instanceMetrics.complete(this.metricName, datapoints);
+        }
+    }
+
+    /**
+     * The metrics of one {@link #collect} call, completed once all its queries are complete.
+     */
+    private static final class InstanceMetrics {
+        final DeferredResult<Map<String, List<ServiceStat>>> result = new DeferredResult<>();
+        final Map<String, List<ServiceStat>> datapoints = new HashMap<>();
+        int remaining;
+        boolean failed;
+
+        InstanceMetrics(int metricCount) {
+            this.remaining = metricCount;
+            if (metricCount == 0) {
+                this.result.complete(Collections.emptyMap());
+            }
+        }
+
+        void complete(String metricName, List<ServiceStat> metricDatapoints) {
+            synchronized (this) {
+                if (this.failed) {
+                    return;
+                }
+                if (!metricDatapoints.isEmpty()) {
+                    this.datapoints.put(metricName, metricDatapoints);
+                }
+                if (--this.remaining > 0) {
+                    return;
+                }
+            }
+            this.result.complete(this.datapoints);
+        }
+
+        void fail(Throwable e) {
+            synchronized (this) {
+                if (this.failed) {
+                    return;
+                }
+                this.failed = true;
+            }
+            this.result.fail(e);
+        }
+    }
+}
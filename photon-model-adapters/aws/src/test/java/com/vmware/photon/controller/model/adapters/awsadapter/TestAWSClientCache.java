@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.awsadapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSClientCache;
+
+/**
+ * Unit test for {@link AWSClientCache}
+ */
+public class TestAWSClientCache {
+
+    private static final long HOUR_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private static class TestClient {
+        private volatile boolean isShutdown;
+    }
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    private AWSClientCache<TestClient> createCache(int maxSize, long idleTimeoutMicros) {
+        return createCache(maxSize, idleTimeoutMicros, 0);
+    }
+
+    private AWSClientCache<TestClient> createCache(int maxSize, long idleTimeoutMicros,
+            long shutdownDelayMicros) {
+        return new AWSClientCache<>("test", 4, maxSize, idleTimeoutMicros, 2, HOUR_MICROS,
+                shutdownDelayMicros, client -> client.isShutdown = true);
+    }
+
+    @Test
+    public void testSingleFlightCreation() throws Throwable {
+        AWSClientCache<TestClient> cache = createCache(10, HOUR_MICROS);
+        AtomicInteger creations = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<TestClient>> lookups = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            lookups.add(this.executor.submit(() -> {
+                start.await();
+                return cache.getOrCreate("key", () -> {
+                    creations.incrementAndGet();
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new TestClient();
+                }, null);
+            }));
+        }
+        start.countDown();
+
+        TestClient client = lookups.get(0).get(10, TimeUnit.SECONDS);
+        for (Future<TestClient> lookup : lookups) {
+            assertSame(client, lookup.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, creations.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(15, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testSizeEvictionShutsDownLeastRecentlyUsed() throws Throwable {
+        AWSClientCache<TestClient> cache = createCache(2, HOUR_MICROS);
+        TestClient first = cache.getOrCreate("first", TestClient::new, null);
+        Thread.sleep(1);
+        TestClient second = cache.getOrCreate("second", TestClient::new, null);
+        Thread.sleep(1);
+        // touch the first client so that the second one is the least recently used
+        assertSame(first, cache.getOrCreate("first", TestClient::new, null));
+        Thread.sleep(1);
+        cache.getOrCreate("third", TestClient::new, null);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(second.isShutdown);
+        assertFalse(first.isShutdown);
+        assertNotSame(second, cache.getOrCreate("second", TestClient::new, null));
+    }
+
+    @Test
+    public void testIdleEviction() throws Throwable {
+        AWSClientCache<TestClient> cache = createCache(10, TimeUnit.MILLISECONDS.toMicros(10));
+        TestClient idle = cache.getOrCreate("idle", TestClient::new, null);
+        Thread.sleep(50);
+
+        cache.getOrCreate("active", TestClient::new, null);
+        assertTrue(idle.isShutdown);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testMarkInvalid() {
+        AWSClientCache<TestClient> cache = createCache(10, HOUR_MICROS);
+        TestClient client = cache.getOrCreate("key", TestClient::new, null);
+        assertFalse(cache.isInvalid("key"));
+
+        cache.markInvalid("key");
+        assertTrue(cache.isInvalid("key"));
+        assertTrue(client.isShutdown);
+        assertEquals(0, cache.size());
+
+        // the oldest invalid keys are forgotten once over the limit
+        cache.markInvalid("key-2");
+        cache.markInvalid("key-3");
+        assertTrue(cache.isInvalid("key-3"));
+        assertFalse(cache.isInvalid("key"));
+    }
+
+    @Test
+    public void testFailedCreationIsNotCached() {
+        AWSClientCache<TestClient> cache = createCache(10, HOUR_MICROS);
+        try {
+            cache.getOrCreate("key", () -> {
+                throw new IllegalStateException("creation failed");
+            }, null);
+            fail("Creation failure expected");
+        } catch (IllegalStateException e) {
+            assertEquals(0, cache.size());
+        }
+        TestClient client = cache.getOrCreate("key", TestClient::new, null);
+        assertSame(client, cache.getOrCreate("key", TestClient::new, null));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testLeasedClientIsShutDownAfterRelease() {
+        AWSClientCache<TestClient> cache = createCache(10, HOUR_MICROS);
+        TestClient client = cache.getOrCreate("key", TestClient::new, null);
+        assertTrue(cache.lease(client));
+        assertTrue(cache.lease(client));
+
+        cache.markInvalid("key");
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getPendingShutdownCount());
+        assertFalse(client.isShutdown);
+
+        cache.release(client);
+        assertFalse(client.isShutdown);
+        cache.release(client);
+        assertTrue(client.isShutdown);
+        assertEquals(0, cache.getPendingShutdownCount());
+    }
+
+    @Test
+    public void testEvictedClientIsShutDownAfterDelay() throws Throwable {
+        AWSClientCache<TestClient> cache = createCache(1, HOUR_MICROS,
+                TimeUnit.MILLISECONDS.toMicros(50));
+        TestClient first = cache.getOrCreate("first", TestClient::new, null);
+        Thread.sleep(1);
+        cache.getOrCreate("second", TestClient::new, null);
+
+        // the evicted client may still be in use by the caller that got it just before
+        assertEquals(1, cache.getEvictionCount());
+        assertFalse(first.isShutdown);
+        assertTrue(cache.lease(first));
+        cache.release(first);
+
+        Thread.sleep(100);
+        cache.getOrCreate("second", TestClient::new, null);
+        assertTrue(first.isShutdown);
+        assertEquals(0, cache.getPendingShutdownCount());
+    }
+
+    @Test
+    public void testLeaseOfShutDownClientFails() {
+        AWSClientCache<TestClient> cache = createCache(10, HOUR_MICROS);
+        TestClient client = cache.getOrCreate("key", TestClient::new, null);
+
+        cache.markInvalid("key");
+        assertTrue(client.isShutdown);
+        assertFalse(cache.lease(client));
+        assertFalse(cache.lease(new TestClient()));
+    }
+
+    @Test
+    public void testClearShutsDownLeasedClients() {
+        AWSClientCache<TestClient> cache = createCache(10, HOUR_MICROS, HOUR_MICROS);
+        TestClient client = cache.getOrCreate("key", TestClient::new, null);
+        assertTrue(cache.lease(client));
+
+        cache.clear();
+        assertTrue(client.isShutdown);
+        assertEquals(0, cache.getPendingShutdownCount());
+    }
+
+    @Test
+    public void testClear() {
+        AWSClientCache<TestClient> cache = createCache(10, HOUR_MICROS);
+        TestClient client = cache.getOrCreate("key", TestClient::new, null);
+        cache.markInvalid("invalid");
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertTrue(client.isShutdown);
+        assertFalse(cache.isInvalid("invalid"));
+    }
+}
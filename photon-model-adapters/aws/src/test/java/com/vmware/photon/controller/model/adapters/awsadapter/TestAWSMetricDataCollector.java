@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.awsadapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import static com.vmware.photon.controller.model.resources.util.PhotonModelUtils.waitToComplete;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AbstractAmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.MetricDataQuery;
+import com.amazonaws.services.cloudwatch.model.MetricDataResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSMetricDataCollector;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.test.VerificationHost;
+
+/**
+ * Unit test for {@link AWSMetricDataCollector}
+ */
+public class TestAWSMetricDataCollector {
+
+    private static final String[] METRIC_NAMES = { AWSConstants.CPU_UTILIZATION,
+            AWSConstants.NETWORK_IN };
+    private static final int PERIOD = (int) TimeUnit.HOURS.toSeconds(1);
+
+    private VerificationHost host;
+    private StatelessService service;
+    private MockCloudWatch cloudWatch;
+    private Date endTime;
+
+    @Before
+    public void setUp() throws Throwable {
+        this.host = VerificationHost.create(0);
+        this.host.start();
+        this.service = new StatelessService();
+        this.host.startServiceAndWait(this.service, "/test-metric-data-collector", null);
+
+        this.cloudWatch = new MockCloudWatch();
+        this.endTime = new Date(TimeUnit.HOURS.toMillis(
+                TimeUnit.MILLISECONDS.toHours(System.currentTimeMillis())));
+    }
+
+    @After
+    public void tearDown() {
+        if (this.host != null) {
+            this.host.tearDown();
+        }
+    }
+
+    @Test
+    public void testCollectInBulk() {
+        AWSMetricDataCollector collector = new AWSMetricDataCollector(this.service, 3,
+                TimeUnit.MINUTES.toMillis(1));
+
+        // the batches are sent as soon as they have 3 queries: 4 + 4 queries in 3 + 1 requests
+        List<DeferredResult<Map<String, List<ServiceStat>>>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(collector.collect(this.cloudWatch, "i-" + i, METRIC_NAMES,
+                    hoursBeforeEnd(3), this.endTime, PERIOD));
+        }
+
+        for (int i = 0; i < 4; i++) {
+            Map<String, List<ServiceStat>> datapoints = waitToComplete(results.get(i));
+            assertEquals(METRIC_NAMES.length, datapoints.size());
+            for (String metricName : METRIC_NAMES) {
+                // one datapoint of each of the two pages, in increasing order of time
+                List<ServiceStat> stats = datapoints.get(metricName);
+                assertEquals(2, stats.size());
+                assertEquals(i, stats.get(0).latestValue, 0);
+                assertEquals(i + 100, stats.get(1).latestValue, 0);
+                assertTrue(stats.get(0).sourceTimeMicrosUtc < stats.get(1).sourceTimeMicrosUtc);
+            }
+        }
+        // 4 requests of 2 pages each
+        assertEquals(8, this.cloudWatch.requestCount.get());
+        assertEquals(3, this.cloudWatch.maxQueryCount.get());
+    }
+
+    @Test
+    public void testCollectAfterDelay() {
+        AWSMetricDataCollector collector = new AWSMetricDataCollector(this.service, 100, 50);
+
+        DeferredResult<Map<String, List<ServiceStat>>> first = collector.collect(
+                this.cloudWatch, "i-1", METRIC_NAMES, hoursBeforeEnd(3), this.endTime, PERIOD);
+        // the datapoint of the first page is before the start of the second instance
+        DeferredResult<Map<String, List<ServiceStat>>> second = collector.collect(
+                this.cloudWatch, "i-2", METRIC_NAMES, hoursBeforeEnd(1), this.endTime, PERIOD);
+
+        assertEquals(2, waitToComplete(first).get(AWSConstants.CPU_UTILIZATION).size());
+        List<ServiceStat> stats = waitToComplete(second).get(AWSConstants.CPU_UTILIZATION);
+        assertEquals(1, stats.size());
+        assertEquals(102, stats.get(0).latestValue, 0);
+
+        // both instances are collected by one request of 2 pages
+        assertEquals(2, this.cloudWatch.requestCount.get());
+        assertEquals(4, this.cloudWatch.maxQueryCount.get());
+    }
+
+    @Test
+    public void testCollectFailure() {
+        AWSMetricDataCollector collector = new AWSMetricDataCollector(this.service, 100, 50);
+        this.cloudWatch.failure = new IllegalStateException("throttled");
+
+        try {
+            waitToComplete(collector.collect(this.cloudWatch, "i-1", METRIC_NAMES,
+                    hoursBeforeEnd(3), this.endTime, PERIOD));
+            fail("Failure expected");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private Date hoursBeforeEnd(int hours) {
+        return new Date(this.endTime.getTime() - TimeUnit.HOURS.toMillis(hours));
+    }
+
+    /**
+     * Local CloudWatch endpoint that returns two pages with one datapoint per query each. The
+     * value of a datapoint is the number of the instance, plus 100 in the second page.
+     */
+    private class MockCloudWatch extends AbstractAmazonCloudWatchAsync {
+
+        final AtomicInteger requestCount = new AtomicInteger();
+        final AtomicInteger maxQueryCount = new AtomicInteger();
+        volatile Exception failure;
+
+        @Override
+        public Future<GetMetricDataResult> getMetricDataAsync(GetMetricDataRequest request,
+                AsyncHandler<GetMetricDataRequest, GetMetricDataResult> asyncHandler) {
+            this.requestCount.incrementAndGet();
+            this.maxQueryCount.accumulateAndGet(request.getMetricDataQueries().size(),
+                    Math::max);
+
+            if (this.failure != null) {
+                asyncHandler.onError(this.failure);
+                CompletableFuture<GetMetricDataResult> failed = new CompletableFuture<>();
+                failed.completeExceptionally(this.failure);
+                return failed;
+            }
+
+            boolean isSecondPage = request.getNextToken() != null;
+            Date timestamp = hoursBeforeEnd(isSecondPage ? 1 : 2);
+
+            GetMetricDataResult result = new GetMetricDataResult()
+                    .withNextToken(isSecondPage ? null : "page-2");
+            for (MetricDataQuery query : request.getMetricDataQueries()) {
+                String instanceId = query.getMetricStat().getMetric().getDimensions().get(0)
+                        .getValue();
+                double value = Integer.parseInt(instanceId.substring(2))
+                        + (isSecondPage ? 100 : 0);
+                result.withMetricDataResults(new MetricDataResult()
+                        .withId(query.getId())
+                        .withLabel(query.getMetricStat().getMetric().getMetricName())
+                        .withTimestamps(timestamp)
+                        .withValues(value));
+            }
+
+            asyncHandler.onSuccess(request, result);
+            return CompletableFuture.completedFuture(result);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.awsadapter.enumeration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.BucketTaggingConfiguration;
+import com.amazonaws.services.s3.model.TagSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapterapi.ComputeEnumerateResourceRequest;
+import com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.AwsClientType;
+import com.vmware.photon.controller.model.adapters.awsadapter.AWSUtils;
+import com.vmware.photon.controller.model.adapters.awsadapter.enumeration.AWSS3StorageEnumerationAdapterService.S3StorageEnumerationContext;
+import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSClientManager;
+import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSClientManagerFactory;
+import com.vmware.photon.controller.model.adapters.util.ComputeEnumerateAdapterRequest;
+import com.vmware.photon.controller.model.adapters.util.TagsUtil;
+import com.vmware.photon.controller.model.helpers.BaseModelTest;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeStateWithDescription;
+import com.vmware.photon.controller.model.resources.DiskService.DiskState;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
+
+/**
+ * Unit test for the bucket tag enumeration of {@link AWSS3StorageEnumerationAdapterService},
+ * against fake S3 clients.
+ */
+public class TestAWSS3StorageEnumerationAdapterService extends BaseModelTest {
+
+    private static final String INTERNAL_TYPE_TAG_LINK = "/resources/tags/internal-type";
+
+    private AWSS3StorageEnumerationAdapterService service;
+    private FakeS3 s3;
+    private AWSClientManager clientManager;
+
+    @Before
+    public void startService() throws Throwable {
+        this.service = new AWSS3StorageEnumerationAdapterService();
+        this.host.startService(Operation.createPost(UriUtils.buildUri(this.host,
+                "/test-aws-s3-enumeration-" + UUID.randomUUID())), this.service);
+        this.host.waitForServiceAvailable(this.service.getSelfLink());
+
+        this.s3 = new FakeS3();
+        this.clientManager = new FakeS3ClientManager(this.s3);
+    }
+
+    @After
+    public void stopService() throws Throwable {
+        System.clearProperty(
+                AWSS3StorageEnumerationAdapterService.TAG_ENUMERATION_CONCURRENCY_PROPERTY);
+        stopServiceSynchronously(this.service.getSelfLink());
+    }
+
+    @Test
+    public void testBucketRegionCacheHit() throws Throwable {
+        this.s3.bucketRegions.put("bucket-1", "ap-south-1");
+        this.s3.bucketTags.put("bucket-1", Collections.singletonMap("env", "test"));
+
+        S3StorageEnumerationContext aws = getBucketTags(createContext("bucket-1"));
+        assertEquals("ap-south-1", aws.regionsByBucketName.get("bucket-1"));
+        assertEquals(Collections.singletonMap("env", "test"), aws.tagsByBucketName.get("bucket-1"));
+        assertEquals("ap-south-1", this.service.bucketRegionCache.get("bucket-1"));
+        assertEquals(1, this.s3.locationCalls.get());
+        assertEquals(1, this.s3.tagCalls.get());
+
+        // the bucket is still new, for instance because its disk state could not be created, and
+        // its region is taken from the cache
+        aws = getBucketTags(createContext("bucket-1"));
+        assertEquals("ap-south-1", aws.regionsByBucketName.get("bucket-1"));
+        assertEquals(Collections.singletonMap("env", "test"), aws.tagsByBucketName.get("bucket-1"));
+        assertEquals(1, this.s3.locationCalls.get());
+        assertEquals(2, this.s3.tagCalls.get());
+    }
+
+    @Test
+    public void testBucketRegionCacheEvictedOnMovedPermanently() throws Throwable {
+        this.s3.bucketRegions.put("bucket-1", "ap-south-1");
+        getBucketTags(createContext("bucket-1"));
+        assertEquals("ap-south-1", this.service.bucketRegionCache.get("bucket-1"));
+
+        // the bucket is re-created in another region, so the cached region returns 301
+        this.s3.bucketRegions.put("bucket-1", "eu-west-2");
+        S3StorageEnumerationContext aws = getBucketTags(createContext("bucket-1"));
+        assertNull(this.service.bucketRegionCache.get("bucket-1"));
+        assertNull(aws.regionsByBucketName.get("bucket-1"));
+        assertNull(aws.tagsByBucketName.get("bucket-1"));
+        assertEquals(1, this.s3.locationCalls.get());
+
+        // the next enumeration looks up the region again
+        aws = getBucketTags(createContext("bucket-1"));
+        assertEquals("eu-west-2", aws.regionsByBucketName.get("bucket-1"));
+        assertEquals("eu-west-2", this.service.bucketRegionCache.get("bucket-1"));
+        assertTrue(aws.tagsByBucketName.containsKey("bucket-1"));
+        assertEquals(2, this.s3.locationCalls.get());
+    }
+
+    @Test
+    public void testLookupBucketRegionsFallsBackToEveryRegion() throws Throwable {
+        this.s3.locationForbidden = true;
+        this.s3.bucketRegions.put("bucket-1", "eu-central-1");
+        this.s3.bucketTags.put("bucket-1", Collections.singletonMap("env", "test"));
+
+        S3StorageEnumerationContext aws = getBucketTags(createContext("bucket-1"));
+        assertEquals("eu-central-1", aws.regionsByBucketName.get("bucket-1"));
+        assertEquals("eu-central-1", this.service.bucketRegionCache.get("bucket-1"));
+        assertEquals(Collections.singletonMap("env", "test"), aws.tagsByBucketName.get("bucket-1"));
+        assertEquals(1, this.s3.locationCalls.get());
+    }
+
+    @Test
+    public void testS3BucketRegionId() {
+        assertEquals("us-east-1", AWSUtils.getS3BucketRegionId(null));
+        assertEquals("us-east-1", AWSUtils.getS3BucketRegionId(""));
+        assertEquals("us-east-1", AWSUtils.getS3BucketRegionId("US"));
+        assertEquals("eu-west-1", AWSUtils.getS3BucketRegionId("EU"));
+        assertEquals("ap-south-1", AWSUtils.getS3BucketRegionId("ap-south-1"));
+    }
+
+    @Test
+    public void testTagEnumerationConcurrency() throws Throwable {
+        System.setProperty(
+                AWSS3StorageEnumerationAdapterService.TAG_ENUMERATION_CONCURRENCY_PROPERTY, "2");
+        this.s3.tagCallMillis = 50;
+
+        S3StorageEnumerationContext aws = createContext();
+        for (int i = 0; i < 8; i++) {
+            String bucketName = "bucket-" + i;
+            this.s3.bucketRegions.put(bucketName, "us-west-2");
+
+            // buckets enumerated before, whose region is known from their disk state
+            DiskState diskState = new DiskState();
+            diskState.id = bucketName;
+            diskState.regionId = "us-west-2";
+            aws.diskStatesToBeUpdatedByBucketName.put(bucketName, diskState);
+            aws.regionsByBucketName.put(bucketName, diskState.regionId);
+        }
+
+        getBucketTags(aws);
+        assertEquals(8, aws.tagsByBucketName.size());
+        assertEquals(8, this.s3.tagCalls.get());
+        assertEquals(0, this.s3.locationCalls.get());
+        assertTrue("max concurrent tag calls: " + this.s3.maxTagCallsInFlight.get(),
+                this.s3.maxTagCallsInFlight.get() <= 2);
+    }
+
+    @Test
+    public void testHasTagLinks() {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("env", "test");
+        tags.put("owner", "photon");
+
+        DiskState diskState = new DiskState();
+        diskState.tagLinks = new HashSet<>(Arrays.asList(INTERNAL_TYPE_TAG_LINK,
+                tagLink("env", "test"), tagLink("owner", "photon")));
+        assertTrue(AWSS3StorageEnumerationAdapterService.hasTagLinks(diskState, tags,
+                INTERNAL_TYPE_TAG_LINK));
+
+        // changed tag value
+        tags.put("owner", "xenon");
+        assertFalse(AWSS3StorageEnumerationAdapterService.hasTagLinks(diskState, tags,
+                INTERNAL_TYPE_TAG_LINK));
+
+        // removed tag
+        tags.remove("owner");
+        assertFalse(AWSS3StorageEnumerationAdapterService.hasTagLinks(diskState, tags,
+                INTERNAL_TYPE_TAG_LINK));
+
+        // no tags and no tag links other than the internal type tag link
+        diskState.tagLinks = null;
+        assertTrue(AWSS3StorageEnumerationAdapterService.hasTagLinks(diskState,
+                Collections.emptyMap(), INTERNAL_TYPE_TAG_LINK));
+        diskState.tagLinks = new HashSet<>(Collections.singletonList(INTERNAL_TYPE_TAG_LINK));
+        assertTrue(AWSS3StorageEnumerationAdapterService.hasTagLinks(diskState,
+                Collections.emptyMap(), INTERNAL_TYPE_TAG_LINK));
+    }
+
+    private S3StorageEnumerationContext createContext(String... newBucketNames) {
+        ComputeEnumerateResourceRequest request = new ComputeEnumerateResourceRequest();
+        request.endpointLink = "/resources/endpoints/test-aws-endpoint";
+        S3StorageEnumerationContext aws = new S3StorageEnumerationContext(
+                new ComputeEnumerateAdapterRequest(request, new AuthCredentialsServiceState(),
+                        new ComputeStateWithDescription()), null);
+        AWSClientManagerFactory.returnClientManager(aws.clientManager, AwsClientType.S3);
+        aws.clientManager = this.clientManager;
+        aws.service = this.service;
+
+        for (String bucketName : newBucketNames) {
+            Bucket bucket = new Bucket(bucketName);
+            aws.remoteBucketsByBucketName.put(bucketName, bucket);
+            aws.bucketsToBeCreated.add(bucket);
+        }
+        return aws;
+    }
+
+    private S3StorageEnumerationContext getBucketTags(S3StorageEnumerationContext aws) {
+        TestContext ctx = this.host.testCreate(1);
+        this.service.getBucketTags(aws).whenComplete((ignore, e) -> {
+            if (e != null) {
+                ctx.failIteration(e);
+                return;
+            }
+            ctx.completeIteration();
+        });
+        this.host.testWait(ctx);
+        return aws;
+    }
+
+    private static String tagLink(String key, String value) {
+        return TagsUtil.newTagState(key, value, true, null).documentSelfLink;
+    }
+
+    private static AmazonS3Exception s3Exception(int statusCode) {
+        AmazonS3Exception e = new AmazonS3Exception("Status code " + statusCode);
+        e.setStatusCode(statusCode);
+        return e;
+    }
+
+    /**
+     * The buckets of an account and the calls made to them.
+     */
+    private static class FakeS3 {
+        final Map<String, String> bucketRegions = new ConcurrentHashMap<>();
+        final Map<String, Map<String, String>> bucketTags = new ConcurrentHashMap<>();
+        volatile boolean locationForbidden;
+        volatile long tagCallMillis;
+
+        final AtomicInteger locationCalls = new AtomicInteger();
+        final AtomicInteger tagCalls = new AtomicInteger();
+        final AtomicInteger tagCallsInFlight = new AtomicInteger();
+        final AtomicInteger maxTagCallsInFlight = new AtomicInteger();
+    }
+
+    /**
+     * S3 client of a region, which returns the tags only of the buckets in its region, and 301
+     * for the buckets in other regions.
+     */
+    private static class FakeS3Client extends AmazonS3Client {
+        private final String regionId;
+        private final FakeS3 s3;
+
+        @SuppressWarnings("deprecation")
+        FakeS3Client(String regionId, FakeS3 s3) {
+            super(new BasicAWSCredentials("access-key", "secret-key"));
+            this.regionId = regionId;
+            this.s3 = s3;
+        }
+
+        @Override
+        public String getBucketLocation(String bucketName) {
+            this.s3.locationCalls.incrementAndGet();
+            if (this.s3.locationForbidden) {
+                throw s3Exception(Operation.STATUS_CODE_FORBIDDEN);
+            }
+            return this.s3.bucketRegions.get(bucketName);
+        }
+
+        @Override
+        public BucketTaggingConfiguration getBucketTaggingConfiguration(String bucketName) {
+            this.s3.tagCalls.incrementAndGet();
+            int inFlight = this.s3.tagCallsInFlight.incrementAndGet();
+            this.s3.maxTagCallsInFlight.accumulateAndGet(inFlight, Math::max);
+            try {
+                if (!this.regionId.equals(this.s3.bucketRegions.get(bucketName))) {
+                    throw s3Exception(Operation.STATUS_CODE_MOVED_PERM);
+                }
+                if (this.s3.tagCallMillis > 0) {
+                    TimeUnit.MILLISECONDS.sleep(this.s3.tagCallMillis);
+                }
+                return new BucketTaggingConfiguration(Collections.singletonList(new TagSet(
+                        this.s3.bucketTags.getOrDefault(bucketName, Collections.emptyMap()))));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } finally {
+                this.s3.tagCallsInFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Client manager which hands out a fake S3 client per region.
+     */
+    private static class FakeS3ClientManager extends AWSClientManager {
+        private final FakeS3 s3;
+        private final Map<String, AmazonS3Client> clientsByRegion = new ConcurrentHashMap<>();
+
+        FakeS3ClientManager(FakeS3 s3) {
+            super(AwsClientType.S3, null);
+            this.s3 = s3;
+        }
+
+        @Override
+        public DeferredResult<AmazonS3Client> getOrCreateS3ClientAsync(
+                AuthCredentialsServiceState credentials, String regionId,
+                StatelessService service) {
+            return DeferredResult.completed(this.clientsByRegion.computeIfAbsent(regionId,
+                    r -> new FakeS3Client(r, this.s3)));
+        }
+    }
+}
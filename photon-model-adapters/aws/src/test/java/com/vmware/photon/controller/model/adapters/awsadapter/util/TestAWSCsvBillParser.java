@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.awsadapter.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapters.aws.dto.AwsAccountDetailDto;
+import com.vmware.photon.controller.model.adapters.aws.dto.AwsResourceDetailDto;
+import com.vmware.photon.controller.model.adapters.aws.dto.AwsServiceDetailDto;
+import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSCsvBillParser.AwsServices;
+import com.vmware.xenon.common.CommandLineArgumentParser;
+
+/**
+ * Unit test for {@link AWSCsvBillParser}
+ */
+public class TestAWSCsvBillParser {
+
+    private static final Logger logger = Logger.getLogger(TestAWSCsvBillParser.class.getName());
+
+    private static final String ACCOUNT_ID = "123456789012";
+    private static final String HEADER = "InvoiceID,PayerAccountId,LinkedAccountId,RecordType,"
+            + "RecordId,ProductName,RateId,SubscriptionId,PricingPlanId,UsageType,Operation,"
+            + "AvailabilityZone,ReservedInstance,ItemDescription,UsageStartDate,UsageEndDate,"
+            + "UsageQuantity,BlendedRate,BlendedCost,UnBlendedRate,UnBlendedCost,ResourceId,"
+            + "user:Name";
+    private static final double COST = 0.25;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat
+            .forPattern(AWSCsvBillParser.DETAILED_CSV_DATE_FORMAT_YYYY_MM_DD_HH_MM_SS)
+            .withZoneUTC();
+
+    private final long monthStartMillis = LocalDate.now(DateTimeZone.UTC).withDayOfMonth(1)
+            .toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+
+    /**
+     * Number of hours and of resources per hour of the bill parsed by
+     * {@link #testParseBillThroughput()}. Can be raised through system properties to run it as a
+     * benchmark.
+     */
+    public int benchmarkHours = 2;
+    public int benchmarkResources = 100;
+
+    private Path workingDir;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        CommandLineArgumentParser.parseFromProperties(this);
+        this.workingDir = Files.createTempDirectory("aws-bill");
+        this.executor = Executors.newFixedThreadPool(
+                Math.max(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.executor.shutdownNow();
+        try (Stream<Path> files = Files.list(this.workingDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(this.workingDir);
+    }
+
+    @Test
+    public void testReadRecords() throws IOException {
+        String csv = "a,\"b,1\",c\n"
+                + "\n"
+                + AWSCsvBillParser.AWS_SKIP_COMMENTS + "? Go to the tags page\n"
+                + "\"multi\nline\",\"say \"\"hi\"\"\",,\n";
+        try (AWSCsvBillRecordReader reader = new AWSCsvBillRecordReader(new StringReader(csv),
+                AWSCsvBillParser.AWS_SKIP_COMMENTS)) {
+            assertArrayEquals(new String[] { "a", "b,1", "c" },
+                    AWSCsvBillRecordReader.split(reader.nextRecord(), 3));
+            assertArrayEquals(new String[] { "multi\nline", "say \"hi\"", null, null },
+                    AWSCsvBillRecordReader.split(reader.nextRecord(), 4));
+            assertNull(reader.nextRecord());
+        }
+
+        // missing values are null, extra values are kept
+        assertArrayEquals(new String[] { "a", null, null },
+                AWSCsvBillRecordReader.split("a", 3));
+        assertArrayEquals(new String[] { "a", "b", "c" },
+                AWSCsvBillRecordReader.split("a,b,c", 2));
+    }
+
+    @Test
+    public void testParseBill() throws IOException {
+        int hours = 5;
+        int resources = 3;
+        Path bill = createBill("bill.csv", hours, resources);
+
+        for (int parserThreads : new int[] { 1, 4 }) {
+            List<String> intervals = new ArrayList<>();
+            Map<Long, Double> hourlyCosts = new HashMap<>();
+            Map<String, AwsAccountDetailDto> monthlyBill = new HashMap<>();
+            new AWSCsvBillParser(this.executor, parserThreads).parseDetailedCsvBill(new ArrayList<>(), bill,
+                    Collections.singleton(ACCOUNT_ID),
+                    (accounts, interval) -> {
+                        intervals.add(interval);
+                        // consume the service details of the hour, as the cost stats service does
+                        AwsAccountDetailDto account = accounts.get(ACCOUNT_ID);
+                        hourlyCosts.putAll(getInstanceService(account).directCosts);
+                        account.serviceDetailsMap.clear();
+                    },
+                    monthlyBill::putAll);
+
+            // each hour is consumed as soon as it closes
+            assertEquals(hours, intervals.size());
+            for (int hour = 0; hour < hours; hour++) {
+                long hourMillis = getHourMillis(hour);
+                assertEquals(Long.toString(hourMillis), intervals.get(hour));
+                assertEquals(resources * COST, hourlyCosts.get(hourMillis), 0);
+            }
+
+            AwsAccountDetailDto account = monthlyBill.get(ACCOUNT_ID);
+            assertEquals(hours * resources * COST, account.cost, 0);
+            assertEquals(Integer.valueOf(resources),
+                    account.lineCountPerInterval.get(Long.toString(getHourMillis(0))));
+            // the executor of the caller is left running
+            assertFalse(this.executor.isShutdown());
+        }
+    }
+
+    @Test
+    public void testResourceDetails() throws IOException {
+        Path bill = createBill("bill.csv", 2, 2);
+
+        Map<String, AwsAccountDetailDto> monthlyBill = new HashMap<>();
+        new AWSCsvBillParser().parseDetailedCsvBill(new ArrayList<>(), bill,
+                Collections.singleton(ACCOUNT_ID), (accounts, interval) -> { },
+                monthlyBill::putAll);
+
+        AwsResourceDetailDto resource = getInstanceService(monthlyBill.get(ACCOUNT_ID))
+                .getResourceDetail("i-1");
+        assertEquals("us-east-1a", resource.availabilityZone);
+        assertEquals("Linux, t2.micro \"on demand\"", resource.itemDescription);
+        assertEquals(Collections.singletonMap("Name", "vm-1"), resource.tags);
+        assertEquals(2, resource.directCosts.size());
+    }
+
+    /**
+     * Compares the time to parse a synthetic bill by the reading thread with the time to parse
+     * it with several threads.
+     */
+    @Test
+    public void testParseBillThroughput() throws IOException {
+        int hours = this.benchmarkHours;
+        int resources = this.benchmarkResources;
+        Path bill = createBill("benchmark.csv", hours, resources);
+
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        for (int parserThreads : new int[] { 1, threads, 1, threads }) {
+            List<String> intervals = new ArrayList<>();
+            Map<String, AwsAccountDetailDto> monthlyBill = new HashMap<>();
+            long start = System.nanoTime();
+            new AWSCsvBillParser(this.executor, parserThreads).parseDetailedCsvBill(new ArrayList<>(), bill,
+                    Collections.singleton(ACCOUNT_ID),
+                    (accounts, interval) -> {
+                        intervals.add(interval);
+                        accounts.get(ACCOUNT_ID).serviceDetailsMap.clear();
+                    },
+                    monthlyBill::putAll);
+            logger.info(String.format("Parsed %d rows with %d threads in %d ms",
+                    hours * resources, parserThreads,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+
+            assertEquals(hours, intervals.size());
+            assertEquals(hours * resources * COST, monthlyBill.get(ACCOUNT_ID).cost, 0);
+        }
+    }
+
+    /**
+     * Writes a zipped bill with a row for each resource and hour of the current month, followed
+     * by the account total.
+     */
+    private Path createBill(String fileName, int hours, int resources) throws IOException {
+        Path bill = this.workingDir
+                .resolve(fileName + AWSCsvBillParser.AWS_BILL_ZIP_FILE_NAME_SUFFIX);
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(bill));
+                Writer writer = new OutputStreamWriter(zip, StandardCharsets.UTF_8)) {
+            zip.putNextEntry(new ZipEntry(fileName));
+            writer.write(HEADER + "\n");
+            long recordId = 0;
+            for (int hour = 0; hour < hours; hour++) {
+                String start = DATE_FORMATTER.print(getHourMillis(hour));
+                String end = DATE_FORMATTER.print(getHourMillis(hour + 1));
+                for (int resource = 0; resource < resources; resource++) {
+                    writer.write(String.format("\"inv-1\",\"%s\",\"%s\",\"LineItem\",\"%d\","
+                                    + "\"%s\",\"1\",\"2\",\"3\",\"BoxUsage:t2.micro\","
+                                    + "\"RunInstances\",\"us-east-1a\",\"N\","
+                                    + "\"Linux, t2.micro \"\"on demand\"\"\",\"%s\",\"%s\","
+                                    + "\"1\",\"%s\",\"%s\",\"%s\",\"%s\",\"i-%d\",\"vm-%d\"\n",
+                            ACCOUNT_ID, ACCOUNT_ID, recordId++, AwsServices.EC2.getName(),
+                            start, end, COST, COST, COST, COST, resource, resource));
+                }
+            }
+            writer.write(String.format("\"\",\"%s\",\"%s\",\"AccountTotal\",,,,,,,,,,"
+                            + "\"Total for linked account\",,,,,%s,,%s,,\n",
+                    ACCOUNT_ID, ACCOUNT_ID, hours * resources * COST, hours * resources * COST));
+            writer.write(AWSCsvBillParser.AWS_SKIP_COMMENTS + "? Go to the tags page\n");
+        }
+        return bill;
+    }
+
+    private long getHourMillis(int hour) {
+        return this.monthStartMillis + TimeUnit.HOURS.toMillis(hour);
+    }
+
+    private static AwsServiceDetailDto getInstanceService(AwsAccountDetailDto account) {
+        return account.fetchServiceDetail(AwsServices.EC2_Instance_Usage.getName());
+    }
+}
@@ -72,6 +72,12 @@ public class AzureCostConstants {
             UriPaths.PROPERTY_PREFIX + PROPERTY_PREFIX_AZURE_COST_COLLECTION
                     + "refreshPastMonthsCost");
 
+    // Number of threads aggregating the rows of a day of the detailed bill, one subscription per
+    // thread at a time. By default the rows are aggregated by the thread parsing the bill.
+    public static final int DETAILED_BILL_AGGREGATION_THREADS = Integer.getInteger(
+            UriPaths.PROPERTY_PREFIX + PROPERTY_PREFIX_AZURE_COST_COLLECTION
+                    + "aggregationThreads", 1);
+
     // Maximum number of times to re-try a request on failure before aborting
     public static final int MAX_RETRIES_ON_REQUEST_FAILURE = 3;
 
@@ -87,6 +87,8 @@ import com.vmware.photon.controller.model.adapters.util.AdapterUtils;
 import com.vmware.photon.controller.model.adapters.util.TaskManager;
 import com.vmware.photon.controller.model.constants.PhotonModelConstants;
 import com.vmware.photon.controller.model.constants.PhotonModelConstants.EndpointType;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsBlockService;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsBlockService.ResourceMetricsBlock;
 import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.ResourceMetrics;
 import com.vmware.photon.controller.model.query.QueryUtils;
 import com.vmware.photon.controller.model.query.QueryUtils.QueryByPages;
@@ -144,6 +146,12 @@ import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption
 public class AzureCostStatsService extends StatelessService {
     public static final String SELF_LINK = AzureUriPaths.AZURE_COST_STATS_ADAPTER;
 
+    /**
+     * Number of latest blocks read for the bill processed time stats. Covers both marker stats
+     * even when one of them has a few newer blocks than the other.
+     */
+    private static final int BILL_PROCESSED_TIME_BLOCKS_LIMIT = 10;
+
     private ExecutorService executor;
 
     protected enum Stages {
@@ -507,14 +515,26 @@ public class AzureCostStatsService extends StatelessService {
     }
 
     private void getStoredEaUsageCost(Context context, Stages next) {
-        Query.Builder builder = Query.Builder.create();
-        builder.addKindFieldClause(ResourceMetrics.class);
-        builder.addCompositeFieldClause(ResourceMetrics.FIELD_NAME_CUSTOM_PROPERTIES,
-                ResourceMetrics.PROPERTY_RESOURCE_LINK, context.computeHostDesc.documentSelfLink);
-        builder.addRangeClause(QuerySpecification
-                        .buildCompositeFieldName(ResourceMetrics.FIELD_NAME_ENTRIES,
-                                AzureCostConstants.USAGE_COST),
-                QueryTask.NumericRange.createDoubleRange(0d, Double.MAX_VALUE, true, true));
+        Query.Builder builder;
+        String sortField;
+        if (ResourceMetricsBlockService.BLOCK_STORAGE_ENABLED) {
+            builder = ResourceMetricsBlockService
+                    .createBlocksQueryBuilder(context.computeHostDesc.documentSelfLink)
+                    .addFieldClause(ResourceMetricsBlock.FIELD_NAME_METRIC_NAME,
+                            AzureCostConstants.USAGE_COST);
+            sortField = ResourceMetricsBlock.FIELD_NAME_LAST_TIMESTAMP;
+        } else {
+            builder = Query.Builder.create();
+            builder.addKindFieldClause(ResourceMetrics.class);
+            builder.addCompositeFieldClause(ResourceMetrics.FIELD_NAME_CUSTOM_PROPERTIES,
+                    ResourceMetrics.PROPERTY_RESOURCE_LINK,
+                    context.computeHostDesc.documentSelfLink);
+            builder.addRangeClause(QuerySpecification
+                            .buildCompositeFieldName(ResourceMetrics.FIELD_NAME_ENTRIES,
+                                    AzureCostConstants.USAGE_COST),
+                    QueryTask.NumericRange.createDoubleRange(0d, Double.MAX_VALUE, true, true));
+            sortField = ResourceMetrics.FIELD_NAME_TIMESTAMP;
+        }
         Builder queryTaskBuilder = Builder.createDirectTask()
                 .addOption(QueryOption.SORT)
                 .addOption(QueryOption.TOP_RESULTS)
@@ -522,8 +542,7 @@ public class AzureCostStatsService extends StatelessService {
                 // This will prevent Lucene from holding the full result set in memory.
                 .addOption(QueryOption.INCLUDE_ALL_VERSIONS)
                 .addOption(QueryOption.EXPAND_CONTENT)
-                .orderDescending(ResourceMetrics.FIELD_NAME_TIMESTAMP,
-                        TypeName.LONG)
+                .orderDescending(sortField, TypeName.LONG)
                 .setResultLimit(1)
                 .setQuery(builder.build());
         if (!AzureCostConstants.SHOULD_REFRESH_INDEX) {
@@ -548,8 +567,7 @@ public class AzureCostStatsService extends StatelessService {
                             context.storedCurrentMonthEaUsageCost = null;
                             return;
                         }
-                        ResourceMetrics rawResourceMetrics = Utils
-                                .fromJson(values.iterator().next(), ResourceMetrics.class);
+                        ResourceMetrics rawResourceMetrics = getLatestResourceMetrics(values);
                         context.storedCurrentMonthEaUsageCost = rawResourceMetrics.entries
                                 .get(AzureCostConstants.USAGE_COST);
                     }
@@ -559,10 +577,17 @@ public class AzureCostStatsService extends StatelessService {
     }
 
     private void getServiceMetadata(Context context, Stages next) {
-        Query.Builder builder = Query.Builder.create();
-        builder.addKindFieldClause(ResourceMetrics.class);
-        builder.addCompositeFieldClause(ResourceMetrics.FIELD_NAME_CUSTOM_PROPERTIES,
-                ResourceMetrics.PROPERTY_RESOURCE_LINK, context.computeHostDesc.documentSelfLink);
+        Query.Builder builder;
+        if (ResourceMetricsBlockService.BLOCK_STORAGE_ENABLED) {
+            builder = ResourceMetricsBlockService
+                    .createBlocksQueryBuilder(context.computeHostDesc.documentSelfLink);
+        } else {
+            builder = Query.Builder.create();
+            builder.addKindFieldClause(ResourceMetrics.class);
+            builder.addCompositeFieldClause(ResourceMetrics.FIELD_NAME_CUSTOM_PROPERTIES,
+                    ResourceMetrics.PROPERTY_RESOURCE_LINK,
+                    context.computeHostDesc.documentSelfLink);
+        }
         builder.addCompositeFieldClause(ResourceMetrics.FIELD_NAME_CUSTOM_PROPERTIES,
                 PhotonModelConstants.CONTAINS_BILL_PROCESSED_TIME_STAT, Boolean.TRUE.toString());
 
@@ -572,11 +597,20 @@ public class AzureCostStatsService extends StatelessService {
                 // No-op in photon-model. Required for special handling of immutable documents.
                 // This will prevent Lucene from holding the full result set in memory.
                 .addOption(QueryOption.INCLUDE_ALL_VERSIONS)
-                .addOption(QueryOption.EXPAND_CONTENT)
-                .orderDescending(ServiceDocument.FIELD_NAME_SELF_LINK,
-                        ServiceDocumentDescription.TypeName.STRING)
-                .setResultLimit(1)
-                .setQuery(builder.build());
+                .addOption(QueryOption.EXPAND_CONTENT);
+        if (ResourceMetricsBlockService.BLOCK_STORAGE_ENABLED) {
+            // Each marker stat has its own blocks, so fetch enough to include every marker.
+            queryTaskBuilder
+                    .orderDescending(ResourceMetricsBlock.FIELD_NAME_LAST_TIMESTAMP,
+                            TypeName.LONG)
+                    .setResultLimit(BILL_PROCESSED_TIME_BLOCKS_LIMIT);
+        } else {
+            queryTaskBuilder
+                    .orderDescending(ServiceDocument.FIELD_NAME_SELF_LINK,
+                            ServiceDocumentDescription.TypeName.STRING)
+                    .setResultLimit(1);
+        }
+        queryTaskBuilder.setQuery(builder.build());
 
         if (!AzureCostConstants.SHOULD_REFRESH_INDEX) {
             queryTaskBuilder.addOption(QueryOption.DO_NOT_REFRESH);
@@ -607,8 +641,7 @@ public class AzureCostStatsService extends StatelessService {
                             context.billProcessedTimeMillis = 0;
                             return;
                         }
-                        ResourceMetrics rawResourceMetrics = Utils
-                                .fromJson(values.iterator().next(), ResourceMetrics.class);
+                        ResourceMetrics rawResourceMetrics = getLatestResourceMetrics(values);
                         context.billProcessedTimeMillis = rawResourceMetrics.entries
                                 .getOrDefault(
                                         PhotonModelConstants.CLOUD_ACCOUNT_COST_SYNC_MARKER_MILLIS,
@@ -622,6 +655,28 @@ public class AzureCostStatsService extends StatelessService {
                 });
     }
 
+    /**
+     * Returns the latest raw metrics among the documents of a query, which are blocks when
+     * {@link ResourceMetricsBlockService#BLOCK_STORAGE_ENABLED} is set. Blocks are per metric, so
+     * every entry is taken from the latest point that has it.
+     */
+    private static ResourceMetrics getLatestResourceMetrics(Collection<Object> documents) {
+        if (!ResourceMetricsBlockService.BLOCK_STORAGE_ENABLED) {
+            return Utils.fromJson(documents.iterator().next(), ResourceMetrics.class);
+        }
+        List<ResourceMetrics> metrics = ResourceMetricsBlockService.toResourceMetrics(documents);
+        if (metrics.isEmpty()) {
+            ResourceMetrics empty = new ResourceMetrics();
+            empty.entries = new HashMap<>();
+            return empty;
+        }
+        ResourceMetrics latest = metrics.get(0);
+        for (ResourceMetrics older : metrics.subList(1, metrics.size())) {
+            older.entries.forEach(latest.entries::putIfAbsent);
+        }
+        return latest;
+    }
+
     /**
      * Azure provides an API which will fetch the total EA account cost for a given month.
      * This API is invoked iteratively to the get the past (@code NO_OF_MONTHS_TO_GET_PAST_BILLS}
@@ -869,7 +924,7 @@ public class AzureCostStatsService extends StatelessService {
      */
     private void parseDetailedBill(Context context, Stages next) {
         try {
-            AzureDetailedBillHandler billHandler = new AzureDetailedBillHandler();
+            AzureDetailedBillHandler billHandler = new AzureDetailedBillHandler(this.executor);
             // Get the subscription GUIDs from the subscription compute states.
             context.parsingStatus = billHandler.parseDetailedCsv(context.billFile,
                     context.subscriptionsAddedAfterLastRun, context.parsingStatus,
@@ -17,18 +17,24 @@ import static com.vmware.photon.controller.model.adapters.azure.constants
         .AzureCostConstants.NO_OF_DAYS_MARGIN_FOR_AZURE_TO_UPDATE_BILL_IN_MILLIS;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 
-import com.opencsv.CSVReader;
-import com.opencsv.bean.HeaderColumnNameMappingStrategy;
-
 import com.vmware.photon.controller.model.adapters.azure.constants.AzureCostConstants;
 import com.vmware.photon.controller.model.adapters.azure.model.cost.AzureService;
 import com.vmware.photon.controller.model.adapters.azure.model.cost.AzureSubscription;
@@ -82,27 +88,60 @@ public class AzureDetailedBillHandler {
 
     }
 
+    private final ExecutorService executor;
+    private final int aggregationThreads;
+
+    /**
+     * Creates a handler which populates the costs on the thread parsing the bill.
+     */
+    public AzureDetailedBillHandler() {
+        this(null, 1);
+    }
+
+    /**
+     * Creates a handler which populates the costs of the subscriptions on the given executor, with
+     * up to {@link AzureCostConstants#DETAILED_BILL_AGGREGATION_THREADS} subscriptions at a time.
+     * The executor is not shut down by the handler.
+     */
+    public AzureDetailedBillHandler(ExecutorService executor) {
+        this(executor, AzureCostConstants.DETAILED_BILL_AGGREGATION_THREADS);
+    }
+
+    AzureDetailedBillHandler(ExecutorService executor, int aggregationThreads) {
+        this.executor = executor;
+        this.aggregationThreads = aggregationThreads;
+    }
+
+    /**
+     * Parses the rows of the next day of the bill, starting where the previous call stopped, and
+     * passes their costs to the consumer.
+     */
     public BillParsingStatus parseDetailedCsv(File billFile, Set<String> newSubscriptions, BillParsingStatus status,
             long billProcessedTimeMillis, String currency,
             BiConsumer<Map<String, AzureSubscription>, Long> dailyStatsConsumer)
             throws IOException {
         logger.fine(() -> "Beginning to parse CSV file.");
-        try (CSVReader csvReader = new CSVReader(new FileReader(billFile),
-                AzureCostConstants.DEFAULT_COLUMN_SEPARATOR, AzureCostConstants.DEFAULT_QUOTE_CHARACTER,
-                AzureCostConstants.DEFAULT_ESCAPE_CHARACTER, (int) status.getNoLinesRead())) {
-
-            HeaderColumnNameMappingStrategy<EaDetailedBillElement> strategy =
-                    new HeaderColumnNameMappingStrategy<>();
-            strategy.setType(EaDetailedBillElement.class);
+        // Continue at the byte offset of the first row not parsed yet, instead of reading all the
+        // rows before it again.
+        boolean resume = status.getNoBytesRead() > 0;
+        try (AzureDetailedBillReader billReader = new AzureDetailedBillReader(billFile,
+                status.getNoBytesRead(), resume ? status.getNoLinesRead() : 0)) {
+            if (!resume) {
+                billReader.skipLines(status.getNoLinesRead());
+            }
             long timeToStartBillProcessing = getTimeToStartBillProcessing(billProcessedTimeMillis);
 
-            // This map will contain daily subscription, service & resource cost. The subscription
-            // GUID is the key and the subscription details is the value. This map is maintained
-            // since daily-level stats are needed for services and resources.
-            Map<String, AzureSubscription> monthlyBill = new HashMap<>();
+            // The rows of the day by subscription GUID, in the order of the bill
+            Map<String, List<EaDetailedBillElement>> dailyRows = new LinkedHashMap<>();
             String[] nextRow;
             Long prevRowEpoch = null;
-            while ((nextRow = csvReader.readNext()) != null) {
+            while (true) {
+                long rowPosition = billReader.getPosition();
+                long rowLinesRead = billReader.getLinesRead();
+                nextRow = billReader.readNext();
+                if (nextRow == null) {
+                    break;
+                }
                 final String[] finalNextRow = nextRow;
                 if (nextRow.length != BillHeaders.values().length) {
                     // Skip any blank or malformed rows
@@ -114,32 +153,31 @@ public class AzureDetailedBillHandler {
 
                 EaDetailedBillElement detailedBillElement = AzureCostHelper
                         .sanitizeDetailedBillElement(nextRow, currency);
-                AzureSubscription subscription = populateSubscriptionCost(monthlyBill,
-                        detailedBillElement);
                 long curRowEpoch = detailedBillElement.epochDate;
-                if (shouldCreateServiceAndResourceCost(detailedBillElement, newSubscriptions,
-                        timeToStartBillProcessing)) {
-                    AzureService service = populateServiceCost(subscription,
-                            detailedBillElement);
-                    populateResourceCost(service, detailedBillElement);
+                if (prevRowEpoch != null && !prevRowEpoch.equals(curRowEpoch)) {
+                    // This indicates that we have read all rows belonging to a corresponding day
+                    // in the current month's bill. The next batch starts with this row.
+                    status.setNoBytesRead(rowPosition);
+                    status.setNoLinesRead(rowLinesRead);
+                    break;
                 }
                 billProcessedTimeMillis =
                         billProcessedTimeMillis < curRowEpoch ?
                                 curRowEpoch : billProcessedTimeMillis;
-                monthlyBill.put(detailedBillElement.subscriptionGuid, subscription);
-                if (prevRowEpoch != null && !prevRowEpoch.equals(curRowEpoch)) {
-                    // This indicates that we have processed all rows belonging to a
-                    // corresponding day in the current month's bill.
-                    // Consume the batch
-                    // Subtract 1, to account for detecting date change line.
-                    status.setNoLinesRead(csvReader.getLinesRead() - 1);
-                    dailyStatsConsumer.accept(monthlyBill, null);
-                    break;
-                }
+                dailyRows.computeIfAbsent(detailedBillElement.subscriptionGuid,
+                        k -> new ArrayList<>()).add(detailedBillElement);
                 prevRowEpoch = curRowEpoch;
             }
-            if ((nextRow == null && monthlyBill.size() > 0) || (nextRow == null
-                    && csvReader.getLinesRead() == AzureCostConstants.DEFAULT_LINES_TO_SKIP)) {
+
+            // This map will contain daily subscription, service & resource cost. The subscription
+            // GUID is the key and the subscription details is the value. This map is maintained
+            // since daily-level stats are needed for services and resources.
+            Map<String, AzureSubscription> monthlyBill = populateCosts(dailyRows,
+                    newSubscriptions, timeToStartBillProcessing);
+            if (nextRow != null) {
+                // Consume the batch
+                dailyStatsConsumer.accept(monthlyBill, null);
+            } else {
                 status.setParsingComplete(true);
                 dailyStatsConsumer.accept(monthlyBill, billProcessedTimeMillis);
                 logger.fine(() -> "Finished parsing CSV bill.");
@@ -148,6 +186,72 @@ public class AzureDetailedBillHandler {
         }
     }
 
+    /**
+     * Populates the costs of the subscriptions from their rows. The subscriptions are independent
+     * of each other, so they are populated concurrently if there are several aggregation threads.
+     */
+    private Map<String, AzureSubscription> populateCosts(
+            Map<String, List<EaDetailedBillElement>> rowsBySubscription,
+            Set<String> newSubscriptions, long timeToStartBillProcessing) throws IOException {
+        Map<String, AzureSubscription> monthlyBill = new HashMap<>();
+        if (this.executor == null || this.aggregationThreads <= 1
+                || rowsBySubscription.size() <= 1) {
+            rowsBySubscription.forEach((subscriptionGuid, rows) -> monthlyBill.put(subscriptionGuid,
+                    populateSubscriptionCosts(rows, newSubscriptions, timeToStartBillProcessing)));
+            return monthlyBill;
+        }
+
+        Deque<Entry<String, Future<AzureSubscription>>> pendingSubscriptions = new ArrayDeque<>();
+        try {
+            for (Entry<String, List<EaDetailedBillElement>> rows : rowsBySubscription.entrySet()) {
+                pendingSubscriptions.add(new SimpleEntry<>(rows.getKey(), this.executor.submit(
+                        () -> populateSubscriptionCosts(rows.getValue(), newSubscriptions,
+                                timeToStartBillProcessing))));
+                while (pendingSubscriptions.size() >= this.aggregationThreads) {
+                    putSubscription(monthlyBill, pendingSubscriptions.poll());
+                }
+            }
+            while (!pendingSubscriptions.isEmpty()) {
+                putSubscription(monthlyBill, pendingSubscriptions.poll());
+            }
+            return monthlyBill;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while populating the bill costs", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            // the subscriptions left after a failure are not needed anymore
+            for (Entry<String, Future<AzureSubscription>> subscription : pendingSubscriptions) {
+                subscription.getValue().cancel(true);
+            }
+        }
+    }
+
+    private static void putSubscription(Map<String, AzureSubscription> monthlyBill,
+            Entry<String, Future<AzureSubscription>> subscription)
+            throws InterruptedException, ExecutionException {
+        monthlyBill.put(subscription.getKey(), subscription.getValue().get());
+    }
+
+    private AzureSubscription populateSubscriptionCosts(List<EaDetailedBillElement> rows,
+            Set<String> newSubscriptions, long timeToStartBillProcessing) {
+        AzureSubscription subscription = null;
+        for (EaDetailedBillElement detailedBillElement : rows) {
+            subscription = populateSubscriptionCost(subscription, detailedBillElement);
+            if (shouldCreateServiceAndResourceCost(detailedBillElement, newSubscriptions,
+                    timeToStartBillProcessing)) {
+                AzureService service = populateServiceCost(subscription,
+                        detailedBillElement);
+                populateResourceCost(service, detailedBillElement);
+            }
+        }
+        return subscription;
+    }
+
     /**
      * Create service and resource cost only if the time of the bill row is greater than
      * the time when we last processed this bill or if there are any new subscriptions
@@ -163,9 +267,8 @@ public class AzureDetailedBillHandler {
                 > timeToStartBillProcessing || newSubscriptions.contains(bRow.subscriptionGuid);
     }
 
-    private AzureSubscription populateSubscriptionCost(Map<String, AzureSubscription> monthlyBill,
+    private AzureSubscription populateSubscriptionCost(AzureSubscription subscription,
             EaDetailedBillElement bRow) {
-        AzureSubscription subscription = monthlyBill.get(bRow.subscriptionGuid);
         if (subscription == null) {
             subscription = createSubscriptionDto(bRow);
         }
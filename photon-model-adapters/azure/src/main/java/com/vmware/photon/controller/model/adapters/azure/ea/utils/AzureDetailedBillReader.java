@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.azure.ea.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.opencsv.CSVParser;
+
+import com.vmware.photon.controller.model.adapters.azure.constants.AzureCostConstants;
+
+/**
+ * Reads the rows of a detailed bill starting at a byte offset, and tracks the byte offset of
+ * each row, so that parsing a bill can be resumed where it stopped without reading the rows
+ * before it again.
+ */
+class AzureDetailedBillReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileInputStream inputStream;
+    private final CSVParser parser = new CSVParser(AzureCostConstants.DEFAULT_COLUMN_SEPARATOR,
+            AzureCostConstants.DEFAULT_QUOTE_CHARACTER,
+            AzureCostConstants.DEFAULT_ESCAPE_CHARACTER);
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPosition;
+    private int bufferLimit;
+    // The bytes of the current line, reused across lines
+    private byte[] line = new byte[1024];
+    private long position;
+    private long linesRead;
+
+    /**
+     * @param billFile The bill.
+     * @param offset The byte offset of the first line to read.
+     * @param linesRead The number of lines before the offset.
+     */
+    AzureDetailedBillReader(File billFile, long offset, long linesRead) throws IOException {
+        this.inputStream = new FileInputStream(billFile);
+        try {
+            this.inputStream.getChannel().position(offset);
+        } catch (IOException e) {
+            this.inputStream.close();
+            throw e;
+        }
+        this.position = offset;
+        this.linesRead = linesRead;
+    }
+
+    /**
+     * Returns the byte offset of the next row.
+     */
+    long getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Returns the number of lines read from the start of the bill.
+     */
+    long getLinesRead() {
+        return this.linesRead;
+    }
+
+    /**
+     * Skips the given number of lines.
+     */
+    void skipLines(long count) throws IOException {
+        for (long i = 0; i < count && readLine() != null; i++) {
+            // skip
+        }
+    }
+
+    /**
+     * Returns the values of the next row, which may span several lines, or {@code null} at the
+     * end of the bill.
+     */
+    String[] readNext() throws IOException {
+        String[] result = null;
+        do {
+            String nextLine = readLine();
+            if (nextLine == null) {
+                return result;
+            }
+            String[] values = this.parser.parseLineMulti(nextLine);
+            if (values.length == 0) {
+                continue;
+            }
+            if (result == null) {
+                result = values;
+            } else {
+                String[] combined = Arrays.copyOf(result, result.length + values.length);
+                System.arraycopy(values, 0, combined, result.length, values.length);
+                result = combined;
+            }
+        } while (this.parser.isPending());
+        return result;
+    }
+
+    private String readLine() throws IOException {
+        int length = 0;
+        boolean endOfLine = false;
+        while (!endOfLine) {
+            if (this.bufferPosition == this.bufferLimit) {
+                int read = this.inputStream.read(this.buffer);
+                if (read <= 0) {
+                    break;
+                }
+                this.bufferPosition = 0;
+                this.bufferLimit = read;
+            }
+            int start = this.bufferPosition;
+            int end = start;
+            while (end < this.bufferLimit && this.buffer[end] != '\n') {
+                end++;
+            }
+            endOfLine = end < this.bufferLimit;
+            // consume the line break too
+            this.bufferPosition = endOfLine ? end + 1 : end;
+            this.position += this.bufferPosition - start;
+
+            int count = end - start;
+            if (length + count > this.line.length) {
+                this.line = Arrays.copyOf(this.line, Math.max(length + count, length * 2));
+            }
+            System.arraycopy(this.buffer, start, this.line, length, count);
+            length += count;
+        }
+        if (!endOfLine && length == 0) {
+            return null;
+        }
+        if (length > 0 && this.line[length - 1] == '\r') {
+            length--;
+        }
+        this.linesRead++;
+        return new String(this.line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.inputStream.close();
+    }
+}
@@ -18,6 +18,8 @@ import com.vmware.photon.controller.model.adapters.azure.constants.AzureCostCons
 public class BillParsingStatus {
     private boolean parsingComplete;
     private long noLinesRead;
+    // The byte offset of the next row to parse, 0 until the bill has been read
+    private long noBytesRead;
 
     public BillParsingStatus() {
         this.parsingComplete = false;
@@ -40,11 +42,20 @@ public class BillParsingStatus {
         this.noLinesRead = noLinesRead;
     }
 
+    public long getNoBytesRead() {
+        return this.noBytesRead;
+    }
+
+    public void setNoBytesRead(long noBytesRead) {
+        this.noBytesRead = noBytesRead;
+    }
+
     @Override
     public String toString() {
         return "BillParsingStatus{" +
                 "parsingComplete=" + this.parsingComplete +
                 ", noLinesRead=" + this.noLinesRead +
+                ", noBytesRead=" + this.noBytesRead +
                 '}';
     }
 }
@@ -26,14 +26,18 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import com.vmware.photon.controller.model.adapterapi.ComputeStatsRequest;
 import com.vmware.photon.controller.model.adapterapi.ComputeStatsResponse;
 import com.vmware.photon.controller.model.adapterapi.ComputeStatsResponse.ComputeStats;
 import com.vmware.photon.controller.model.adapters.azure.AzureUriPaths;
+import com.vmware.photon.controller.model.adapters.azure.constants.AzureConstants;
 import com.vmware.photon.controller.model.adapters.util.AdapterUtils;
 import com.vmware.photon.controller.model.constants.PhotonModelConstants;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsBlockService;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsBlockService.ResourceMetricsBlock;
 import com.vmware.photon.controller.model.monitoring.ResourceMetricsService;
 import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.ResourceMetrics;
 import com.vmware.photon.controller.model.query.QueryUtils;
@@ -48,6 +52,7 @@ import com.vmware.xenon.common.StatelessService;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.NumericRange;
 import com.vmware.xenon.services.common.QueryTask.Query;
 import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
 import com.vmware.xenon.services.common.QueryTask.QueryTerm.MatchType;
@@ -179,7 +184,8 @@ public class AzureComputeHostStatsGatherer extends StatelessService {
     }
 
     /**
-     * Get all the children computes and create a query task for each to query the metrics.
+     * Get all the children computes and create a query task for each to query the metrics, unless
+     * the averages of their metrics are available in the {@link AzureComputeHostStatsRollup}.
      */
     private void handleComputeQueryCompletion(QueryTask queryTask, Throwable failure,
             AzureStatsDataHolder statsData) {
@@ -219,31 +225,92 @@ public class AzureComputeHostStatsGatherer extends StatelessService {
             return;
         }
 
+        if (AzureComputeHostStatsRollup.ENABLED) {
+            ComputeStats computeStats = getRolledUpComputeHostStats(statsData);
+            if (computeStats != null) {
+                statsData.statsResponse = computeStats;
+                statsData.stage = ComputeHostMetricsStages.FINISHED;
+                handleMetricDiscovery(statsData);
+                return;
+            }
+        }
+
+        long minTimestampMicros = getMinTimestampMicros(Utils.getNowMicrosUtc());
+
         // Create multiple operations, one each for a VM compute.
         List<Operation> statOperations = new ArrayList<>(computeCount);
         for (String computeLink : statsData.childComputeLinks) {
-            Operation statsOp = getStatsQueryTaskOperation(statsData, computeLink);
+            Operation statsOp = getStatsQueryTaskOperation(statsData, computeLink,
+                    minTimestampMicros);
             statOperations.add(statsOp);
         }
 
         OperationJoin.create(statOperations)
-                .setCompletion((ops, failures) ->
-                        handleQueryTaskResponseAndConsolidateStats(ops, failures, statsData))
+                .setCompletion((ops, failures) -> handleQueryTaskResponseAndConsolidateStats(
+                        ops, failures, statsData, minTimestampMicros))
                 .sendWith(this, 50);
     }
 
+    /**
+     * Returns the lower bound of the timestamps of the VM metrics read by the query path, or 0 if
+     * they are not bounded. The metrics are bounded to the last collection period only with the
+     * opt-in rollup or block storage: by default all persisted metrics are read as before, since
+     * the latest metrics of a VM may be older than that, e.g. when they were collected late.
+     */
+    static long getMinTimestampMicros(long nowMicros) {
+        if (!AzureComputeHostStatsRollup.ENABLED
+                && !ResourceMetricsBlockService.BLOCK_STORAGE_ENABLED) {
+            return 0;
+        }
+        return nowMicros - TimeUnit.MINUTES.toMicros(AzureConstants.METRIC_COLLECTION_PERIOD);
+    }
+
     /**
      * Create a query task for each compute VM and return the operation.
      */
-    private Operation getStatsQueryTaskOperation(AzureStatsDataHolder statsData, String computeLink) {
+    private Operation getStatsQueryTaskOperation(AzureStatsDataHolder statsData, String computeLink,
+            long minTimestampMicros) {
+        if (ResourceMetricsBlockService.BLOCK_STORAGE_ENABLED) {
+            return getStatsBlocksQueryTaskOperation(statsData, computeLink, minTimestampMicros);
+        }
         String computeId = UriUtils.getLastPathSegment(computeLink);
         String selfLink = UriUtils.buildUriPath(ResourceMetricsService.FACTORY_LINK, computeId);
 
-        // TODO VSYM-3695: Limit the time boundaries on Azure metrics retrieval for each compute
-        Query query = Query.Builder.create()
+        Query.Builder queryBuilder = Query.Builder.create()
                 .addKindFieldClause(ResourceMetrics.class)
-                .addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK, selfLink, MatchType.PREFIX)
+                .addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK, selfLink, MatchType.PREFIX);
+        if (minTimestampMicros > 0) {
+            queryBuilder.addRangeClause(ResourceMetrics.FIELD_NAME_TIMESTAMP,
+                    NumericRange.createGreaterThanOrEqualRange(minTimestampMicros));
+        }
+        Query query = queryBuilder.build();
+
+        // only the metric entries are aggregated
+        QueryTask queryTask = QueryTask.Builder.createDirectTask()
+                .setQuery(query)
+                .addOption(QueryOption.EXPAND_SELECTED_FIELDS)
+                .addSelectTerm(ResourceMetrics.FIELD_NAME_ENTRIES)
+                .addOption(QueryOption.TOP_RESULTS)
+                .setResultLimit(QueryUtils.DEFAULT_MAX_RESULT_LIMIT)
                 .build();
+        queryTask.tenantLinks = statsData.computeHost.tenantLinks;
+
+        return QueryUtils.createQueryTaskOperation(this, queryTask, ServiceTypeCluster.METRIC_SERVICE);
+    }
+
+    /**
+     * Create a query task for the metric blocks of a compute VM, used instead of
+     * {@link #getStatsQueryTaskOperation} when raw metrics are stored in blocks.
+     */
+    private Operation getStatsBlocksQueryTaskOperation(AzureStatsDataHolder statsData,
+            String computeLink, long minTimestampMicros) {
+        Query.Builder queryBuilder = ResourceMetricsBlockService
+                .createBlocksQueryBuilder(computeLink);
+        if (minTimestampMicros > 0) {
+            queryBuilder.addRangeClause(ResourceMetricsBlock.FIELD_NAME_LAST_TIMESTAMP,
+                    NumericRange.createGreaterThanOrEqualRange(minTimestampMicros));
+        }
+        Query query = queryBuilder.build();
 
         QueryTask queryTask = QueryTask.Builder.createDirectTask()
                 .setQuery(query)
@@ -260,17 +327,18 @@ public class AzureComputeHostStatsGatherer extends StatelessService {
      * Consolidates all the query task responses into one response and patches back.
      */
     private void handleQueryTaskResponseAndConsolidateStats(Map<Long, Operation> ops,
-            Map<Long, Throwable> failures, AzureStatsDataHolder statsData) {
+            Map<Long, Throwable> failures, AzureStatsDataHolder statsData,
+            long minTimestampMicros) {
         try {
             if (failures != null) {
                 sendFailurePatch(statsData, failures.get(0L));
                 return;
             }
-            List<QueryTask> items = new ArrayList<>(ops.size());
+            List<List<ResourceMetrics>> items = new ArrayList<>(ops.size());
 
             for (Operation op : ops.values()) {
                 QueryTask queryResult = op.getBody(QueryTask.class);
-                items.add(queryResult);
+                items.add(getResourceMetrics(queryResult, minTimestampMicros));
             }
 
             statsData.statsResponse = aggregateComputeStatsResponses(statsData, items);
@@ -281,32 +349,78 @@ public class AzureComputeHostStatsGatherer extends StatelessService {
         }
     }
 
+    /**
+     * Returns the compute host stats from the rolled up averages of its current VMs, or
+     * {@code null} if there is no recent bucket, e.g. after a restart.
+     */
+    private ComputeStats getRolledUpComputeHostStats(AzureStatsDataHolder statsData) {
+        long minBucketStartMicros = Utils.getNowMicrosUtc() - TimeUnit.MINUTES.toMicros(
+                (long) AzureComputeHostStatsRollup.BUCKET_MINUTES
+                        * AzureComputeHostStatsRollup.RETAINED_BUCKETS);
+        Map<String, ServiceStat> averages = AzureComputeHostStatsRollup.getInstance(getHost())
+                .getAverages(statsData.computeHost.documentSelfLink, statsData.childComputeLinks,
+                        minBucketStartMicros);
+        if (averages == null) {
+            return null;
+        }
+
+        ComputeStats computeStats = new ComputeStats();
+        computeStats.computeLink = statsData.computeHost.documentSelfLink;
+        computeStats.statValues = new ConcurrentSkipListMap<>();
+        for (Map.Entry<String, ServiceStat> average : averages.entrySet()) {
+            ServiceStat stat = average.getValue();
+            stat.unit = PhotonModelConstants.getUnitForMetric(average.getKey());
+            computeStats.statValues.put(average.getKey(), Collections.singletonList(stat));
+        }
+        return computeStats;
+    }
+
+    /**
+     * Returns the raw metrics of a compute VM from the result of its stats query.
+     */
+    private static List<ResourceMetrics> getResourceMetrics(QueryTask queryResult,
+            long minTimestampMicros) {
+        List<ResourceMetrics> metrics = new ArrayList<>();
+        if (queryResult.results.documents == null) {
+            return metrics;
+        }
+        if (ResourceMetricsBlockService.BLOCK_STORAGE_ENABLED) {
+            // blocks are matched by their last point, so drop their older points
+            for (ResourceMetrics metric : ResourceMetricsBlockService
+                    .toResourceMetrics(queryResult.results.documents.values())) {
+                if (metric.timestampMicrosUtc >= minTimestampMicros) {
+                    metrics.add(metric);
+                }
+            }
+            return metrics;
+        }
+        for (Object document : queryResult.results.documents.values()) {
+            metrics.add(Utils.fromJson(document, ResourceMetrics.class));
+        }
+        return metrics;
+    }
+
     /**
      * Aggregates stats from all the compute VMs to make up compute Host stats.
      */
     private ComputeStats aggregateComputeStatsResponses(
-            AzureStatsDataHolder statsData, List<QueryTask> items) {
+            AzureStatsDataHolder statsData, List<List<ResourceMetrics>> items) {
         int numberOfComputeResponse = items.size();
         ComputeStats computeStats = new ComputeStats();
         computeStats.computeLink = statsData.computeHost.documentSelfLink;
 
         Map<String, ServiceStat> statMap = new HashMap<>();
         // Gather all the stats in a single response.
-        for (QueryTask queryResult : items) {
-            if (queryResult.results.documents != null) {
-                for (String key : queryResult.results.documents.keySet()) {
-                    ResourceMetrics metric = Utils
-                            .fromJson(queryResult.results.documents.get(key),
-                            ResourceMetrics.class);
-                    for (Map.Entry<String, Double> entry : metric.entries.entrySet()) {
-                        String metricName = entry.getKey();
-                        if (statMap.containsKey(metricName)) {
-                            statMap.get(metricName).latestValue += entry.getValue();
-                        } else {
-                            ServiceStat stat = new ServiceStat();
-                            stat.latestValue = entry.getValue();
-                            statMap.put(metricName, stat);
-                        }
+        for (List<ResourceMetrics> computeMetrics : items) {
+            for (ResourceMetrics metric : computeMetrics) {
+                for (Map.Entry<String, Double> entry : metric.entries.entrySet()) {
+                    String metricName = entry.getKey();
+                    if (statMap.containsKey(metricName)) {
+                        statMap.get(metricName).latestValue += entry.getValue();
+                    } else {
+                        ServiceStat stat = new ServiceStat();
+                        stat.latestValue = entry.getValue();
+                        statMap.put(metricName, stat);
                     }
                 }
             }
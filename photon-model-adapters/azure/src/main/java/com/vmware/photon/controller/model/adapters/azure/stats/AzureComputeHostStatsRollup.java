@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.azure.stats;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+
+/**
+ * Running per compute host averages of the metrics of its VMs, maintained as the VM metrics are
+ * collected, so that the compute host stats do not have to be computed from the persisted
+ * metrics of all VMs.
+ * <p>
+ * The data points are rolled up in time buckets of {@link #BUCKET_MINUTES}. Within a bucket the
+ * latest value of each VM and metric is kept. Only the latest {@link #RETAINED_BUCKETS} buckets
+ * of a compute host are kept, and the averages are taken over the latest value of each VM in
+ * these buckets, as the VMs of a compute host are not all collected in the same bucket.
+ */
+public class AzureComputeHostStatsRollup {
+
+    public static final String ENABLED_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "AzureComputeHostStatsRollup.enabled";
+    public static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    public static final String BUCKET_MINUTES_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "AzureComputeHostStatsRollup.bucketMinutes";
+    public static final int BUCKET_MINUTES = Integer.getInteger(BUCKET_MINUTES_PROPERTY, 5);
+
+    public static final String RETAINED_BUCKETS_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "AzureComputeHostStatsRollup.retainedBuckets";
+    public static final int RETAINED_BUCKETS = Math.max(1,
+            Integer.getInteger(RETAINED_BUCKETS_PROPERTY, 3));
+
+    private static final Map<ServiceHost, AzureComputeHostStatsRollup> rollups =
+            new ConcurrentHashMap<>();
+
+    private final long bucketSizeMicros;
+    private final int retainedBuckets;
+
+    /**
+     * The buckets of each compute host, by bucket start time.
+     */
+    private final Map<String, TreeMap<Long, Bucket>> bucketsByComputeHost =
+            new ConcurrentHashMap<>();
+
+    AzureComputeHostStatsRollup(long bucketSizeMicros, int retainedBuckets) {
+        this.bucketSizeMicros = bucketSizeMicros;
+        this.retainedBuckets = retainedBuckets;
+    }
+
+    /**
+     * Returns the rollup of the given host.
+     */
+    public static AzureComputeHostStatsRollup getInstance(ServiceHost host) {
+        return rollups.computeIfAbsent(host, h -> new AzureComputeHostStatsRollup(
+                TimeUnit.MINUTES.toMicros(BUCKET_MINUTES), RETAINED_BUCKETS));
+    }
+
+    /**
+     * Adds the collected data points of a VM to the rollup of its compute host.
+     *
+     * @param computeHostLink The link of the compute host of the VM.
+     * @param computeLink The link of the VM.
+     * @param statValues The data points of the VM by metric name.
+     */
+    public void add(String computeHostLink, String computeLink,
+            Map<String, List<ServiceStat>> statValues) {
+        TreeMap<Long, Bucket> buckets = this.bucketsByComputeHost.computeIfAbsent(
+                computeHostLink, k -> new TreeMap<>());
+
+        synchronized (buckets) {
+            for (Entry<String, List<ServiceStat>> metric : statValues.entrySet()) {
+                for (ServiceStat stat : metric.getValue()) {
+                    if (Double.isNaN(stat.latestValue)) {
+                        continue;
+                    }
+                    long bucketStart = stat.sourceTimeMicrosUtc
+                            - stat.sourceTimeMicrosUtc % this.bucketSizeMicros;
+                    if (!buckets.isEmpty() && bucketStart < buckets.lastKey()
+                            - (this.retainedBuckets - 1) * this.bucketSizeMicros) {
+                        // older than the retained buckets
+                        continue;
+                    }
+                    buckets.computeIfAbsent(bucketStart, k -> new Bucket())
+                            .add(metric.getKey(), computeLink, stat);
+                }
+            }
+            while (buckets.size() > this.retainedBuckets) {
+                buckets.pollFirstEntry();
+            }
+        }
+    }
+
+    /**
+     * Returns the averages over the VMs of a compute host of their latest values in the retained
+     * buckets, if the latest bucket starts after the given time. VMs which are no longer children
+     * of the compute host are left out and removed from the rollup.
+     *
+     * @param computeHostLink The link of the compute host.
+     * @param computeLinks The links of the current VMs of the compute host.
+     * @param minBucketStartMicros The earliest start time of the latest bucket.
+     * @return The average of each metric, or {@code null} if there is no recent bucket or none of
+     *         the VMs has values in the retained buckets.
+     */
+    public Map<String, ServiceStat> getAverages(String computeHostLink,
+            Collection<String> computeLinks, long minBucketStartMicros) {
+        TreeMap<Long, Bucket> buckets = this.bucketsByComputeHost.get(computeHostLink);
+        if (buckets == null) {
+            return null;
+        }
+
+        synchronized (buckets) {
+            if (buckets.isEmpty() || buckets.lastKey() < minBucketStartMicros) {
+                return null;
+            }
+
+            // the latest value of each VM, from the most recent bucket it reported into
+            Map<String, Map<String, ServiceStat>> latestValues = new HashMap<>();
+            for (Bucket bucket : buckets.descendingMap().values()) {
+                bucket.retainAll(computeLinks);
+                for (Entry<String, MetricAggregate> metric : bucket.metrics.entrySet()) {
+                    Map<String, ServiceStat> values = latestValues.computeIfAbsent(
+                            metric.getKey(), k -> new HashMap<>());
+                    metric.getValue().values.forEach(values::putIfAbsent);
+                }
+            }
+
+            Map<String, ServiceStat> averages = new HashMap<>();
+            for (Entry<String, Map<String, ServiceStat>> metric : latestValues.entrySet()) {
+                if (metric.getValue().isEmpty()) {
+                    continue;
+                }
+                double sum = 0;
+                long latestTimeMicrosUtc = 0;
+                for (ServiceStat value : metric.getValue().values()) {
+                    sum += value.latestValue;
+                    latestTimeMicrosUtc = Math.max(latestTimeMicrosUtc, value.sourceTimeMicrosUtc);
+                }
+                ServiceStat stat = new ServiceStat();
+                stat.latestValue = sum / metric.getValue().size();
+                stat.sourceTimeMicrosUtc = latestTimeMicrosUtc;
+                averages.put(metric.getKey(), stat);
+            }
+            return averages.isEmpty() ? null : averages;
+        }
+    }
+
+    /**
+     * The aggregates of the metrics of one time bucket, by metric name.
+     */
+    private static final class Bucket {
+        final Map<String, MetricAggregate> metrics = new HashMap<>();
+
+        void add(String metricName, String computeLink, ServiceStat stat) {
+            this.metrics.computeIfAbsent(metricName, k -> new MetricAggregate())
+                    .add(computeLink, stat);
+        }
+
+        /**
+         * Removes the values of the VMs which are not in the given collection.
+         */
+        void retainAll(Collection<String> computeLinks) {
+            Iterator<MetricAggregate> it = this.metrics.values().iterator();
+            while (it.hasNext()) {
+                MetricAggregate metric = it.next();
+                metric.values.keySet().retainAll(computeLinks);
+                if (metric.values.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * The latest value of each VM of a metric in a time bucket.
+     */
+    private static final class MetricAggregate {
+        final Map<String, ServiceStat> values = new HashMap<>();
+
+        void add(String computeLink, ServiceStat stat) {
+            ServiceStat previous = this.values.get(computeLink);
+            if (previous != null && previous.sourceTimeMicrosUtc > stat.sourceTimeMicrosUtc) {
+                return;
+            }
+            // keep a copy, as the collected stat is sent on and persisted
+            ServiceStat value = new ServiceStat();
+            value.latestValue = stat.latestValue;
+            value.sourceTimeMicrosUtc = stat.sourceTimeMicrosUtc;
+            this.values.put(computeLink, value);
+        }
+    }
+}
@@ -391,6 +391,13 @@ public class AzureComputeStatsGatherer extends StatelessService {
             if (this.statsData.numResponses.incrementAndGet() == METRIC_NAMES.length) {
                 SingleResourceStatsCollectionTaskState respBody = new SingleResourceStatsCollectionTaskState();
                 this.statsData.statsResponse.computeLink = this.statsData.computeDesc.documentSelfLink;
+                if (AzureComputeHostStatsRollup.ENABLED
+                        && this.statsData.computeDesc.parentLink != null) {
+                    AzureComputeHostStatsRollup.getInstance(getHost()).add(
+                            this.statsData.computeDesc.parentLink,
+                            this.statsData.computeDesc.documentSelfLink,
+                            this.statsData.statsResponse.statValues);
+                }
                 respBody.taskStage = SingleResourceTaskCollectionStage.valueOf(this.statsData.statsRequest.nextStage);
                 respBody.statsList = new ArrayList<>();
                 respBody.statsList.add(this.statsData.statsResponse);
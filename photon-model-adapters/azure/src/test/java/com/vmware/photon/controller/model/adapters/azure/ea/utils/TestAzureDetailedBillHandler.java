@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.azure.ea.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapters.azure.ea.utils.AzureDetailedBillHandler.BillHeaders;
+import com.vmware.photon.controller.model.adapters.azure.model.cost.AzureSubscription;
+import com.vmware.photon.controller.model.adapters.azure.model.cost.BillParsingStatus;
+
+/**
+ * Unit test for {@link AzureDetailedBillHandler}
+ */
+public class TestAzureDetailedBillHandler {
+
+    private static final int DAYS = 3;
+    private static final String[] SUBSCRIPTIONS = { "subscription-1", "subscription-2" };
+    private static final LocalDate FIRST_DAY = new LocalDate(2018, 3, 1);
+
+    private File billFile;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        this.executor = Executors.newFixedThreadPool(4);
+        this.billFile = File.createTempFile("azure-detailed-bill", ".csv");
+        List<String> lines = new ArrayList<>();
+        lines.add("Usage Data Extract,");
+        lines.add("Provisioning Status: Complete,");
+        lines.add(String.join(",", Collections.nCopies(BillHeaders.values().length, "Header")));
+        for (int day = 0; day < DAYS; day++) {
+            for (int i = 0; i < SUBSCRIPTIONS.length; i++) {
+                // a resource of each subscription, with quoted values across lines
+                lines.add(row(day, SUBSCRIPTIONS[i], "vm-" + i, i + 1));
+                lines.add(row(day, SUBSCRIPTIONS[i], "disk-" + i, 10 * (i + 1)));
+            }
+            // a malformed row
+            lines.add("malformed,row");
+        }
+        Files.write(this.billFile.toPath(), lines, StandardCharsets.UTF_8);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+        this.billFile.delete();
+    }
+
+    @Test
+    public void testParseDayByDay() throws IOException {
+        for (int aggregationThreads : new int[] { 1, 2, 4 }) {
+            AzureDetailedBillHandler billHandler = new AzureDetailedBillHandler(this.executor,
+                    aggregationThreads);
+            BillParsingStatus status = new BillParsingStatus();
+            List<Map<String, AzureSubscription>> batches = new ArrayList<>();
+            List<Long> parsingCompleteTimes = new ArrayList<>();
+
+            while (!status.isParsingComplete()) {
+                long previousOffset = status.getNoBytesRead();
+                status = billHandler.parseDetailedCsv(this.billFile, Collections.emptySet(),
+                        status, 0, "USD", (batch, parsingCompleteTime) -> {
+                            batches.add(batch);
+                            parsingCompleteTimes.add(parsingCompleteTime);
+                        });
+                assertTrue(status.isParsingComplete()
+                        || status.getNoBytesRead() > previousOffset);
+            }
+
+            // each day is passed on once, with the costs of the rows of that day only
+            assertEquals(DAYS, batches.size());
+            for (int day = 0; day < DAYS; day++) {
+                Map<String, AzureSubscription> batch = batches.get(day);
+                assertEquals(SUBSCRIPTIONS.length, batch.size());
+                for (int i = 0; i < SUBSCRIPTIONS.length; i++) {
+                    AzureSubscription subscription = batch.get(SUBSCRIPTIONS[i]);
+                    assertEquals(Collections.singletonMap(getDayMillis(day), 11.0 * (i + 1)),
+                            subscription.cost);
+                    assertEquals(2, subscription.getServices().get("Virtual Machines")
+                            .resourceDetailsMap.size());
+                }
+            }
+            assertEquals(Long.valueOf(getDayMillis(DAYS - 1)),
+                    parsingCompleteTimes.get(DAYS - 1));
+
+            // the executor of the caller is left running
+            assertFalse(this.executor.isShutdown());
+        }
+    }
+
+    @Test
+    public void testReadFromOffset() throws IOException {
+        long secondRowOffset;
+        try (AzureDetailedBillReader reader = new AzureDetailedBillReader(this.billFile, 0, 0)) {
+            reader.skipLines(3);
+            String[] firstRow = reader.readNext();
+            assertEquals(BillHeaders.values().length, firstRow.length);
+            assertEquals("line 1\nline 2, with comma",
+                    firstRow[BillHeaders.ADDITIONAL_INFO.position]);
+            secondRowOffset = reader.getPosition();
+            assertEquals(5, reader.getLinesRead());
+        }
+
+        try (AzureDetailedBillReader reader = new AzureDetailedBillReader(this.billFile,
+                secondRowOffset, 5)) {
+            String[] secondRow = reader.readNext();
+            assertEquals("disk-0", secondRow[BillHeaders.INSTANCE_ID.position]);
+            assertEquals(7, reader.getLinesRead());
+            assertFalse(reader.getPosition() == secondRowOffset);
+        }
+    }
+
+    private static String row(int day, String subscriptionGuid, String instanceId, double cost) {
+        LocalDate date = FIRST_DAY.plusDays(day);
+        String[] values = new String[BillHeaders.values().length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = "";
+        }
+        values[BillHeaders.ACCOUNT_OWNER_ID.position] = "owner@example.com";
+        values[BillHeaders.ACCOUNT_NAME.position] = "account";
+        values[BillHeaders.SUBSCRIPTION_GUID.position] = subscriptionGuid;
+        values[BillHeaders.SUBSCRIPTION_NAME.position] = "name of " + subscriptionGuid;
+        values[BillHeaders.DATE.position] = date.toString("MM/dd/yyyy");
+        values[BillHeaders.MONTH.position] = Integer.toString(date.getMonthOfYear());
+        values[BillHeaders.DAY.position] = Integer.toString(date.getDayOfMonth());
+        values[BillHeaders.YEAR.position] = Integer.toString(date.getYear());
+        values[BillHeaders.METER_CATEGORY.position] = "Virtual Machines";
+        values[BillHeaders.CONSUMED_QUANTITY.position] = "1";
+        values[BillHeaders.RESOURCE_RATE.position] = Double.toString(cost);
+        values[BillHeaders.EXTENDED_COST.position] = Double.toString(cost);
+        values[BillHeaders.INSTANCE_ID.position] = instanceId;
+        values[BillHeaders.ADDITIONAL_INFO.position] = "\"line 1\nline 2, with comma\"";
+        return String.join(",", values);
+    }
+
+    private static long getDayMillis(int day) {
+        return FIRST_DAY.plusDays(day).toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+    }
+}
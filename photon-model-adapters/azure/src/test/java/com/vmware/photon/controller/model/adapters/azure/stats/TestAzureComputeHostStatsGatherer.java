@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.azure.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapterapi.ComputeStatsRequest;
+import com.vmware.photon.controller.model.adapterapi.ComputeStatsResponse.ComputeStats;
+import com.vmware.photon.controller.model.adapters.azure.constants.AzureConstants;
+import com.vmware.photon.controller.model.constants.PhotonModelConstants;
+import com.vmware.photon.controller.model.helpers.BaseModelTest;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsService;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.ResourceMetrics;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.photon.controller.model.resources.ComputeService;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Unit test for {@link AzureComputeHostStatsGatherer}
+ */
+public class TestAzureComputeHostStatsGatherer extends BaseModelTest {
+
+    private static final String CPU = PhotonModelConstants.CPU_UTILIZATION_PERCENT;
+
+    private ComputeState computeHost;
+
+    @Before
+    public void startGatherer() throws Throwable {
+        if (this.host.getServiceStage(AzureComputeHostStatsGatherer.SELF_LINK) == null) {
+            this.host.startService(new AzureComputeHostStatsGatherer());
+            this.host.waitForServiceAvailable(AzureComputeHostStatsGatherer.SELF_LINK);
+        }
+
+        ComputeDescription description = new ComputeDescription();
+        description.name = "test-azure-description";
+        description = postServiceSynchronously(ComputeDescriptionService.FACTORY_LINK,
+                description, ComputeDescription.class);
+
+        ComputeState computeHost = new ComputeState();
+        computeHost.name = "test-azure-compute-host";
+        computeHost.descriptionLink = description.documentSelfLink;
+        this.computeHost = postServiceSynchronously(ComputeService.FACTORY_LINK, computeHost,
+                ComputeState.class);
+    }
+
+    /**
+     * Without the opt-in rollup and block storage, the host stats are aggregated from all
+     * persisted VM metrics, including those older than the last collection period.
+     */
+    @Test
+    public void testFallbackPathReadsMetricsOlderThanCollectionPeriod() throws Throwable {
+        assertEquals(0, AzureComputeHostStatsGatherer.getMinTimestampMicros(
+                Utils.getNowMicrosUtc()));
+
+        long oldTimestampMicros = Utils.getNowMicrosUtc()
+                - TimeUnit.MINUTES.toMicros(2 * AzureConstants.METRIC_COLLECTION_PERIOD);
+        createVmWithMetric(10, oldTimestampMicros);
+        createVmWithMetric(30, oldTimestampMicros);
+
+        ComputeStatsRequest request = new ComputeStatsRequest();
+        request.resourceReference = UriUtils.buildUri(this.host,
+                this.computeHost.documentSelfLink);
+        Operation response = this.host.getTestRequestSender().sendAndWait(Operation
+                .createPatch(this.host, AzureComputeHostStatsGatherer.SELF_LINK)
+                .setBody(request));
+
+        ComputeStats stats = response.getBody(ComputeStats.class);
+        List<ServiceStat> cpu = stats.statValues.get(CPU);
+        assertNotNull(cpu);
+        assertEquals(20, cpu.get(0).latestValue, 0);
+    }
+
+    private void createVmWithMetric(double cpu, long timestampMicros) throws Throwable {
+        ComputeState vm = new ComputeState();
+        vm.name = "test-azure-vm";
+        vm.descriptionLink = this.computeHost.descriptionLink;
+        vm.parentLink = this.computeHost.documentSelfLink;
+        vm = postServiceSynchronously(ComputeService.FACTORY_LINK, vm, ComputeState.class);
+
+        ResourceMetrics metrics = new ResourceMetrics();
+        metrics.documentSelfLink = UriUtils.getLastPathSegment(vm.documentSelfLink) + "-"
+                + UUID.randomUUID();
+        metrics.timestampMicrosUtc = timestampMicros;
+        metrics.entries = Collections.singletonMap(CPU, cpu);
+        postServiceSynchronously(ResourceMetricsService.FACTORY_LINK, metrics,
+                ResourceMetrics.class);
+    }
+}
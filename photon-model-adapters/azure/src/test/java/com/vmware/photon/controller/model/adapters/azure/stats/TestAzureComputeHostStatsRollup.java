@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.azure.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.constants.PhotonModelConstants;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+
+/**
+ * Unit test for {@link AzureComputeHostStatsRollup}
+ */
+public class TestAzureComputeHostStatsRollup {
+
+    private static final String HOST_LINK = "/resources/compute/host";
+    private static final String CPU = PhotonModelConstants.CPU_UTILIZATION_PERCENT;
+    private static final long BUCKET_MICROS = TimeUnit.MINUTES.toMicros(5);
+    private static final Collection<String> VM_LINKS = Arrays.asList("/vm-1", "/vm-2");
+
+    @Test
+    public void testAverageOverVms() {
+        AzureComputeHostStatsRollup rollup = new AzureComputeHostStatsRollup(BUCKET_MICROS, 3);
+
+        rollup.add(HOST_LINK, "/vm-1", stats(10, BUCKET_MICROS));
+        rollup.add(HOST_LINK, "/vm-2", stats(30, BUCKET_MICROS + 1));
+
+        ServiceStat average = rollup.getAverages(HOST_LINK, VM_LINKS, 0).get(CPU);
+        assertEquals(20, average.latestValue, 0);
+        assertEquals(BUCKET_MICROS + 1, average.sourceTimeMicrosUtc);
+
+        // a later value of a VM within the bucket replaces its previous value
+        rollup.add(HOST_LINK, "/vm-1", stats(50, BUCKET_MICROS + 2));
+        assertEquals(40, rollup.getAverages(HOST_LINK, VM_LINKS, 0).get(CPU).latestValue, 0);
+
+        // an earlier value does not
+        rollup.add(HOST_LINK, "/vm-1", stats(0, BUCKET_MICROS));
+        assertEquals(40, rollup.getAverages(HOST_LINK, VM_LINKS, 0).get(CPU).latestValue, 0);
+
+        assertNull(rollup.getAverages("/resources/compute/other-host", VM_LINKS, 0));
+    }
+
+    @Test
+    public void testRetainedBuckets() {
+        AzureComputeHostStatsRollup rollup = new AzureComputeHostStatsRollup(BUCKET_MICROS, 2);
+
+        rollup.add(HOST_LINK, "/vm-1", stats(10, BUCKET_MICROS));
+        rollup.add(HOST_LINK, "/vm-1", stats(20, 2 * BUCKET_MICROS));
+        rollup.add(HOST_LINK, "/vm-1", stats(30, 3 * BUCKET_MICROS));
+
+        // the averages are those of the latest values
+        assertEquals(30, rollup.getAverages(HOST_LINK, VM_LINKS, 0).get(CPU).latestValue, 0);
+
+        // data points older than the retained buckets are ignored
+        rollup.add(HOST_LINK, "/vm-2", stats(100, BUCKET_MICROS));
+        assertEquals(30, rollup.getAverages(HOST_LINK, VM_LINKS, 0).get(CPU).latestValue, 0);
+
+        // the latest bucket is not recent enough
+        assertNull(rollup.getAverages(HOST_LINK, VM_LINKS, 4 * BUCKET_MICROS));
+    }
+
+    @Test
+    public void testAverageOverAdjacentBuckets() {
+        AzureComputeHostStatsRollup rollup = new AzureComputeHostStatsRollup(BUCKET_MICROS, 3);
+
+        // the VMs are collected at different times and report into adjacent buckets
+        rollup.add(HOST_LINK, "/vm-1", stats(10, BUCKET_MICROS - 1));
+        rollup.add(HOST_LINK, "/vm-2", stats(30, BUCKET_MICROS + 1));
+
+        ServiceStat average = rollup.getAverages(HOST_LINK, VM_LINKS, 0).get(CPU);
+        assertEquals(20, average.latestValue, 0);
+        assertEquals(BUCKET_MICROS + 1, average.sourceTimeMicrosUtc);
+
+        // only the latest value of a VM is averaged
+        rollup.add(HOST_LINK, "/vm-1", stats(50, BUCKET_MICROS + 2));
+        assertEquals(40, rollup.getAverages(HOST_LINK, VM_LINKS, 0).get(CPU).latestValue, 0);
+    }
+
+    @Test
+    public void testRemovedVmsAreNotAveraged() {
+        AzureComputeHostStatsRollup rollup = new AzureComputeHostStatsRollup(BUCKET_MICROS, 3);
+
+        rollup.add(HOST_LINK, "/vm-1", stats(10, BUCKET_MICROS));
+        rollup.add(HOST_LINK, "/vm-2", stats(30, BUCKET_MICROS + 1));
+
+        assertEquals(10, rollup.getAverages(HOST_LINK, Collections.singleton("/vm-1"), 0)
+                .get(CPU).latestValue, 0);
+
+        // the values of the removed VM are dropped
+        assertEquals(10, rollup.getAverages(HOST_LINK, VM_LINKS, 0).get(CPU).latestValue, 0);
+
+        assertNull(rollup.getAverages(HOST_LINK, Collections.singleton("/vm-3"), 0));
+    }
+
+    private static Map<String, List<ServiceStat>> stats(double value, long timeMicros) {
+        ServiceStat stat = new ServiceStat();
+        stat.latestValue = value;
+        stat.sourceTimeMicrosUtc = timeMicros;
+        return Collections.singletonMap(CPU, Collections.singletonList(stat));
+    }
+}
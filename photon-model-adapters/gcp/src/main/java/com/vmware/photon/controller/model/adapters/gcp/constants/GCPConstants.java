@@ -28,6 +28,8 @@ public class GCPConstants {
     private static final String BASE_COMPUTE_TEMPLATE_URI = BASE_URI + "/compute/"
             + GCP_API_VERSION + "/projects/%s/zones/%s";
     public static final String LIST_VM_TEMPLATE_URI = BASE_COMPUTE_TEMPLATE_URI + "/instances";
+    public static final String AGGREGATED_LIST_VM_TEMPLATE_URI = BASE_URI + "/compute/"
+            + GCP_API_VERSION + "/projects/%s/aggregated/instances";
     public static final String MONITORING_API_BASE_URI = "https://monitoring.googleapis.com/";
     public static final String MONITORING_API_VERSION = "v3/";
     public static final String MONITORING_API_URI = MONITORING_API_BASE_URI + MONITORING_API_VERSION
@@ -128,7 +130,9 @@ public class GCPConstants {
     public static final String INTERVAL_END_TIME = "interval.endTime";
     public static final String METRIC_TYPE_FILTER = "metric.type";
     public static final String INSTANCE_NAME_FILTER = "resource.label.instance_id";
+    public static final String ZONE_FILTER = "resource.label.zone";
     public static final String RESPONSE_PAGE_SIZE = "pageSize";
+    public static final String TIMESERIES_PAGE_SIZE = "1000";
     public static final String TIME_INTERVAL_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSSSS'Z'";
     // To subtract 4 minutes from the current time and get start time.
     public static final long START_TIME_MILLIS = 240000;
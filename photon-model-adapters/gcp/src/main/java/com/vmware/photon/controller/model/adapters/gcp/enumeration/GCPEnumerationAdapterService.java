@@ -14,6 +14,7 @@
 package com.vmware.photon.controller.model.adapters.gcp.enumeration;
 
 import static com.vmware.photon.controller.model.ComputeProperties.CUSTOM_OS_TYPE;
+import static com.vmware.photon.controller.model.adapters.gcp.constants.GCPConstants.AGGREGATED_LIST_VM_TEMPLATE_URI;
 import static com.vmware.photon.controller.model.adapters.gcp.constants.GCPConstants.AUTH_HEADER_BEARER_PREFIX;
 import static com.vmware.photon.controller.model.adapters.gcp.constants.GCPConstants.DEFAULT_DISK_CAPACITY;
 import static com.vmware.photon.controller.model.adapters.gcp.constants.GCPConstants.DEFAULT_DISK_SERVICE_REFERENCE;
@@ -26,22 +27,20 @@ import static com.vmware.photon.controller.model.adapters.gcp.utils.GCPUtils.ass
 import static com.vmware.photon.controller.model.adapters.gcp.utils.GCPUtils.assignPowerState;
 import static com.vmware.photon.controller.model.adapters.gcp.utils.GCPUtils.extractActualInstanceType;
 import static com.vmware.photon.controller.model.adapters.gcp.utils.GCPUtils.extractRegionFromZone;
-import static com.vmware.photon.controller.model.adapters.gcp.utils.GCPUtils.privateKeyFromPkcs8;
 import static com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription.ENVIRONMENT_NAME_GCP;
 import static com.vmware.photon.controller.model.util.PhotonModelUriUtils.createInventoryUri;
 
-import java.io.IOException;
 import java.net.URI;
-import java.security.GeneralSecurityException;
-import java.security.PrivateKey;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -55,14 +54,14 @@ import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.adapterapi.ComputeEnumerateResourceRequest;
 import com.vmware.photon.controller.model.adapterapi.EnumerationAction;
 import com.vmware.photon.controller.model.adapters.gcp.GCPUriPaths;
-import com.vmware.photon.controller.model.adapters.gcp.podo.authorization.GCPAccessTokenResponse;
 import com.vmware.photon.controller.model.adapters.gcp.podo.vm.GCPDisk;
 import com.vmware.photon.controller.model.adapters.gcp.podo.vm.GCPInstance;
+import com.vmware.photon.controller.model.adapters.gcp.podo.vm.GCPInstancesAggregatedList;
 import com.vmware.photon.controller.model.adapters.gcp.podo.vm.GCPInstancesList;
-import com.vmware.photon.controller.model.adapters.gcp.utils.GCPUtils;
-import com.vmware.photon.controller.model.adapters.gcp.utils.JSONWebToken;
+import com.vmware.photon.controller.model.adapters.gcp.utils.GCPAccessTokenCache;
 import com.vmware.photon.controller.model.adapters.util.AdapterUtils;
 import com.vmware.photon.controller.model.adapters.util.TaskManager;
+import com.vmware.photon.controller.model.adapters.util.enums.EndpointEnumerationProcess;
 import com.vmware.photon.controller.model.adapters.util.enums.EnumerationStages;
 import com.vmware.photon.controller.model.query.QueryUtils;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
@@ -77,6 +76,7 @@ import com.vmware.photon.controller.model.resources.DiskService.DiskType;
 import com.vmware.photon.controller.model.resources.ResourceGroupService.ResourceGroupState;
 import com.vmware.photon.controller.model.security.util.EncryptionUtils;
 import com.vmware.photon.controller.model.util.PhotonModelUriUtils;
+import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.OperationJoin;
 import com.vmware.xenon.common.ServiceDocumentQueryResult;
@@ -87,6 +87,7 @@ import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
 import com.vmware.xenon.services.common.QueryTask;
 import com.vmware.xenon.services.common.QueryTask.NumericRange;
+import com.vmware.xenon.services.common.QueryTask.Query;
 import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
 
 /**
@@ -110,6 +111,23 @@ public class GCPEnumerationAdapterService extends StatelessService {
     private static final String VM_PAGE_SIZE = String.valueOf(Math.min(
             Integer.getInteger(PROPERTY_NAME_ENUM_VM_PAGE_SIZE, 50), 500));
 
+    /**
+     * Whether an enumeration with an endpoint link enumerates all zones of the project, listing
+     * the instances with one aggregated list instead of the instances of the host zone only.
+     */
+    public static final String PROJECT_ENUMERATION_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "GCPEnumerationAdapterService.projectEnumeration";
+    private static final boolean PROJECT_ENUMERATION = Boolean
+            .getBoolean(PROJECT_ENUMERATION_PROPERTY);
+
+    /**
+     * The maximum number of zones reconciled concurrently by a project enumeration.
+     */
+    public static final String ZONE_CONCURRENCY_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "GCPEnumerationAdapterService.zoneConcurrency";
+    private static final int ZONE_CONCURRENCY = Math.max(1,
+            Integer.getInteger(ZONE_CONCURRENCY_PROPERTY, 4));
+
     /**
      * SubStages to handle GCP VMs data collection.
      */
@@ -122,7 +140,7 @@ public class GCPEnumerationAdapterService extends StatelessService {
         FINISHED
     }
 
-    private static class EnumerationContext {
+    static class EnumerationContext {
         // Basic fields
         ComputeEnumerateResourceRequest enumRequest;
         ComputeDescription computeHostDesc;
@@ -197,19 +215,11 @@ public class GCPEnumerationAdapterService extends StatelessService {
             getResourceGroup(ctx, EnumerationStages.CLIENT);
             break;
         case CLIENT:
-            try {
-                // The access token will expire in one hour.
-                // And this access token can be only used for readonly operations.
-                getAccessToken(ctx, ctx.userEmail,
-                        Collections.singleton(ComputeScopes.COMPUTE_READONLY),
-                        privateKeyFromPkcs8(ctx.privateKey), EnumerationStages.ENUMERATE);
-            } catch (Throwable e) {
-                logSevere(e);
-                ctx.error = e;
-                ctx.stage = EnumerationStages.ERROR;
-                handleEnumerationRequest(ctx);
-                return;
-            }
+            // The access token will expire in one hour.
+            // And this access token can be only used for readonly operations.
+            getAccessToken(ctx, ctx.userEmail,
+                    Collections.singleton(ComputeScopes.COMPUTE_READONLY), ctx.privateKey,
+                    EnumerationStages.ENUMERATE);
             break;
         case ENUMERATE:
             switch (ctx.enumRequest.enumerationAction) {
@@ -219,6 +229,10 @@ public class GCPEnumerationAdapterService extends StatelessService {
                 handleEnumerationRequest(ctx);
                 break;
             case REFRESH:
+                if (PROJECT_ENUMERATION && ctx.enumRequest.endpointLink != null) {
+                    enumerateProject(ctx);
+                    break;
+                }
                 ctx.subStage = EnumerationSubStages.LIST_REMOTE_VMS;
                 handleSubStage(ctx);
                 break;
@@ -439,6 +453,51 @@ public class GCPEnumerationAdapterService extends StatelessService {
     private void createHelper(EnumerationContext ctx, GCPInstance virtualMachine, AtomicInteger size) {
         List<Operation> operations = new ArrayList<>();
 
+        ComputeDescription computeDescription = newComputeDescription(ctx, virtualMachine);
+        Operation compDescOp = Operation
+                .createPost(getHost(), ComputeDescriptionService.FACTORY_LINK)
+                .setBody(computeDescription);
+        operations.add(compDescOp);
+
+        DiskState rootDisk = newRootDisk(ctx, virtualMachine);
+        Operation diskOp = Operation.createPost(getHost(), DiskService.FACTORY_LINK)
+                .setBody(rootDisk);
+        operations.add(diskOp);
+
+        ComputeState resource = newComputeState(ctx, virtualMachine, computeDescription, rootDisk);
+        resource.tenantLinks = ctx.computeHostDesc.tenantLinks;
+        Operation resourceOp = Operation
+                .createPost(getHost(), ComputeService.FACTORY_LINK)
+                .setBody(resource);
+        operations.add(resourceOp);
+
+        OperationJoin.create(operations)
+                .setCompletion((ops, exs) -> {
+                    if (exs != null) {
+                        exs.values().forEach(ex -> logWarning(() -> String.format("Error: %s",
+                                ex.getMessage())));
+                    }
+                    if (size.decrementAndGet() == 0) {
+                        ctx.virtualMachines.clear();
+                        if (ctx.enumNextPageLink != null) {
+                            ctx.subStage = EnumerationSubStages.LIST_REMOTE_VMS;
+                        } else {
+                            logFine(() -> "Finished creating compute states");
+                            ctx.subStage = EnumerationSubStages.DELETE_LOCAL_VMS;
+                        }
+                        handleSubStage(ctx);
+                    }
+                }).sendWith(this);
+    }
+
+    /**
+     * Maps a GCP instance to a new compute description.
+     * @param ctx The Enumeration Context.
+     * @param virtualMachine The virtual machine to be created.
+     * @return The compute description to be created.
+     */
+    private ComputeDescription newComputeDescription(EnumerationContext ctx,
+            GCPInstance virtualMachine) {
         // TODO VSYM-1106: refactor the creation logic here.
         // Create compute description.
         // Map GCP instance data to compute description.
@@ -461,13 +520,17 @@ public class GCPEnumerationAdapterService extends StatelessService {
                 this.getHost().getPort(),
                 GCPUriPaths.GCP_STATS_ADAPTER, null);
         computeDescription.tenantLinks = ctx.computeHostDesc.tenantLinks;
+        return computeDescription;
+    }
 
-        Operation compDescOp = Operation
-                .createPost(getHost(), ComputeDescriptionService.FACTORY_LINK)
-                .setBody(computeDescription);
-        operations.add(compDescOp);
-
-        // Create root disk.
+    /**
+     * Maps the boot disk of a GCP instance to a new root disk. If the instance has no boot
+     * disk, a default root disk is created.
+     * @param ctx The Enumeration Context.
+     * @param virtualMachine The virtual machine to be created.
+     * @return The root disk to be created.
+     */
+    private DiskState newRootDisk(EnumerationContext ctx, GCPInstance virtualMachine) {
         DiskService.DiskState rootDisk = new DiskService.DiskState();
         rootDisk.id = UUID.randomUUID().toString();
         rootDisk.documentSelfLink = rootDisk.id;
@@ -495,11 +558,19 @@ public class GCPEnumerationAdapterService extends StatelessService {
         // No matter we find root disk or not, the root disk should be booted first.
         rootDisk.bootOrder = 1;
         rootDisk.tenantLinks = ctx.computeHostDesc.tenantLinks;
+        return rootDisk;
+    }
 
-        Operation diskOp = Operation.createPost(getHost(), DiskService.FACTORY_LINK)
-                .setBody(rootDisk);
-        operations.add(diskOp);
-
+    /**
+     * Maps a GCP instance to a new compute state, without tenant links.
+     * @param ctx The Enumeration Context.
+     * @param virtualMachine The virtual machine to be created.
+     * @param computeDescription The compute description of the compute state.
+     * @param rootDisk The root disk of the compute state.
+     * @return The compute state to be created.
+     */
+    private ComputeState newComputeState(EnumerationContext ctx, GCPInstance virtualMachine,
+            ComputeDescription computeDescription, DiskState rootDisk) {
         List<String> vmDisks = new ArrayList<>();
         vmDisks.add(UriUtils.buildUriPath(DiskService.FACTORY_LINK, rootDisk.documentSelfLink));
 
@@ -519,32 +590,49 @@ public class GCPEnumerationAdapterService extends StatelessService {
         if (osType != null) {
             resource.customProperties.put(CUSTOM_OS_TYPE, osType);
         }
-        resource.tenantLinks = ctx.computeHostDesc.tenantLinks;
+        resource.zoneId = getZoneName(virtualMachine.zone);
         assignIPAddress(resource, virtualMachine);
         assignPowerState(resource, virtualMachine.status);
+        return resource;
+    }
 
-        Operation resourceOp = Operation
-                .createPost(getHost(), ComputeService.FACTORY_LINK)
-                .setBody(resource);
-        operations.add(resourceOp);
+    /**
+     * Creates the PATCHes of the compute description and the root disk of an existing compute
+     * state, so far the instance type and the auto delete property of the boot disk.
+     * @param computeState The compute state to be updated.
+     * @param vm The virtual machine used to update compute state.
+     * @return The PATCH operations.
+     */
+    private List<Operation> newDescriptionAndDiskPatches(ComputeState computeState,
+            GCPInstance vm) {
+        List<Operation> operations = new ArrayList<>();
 
-        OperationJoin.create(operations)
-                .setCompletion((ops, exs) -> {
-                    if (exs != null) {
-                        exs.values().forEach(ex -> logWarning(() -> String.format("Error: %s",
-                                ex.getMessage())));
-                    }
-                    if (size.decrementAndGet() == 0) {
-                        ctx.virtualMachines.clear();
-                        if (ctx.enumNextPageLink != null) {
-                            ctx.subStage = EnumerationSubStages.LIST_REMOTE_VMS;
-                        } else {
-                            logFine(() -> "Finished creating compute states");
-                            ctx.subStage = EnumerationSubStages.DELETE_LOCAL_VMS;
-                        }
-                        handleSubStage(ctx);
-                    }
-                }).sendWith(this);
+        ComputeDescription computeDescription = new ComputeDescription();
+        computeDescription.instanceType = extractActualInstanceType(vm.machineType);
+        operations.add(Operation.createPatch(getHost(),
+                computeState.descriptionLink).setBody(computeDescription));
+
+        if (vm.disks != null && !vm.disks.isEmpty()) {
+            for (GCPDisk gcpDisk : vm.disks) {
+                if (gcpDisk.boot) {
+                    DiskState diskState = new DiskState();
+                    diskState.customProperties = new HashMap<>();
+                    diskState.customProperties.put(DISK_AUTO_DELETE, gcpDisk.autoDelete.toString());
+                    diskState.documentSelfLink = computeState.diskLinks.get(0);
+                    operations.add(Operation.createPatch(getHost(),
+                            diskState.documentSelfLink).setBody(diskState));
+                    break;
+                }
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Returns the zone name of a zone URL or a zone name.
+     */
+    private static String getZoneName(String zone) {
+        return zone == null ? null : zone.substring(zone.lastIndexOf('/') + 1);
     }
 
     /**
@@ -582,27 +670,11 @@ public class GCPEnumerationAdapterService extends StatelessService {
         ComputeState computeStatePatch = new ComputeState();
         assignIPAddress(computeStatePatch, vm);
         assignPowerState(computeStatePatch, vm.status);
+        computeStatePatch.zoneId = getZoneName(vm.zone);
         operations.add(Operation.createPatch(getHost(),
                 computeState.documentSelfLink).setBody(computeStatePatch));
 
-        ComputeDescription computeDescription = new ComputeDescription();
-        computeDescription.instanceType = extractActualInstanceType(vm.machineType);
-        operations.add(Operation.createPatch(getHost(),
-                computeState.descriptionLink).setBody(computeDescription));
-
-        if (vm.disks != null && !vm.disks.isEmpty()) {
-            for (GCPDisk gcpDisk : vm.disks) {
-                if (gcpDisk.boot) {
-                    DiskState diskState = new DiskState();
-                    diskState.customProperties = new HashMap<>();
-                    diskState.customProperties.put(DISK_AUTO_DELETE, gcpDisk.autoDelete.toString());
-                    diskState.documentSelfLink = computeState.diskLinks.get(0);
-                    operations.add(Operation.createPatch(getHost(),
-                            diskState.documentSelfLink).setBody(diskState));
-                    break;
-                }
-            }
-        }
+        operations.addAll(newDescriptionAndDiskPatches(computeState, vm));
 
         OperationJoin.create(operations)
                 .setCompletion((ops, exs) -> {
@@ -759,6 +831,115 @@ public class GCPEnumerationAdapterService extends StatelessService {
                 }).sendWith(this);
     }
 
+    /**
+     * Enumerate VMs of all zones of the project. The instances are listed by zone with the
+     * aggregated list, and then reconciled by {@link #reconcileProject}.
+     * @param ctx The Enumeration Context.
+     */
+    private void enumerateProject(EnumerationContext ctx) {
+        logFine(() -> String.format("Enumerating VMs of all zones of project %s from GCP",
+                ctx.projectId));
+
+        listInstancesByZone(ctx, null, new HashMap<>())
+                .whenComplete((instancesByZone, e) -> {
+                    if (e != null) {
+                        handleError(ctx, e);
+                        return;
+                    }
+                    reconcileProject(ctx, instancesByZone);
+                });
+    }
+
+    /**
+     * Reconciles the instances of all zones of the project concurrently, at most
+     * {@link #ZONE_CONCURRENCY} zones at a time, by a {@link GCPZoneEnumerationContext} each.
+     * Then the compute states of instances which no longer exist are deleted for the whole
+     * project, as the zone enumeration does, since compute states created by the zone
+     * enumeration have no zone and cannot be found zone by zone.
+     * @param ctx The Enumeration Context.
+     * @param instancesByZone The instances of the project by zone name.
+     */
+    void reconcileProject(EnumerationContext ctx,
+            Map<String, List<GCPInstance>> instancesByZone) {
+        logFine(() -> String.format("Reconciling VMs of %d zones", instancesByZone.size()));
+
+        Iterator<Entry<String, List<GCPInstance>>> zonesIt = instancesByZone.entrySet()
+                .iterator();
+        List<DeferredResult<Void>> workers = new ArrayList<>();
+        int workersCount = Math.min(ZONE_CONCURRENCY, instancesByZone.size());
+        for (int i = 0; i < workersCount; i++) {
+            workers.add(reconcileNextZone(ctx, zonesIt));
+        }
+        DeferredResult.allOf(workers).whenComplete((ignore, e) -> {
+            if (e != null) {
+                handleError(ctx, e);
+                return;
+            }
+            instancesByZone.values().forEach(
+                    instances -> instances.forEach(instance -> ctx.vmIds.add(instance.id)));
+            ctx.subStage = EnumerationSubStages.DELETE_LOCAL_VMS;
+            handleSubStage(ctx);
+        });
+    }
+
+    /**
+     * Lists the instances of all zones of the project, page by page.
+     * @param ctx The Enumeration Context.
+     * @param pageToken The token of the page to list, or null for the first page.
+     * @param instancesByZone The instances of the previous pages by zone name, including zones
+     * without instances.
+     */
+    private DeferredResult<Map<String, List<GCPInstance>>> listInstancesByZone(
+            EnumerationContext ctx, String pageToken,
+            Map<String, List<GCPInstance>> instancesByZone) {
+        URI uri = UriUtils.extendUriWithQuery(UriUtils.buildUri(String.format(
+                AGGREGATED_LIST_VM_TEMPLATE_URI, ctx.projectId)), MAX_RESULTS, VM_PAGE_SIZE);
+        if (pageToken != null) {
+            uri = UriUtils.extendUriWithQuery(uri, PAGE_TOKEN, pageToken);
+        }
+
+        Operation get = Operation.createGet(uri)
+                .addRequestHeader(Operation.AUTHORIZATION_HEADER, AUTH_HEADER_BEARER_PREFIX
+                        + ctx.accessToken);
+        return sendWithDeferredResult(get, GCPInstancesAggregatedList.class)
+                .thenCompose(aggregatedList -> {
+                    if (aggregatedList.items != null) {
+                        aggregatedList.items.forEach((scope, scopedList) -> {
+                            List<GCPInstance> instances = instancesByZone.computeIfAbsent(
+                                    getZoneName(scope), k -> new ArrayList<>());
+                            if (scopedList.instances != null) {
+                                instances.addAll(scopedList.instances);
+                            }
+                        });
+                    }
+                    if (aggregatedList.nextPageToken == null) {
+                        return DeferredResult.completed(instancesByZone);
+                    }
+                    return listInstancesByZone(ctx, aggregatedList.nextPageToken,
+                            instancesByZone);
+                });
+    }
+
+    /**
+     * Reconciles the zones one after the other until there are no zones left.
+     * @param ctx The Enumeration Context.
+     * @param zonesIt The iterator of the zones left, shared by the concurrent workers.
+     */
+    private DeferredResult<Void> reconcileNextZone(EnumerationContext ctx,
+            Iterator<Entry<String, List<GCPInstance>>> zonesIt) {
+        final Entry<String, List<GCPInstance>> zone;
+        synchronized (zonesIt) {
+            if (!zonesIt.hasNext()) {
+                return DeferredResult.completed(null);
+            }
+            zone = zonesIt.next();
+        }
+
+        return new GCPZoneEnumerationContext(this, ctx, zone.getKey(), zone.getValue())
+                .enumerate()
+                .thenCompose(ignore -> reconcileNextZone(ctx, zonesIt));
+    }
+
     /**
      * Method to retrieve the parent compute host on which the enumeration task will be performed.
      * @param ctx The Enumeration Context.
@@ -816,26 +997,26 @@ public class GCPEnumerationAdapterService extends StatelessService {
 
     /**
      * Method to get the access token to send RESTful APIs later.
-     * Every access token is only valid for an hour.
+     * Every access token is only valid for an hour, and is cached per service account by
+     * {@link GCPAccessTokenCache} until shortly before it expires.
      * @param ctx The Enumeration Context.
      * @param clientEmail The client email in service account's credential file.
      * @param scopes The limitation of application's access.
-     * @param privateKey The key generated by private key in service account's credential file.
-     * @throws GeneralSecurityException The exception will be thrown when private key is invalid.
-     * @throws IOException The exception will be thrown when inputs are mal-formatted.
+     * @param privateKey The private key in service account's credential file.
      */
     private void getAccessToken(EnumerationContext ctx, String clientEmail,
-            Collection<String> scopes, PrivateKey privateKey, EnumerationStages next)
-            throws GeneralSecurityException, IOException {
-        Consumer<GCPAccessTokenResponse> onSuccess = response -> {
-            ctx.accessToken = response.access_token;
-            ctx.stage = next;
-            handleEnumerationRequest(ctx);
-        };
-
-        JSONWebToken jwt = new JSONWebToken(clientEmail, scopes, privateKey);
-        String assertion = jwt.getAssertion();
-        GCPUtils.getAccessToken(this, assertion, onSuccess, getFailureConsumer(ctx));
+            Collection<String> scopes, String privateKey, EnumerationStages next) {
+        GCPAccessTokenCache.getAccessToken(this, clientEmail, scopes, privateKey)
+                .whenComplete((accessToken, e) -> {
+                    if (e != null) {
+                        logSevere(e);
+                        getFailureConsumer(ctx).accept(e);
+                        return;
+                    }
+                    ctx.accessToken = accessToken;
+                    ctx.stage = next;
+                    handleEnumerationRequest(ctx);
+                });
     }
 
     /**
@@ -940,4 +1121,128 @@ public class GCPEnumerationAdapterService extends StatelessService {
         }
         return OSType.LINUX.toString();
     }
+
+    /**
+     * Reconciles the instances of one zone of the project with the local compute states of the
+     * project. Compute states of instances which no longer exist are deleted once all zones are
+     * reconciled, by {@link #reconcileProject}.
+     */
+    private static class GCPZoneEnumerationContext extends
+            EndpointEnumerationProcess<GCPZoneEnumerationContext, ComputeState, GCPInstance> {
+
+        private final EnumerationContext ctx;
+        private final String zone;
+        private final List<GCPInstance> instances;
+        private final int pageSize = Integer.parseInt(VM_PAGE_SIZE);
+
+        GCPZoneEnumerationContext(GCPEnumerationAdapterService service,
+                EnumerationContext ctx, String zone, List<GCPInstance> instances) {
+            super(service,
+                    ctx.enumRequest.buildUri(ctx.enumRequest.endpointLink),
+                    ctx.enumRequest.resourceLink(),
+                    ComputeState.class,
+                    ComputeService.FACTORY_LINK,
+                    ctx.enumRequest.deletedResourceExpirationMicros);
+
+            this.ctx = ctx;
+            this.zone = zone;
+            this.instances = instances;
+
+            // Compute states created by the zone enumeration have neither an endpoint link nor
+            // a zone, so local states are matched by parent link only. Their zone is set when
+            // they are updated.
+            setApplyEndpointLink(false);
+        }
+
+        /**
+         * The zones of a project are in different regions, so local states are not matched by
+         * region.
+         */
+        @Override
+        public String getEndpointRegion() {
+            return null;
+        }
+
+        /**
+         * The instances of the zone are already listed, so the pages are taken from them.
+         */
+        @Override
+        protected DeferredResult<RemoteResourcesPage> getExternalResources(String nextPageLink) {
+            int from = nextPageLink == null ? 0 : Integer.parseInt(nextPageLink);
+            int to = Math.min(from + this.pageSize, this.instances.size());
+
+            RemoteResourcesPage page = new RemoteResourcesPage();
+            for (GCPInstance instance : this.instances.subList(from, to)) {
+                page.resourcesPage.put(instance.id.toString(), instance);
+            }
+            page.nextPageLink = to < this.instances.size() ? String.valueOf(to) : null;
+            return DeferredResult.completed(page);
+        }
+
+        /**
+         * Creates the compute description and root disk of a new compute state, or updates the
+         * ones of an existing compute state, as the zone enumeration does.
+         */
+        @Override
+        protected DeferredResult<LocalStateHolder> buildLocalResourceState(GCPInstance vm,
+                ComputeState existingComputeState) {
+            GCPEnumerationAdapterService service = (GCPEnumerationAdapterService) this.service;
+            LocalStateHolder holder = new LocalStateHolder();
+            List<Operation> operations = new ArrayList<>();
+
+            if (existingComputeState == null) {
+                ComputeDescription computeDescription = service
+                        .newComputeDescription(this.ctx, vm);
+                operations.add(Operation
+                        .createPost(service.getHost(), ComputeDescriptionService.FACTORY_LINK)
+                        .setBody(computeDescription));
+
+                DiskState rootDisk = service.newRootDisk(this.ctx, vm);
+                operations.add(Operation.createPost(service.getHost(), DiskService.FACTORY_LINK)
+                        .setBody(rootDisk));
+
+                holder.localState = service.newComputeState(this.ctx, vm, computeDescription,
+                        rootDisk);
+                holder.localState.regionId = extractRegionFromZone(this.zone);
+            } else {
+                operations.addAll(service.newDescriptionAndDiskPatches(existingComputeState, vm));
+
+                holder.localState = new ComputeState();
+                assignIPAddress(holder.localState, vm);
+                assignPowerState(holder.localState, vm.status);
+                holder.localState.zoneId = this.zone;
+            }
+
+            List<DeferredResult<Operation>> results = new ArrayList<>();
+            for (Operation operation : operations) {
+                results.add(service.sendWithDeferredResult(operation));
+            }
+            return DeferredResult.allOf(results).handle((ignore, e) -> {
+                if (e != null) {
+                    // We don't want to fail the whole data collection if some of the
+                    // operation fails.
+                    service.logWarning(() -> String.format("Error: %s", e.getMessage()));
+                }
+                return holder;
+            });
+        }
+
+        @Override
+        protected void customizeLocalStatesQuery(Query.Builder qBuilder) {
+            qBuilder.addFieldClause(ComputeState.FIELD_NAME_RESOURCE_POOL_LINK,
+                    this.ctx.enumRequest.resourcePoolLink)
+                    .addFieldClause(ComputeState.FIELD_NAME_PARENT_LINK,
+                            this.ctx.enumRequest.resourceLink());
+        }
+
+        /**
+         * Only the instances of this zone are known here, so stale compute states are deleted
+         * for the whole project by {@link #reconcileProject} instead.
+         */
+        @Override
+        protected DeferredResult<GCPZoneEnumerationContext> disassociateLocalResourceStates(
+                GCPZoneEnumerationContext context) {
+            return DeferredResult.completed(context);
+        }
+    }
 }
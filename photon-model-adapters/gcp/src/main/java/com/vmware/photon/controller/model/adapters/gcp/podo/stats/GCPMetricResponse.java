@@ -19,4 +19,5 @@ package com.vmware.photon.controller.model.adapters.gcp.podo.stats;
  */
 public class GCPMetricResponse {
     public TimeSeries[] timeSeries;
+    public String nextPageToken;
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.gcp.podo.vm;
+
+import java.util.Map;
+
+/**
+ * The model of responses which consist of the instances on GCP of all zones of a project.
+ * For more information, please see the following url:
+ * https://cloud.google.com/compute/docs/reference/rest/v1/instances/aggregatedList
+ */
+public class GCPInstancesAggregatedList {
+    public String kind;
+    public String selfLink;
+    public String id;
+    // The instances by zone, keyed by "zones/" followed by the zone name.
+    public Map<String, GCPInstancesScopedList> items;
+    // The next page token used to fetch
+    // the next page of instances.
+    public String nextPageToken;
+}
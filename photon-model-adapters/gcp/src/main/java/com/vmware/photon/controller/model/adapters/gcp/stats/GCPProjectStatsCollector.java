@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.gcp.stats;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.vmware.photon.controller.model.adapters.gcp.constants.GCPConstants;
+import com.vmware.photon.controller.model.adapters.gcp.podo.stats.GCPMetricResponse;
+import com.vmware.photon.controller.model.adapters.gcp.podo.stats.TimeSeries;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+
+/**
+ * Collects a metric of all instances of a zone with one paginated Stackdriver timeSeries query,
+ * instead of one query per instance.
+ * <p>
+ * The time series of a project, zone and metric are reused for the given time to live, so the
+ * stats requests of the instances of a zone, which are sent by the same stats collection task,
+ * share a single query.
+ */
+class GCPProjectStatsCollector {
+
+    private final StatelessService service;
+    private final long ttlMillis;
+
+    private final Map<String, CachedTimeSeries> timeSeries = new ConcurrentHashMap<>();
+
+    GCPProjectStatsCollector(StatelessService service, long ttlMillis) {
+        this.service = service;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Gets the time series of a metric of all instances in the given zone.
+     *
+     * @param projectId The id of the project of the instances.
+     * @param zone The zone of the instances.
+     * @param metricName The name of the metric, without the metric name prefix.
+     * @param accessToken The access token to the monitoring API.
+     * @return The time series by instance id.
+     */
+    DeferredResult<Map<String, TimeSeries>> getTimeSeries(String projectId, String zone,
+            String metricName, String accessToken) {
+        long nowMillis = System.currentTimeMillis();
+        this.timeSeries.values().removeIf(cached -> cached.expiresAtMillis <= nowMillis);
+
+        String key = projectId + "/" + zone + "/" + metricName;
+        CachedTimeSeries cached = this.timeSeries.computeIfAbsent(key,
+                k -> new CachedTimeSeries(nowMillis + this.ttlMillis));
+        synchronized (cached) {
+            if (cached.result == null) {
+                cached.result = getTimeSeries(projectId, zone, metricName, accessToken, null,
+                        new HashMap<>());
+                // do not reuse failures
+                cached.result.whenComplete((result, e) -> {
+                    if (e != null) {
+                        this.timeSeries.remove(key, cached);
+                    }
+                });
+            }
+            return cached.result;
+        }
+    }
+
+    private DeferredResult<Map<String, TimeSeries>> getTimeSeries(String projectId,
+            String zone, String metricName, String accessToken, String pageToken,
+            Map<String, TimeSeries> result) {
+        URI uri;
+        try {
+            uri = getRequestUri(projectId, zone, metricName, pageToken);
+        } catch (URISyntaxException e) {
+            return DeferredResult.failed(e);
+        }
+
+        Operation get = Operation.createGet(uri)
+                .addRequestHeader(Operation.AUTHORIZATION_HEADER,
+                        GCPConstants.AUTH_HEADER_BEARER_PREFIX + accessToken);
+        return this.service.sendWithDeferredResult(get, GCPMetricResponse.class)
+                .thenCompose(response -> {
+                    if (response.timeSeries != null) {
+                        for (TimeSeries ts : response.timeSeries) {
+                            if (ts.resource != null && ts.resource.labels != null
+                                    && ts.resource.labels.instance_id != null) {
+                                result.put(ts.resource.labels.instance_id, ts);
+                            }
+                        }
+                    }
+                    if (response.nextPageToken == null || response.nextPageToken.isEmpty()) {
+                        return DeferredResult.completed(result);
+                    }
+                    return getTimeSeries(projectId, zone, metricName, accessToken,
+                            response.nextPageToken, result);
+                });
+    }
+
+    /**
+     * Builds the request URI of a page of the time series of a metric in a zone.
+     */
+    private static URI getRequestUri(String projectId, String zone, String metricName,
+            String pageToken) throws URISyntaxException {
+        URI baseUri = new URI(GCPConstants.MONITORING_API_URI
+                + projectId + GCPConstants.TIMESERIES_PREFIX);
+
+        String filterValue = GCPConstants.METRIC_TYPE_FILTER + "=\""
+                + GCPConstants.METRIC_NAME_PREFIX + metricName + "\""
+                + "+AND+" + GCPConstants.ZONE_FILTER + "=\"" + zone + "\"";
+
+        URI uri = UriUtils.extendUriWithQuery(baseUri, GCPConstants.FILTER_KEY, filterValue,
+                GCPConstants.INTERVAL_START_TIME, GCPStatsService.getStartTime(),
+                GCPConstants.INTERVAL_END_TIME, GCPStatsService.getEndTime(),
+                GCPConstants.RESPONSE_PAGE_SIZE, GCPConstants.TIMESERIES_PAGE_SIZE);
+        if (pageToken != null) {
+            uri = UriUtils.extendUriWithQuery(uri, GCPConstants.PAGE_TOKEN, pageToken);
+        }
+        return uri;
+    }
+
+    private static final class CachedTimeSeries {
+        final long expiresAtMillis;
+        DeferredResult<Map<String, TimeSeries>> result;
+
+        CachedTimeSeries(long expiresAtMillis) {
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
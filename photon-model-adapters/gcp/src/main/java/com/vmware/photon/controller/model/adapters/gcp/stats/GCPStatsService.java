@@ -15,10 +15,8 @@ package com.vmware.photon.controller.model.adapters.gcp.stats;
 
 import static com.vmware.photon.controller.model.util.PhotonModelUriUtils.createInventoryUri;
 
-import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.security.GeneralSecurityException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -31,16 +29,15 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
+import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.adapterapi.ComputeStatsRequest;
 import com.vmware.photon.controller.model.adapterapi.ComputeStatsResponse.ComputeStats;
 import com.vmware.photon.controller.model.adapters.gcp.GCPUriPaths;
 import com.vmware.photon.controller.model.adapters.gcp.constants.GCPConstants;
-import com.vmware.photon.controller.model.adapters.gcp.podo.authorization.GCPAccessTokenResponse;
 import com.vmware.photon.controller.model.adapters.gcp.podo.stats.GCPMetricResponse;
 import com.vmware.photon.controller.model.adapters.gcp.podo.stats.TimeSeries;
+import com.vmware.photon.controller.model.adapters.gcp.utils.GCPAccessTokenCache;
 import com.vmware.photon.controller.model.adapters.gcp.utils.GCPStatsNormalizer;
-import com.vmware.photon.controller.model.adapters.gcp.utils.GCPUtils;
-import com.vmware.photon.controller.model.adapters.gcp.utils.JSONWebToken;
 import com.vmware.photon.controller.model.adapters.util.AdapterUtils;
 import com.vmware.photon.controller.model.adapters.util.TaskManager;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeStateWithDescription;
@@ -64,6 +61,20 @@ import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsSe
 public class GCPStatsService extends StatelessService {
     public static final String SELF_LINK = GCPUriPaths.GCP_STATS_ADAPTER;
 
+    /**
+     * Whether the stats of VMs are collected with one query per metric for all instances in
+     * the zone of the VM, instead of one query per metric and VM.
+     */
+    public static final String PROJECT_COLLECTION_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "GCPStatsService.projectCollection";
+    public static final boolean PROJECT_COLLECTION = Boolean
+            .getBoolean(PROJECT_COLLECTION_PROPERTY);
+
+    public static final String PROJECT_COLLECTION_TTL_MILLIS_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "GCPStatsService.projectCollectionTtlMillis";
+    public static final long PROJECT_COLLECTION_TTL_MILLIS = Long
+            .getLong(PROJECT_COLLECTION_TTL_MILLIS_PROPERTY, TimeUnit.MINUTES.toMillis(1));
+
     /**
      * Stores GCP metric names and their corresponding units.
      * Metric units are not provided as a part of the response by the API, hence they are
@@ -80,6 +91,9 @@ public class GCPStatsService extends StatelessService {
             {GCPConstants.NETWORK_OUT_BYTES, GCPConstants.UNIT_BYTE},
             {GCPConstants.NETWORK_OUT_PACKETS, GCPConstants.UNIT_COUNT}};
 
+    private final GCPProjectStatsCollector projectStatsCollector =
+            new GCPProjectStatsCollector(this, PROJECT_COLLECTION_TTL_MILLIS);
+
     public GCPStatsService() {
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
     }
@@ -178,7 +192,7 @@ public class GCPStatsService extends StatelessService {
      * not thread safe.
      * @return startTime parameter of the metric request URI in RFC 3339 format.
      */
-    private static String getStartTime() {
+    static String getStartTime() {
         SimpleDateFormat dateFormat = new SimpleDateFormat(GCPConstants.TIME_INTERVAL_FORMAT);
         dateFormat.setTimeZone(TimeZone.getTimeZone(GCPConstants.UTC_TIMEZONE_ID));
 
@@ -197,7 +211,7 @@ public class GCPStatsService extends StatelessService {
      * not thread safe.
      * @return endTime parameter of the metric request URI in RFC 3339 format.
      */
-    private static String getEndTime() {
+    static String getEndTime() {
         SimpleDateFormat dateFormat = new SimpleDateFormat(GCPConstants.TIME_INTERVAL_FORMAT);
         dateFormat.setTimeZone(TimeZone.getTimeZone(GCPConstants.UTC_TIMEZONE_ID));
 
@@ -360,12 +374,7 @@ public class GCPStatsService extends StatelessService {
             getProjectId(statsData, StatsCollectionStage.ACCESS_TOKEN);
             break;
         case ACCESS_TOKEN:
-            try {
-                getAccessToken(statsData, StatsCollectionStage.STATS);
-            } catch (GeneralSecurityException | IOException e) {
-                handleError(statsData, e);
-                return;
-            }
+            getAccessToken(statsData, StatsCollectionStage.STATS);
             break;
         case STATS:
             getStats(statsData, StatsCollectionStage.FINISHED);
@@ -485,23 +494,22 @@ public class GCPStatsService extends StatelessService {
 
     /**
      * Gets the access token required for making requests to the monitoring API.
+     * The token is cached per service account by {@link GCPAccessTokenCache}.
      * @param statsData The GCPStatsDataHolder instance containing statsRequest.
      * @param nextStage The next stage of StatsCollectionStage for the service.
-     * @throws GeneralSecurityException
-     * @throws IOException
      */
-    private void getAccessToken(GCPStatsDataHolder statsData, StatsCollectionStage nextStage)
-            throws GeneralSecurityException, IOException {
-        Consumer<GCPAccessTokenResponse> onSuccess = (response) -> {
-            statsData.accessToken = response.access_token;
-            statsData.stage = nextStage;
-            handleStatsRequest(statsData);
-        };
-
-        JSONWebToken jwt = new JSONWebToken(statsData.userEmail, GCPConstants.SCOPES,
-                GCPUtils.privateKeyFromPkcs8(statsData.privateKey));
-        String assertion = jwt.getAssertion();
-        GCPUtils.getAccessToken(this, assertion, onSuccess, getFailureConsumer(statsData));
+    private void getAccessToken(GCPStatsDataHolder statsData, StatsCollectionStage nextStage) {
+        GCPAccessTokenCache.getAccessToken(this, statsData.userEmail, GCPConstants.SCOPES,
+                statsData.privateKey)
+                .whenComplete((accessToken, e) -> {
+                    if (e != null) {
+                        handleError(statsData, e);
+                        return;
+                    }
+                    statsData.accessToken = accessToken;
+                    statsData.stage = nextStage;
+                    handleStatsRequest(statsData);
+                });
     }
 
     /**
@@ -510,6 +518,11 @@ public class GCPStatsService extends StatelessService {
      * @param nextStage The next stage of StatsCollectionStage for the service.
      */
     private void getStats(GCPStatsDataHolder statsData, StatsCollectionStage nextStage) {
+        if (PROJECT_COLLECTION && !statsData.isComputeHost
+                && statsData.computeDesc.description.zoneId != null) {
+            getStatsOfZone(statsData, nextStage);
+            return;
+        }
         for (String[] metricInfo : METRIC_NAMES_UNITS) {
             URI uri;
 
@@ -543,6 +556,33 @@ public class GCPStatsService extends StatelessService {
         }
     }
 
+    /**
+     * Gets the stats of a VM from the time series of all instances in the zone of the VM,
+     * which are shared with the other VMs of the zone.
+     * @param statsData The GCPStatsDataHolder instance containing statsRequest.
+     * @param nextStage The next stage of StatsCollectionStage for the service.
+     */
+    private void getStatsOfZone(GCPStatsDataHolder statsData, StatsCollectionStage nextStage) {
+        String zone = statsData.computeDesc.description.zoneId;
+        zone = zone.substring(zone.lastIndexOf('/') + 1);
+        for (String[] metricInfo : METRIC_NAMES_UNITS) {
+            this.projectStatsCollector.getTimeSeries(statsData.projectId, zone, metricInfo[0],
+                    statsData.accessToken)
+                    .whenComplete((timeSeriesByInstance, e) -> {
+                        if (e != null) {
+                            handleError(statsData, e);
+                            return;
+                        }
+                        GCPMetricResponse response = new GCPMetricResponse();
+                        TimeSeries ts = timeSeriesByInstance.get(statsData.instanceId);
+                        if (ts != null && ts.points != null && ts.points.length > 0) {
+                            response.timeSeries = new TimeSeries[] { ts };
+                        }
+                        storeAndSendStats(statsData, metricInfo, response, nextStage);
+                    });
+        }
+    }
+
     /**
      * Stores the stats in current GCPStatsDataHolder instance and patches back the response
      * to the caller task.
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.gcp.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.adapters.gcp.podo.authorization.GCPAccessTokenResponse;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Service;
+
+/**
+ * Cache of the OAuth access tokens of GCP service accounts, keyed by service account email,
+ * scopes and a hash of the private key, so that a token is not requested (and a JSON web token
+ * is not signed) for every request to GCP. A token is only returned for the credentials it was
+ * requested with, e.g. not after the key of the service account has been replaced.
+ * <p>
+ * A token is refreshed {@link #REFRESH_AHEAD_SECONDS} before it expires. Until it expires, the
+ * cached token is returned while it is being refreshed.
+ */
+public class GCPAccessTokenCache {
+
+    public static final String REFRESH_AHEAD_SECONDS_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "GCPAccessTokenCache.refreshAheadSeconds";
+    public static final long REFRESH_AHEAD_SECONDS = Long
+            .getLong(REFRESH_AHEAD_SECONDS_PROPERTY, TimeUnit.MINUTES.toSeconds(5));
+
+    private static final Map<String, CachedToken> tokens = new ConcurrentHashMap<>();
+
+    private GCPAccessTokenCache() {
+    }
+
+    /**
+     * Returns a valid access token of the given service account.
+     *
+     * @param service The service with which the token request is to be sent.
+     * @param clientEmail The client email in service account's credential file.
+     * @param scopes The limitation of application's access.
+     * @param privateKeyPem The private key in service account's credential file, which is only
+     *        parsed if a token is requested.
+     */
+    public static DeferredResult<String> getAccessToken(Service service, String clientEmail,
+            Collection<String> scopes, String privateKeyPem) {
+        return getAccessToken(clientEmail, scopes, privateKeyPem,
+                () -> requestAccessToken(service, clientEmail, scopes, privateKeyPem));
+    }
+
+    static DeferredResult<String> getAccessToken(String clientEmail, Collection<String> scopes,
+            String privateKeyPem, Supplier<DeferredResult<GCPAccessTokenResponse>> tokenRequest) {
+
+        CachedToken cachedToken = tokens.computeIfAbsent(
+                key(clientEmail, scopes, privateKeyPem), k -> new CachedToken());
+        long nowMillis = System.currentTimeMillis();
+
+        synchronized (cachedToken) {
+            if (cachedToken.token != null && nowMillis < cachedToken.refreshAtMillis) {
+                return DeferredResult.completed(cachedToken.token);
+            }
+            if (cachedToken.refresh == null) {
+                DeferredResult<String> refresh = tokenRequest.get()
+                        .thenApply(response -> cachedToken.update(response, nowMillis));
+                cachedToken.refresh = refresh;
+                refresh.whenComplete((token, e) -> {
+                    synchronized (cachedToken) {
+                        if (cachedToken.refresh == refresh) {
+                            cachedToken.refresh = null;
+                        }
+                    }
+                });
+            }
+            if (cachedToken.token != null && nowMillis < cachedToken.expiresAtMillis) {
+                return DeferredResult.completed(cachedToken.token);
+            }
+            return cachedToken.refresh;
+        }
+    }
+
+    /**
+     * Removes the token of the given service account, e.g. if it has been revoked.
+     */
+    public static void invalidate(String clientEmail, Collection<String> scopes,
+            String privateKeyPem) {
+        tokens.remove(key(clientEmail, scopes, privateKeyPem));
+    }
+
+    private static DeferredResult<GCPAccessTokenResponse> requestAccessToken(Service service,
+            String clientEmail, Collection<String> scopes, String privateKeyPem) {
+
+        DeferredResult<GCPAccessTokenResponse> result = new DeferredResult<>();
+        try {
+            JSONWebToken jwt = new JSONWebToken(clientEmail, scopes,
+                    GCPUtils.privateKeyFromPkcs8(privateKeyPem));
+            GCPUtils.getAccessToken(service, jwt.getAssertion(), result::complete, result::fail);
+        } catch (Throwable e) {
+            result.fail(e);
+        }
+        return result;
+    }
+
+    private static String key(String clientEmail, Collection<String> scopes,
+            String privateKeyPem) {
+        // the cache keeps a hash of the private key rather than the key itself
+        return clientEmail + new TreeSet<>(scopes) + sha256(privateKeyPem);
+    }
+
+    private static String sha256(String value) {
+        if (value == null) {
+            return "";
+        }
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256")
+                    .digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class CachedToken {
+        String token;
+        long refreshAtMillis;
+        long expiresAtMillis;
+        DeferredResult<String> refresh;
+
+        synchronized String update(GCPAccessTokenResponse response, long requestedAtMillis) {
+            // the lifetime counts from the request, to not use the token after it expired
+            long lifetimeMillis = TimeUnit.SECONDS.toMillis(response.expires_in);
+            this.token = response.access_token;
+            this.expiresAtMillis = requestedAtMillis + lifetimeMillis;
+            this.refreshAtMillis = this.expiresAtMillis - Math.min(
+                    TimeUnit.SECONDS.toMillis(REFRESH_AHEAD_SECONDS), lifetimeMillis / 2);
+            return this.token;
+        }
+    }
+}
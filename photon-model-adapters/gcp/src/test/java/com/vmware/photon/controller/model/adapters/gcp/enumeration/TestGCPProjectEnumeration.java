@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.gcp.enumeration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapterapi.ComputeEnumerateResourceRequest;
+import com.vmware.photon.controller.model.adapterapi.EnumerationAction;
+import com.vmware.photon.controller.model.adapterapi.ResourceOperationResponse;
+import com.vmware.photon.controller.model.adapters.gcp.enumeration.GCPEnumerationAdapterService.EnumerationContext;
+import com.vmware.photon.controller.model.adapters.gcp.podo.vm.GCPInstance;
+import com.vmware.photon.controller.model.helpers.BaseModelTest;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.photon.controller.model.resources.ComputeService;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.EndpointService;
+import com.vmware.photon.controller.model.resources.EndpointService.EndpointState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.services.common.AuthCredentialsService;
+import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+
+/**
+ * Unit test for the project enumeration of {@link GCPEnumerationAdapterService}, which reconciles
+ * the listed instances of all zones of a project with the local compute states.
+ */
+public class TestGCPProjectEnumeration extends BaseModelTest {
+
+    private static final String ZONE_URI_PREFIX =
+            "https://www.googleapis.com/compute/v1/projects/test-project/zones/";
+    private static final String US_EAST1_B = "us-east1-b";
+    private static final String US_CENTRAL1_A = "us-central1-a";
+
+    private GCPEnumerationAdapterService service;
+    private TaskService taskService;
+    private AuthCredentialsServiceState auth;
+    private EndpointState endpoint;
+    private ComputeDescription description;
+
+    /**
+     * Link of the compute host, the parent of the enumerated compute states, unique per test
+     * since the host is reused.
+     */
+    private String computeHostLink;
+
+    @Before
+    public void startServices() throws Throwable {
+        String id = UUID.randomUUID().toString();
+        this.computeHostLink = UriUtils.buildUriPath(ComputeService.FACTORY_LINK, id);
+
+        this.service = new GCPEnumerationAdapterService();
+        this.host.startService(Operation.createPost(
+                UriUtils.buildUri(this.host, "/test-gcp-enumeration-" + id)), this.service);
+        this.taskService = new TaskService();
+        this.host.startService(Operation.createPost(
+                UriUtils.buildUri(this.host, "/test-gcp-enumeration-task-" + id)),
+                this.taskService);
+        this.host.waitForServiceAvailable(this.service.getSelfLink(),
+                this.taskService.getSelfLink());
+
+        AuthCredentialsServiceState auth = new AuthCredentialsServiceState();
+        auth.userEmail = "test@test-project.iam.gserviceaccount.com";
+        auth.privateKey = "private-key";
+        this.auth = postServiceSynchronously(AuthCredentialsService.FACTORY_LINK, auth,
+                AuthCredentialsServiceState.class);
+
+        EndpointState endpoint = new EndpointState();
+        endpoint.endpointType = "gcp";
+        endpoint.name = "test-gcp-endpoint";
+        endpoint.authCredentialsLink = this.auth.documentSelfLink;
+        this.endpoint = postServiceSynchronously(EndpointService.FACTORY_LINK, endpoint,
+                EndpointState.class);
+
+        ComputeDescription description = new ComputeDescription();
+        description.name = "test-gcp-vm-description";
+        this.description = postServiceSynchronously(ComputeDescriptionService.FACTORY_LINK,
+                description, ComputeDescription.class);
+    }
+
+    @Test
+    public void testReconcileProjectWithExistingInventory() throws Throwable {
+        // created by the zone enumeration, so without zone and endpoint
+        ComputeState existing = createZoneEnumerationComputeState("1001");
+        createZoneEnumerationComputeState("1003");
+
+        Map<String, List<GCPInstance>> instancesByZone = new LinkedHashMap<>();
+        instancesByZone.put(US_EAST1_B, Collections.singletonList(instance(1001L, US_EAST1_B)));
+        instancesByZone.put(US_CENTRAL1_A,
+                Collections.singletonList(instance(1002L, US_CENTRAL1_A)));
+        instancesByZone.put("europe-west1-b", new ArrayList<>());
+
+        reconcileProject(instancesByZone);
+
+        // the existing compute state is updated instead of re-created
+        List<ComputeState> states = getComputeStates("1001");
+        assertEquals(1, states.size());
+        ComputeState updated = states.get(0);
+        assertEquals(existing.documentSelfLink, updated.documentSelfLink);
+        assertEquals(US_EAST1_B, updated.zoneId);
+        assertTrue(updated.endpointLinks.contains(this.endpoint.documentSelfLink));
+
+        states = getComputeStates("1002");
+        assertEquals(1, states.size());
+        assertEquals(US_CENTRAL1_A, states.get(0).zoneId);
+
+        // the compute state of the instance which no longer exists is deleted
+        assertEquals(0, getComputeStates("1003").size());
+    }
+
+    @Test
+    public void testReconcileProjectTwice() throws Throwable {
+        Map<String, List<GCPInstance>> instancesByZone = new LinkedHashMap<>();
+        instancesByZone.put(US_EAST1_B, Arrays.asList(
+                instance(2001L, US_EAST1_B), instance(2002L, US_EAST1_B)));
+        instancesByZone.put(US_CENTRAL1_A,
+                Collections.singletonList(instance(2003L, US_CENTRAL1_A)));
+        reconcileProject(instancesByZone);
+        ComputeState first = getComputeStates("2001").get(0);
+
+        instancesByZone.put(US_EAST1_B, Collections.singletonList(instance(2001L, US_EAST1_B)));
+        reconcileProject(instancesByZone);
+
+        List<ComputeState> states = getComputeStates("2001");
+        assertEquals(1, states.size());
+        assertEquals(first.documentSelfLink, states.get(0).documentSelfLink);
+        assertEquals(1, getComputeStates("2003").size());
+        assertEquals(0, getComputeStates("2002").size());
+    }
+
+    private void reconcileProject(Map<String, List<GCPInstance>> instancesByZone) {
+        ComputeEnumerateResourceRequest request = new ComputeEnumerateResourceRequest();
+        request.resourceReference = UriUtils.buildUri(this.host, this.computeHostLink);
+        request.resourcePoolLink = "test-gcp-resource-pool";
+        request.endpointLink = this.endpoint.documentSelfLink;
+        request.enumerationAction = EnumerationAction.REFRESH;
+        request.taskReference = this.taskService.getUri();
+
+        EnumerationContext ctx = new EnumerationContext(this.service,
+                Operation.createPatch(this.service.getUri()).setBody(request));
+        ctx.computeHostDesc = new ComputeDescription();
+        ctx.parentAuth = this.auth;
+        ctx.enumerationStartTimeInMicros = Utils.getNowMicrosUtc();
+
+        this.taskService.ctx = this.host.testCreate(1);
+        this.service.reconcileProject(ctx, instancesByZone);
+        this.host.testWait(this.taskService.ctx);
+
+        assertEquals(this.taskService.response.failureMessage, TaskStage.FINISHED,
+                this.taskService.response.taskInfo.stage);
+    }
+
+    private ComputeState createZoneEnumerationComputeState(String id) throws Throwable {
+        ComputeState computeState = new ComputeState();
+        computeState.id = id;
+        computeState.name = id;
+        computeState.descriptionLink = this.description.documentSelfLink;
+        computeState.parentLink = this.computeHostLink;
+        computeState.resourcePoolLink = "test-gcp-resource-pool";
+        return postServiceSynchronously(ComputeService.FACTORY_LINK, computeState,
+                ComputeState.class);
+    }
+
+    private List<ComputeState> getComputeStates(String id) throws Throwable {
+        QueryTask queryTask = QueryTask.Builder.createDirectTask()
+                .addOption(QueryOption.EXPAND_CONTENT)
+                .setQuery(Query.Builder.create()
+                        .addKindFieldClause(ComputeState.class)
+                        .addFieldClause(ComputeState.FIELD_NAME_PARENT_LINK,
+                                this.computeHostLink)
+                        .addFieldClause(ComputeState.FIELD_NAME_ID, id)
+                        .build())
+                .build();
+        List<ComputeState> states = new ArrayList<>();
+        Map<String, Object> documents = querySynchronously(queryTask).results.documents;
+        if (documents != null) {
+            documents.values()
+                    .forEach(json -> states.add(Utils.fromJson(json, ComputeState.class)));
+        }
+        return states;
+    }
+
+    private static GCPInstance instance(Long id, String zone) {
+        GCPInstance instance = new GCPInstance();
+        instance.id = id;
+        instance.name = "instance-" + id;
+        instance.zone = ZONE_URI_PREFIX + zone;
+        instance.status = "RUNNING";
+        instance.machineType = ZONE_URI_PREFIX + zone + "/machineTypes/n1-standard-1";
+        return instance;
+    }
+
+    /**
+     * The task on behalf of which the enumeration runs, which records the response of the
+     * enumeration.
+     */
+    public static class TaskService extends StatelessService {
+        volatile TestContext ctx;
+        volatile ResourceOperationResponse response;
+
+        @Override
+        public void handlePatch(Operation patch) {
+            this.response = patch.getBody(ResourceOperationResponse.class);
+            patch.complete();
+            this.ctx.completeIteration();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.gcp.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapters.gcp.podo.authorization.GCPAccessTokenResponse;
+import com.vmware.xenon.common.DeferredResult;
+
+/**
+ * Unit test for {@link GCPAccessTokenCache}
+ */
+public class TestGCPAccessTokenCache {
+
+    private static final Collection<String> SCOPES = Collections
+            .singletonList("https://www.googleapis.com/auth/cloud-platform");
+
+    private final String clientEmail = UUID.randomUUID() + "@test.iam.gserviceaccount.com";
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Test
+    public void testSameCredentialsHitCache() {
+        String token = getAccessToken("private-key");
+
+        assertEquals(token, getAccessToken("private-key"));
+        assertEquals(1, this.requests.get());
+    }
+
+    @Test
+    public void testDifferentPrivateKeyMissesCache() {
+        String token = getAccessToken("old-private-key");
+
+        String newToken = getAccessToken("new-private-key");
+
+        assertEquals(2, this.requests.get());
+        assertEquals("token-2", newToken);
+        // the token of the old key is still cached for it
+        assertEquals(token, getAccessToken("old-private-key"));
+        assertEquals(2, this.requests.get());
+    }
+
+    @Test
+    public void testInvalidate() {
+        getAccessToken("private-key");
+
+        GCPAccessTokenCache.invalidate(this.clientEmail, SCOPES, "private-key");
+
+        assertEquals("token-2", getAccessToken("private-key"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private String getAccessToken(String privateKeyPem) {
+        DeferredResult<String> dr = GCPAccessTokenCache.getAccessToken(this.clientEmail, SCOPES,
+                privateKeyPem, () -> {
+                    GCPAccessTokenResponse response = new GCPAccessTokenResponse();
+                    response.access_token = "token-" + this.requests.incrementAndGet();
+                    response.expires_in = 3600;
+                    return DeferredResult.completed(response);
+                });
+        return ((CompletableFuture<String>) dr.toCompletionStage()).join();
+    }
+}
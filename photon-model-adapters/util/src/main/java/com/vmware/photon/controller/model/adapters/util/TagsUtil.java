@@ -33,9 +33,11 @@ import com.vmware.photon.controller.model.query.QueryUtils.QueryTop;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.photon.controller.model.resources.ResourceState;
 import com.vmware.photon.controller.model.resources.TagFactoryService;
+import com.vmware.photon.controller.model.resources.TagInfoCache;
 import com.vmware.photon.controller.model.resources.TagService;
 import com.vmware.photon.controller.model.resources.TagService.TagState;
 import com.vmware.photon.controller.model.resources.TagService.TagState.TagOrigin;
+import com.vmware.photon.controller.model.util.ClusterUtil;
 import com.vmware.photon.controller.model.util.ClusterUtil.ServiceTypeCluster;
 import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
@@ -102,26 +104,23 @@ public class TagsUtil {
                 () -> String.format(msg, localState.getClass().getSimpleName(), localState.name,
                         remoteTagsMap.size(), "STARTING"));
 
-        List<DeferredResult<TagState>> localTagStatesDRs = remoteTagsMap.entrySet().stream()
+        List<TagState> localTagStates = remoteTagsMap.entrySet().stream()
                 .map(tagEntry -> newTagState(tagEntry.getKey(), tagEntry.getValue(), true,
                         localState.tenantLinks))
-                .map(tagState -> Operation
-                        .createPost(createInventoryUri(service.getHost(), TagService.FACTORY_LINK))
-                        .setBody(tagState))
-                .map(tagOp -> service.sendWithDeferredResult(tagOp, TagState.class))
                 .collect(Collectors.toList());
 
-        return DeferredResult.allOf(localTagStatesDRs).thenApply(tagStatesList -> {
+        List<DeferredResult<TagState>> localTagStatesDRs = localTagStates.stream()
+                .map(tagState -> createTagState(service, tagState))
+                .collect(Collectors.toList());
+
+        return DeferredResult.allOf(localTagStatesDRs).thenApply(ignore -> {
 
             service.logFine(
                     () -> String.format(msg, localState.getClass().getSimpleName(), localState.name,
                             remoteTagsMap.size(), "COMPLETED"));
-            Set<String> tagLinks = tagStatesList
+            Set<String> tagLinks = localTagStates
                     .stream()
-                    .map(tagState -> {
-                        TagState state = newTagState(tagState.key, tagState.value, true, localState.tenantLinks);
-                        return state.documentSelfLink;
-                    })
+                    .map(tagState -> tagState.documentSelfLink)
                     .collect(Collectors.toSet());
             if (internalTagLinks != null && !internalTagLinks.isEmpty()) {
                 tagLinks.addAll(internalTagLinks);
@@ -195,13 +194,7 @@ public class TagsUtil {
             // not existing locally tags should be created
             List<DeferredResult<TagState>> localTagStatesDRs = tagLinksToAdd.stream()
                     .map(tagLinkObj -> remoteTagStates.get(tagLinkObj))
-                    .map(tagState -> Operation
-                            .createPost(createInventoryUri(service.getHost(),
-                                    TagService.FACTORY_LINK))
-                            .setBody(tagState))
-                    .map(tagOperation -> service.sendWithDeferredResult(
-                            tagOperation,
-                            TagState.class))
+                    .map(tagState -> createTagState(service, tagState))
                     .collect(Collectors.toList());
 
             createAllLocalTagStatesDR = DeferredResult.allOf(localTagStatesDRs);
@@ -332,6 +325,32 @@ public class TagsUtil {
         return tagState;
     }
 
+    /**
+     * Creates the given tag state, or adds its origins to the existing one. The POST is skipped if
+     * the {@link TagInfoCache} of the host shows that it would not change the existing tag state,
+     * which is only trusted if the inventory is on this host.
+     */
+    private static DeferredResult<TagState> createTagState(StatelessService service,
+            TagState tagState) {
+        TagInfoCache tagInfoCache =
+                ClusterUtil.isClusterDefined(ServiceTypeCluster.INVENTORY_SERVICE)
+                        ? null : TagInfoCache.getInstance(service.getHost());
+        if (tagInfoCache != null && tagInfoCache.isCurrent(tagState)) {
+            return DeferredResult.completed(tagState);
+        }
+
+        Operation tagOp = Operation
+                .createPost(createInventoryUri(service.getHost(), TagService.FACTORY_LINK))
+                .setBody(tagState);
+        return service.sendWithDeferredResult(tagOp, TagState.class)
+                .thenApply(createdTagState -> {
+                    if (tagInfoCache != null) {
+                        tagInfoCache.put(createdTagState);
+                    }
+                    return createdTagState;
+                });
+    }
+
     /**
      * Private method used to generate structure containing the tag states to add and tag states to
      * remove to the specified resource state (specified by its document self link).
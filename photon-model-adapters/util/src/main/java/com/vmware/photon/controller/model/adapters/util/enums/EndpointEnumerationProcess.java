@@ -24,17 +24,22 @@ import static com.vmware.xenon.services.common.QueryTask.NumericRange.createLess
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
 
 import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.adapterapi.EndpointConfigRequest;
@@ -80,6 +85,25 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
             .getInteger(UriPaths.PROPERTY_PREFIX
                     + "enum.max.resources.query.on.delete", 950);
 
+    /**
+     * Default for {@link #setPipelined(boolean)}.
+     */
+    public static final String PIPELINED_ENUMERATION_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "enum.pipelined";
+
+    /**
+     * Default for {@link #setMaxConcurrentLocalUpdates(int)}.
+     */
+    public static final String MAX_CONCURRENT_LOCAL_UPDATES_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "enum.max.concurrent.local.updates";
+    private static final int DEFAULT_MAX_CONCURRENT_LOCAL_UPDATES = 100;
+
+    /**
+     * Default for {@link #setSkipUnchangedLocalStates(boolean)}.
+     */
+    public static final String SKIP_UNCHANGED_LOCAL_STATES_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "enum.skip.unchanged.local.states";
+
     /**
      * The service that is creating and initiating this enumeration process.
      */
@@ -122,6 +146,34 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
      */
     private boolean applyEndpointLink = true;
 
+    /**
+     * Flag controlling whether the next page of remote resources is fetched while the current page
+     * is being reconciled with the local resource states. Default value is taken from
+     * {@value #PIPELINED_ENUMERATION_PROPERTY} system property, {@code false} if not set.
+     *
+     * @see #enumeratePageByPage(EndpointEnumerationProcess)
+     */
+    private boolean pipelined = Boolean.getBoolean(PIPELINED_ENUMERATION_PROPERTY);
+
+    /**
+     * Max number of local resource states of a page being created or updated at the same time.
+     * Default value is taken from {@value #MAX_CONCURRENT_LOCAL_UPDATES_PROPERTY} system property,
+     * {@value #DEFAULT_MAX_CONCURRENT_LOCAL_UPDATES} if not set.
+     */
+    private int maxConcurrentLocalUpdates = Math.max(1, Integer.getInteger(
+            MAX_CONCURRENT_LOCAL_UPDATES_PROPERTY, DEFAULT_MAX_CONCURRENT_LOCAL_UPDATES));
+
+    /**
+     * Flag controlling whether existing local states are PATCHed only if their content changed
+     * since the last enumeration, as detected by {@link ResourceStateFingerprint}. Default value
+     * is taken from {@value #SKIP_UNCHANGED_LOCAL_STATES_PROPERTY} system property, {@code false}
+     * if not set.
+     *
+     * @see #createUpdateLocalResourceState(LocalStateHolder)
+     */
+    private boolean skipUnchangedLocalStates = Boolean
+            .getBoolean(SKIP_UNCHANGED_LOCAL_STATES_PROPERTY);
+
     /**
      * Represents a single page of remote resources.
      */
@@ -272,6 +324,37 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
         this.applyEndpointLink = applyEndpointLink;
     }
 
+    public boolean isPipelined() {
+        return this.pipelined;
+    }
+
+    /**
+     * Enables fetching the next page of remote resources while the current page is reconciled.
+     * Descendants whose {@link #getExternalResources(String)} shares mutable state with
+     * {@link #buildLocalResourceState(Object, ResourceState)} should not enable it.
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public int getMaxConcurrentLocalUpdates() {
+        return this.maxConcurrentLocalUpdates;
+    }
+
+    public void setMaxConcurrentLocalUpdates(int maxConcurrentLocalUpdates) {
+        AssertUtil.assertTrue(maxConcurrentLocalUpdates > 0,
+                "maxConcurrentLocalUpdates should be positive");
+        this.maxConcurrentLocalUpdates = maxConcurrentLocalUpdates;
+    }
+
+    public boolean isSkipUnchangedLocalStates() {
+        return this.skipUnchangedLocalStates;
+    }
+
+    public void setSkipUnchangedLocalStates(boolean skipUnchangedLocalStates) {
+        this.skipUnchangedLocalStates = skipUnchangedLocalStates;
+    }
+
     /**
      * The main method that starts the enumeration process and returns a {@link DeferredResult} to
      * signal completion.
@@ -417,38 +500,54 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
      */
     protected DeferredResult<T> getRemoteResources(T context) {
 
-        // Clear any previous results.
-        this.remoteResources.clear();
-        this.localResourceStates.clear();
-
         // Delegate to descendants to fetch remote resources
         return getExternalResources(this.enumExternalResourcesNextPageLink)
+                .thenApply(remoteResourcesPage -> setRemoteResources(context,
+                        remoteResourcesPage));
+    }
 
-                .thenApply(remoteResourcesPage -> {
+    /**
+     * Make the fetched page of remote resources the current one.
+     */
+    private T setRemoteResources(T context, RemoteResourcesPage remoteResourcesPage) {
 
-                    context.service.logFine(() -> String.format(
-                            "Fetch page [%s] of %d remote resources: SUCCESS",
-                            this.enumExternalResourcesNextPageLink == null
-                                    ? "FIRST" : this.enumExternalResourcesNextPageLink,
-                            remoteResourcesPage.resourcesPage.size()));
+        context.service.logFine(() -> String.format(
+                "Fetch page [%s] of %d remote resources: SUCCESS",
+                this.enumExternalResourcesNextPageLink == null
+                        ? "FIRST" : this.enumExternalResourcesNextPageLink,
+                remoteResourcesPage.resourcesPage.size()));
 
-                    // Store locally.
-                    this.remoteResources.putAll(remoteResourcesPage.resourcesPage);
+        // Clear any previous results.
+        this.remoteResources.clear();
+        this.localResourceStates.clear();
 
-                    this.enumExternalResourcesNextPageLink = remoteResourcesPage.nextPageLink;
+        // Store locally.
+        this.remoteResources.putAll(remoteResourcesPage.resourcesPage);
 
-                    // Store ALL enum'd resource ids
-                    this.enumExternalResourcesIds.addAll(this.remoteResources.keySet());
+        this.enumExternalResourcesNextPageLink = remoteResourcesPage.nextPageLink;
 
-                    return context;
-                });
+        // Store ALL enum'd resource ids
+        this.enumExternalResourcesIds.addAll(this.remoteResources.keySet());
+
+        return context;
     }
 
     /**
      * Enumerate remote resources page-by-page.
+     * <p>
+     * In {@link #isPipelined() pipelined} mode the next page of remote resources is fetched while
+     * the current page is reconciled with the local resource states. Only one page is fetched ahead,
+     * so a slow local store also slows down fetching from the remote system.
      */
     protected DeferredResult<T> enumeratePageByPage(T context) {
 
+        if (isPipelined()) {
+            DeferredResult<T> done = new DeferredResult<>();
+            enumeratePageByPagePipelined(context,
+                    getExternalResources(this.enumExternalResourcesNextPageLink), done);
+            return done;
+        }
+
         return DeferredResult.completed(context)
                 .thenCompose(this::getRemoteResources)
                 .thenCompose(this::queryLocalStates)
@@ -458,6 +557,43 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
                         : DeferredResult.completed(ctx));
     }
 
+    /**
+     * Reconcile the page of remote resources being fetched, then continue with the next page on
+     * the host executor until there are no more pages, and complete {@code done}.
+     */
+    private void enumeratePageByPagePipelined(T context,
+            DeferredResult<RemoteResourcesPage> remoteResourcesPageDR, DeferredResult<T> done) {
+
+        remoteResourcesPageDR
+                .thenApply(remoteResourcesPage -> setRemoteResources(context,
+                        remoteResourcesPage))
+                .thenCompose(ctx -> {
+                    // Start fetching the next page before reconciling the current one.
+                    DeferredResult<RemoteResourcesPage> nextRemoteResourcesPageDR =
+                            ctx.enumExternalResourcesNextPageLink != null
+                                    ? getExternalResources(ctx.enumExternalResourcesNextPageLink)
+                                    : null;
+
+                    return DeferredResult.completed(ctx)
+                            .thenCompose(this::queryLocalStates)
+                            .thenCompose(this::createUpdateLocalResourceStates)
+                            .thenApply(ignore -> nextRemoteResourcesPageDR);
+                })
+                .whenComplete((nextRemoteResourcesPageDR, exc) -> {
+                    if (exc != null) {
+                        done.fail(exc);
+                    } else if (nextRemoteResourcesPageDR == null) {
+                        done.complete(context);
+                    } else {
+                        // Do not nest the next page into the completion of this one.
+                        PhotonModelUtils.runInExecutor(this.service.getHost().getExecutor(),
+                                () -> enumeratePageByPagePipelined(context,
+                                        nextRemoteResourcesPageDR, done),
+                                done::fail);
+                    }
+                });
+    }
+
     /**
      * Load local resource states that match the {@link #getExternalResources(String) page} of
      * remote resources that are being processed.
@@ -530,7 +666,8 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
 
     /**
      * Create new local resource states or update matching resource states with the actual state in
-     * the remote system.
+     * the remote system. At most {@link #getMaxConcurrentLocalUpdates()} resources are processed at
+     * the same time.
      */
     protected DeferredResult<T> createUpdateLocalResourceStates(T context) {
 
@@ -545,36 +682,26 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
             return DeferredResult.completed(context);
         }
 
-        List<DeferredResult<Operation>> drs = context.remoteResources.entrySet().stream()
-
-                .map(remoteResourceEntry -> {
-
-                    String remoteResourceId = remoteResourceEntry.getKey();
-                    REMOTE remoteResource = remoteResourceEntry.getValue();
-
-                    LOCAL_STATE localResource = context.localResourceStates.get(remoteResourceId);
-
-                    // Delegate to descendants to provide the local resource state to create/update
-                    return buildLocalResourceState(remoteResource, localResource)
-
-                            /*
-                             * Explicitly set the local resource state id to be equal to the remote
-                             * resource state id. This is important in the query for local states.
-                             */
-                            .thenApply(lsHolder -> {
-                                if (lsHolder.localState != context.SKIP) {
-                                    lsHolder.localState.id = remoteResourceId;
-                                }
-                                return lsHolder;
-                            })
-
-                            // Then actually update/create the state
-                            .thenCompose(this::createUpdateLocalResourceState);
-                })
+        Iterator<Entry<String, REMOTE>> remoteResourcesIt = new ArrayList<>(
+                context.remoteResources.entrySet()).iterator();
+        List<Operation> ops = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // Each worker processes one resource at a time until the page is exhausted.
+        List<DeferredResult<Void>> workers = new ArrayList<>();
+        int workersCount = Math.min(getMaxConcurrentLocalUpdates(),
+                context.remoteResources.size());
+        for (int i = 0; i < workersCount; i++) {
+            DeferredResult<Void> worker = new DeferredResult<>();
+            createUpdateNextLocalResourceState(context, remoteResourcesIt, ops, failure, worker);
+            workers.add(worker);
+        }
 
-                .collect(Collectors.toList());
+        return DeferredResult.allOf(workers).thenCompose(ignore -> {
 
-        return DeferredResult.allOf(drs).thenApply(ops -> {
+            if (failure.get() != null) {
+                return DeferredResult.failed(failure.get());
+            }
 
             this.service.logFine(() -> String.format(msg,
                     context.localStateClass.getSimpleName(),
@@ -582,10 +709,74 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
                     ops.stream().filter(Objects::nonNull)
                             .collect(groupingBy(Operation::getAction, counting()))));
 
-            return context;
+            return DeferredResult.completed(context);
         });
     }
 
+    /**
+     * Create or update the local state of the next remote resource of the page, then continue
+     * with the following one on the host executor until the page is exhausted, and complete
+     * {@code worker}.
+     */
+    private void createUpdateNextLocalResourceState(T context,
+            Iterator<Entry<String, REMOTE>> remoteResourcesIt, List<Operation> ops,
+            AtomicReference<Throwable> failure, DeferredResult<Void> worker) {
+
+        final Entry<String, REMOTE> remoteResourceEntry;
+        synchronized (remoteResourcesIt) {
+            if (!remoteResourcesIt.hasNext()) {
+                worker.complete(null);
+                return;
+            }
+            remoteResourceEntry = remoteResourcesIt.next();
+        }
+
+        String remoteResourceId = remoteResourceEntry.getKey();
+        REMOTE remoteResource = remoteResourceEntry.getValue();
+
+        LOCAL_STATE localResource = context.localResourceStates.get(remoteResourceId);
+
+        // Delegate to descendants to provide the local resource state to create/update
+        buildLocalResourceState(remoteResource, localResource)
+
+                /*
+                 * Explicitly set the local resource state id to be equal to the remote
+                 * resource state id. This is important in the query for local states.
+                 */
+                .thenApply(lsHolder -> {
+                    if (lsHolder.localState != context.SKIP) {
+                        lsHolder.localState.id = remoteResourceId;
+                    }
+                    return lsHolder;
+                })
+
+                // Then actually update/create the state
+                .thenCompose(this::createUpdateLocalResourceState)
+
+                // Record the outcome and continue with the rest of the page, as a failure of a
+                // single resource should not prevent the others from being processed.
+                .whenComplete((op, exc) -> {
+                    if (exc != null) {
+                        failure.compareAndSet(null, exc);
+                    } else {
+                        ops.add(op);
+                    }
+                    // Resources that complete synchronously, e.g. skipped ones, would otherwise
+                    // grow the stack with every resource of the page.
+                    PhotonModelUtils.runInExecutor(this.service.getHost().getExecutor(),
+                            () -> createUpdateNextLocalResourceState(context, remoteResourcesIt,
+                                    ops, failure, worker),
+                            worker::fail);
+                });
+    }
+
+    /**
+     * Create or update a single local resource state.
+     * <p>
+     * If {@link #isSkipUnchangedLocalStates()} is set, the fingerprint of the state being sent is
+     * stored with it, and an existing state whose stored fingerprint matches is not PATCHed at
+     * all. In that case the returned {@link DeferredResult} completes with {@code null}.
+     */
     protected DeferredResult<Operation> createUpdateLocalResourceState(
             LocalStateHolder localStateHolder) {
 
@@ -638,17 +829,32 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
                 localStateHolder.remoteTags, localStateHolder.internalTagLinks);
 
         return tagLinksDR
-                .thenApply(tagLinks -> {
+                .thenCompose(tagLinks -> {
                     localState.tagLinks = tagLinks;
 
+                    if (isSkipUnchangedLocalStates()) {
+                        String fingerprint = ResourceStateFingerprint.compute(localState);
+                        if (currentState != null && fingerprint
+                                .equals(ResourceStateFingerprint.get(currentState))) {
+                            // Nothing changed since the last enumeration.
+                            return DeferredResult.completed(null);
+                        }
+                        ResourceStateFingerprint.set(localState, fingerprint);
+                    }
+
                     localStateOp.setBodyNoCloning(localState);
 
-                    return localStateOp;
+                    return this.service.sendWithDeferredResult(localStateOp);
                 })
-                .thenCompose(this.service::sendWithDeferredResult)
-                .whenComplete((ignoreOp, exc) -> {
+                .whenComplete((op, exc) -> {
                     String msg = "%s local %s(id=%s) to match remote resources";
-                    if (exc != null) {
+                    if (exc == null && op == null) {
+                        this.service.log(Level.FINEST,
+                                () -> String.format(msg + ": SKIPPED (unchanged)",
+                                        localStateOp.getAction(),
+                                        localState.getClass().getSimpleName(),
+                                        localState.id));
+                    } else if (exc != null) {
                         this.service.logWarning(
                                 () -> String.format(msg + ": FAILED with %s",
                                         localStateOp.getAction(),
@@ -671,6 +877,10 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
      * part of current enumeration cycle. Resources not associated with any endpointLink will be
      * removed by the groomer task.
      * <p>
+     * Unchanged resources are not touched if {@link #isSkipUnchangedLocalStates()} is set, so the
+     * timestamp only narrows down the candidates: a resource is stale only if it was not returned
+     * by the remote system in this cycle, as checked by {@link #shouldDelete(ResourceState)}.
+     * <p>
      * Here is the list of criteria used to locate the stale local resources states:
      * <ul>
      * <li>Add local documents' kind:
@@ -682,6 +892,8 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
      * <li>Add descendant specific criteria as defined by
      * {@link #customizeLocalStatesQuery(com.vmware.xenon.services.common.QueryTask.Query.Builder)}</li>
      * </ul>
+     * <p>
+     * Only the fields returned by {@link #getStaleLocalStateFieldNames()} are selected.
      */
     protected DeferredResult<T> disassociateLocalResourceStates(T context) {
 
@@ -728,7 +940,7 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
 
         // Delete stale resources.
         return queryLocalStates
-                .queryDocuments(localState -> {
+                .querySelectedFields(getStaleLocalStateFieldNames(), localState -> {
                     if (!shouldDelete(localState)) {
                         return;
                     }
@@ -773,6 +985,23 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
                 .thenApply(ignore -> context);
     }
 
+    /**
+     * Returns the names of the fields of the local states queried for deletion, which must
+     * include all fields used by {@link #shouldDelete(ResourceState)}. The kind, endpoint link
+     * and custom properties are needed by
+     * {@link PhotonModelUtils#createRemoveEndpointLinksOperation} to reassign the endpoint link
+     * of a state whose endpoint link is the disassociated endpoint.
+     */
+    protected Collection<String> getStaleLocalStateFieldNames() {
+        return Arrays.asList(
+                ResourceState.FIELD_NAME_ID,
+                ServiceDocument.FIELD_NAME_SELF_LINK,
+                ServiceDocument.FIELD_NAME_KIND,
+                ResourceState.FIELD_NAME_ENDPOINT_LINK,
+                ResourceState.FIELD_NAME_ENDPOINT_LINKS,
+                ResourceState.FIELD_NAME_CUSTOM_PROPERTIES);
+    }
+
     /**
      * Checks whether the local state should be deleted.
      */
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util.enums;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import com.vmware.photon.controller.model.resources.ResourceState;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Fingerprint of the content of a {@link ResourceState} as built by enumeration.
+ *
+ * <p>The fingerprint does not depend on the order of map entries and collection items, and
+ * ignores the {@code document*} system fields as well as the fingerprint itself, which is kept in
+ * the reserved {@link ResourceState#enumerationFingerprint} field of the resource.
+ */
+public class ResourceStateFingerprint {
+
+    private static final String SYSTEM_FIELD_PREFIX = "document";
+
+    private ResourceStateFingerprint() {
+    }
+
+    /**
+     * Computes the fingerprint of the given state.
+     */
+    public static String compute(ResourceState state) {
+        JsonObject json = new JsonParser().parse(Utils.toJson(state)).getAsJsonObject();
+
+        StringBuilder canonical = new StringBuilder();
+        appendCanonical(json, canonical, field -> !field.startsWith(SYSTEM_FIELD_PREFIX)
+                && !field.equals(ResourceState.FIELD_NAME_ENUMERATION_FINGERPRINT));
+
+        return Long.toHexString(Utils.computeHash(canonical.toString()));
+    }
+
+    /**
+     * Returns the fingerprint stored on the given state, {@code null} if there is none.
+     */
+    public static String get(ResourceState state) {
+        return state.enumerationFingerprint;
+    }
+
+    /**
+     * Stores the fingerprint on the given state.
+     */
+    public static void set(ResourceState state, String fingerprint) {
+        state.enumerationFingerprint = fingerprint;
+    }
+
+    /**
+     * Appends the fields accepted by {@code fieldFilter} in name order.
+     */
+    private static void appendCanonical(JsonObject json, StringBuilder canonical,
+            Predicate<String> fieldFilter) {
+        TreeMap<String, JsonElement> fields = new TreeMap<>();
+        for (Entry<String, JsonElement> field : json.entrySet()) {
+            if (fieldFilter.test(field.getKey())) {
+                fields.put(field.getKey(), field.getValue());
+            }
+        }
+
+        canonical.append('{');
+        for (Entry<String, JsonElement> field : fields.entrySet()) {
+            canonical.append(field.getKey()).append(':');
+            appendCanonical(field.getValue(), canonical);
+            canonical.append(',');
+        }
+        canonical.append('}');
+    }
+
+    private static void appendCanonical(JsonElement json, StringBuilder canonical) {
+        if (json.isJsonObject()) {
+            appendCanonical(json.getAsJsonObject(), canonical, field -> true);
+        } else if (json.isJsonArray()) {
+            // Collections such as tagLinks are sets, so their order is not significant.
+            List<String> items = new ArrayList<>();
+            for (JsonElement item : json.getAsJsonArray()) {
+                StringBuilder itemCanonical = new StringBuilder();
+                appendCanonical(item, itemCanonical);
+                items.add(itemCanonical.toString());
+            }
+            Collections.sort(items);
+            canonical.append('[').append(String.join(",", items)).append(']');
+        } else {
+            canonical.append(json.toString());
+        }
+    }
+}
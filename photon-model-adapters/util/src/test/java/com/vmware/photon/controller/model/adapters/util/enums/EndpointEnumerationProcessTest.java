@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util.enums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.helpers.BaseModelTest;
+import com.vmware.photon.controller.model.resources.DiskService;
+import com.vmware.photon.controller.model.resources.DiskService.DiskState;
+import com.vmware.photon.controller.model.resources.EndpointService;
+import com.vmware.photon.controller.model.resources.EndpointService.EndpointState;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.services.common.AuthCredentialsService;
+import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+
+/**
+ * Unit test for {@link EndpointEnumerationProcess}
+ */
+public class EndpointEnumerationProcessTest extends BaseModelTest {
+
+    private EnumerationService service;
+    private EndpointState endpoint;
+
+    /**
+     * Prefix of the remote resource ids, unique per test since the host is reused.
+     */
+    private String idPrefix;
+
+    @Before
+    public void startEnumerationService() throws Throwable {
+        this.idPrefix = UUID.randomUUID().toString();
+        this.service = new EnumerationService();
+        this.host.startService(
+                Operation.createPost(UriUtils.buildUri(this.host, EnumerationService.SELF_LINK)),
+                this.service);
+        this.host.waitForServiceAvailable(EnumerationService.SELF_LINK);
+
+        AuthCredentialsServiceState auth = new AuthCredentialsServiceState();
+        auth.privateKeyId = "user";
+        auth.privateKey = "password";
+        auth = postServiceSynchronously(AuthCredentialsService.FACTORY_LINK, auth,
+                AuthCredentialsServiceState.class);
+
+        EndpointState endpoint = new EndpointState();
+        endpoint.endpointType = "test";
+        endpoint.name = "test-endpoint";
+        endpoint.authCredentialsLink = auth.documentSelfLink;
+        this.endpoint = postServiceSynchronously(EndpointService.FACTORY_LINK, endpoint,
+                EndpointState.class);
+    }
+
+    @Test
+    public void testEnumeratePageByPage() throws Throwable {
+        TestEnumerationProcess process = createProcess(pages(3, 10));
+        process.setPipelined(false);
+
+        enumerate(process);
+
+        assertDisks(pages(3, 10));
+        // every page is fetched only after the previous one is reconciled
+        assertEquals(Arrays.asList(0, 1, 2), process.reconciledPagesOnFetch);
+    }
+
+    @Test
+    public void testEnumeratePageByPagePipelined() throws Throwable {
+        TestEnumerationProcess process = createProcess(pages(3, 10));
+        process.setPipelined(true);
+
+        enumerate(process);
+
+        assertDisks(pages(3, 10));
+        // every next page is fetched before the previous one is reconciled
+        assertEquals(Arrays.asList(0, 0, 1), process.reconciledPagesOnFetch);
+    }
+
+    @Test
+    public void testUpdateAndDisassociateExistingStates() throws Throwable {
+        DiskState existing = createDisk(pages(1, 1).get(0).get(0));
+        DiskState stale = createDisk(this.idPrefix + "-stale");
+
+        TestEnumerationProcess process = createProcess(pages(2, 5));
+        process.setPipelined(true);
+
+        enumerate(process);
+
+        assertDisks(pages(2, 5));
+        DiskState updated = getServiceSynchronously(existing.documentSelfLink, DiskState.class);
+        assertEquals(existing.documentSelfLink, updated.documentSelfLink);
+        assertEquals("updated", updated.name);
+
+        // the stale state belongs to this endpoint only, so it is deleted
+        assertEquals(0, countDisks(stale.id));
+    }
+
+    @Test
+    public void testDisassociateReassignsPrimaryEndpointLink() throws Throwable {
+        String otherEndpointLink = UriUtils.buildUriPath(EndpointService.FACTORY_LINK,
+                this.idPrefix + "-other");
+        DiskState stale = createDisk(this.idPrefix + "-stale", otherEndpointLink);
+
+        enumerate(createProcess(pages(1, 5)));
+
+        // the stale state belongs to another endpoint as well, so it is only disassociated from
+        // this endpoint, and the other endpoint becomes its endpoint link
+        this.host.waitFor("Endpoint link of the stale state is not reassigned", () -> {
+            DiskState disk = getServiceSynchronously(stale.documentSelfLink, DiskState.class);
+            return otherEndpointLink.equals(disk.endpointLink);
+        });
+        DiskState disk = getServiceSynchronously(stale.documentSelfLink, DiskState.class);
+        assertEquals(Collections.singleton(otherEndpointLink), disk.endpointLinks);
+    }
+
+    @Test
+    public void testLargePageCompletingSynchronously() throws Throwable {
+        // every resource is skipped without any remote call, and only a single worker processes
+        // them, which must not grow the stack with every resource of the page
+        TestEnumerationProcess process = createProcess(pages(2, 5000));
+        process.setMaxConcurrentLocalUpdates(1);
+        process.skipAll = true;
+
+        enumerate(process);
+
+        assertEquals(10000, process.builtStates.get());
+    }
+
+    @Test
+    public void testFailureOfOneResourceDoesNotStopThePage() throws Throwable {
+        TestEnumerationProcess process = createProcess(pages(1, 10));
+        process.setMaxConcurrentLocalUpdates(2);
+        process.failingResourceId = pages(1, 10).get(0).get(3);
+
+        TestContext ctx = this.host.testCreate(1);
+        process.enumerate().whenComplete((r, e) -> {
+            if (e == null) {
+                ctx.failIteration(new IllegalStateException("enumeration should fail"));
+                return;
+            }
+            ctx.completeIteration();
+        });
+        this.host.testWait(ctx);
+
+        List<String> expected = new ArrayList<>(pages(1, 10).get(0));
+        expected.remove(process.failingResourceId);
+        assertDisks(Collections.singletonList(expected));
+    }
+
+    private TestEnumerationProcess createProcess(List<List<String>> pages) {
+        return new TestEnumerationProcess(this.service,
+                UriUtils.buildUri(this.host, this.endpoint.documentSelfLink), pages);
+    }
+
+    private void enumerate(TestEnumerationProcess process) {
+        TestContext ctx = this.host.testCreate(1);
+        process.enumerate().whenComplete((r, e) -> {
+            if (e != null) {
+                ctx.failIteration(e);
+                return;
+            }
+            ctx.completeIteration();
+        });
+        this.host.testWait(ctx);
+    }
+
+    private DiskState createDisk(String id, String... otherEndpointLinks) throws Throwable {
+        DiskState disk = new DiskState();
+        disk.id = id;
+        disk.name = id;
+        disk.endpointLink = this.endpoint.documentSelfLink;
+        disk.endpointLinks = new HashSet<>(Collections.singleton(this.endpoint.documentSelfLink));
+        disk.endpointLinks.addAll(Arrays.asList(otherEndpointLinks));
+        return postServiceSynchronously(DiskService.FACTORY_LINK, disk, DiskState.class);
+    }
+
+    private void assertDisks(List<List<String>> pages) throws Throwable {
+        for (List<String> page : pages) {
+            for (String id : page) {
+                assertEquals("disk " + id, 1, countDisks(id));
+            }
+        }
+    }
+
+    private List<List<String>> pages(int pageCount, int pageSize) {
+        List<List<String>> pages = new ArrayList<>();
+        for (int p = 0; p < pageCount; p++) {
+            List<String> page = new ArrayList<>();
+            for (int r = 0; r < pageSize; r++) {
+                page.add(this.idPrefix + "-page-" + p + "-res-" + r);
+            }
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    private int countDisks(String id) throws Throwable {
+        QueryTask queryTask = QueryTask.Builder.createDirectTask()
+                .setQuery(Query.Builder.create()
+                        .addKindFieldClause(DiskState.class)
+                        .addFieldClause(DiskState.FIELD_NAME_ID, id)
+                        .build())
+                .build();
+        return querySynchronously(queryTask).results.documentLinks.size();
+    }
+
+    /**
+     * The service on behalf of which the enumeration runs.
+     */
+    public static class EnumerationService extends StatelessService {
+        public static final String SELF_LINK = "/test-endpoint-enumeration";
+    }
+
+    /**
+     * Enumerates the given pages of remote resource ids into {@link DiskState}s.
+     */
+    private static class TestEnumerationProcess extends
+            EndpointEnumerationProcess<TestEnumerationProcess, DiskState, String> {
+
+        private final List<List<String>> pages;
+        private final AtomicInteger reconciledPages = new AtomicInteger();
+        private final AtomicInteger builtStates = new AtomicInteger();
+
+        /**
+         * Number of reconciled pages at the time each page was fetched.
+         */
+        private final List<Integer> reconciledPagesOnFetch = Collections
+                .synchronizedList(new ArrayList<>());
+
+        private final AtomicBoolean reconciling = new AtomicBoolean();
+
+        private boolean skipAll;
+        private String failingResourceId;
+
+        TestEnumerationProcess(StatelessService service, URI endpointReference,
+                List<List<String>> pages) {
+            super(service, endpointReference, null, DiskState.class, DiskService.FACTORY_LINK);
+            this.pages = pages;
+        }
+
+        @Override
+        protected DeferredResult<RemoteResourcesPage> getExternalResources(String nextPageLink) {
+            int pageIndex = nextPageLink == null ? 0 : Integer.parseInt(nextPageLink);
+            this.reconciledPagesOnFetch.add(this.reconciledPages.get());
+
+            RemoteResourcesPage page = new RemoteResourcesPage();
+            for (String id : this.pages.get(pageIndex)) {
+                page.resourcesPage.put(id, id);
+            }
+            page.nextPageLink = pageIndex + 1 < this.pages.size()
+                    ? String.valueOf(pageIndex + 1) : null;
+            return DeferredResult.completed(page);
+        }
+
+        @Override
+        protected DeferredResult<LocalStateHolder> buildLocalResourceState(String remoteResource,
+                DiskState existingLocalResourceState) {
+            this.builtStates.incrementAndGet();
+
+            if (remoteResource.equals(this.failingResourceId)) {
+                return DeferredResult.failed(new IllegalStateException(remoteResource));
+            }
+
+            LocalStateHolder holder = new LocalStateHolder();
+            if (this.skipAll) {
+                holder.localState = this.SKIP;
+                return DeferredResult.completed(holder);
+            }
+            holder.localState = new DiskState();
+            holder.localState.name = existingLocalResourceState != null
+                    ? "updated" : remoteResource;
+            return DeferredResult.completed(holder);
+        }
+
+        @Override
+        protected DeferredResult<TestEnumerationProcess> queryLocalStates(
+                TestEnumerationProcess context) {
+            // nothing to match when all resources are skipped
+            return this.skipAll ? DeferredResult.completed(context)
+                    : super.queryLocalStates(context);
+        }
+
+        @Override
+        protected DeferredResult<TestEnumerationProcess> createUpdateLocalResourceStates(
+                TestEnumerationProcess context) {
+            // pages are never reconciled concurrently
+            assertTrue(this.reconciling.compareAndSet(false, true));
+            return super.createUpdateLocalResourceStates(context)
+                    .whenComplete((c, e) -> {
+                        this.reconciling.set(false);
+                        this.reconciledPages.incrementAndGet();
+                    });
+        }
+
+        @Override
+        protected void customizeLocalStatesQuery(Query.Builder qBuilder) {
+            // all disks of the endpoint are managed by this enumeration
+        }
+    }
+}
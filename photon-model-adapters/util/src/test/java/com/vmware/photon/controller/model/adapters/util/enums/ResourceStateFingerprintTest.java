@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util.enums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+
+/**
+ * Unit test for {@link ResourceStateFingerprint}
+ */
+public class ResourceStateFingerprintTest {
+
+    @Test
+    public void testFingerprintIsStable() {
+        ComputeState state = createComputeState("tag-1", "tag-2");
+        ComputeState reordered = createComputeState("tag-2", "tag-1");
+        reordered.customProperties = new HashMap<>();
+        reordered.customProperties.put("key-2", "value-2");
+        reordered.customProperties.put("key-1", "value-1");
+
+        assertEquals(ResourceStateFingerprint.compute(state),
+                ResourceStateFingerprint.compute(reordered));
+    }
+
+    @Test
+    public void testFingerprintIgnoresSystemFieldsAndItself() {
+        ComputeState state = createComputeState("tag-1");
+        String fingerprint = ResourceStateFingerprint.compute(state);
+
+        state.documentSelfLink = "/resources/compute/vm-1";
+        state.documentVersion = 5;
+        state.documentUpdateTimeMicros = 100;
+        ResourceStateFingerprint.set(state, fingerprint);
+
+        assertEquals(fingerprint, ResourceStateFingerprint.get(state));
+        assertEquals(fingerprint, ResourceStateFingerprint.compute(state));
+    }
+
+    @Test
+    public void testFingerprintIsNotACustomProperty() {
+        ComputeState state = createComputeState("tag-1");
+        ResourceStateFingerprint.set(state, ResourceStateFingerprint.compute(state));
+
+        assertEquals(ResourceStateFingerprint.get(state), state.enumerationFingerprint);
+        assertEquals(createComputeState("tag-1").customProperties, state.customProperties);
+    }
+
+    @Test
+    public void testFingerprintDetectsChanges() {
+        ComputeState state = createComputeState("tag-1");
+        String fingerprint = ResourceStateFingerprint.compute(state);
+
+        ComputeState renamed = createComputeState("tag-1");
+        renamed.name = "vm-2";
+        assertNotEquals(fingerprint, ResourceStateFingerprint.compute(renamed));
+
+        ComputeState retagged = createComputeState("tag-1", "tag-2");
+        assertNotEquals(fingerprint, ResourceStateFingerprint.compute(retagged));
+
+        ComputeState changedProperty = createComputeState("tag-1");
+        changedProperty.customProperties.put("key-1", "value-3");
+        assertNotEquals(fingerprint, ResourceStateFingerprint.compute(changedProperty));
+    }
+
+    @Test
+    public void testNoFingerprint() {
+        ComputeState state = new ComputeState();
+        assertNull(ResourceStateFingerprint.get(state));
+    }
+
+    private static ComputeState createComputeState(String... tagLinks) {
+        ComputeState state = new ComputeState();
+        state.id = "vm-1";
+        state.name = "vm-1";
+        state.tagLinks = new LinkedHashSet<>(Arrays.asList(tagLinks));
+        state.customProperties = new HashMap<>();
+        state.customProperties.put("key-1", "value-1");
+        state.customProperties.put("key-2", "value-2");
+        return state;
+    }
+}
@@ -422,20 +422,26 @@ public class VSphereAdapterSnapshotService extends StatelessService {
         }
 
         ManagedObjectReference task;
-        TaskInfo info;
         try {
             logInfo("Creating snapshot for compute resource %s", context.computeDescription.name);
             task = connection.getVimPort()
                     .createSnapshotTask(vmMoRef, context.snapshotState.name, context.snapshotState.description, context.snapshotMemory, false);
-            info = VimUtils.waitTaskEnd(connection, task);
-            if (info.getState() != TaskInfoState.SUCCESS) {
-                VimUtils.rethrow(info.getError());
-            }
         } catch (Exception e) {
             deferredResult.fail(e);
             return;
         }
 
+        awaitTaskSuccess(connection, task).whenComplete((info, e) -> {
+            if (e != null) {
+                deferredResult.fail(e);
+                return;
+            }
+            createSnapshotState(context, info, deferredResult);
+        });
+    }
+
+    private void createSnapshotState(SnapshotContext context, TaskInfo info,
+            DeferredResult<SnapshotContext> deferredResult) {
         CustomProperties.of(context.snapshotState).put(CustomProperties.MOREF, (ManagedObjectReference) info.getResult());
         context.snapshotState.isCurrent = true; //mark this as current snapshot
 
@@ -490,21 +496,30 @@ public class VSphereAdapterSnapshotService extends StatelessService {
         }
 
         ManagedObjectReference task;
-        TaskInfo info;
         try {
             logInfo("Deleting snapshot with name %s", context.snapshotState.name);
             task = connection.getVimPort()
                     .removeSnapshotTask(snapshotMoref, REMOVE_CHILDREN, SNAPSHOT_CONSOLIDATION);
-            info = VimUtils.waitTaskEnd(connection, task);
-            if (info.getState() != TaskInfoState.SUCCESS) {
-                VimUtils.rethrow(info.getError());
-            }
         } catch (Exception e) {
             logSevere("Deleting the snapshot %s failed", context.snapshotState.name);
             deferredResult.fail(e);
             return;
         }
 
+        awaitTaskSuccess(connection, task).whenComplete((info, e) -> {
+            if (e != null) {
+                logSevere("Deleting the snapshot %s failed", context.snapshotState.name);
+                deferredResult.fail(e);
+                return;
+            }
+            updateSnapshotStatesAfterDelete(context, deferredResult);
+        });
+    }
+
+    private void updateSnapshotStatesAfterDelete(SnapshotContext context,
+            DeferredResult<SnapshotContext> deferredResult) {
+        final SnapshotState snapshot = context.snapshotState;
+
         logInfo("Deleted the snapshot with name %s successfully", context.snapshotState.name);
 
         // Once the actual snapshot delete is successful, process the update of the children
@@ -543,7 +558,6 @@ public class VSphereAdapterSnapshotService extends StatelessService {
 
     private void revertSnapshot(SnapshotContext context, Connection connection, DeferredResult<SnapshotContext> deferredResult) {
         final SnapshotState snapshot = context.snapshotState;
-        SnapshotState existingSnapshotState = context.existingSnapshotState;
         // Physical snapshot processing
         ManagedObjectReference snapshotMoref = CustomProperties.of(snapshot)
                 .getMoRef(CustomProperties.MOREF);
@@ -554,21 +568,31 @@ public class VSphereAdapterSnapshotService extends StatelessService {
         }
 
         ManagedObjectReference task;
-        TaskInfo info;
         try {
             logInfo("Reverting to  snapshot with name %s", context.snapshotState.name);
             task = connection.getVimPort()
                     .revertToSnapshotTask(snapshotMoref, null, false);
-            info = VimUtils.waitTaskEnd(connection, task);
-            if (info.getState() != TaskInfoState.SUCCESS) {
-                VimUtils.rethrow(info.getError());
-            }
         } catch (Exception e) {
             logSevere("Reverting to the snapshot %s failed", context.snapshotState.name);
             deferredResult.fail(e);
             return;
         }
 
+        awaitTaskSuccess(connection, task).whenComplete((info, e) -> {
+            if (e != null) {
+                logSevere("Reverting to the snapshot %s failed", context.snapshotState.name);
+                deferredResult.fail(e);
+                return;
+            }
+            updateSnapshotStatesAfterRevert(context, deferredResult);
+        });
+    }
+
+    private void updateSnapshotStatesAfterRevert(SnapshotContext context,
+            DeferredResult<SnapshotContext> deferredResult) {
+        final SnapshotState snapshot = context.snapshotState;
+        SnapshotState existingSnapshotState = context.existingSnapshotState;
+
         // Check if we're trying to revert to the current snapshot. In that case we need not
         // update the isCurrent for both the snapshot states (existing and the reverted).
         // Also sending multiple patch requests on the same snapshot document will
@@ -609,6 +633,25 @@ public class VSphereAdapterSnapshotService extends StatelessService {
         }
     }
 
+    /**
+     * Awaits the end of a vSphere task without blocking the calling thread if the
+     * {@link VSphereTaskWatcher} is enabled, and fails if the task failed.
+     */
+    private DeferredResult<TaskInfo> awaitTaskSuccess(Connection connection,
+            ManagedObjectReference task) {
+        return VSphereIOThreadPoolAllocator.getPool(this).awaitTaskEnd(connection, task)
+                .thenCompose(info -> {
+                    if (info.getState() != TaskInfoState.SUCCESS) {
+                        try {
+                            VimUtils.rethrow(info.getError());
+                        } catch (Exception e) {
+                            return DeferredResult.failed(e);
+                        }
+                    }
+                    return DeferredResult.completed(info);
+                });
+    }
+
     private void processNextStepsForDeleteOperation(SnapshotContext context, DeferredResult<SnapshotContext> deferredResult) {
         final SnapshotState snapshot = context.snapshotState;
         // Update the isCurrent
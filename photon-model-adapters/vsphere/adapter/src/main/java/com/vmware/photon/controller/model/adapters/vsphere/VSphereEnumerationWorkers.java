@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
+import com.vmware.xenon.common.OperationContext;
+
+/**
+ * Runs the work of concurrent incremental enumerations on executors shared by all enumerations
+ * of the host. A vSphere connection is not safe for concurrent use, so every worker gets a
+ * connection of its own from a {@link WorkerConnections} pool.
+ *
+ * <p>Datacenter workers wait for the resource kind steps they submit, so the two kinds of work
+ * run on separate executors: the steps never wait for other work and always make progress.
+ */
+final class VSphereEnumerationWorkers {
+
+    /**
+     * Number of threads processing datacenters, shared by all incremental enumerations of the
+     * host. Twice as many threads process the resource kinds of the datacenters.
+     */
+    public static final String PROPERTY_NAME_THREAD_POOL_SIZE = UriPaths.PROPERTY_PREFIX
+            + "VSphereIncrementalEnumerationService.threadPoolSize";
+    private static final int THREAD_POOL_SIZE = Integer
+            .getInteger(PROPERTY_NAME_THREAD_POOL_SIZE, 8);
+
+    /**
+     * Creates the shared executors on first use only, since the concurrent processing is opt-in.
+     */
+    private static class SharedExecutors {
+        static final ExecutorService DATACENTERS = Executors.newFixedThreadPool(
+                THREAD_POOL_SIZE, daemonThreadFactory("vsphere-enum-datacenter-"));
+        static final ExecutorService STEPS = Executors.newFixedThreadPool(
+                2 * THREAD_POOL_SIZE, daemonThreadFactory("vsphere-enum-step-"));
+    }
+
+    @FunctionalInterface
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    /**
+     * A unit of work done with a connection of its own.
+     */
+    @FunctionalInterface
+    interface ConnectionStep {
+        void run(Connection connection) throws Exception;
+    }
+
+    /**
+     * The work done for one item of {@link #forEachConcurrently}.
+     */
+    @FunctionalInterface
+    interface ItemStep<T> {
+        void run(T item, Connection connection) throws Exception;
+    }
+
+    /**
+     * Connections for the workers of an enumeration run. A connection is used by one worker at a
+     * time and reused by the next worker once released, a connection whose worker failed is
+     * closed instead.
+     */
+    static class WorkerConnections implements AutoCloseable {
+        private final Supplier<Connection> factory;
+        private final Queue<Connection> idle = new ConcurrentLinkedQueue<>();
+
+        WorkerConnections(Supplier<Connection> factory) {
+            this.factory = factory;
+        }
+
+        Connection acquire() {
+            Connection connection = this.idle.poll();
+            return connection != null ? connection : this.factory.get();
+        }
+
+        void release(Connection connection, boolean failed) {
+            if (failed) {
+                connection.closeQuietly();
+            } else {
+                this.idle.add(connection);
+            }
+        }
+
+        void run(ConnectionStep step) throws Exception {
+            Connection connection = acquire();
+            boolean failed = true;
+            try {
+                step.run(connection);
+                failed = false;
+            } finally {
+                release(connection, failed);
+            }
+        }
+
+        /**
+         * Closes the idle connections.
+         */
+        @Override
+        public void close() {
+            Connection connection;
+            while ((connection = this.idle.poll()) != null) {
+                connection.closeQuietly();
+            }
+        }
+    }
+
+    private VSphereEnumerationWorkers() {
+    }
+
+    static ExecutorService datacenterExecutor() {
+        return SharedExecutors.DATACENTERS;
+    }
+
+    static ExecutorService stepExecutor() {
+        return SharedExecutors.STEPS;
+    }
+
+    /**
+     * Runs the given step for all items on the given executor, with at most {@code concurrency}
+     * items at a time, and waits for all of them. A failing item does not stop the others, the
+     * first failure is thrown once all items are done.
+     */
+    static <T> void forEachConcurrently(Collection<T> items, int concurrency,
+            ExecutorService executor, WorkerConnections connections, ItemStep<T> step)
+            throws Exception {
+        Queue<T> pending = new ConcurrentLinkedQueue<>(items);
+        Queue<Exception> failures = new ConcurrentLinkedQueue<>();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < Math.min(concurrency, items.size()); i++) {
+            futures.add(executor.submit(withOperationContext(() -> {
+                T item;
+                while ((item = pending.poll()) != null) {
+                    T current = item;
+                    try {
+                        connections.run(connection -> step.run(current, connection));
+                    } catch (Exception e) {
+                        failures.add(e);
+                    }
+                }
+            })));
+        }
+        awaitAll(futures, null);
+        if (!failures.isEmpty()) {
+            throw failures.peek();
+        }
+    }
+
+    /**
+     * Runs the first step on the calling thread with the given connection and the other steps
+     * on the given executor, each with a connection of its own, and waits for all of them. The
+     * first failure is thrown once all steps are done. Without an executor the steps run one
+     * after the other with the given connection.
+     */
+    static void runConcurrently(ExecutorService executor, WorkerConnections connections,
+            Connection connection, ConnectionStep... steps) throws Exception {
+        if (executor == null) {
+            for (ConnectionStep step : steps) {
+                step.run(connection);
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 1; i < steps.length; i++) {
+            ConnectionStep step = steps[i];
+            futures.add(executor.submit(withOperationContext(() -> connections.run(step))));
+        }
+        Exception failure = null;
+        try {
+            steps[0].run(connection);
+        } catch (Exception e) {
+            failure = e;
+        }
+        awaitAll(futures, failure);
+    }
+
+    /**
+     * Waits for all the given futures and throws the given failure or else the first failure of
+     * the futures, if any.
+     */
+    static void awaitAll(List<Future<?>> futures, Exception failure) throws Exception {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Wraps the given work to run in the operation context of the calling thread.
+     */
+    private static Callable<Void> withOperationContext(Work work) {
+        OperationContext orig = OperationContext.getOperationContext();
+        return () -> {
+            OperationContext old = OperationContext.getOperationContext();
+            OperationContext.setFrom(orig);
+            try {
+                work.run();
+            } finally {
+                OperationContext.restoreOperationContext(old);
+            }
+            return null;
+        };
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
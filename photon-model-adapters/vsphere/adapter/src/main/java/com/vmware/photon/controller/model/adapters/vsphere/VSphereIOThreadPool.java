@@ -32,6 +32,9 @@ import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Conne
 import com.vmware.photon.controller.model.adapters.vsphere.util.connection.ConnectionException;
 import com.vmware.photon.controller.model.security.ssl.ServerX509TrustManager;
 import com.vmware.photon.controller.model.security.util.EncryptionUtils;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.OperationContext;
 import com.vmware.xenon.common.Service;
@@ -41,16 +44,32 @@ import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsSe
 
 /**
  * Manages a threadpool that executes request to vsphere instances. A threadpool is allocated per
- * ServiceHost, not per vSphere.
+ * ServiceHost, not per vSphere. Callbacks are given sessions leased from a
+ * {@link VSphereSessionPool} if pooling is enabled with
+ * {@link VSphereSessionPool#PROPERTY_NAME_ENABLED}. The end of vSphere tasks is awaited with a
+ * {@link VSphereTaskWatcher} if it is enabled with {@link VSphereTaskWatcher#PROPERTY_NAME_ENABLED}.
  */
 public class VSphereIOThreadPool {
     private static final Logger logger = Logger.getLogger(VSphereIOThreadPool.class.getName());
     private final ScheduledExecutorService executorService;
     private final ServiceHost host;
+    private final VSphereSessionPool sessionPool;
+    private final VSphereTaskWatcher taskWatcher;
 
     public VSphereIOThreadPool(ServiceHost host, ScheduledExecutorService executorService) {
         this.host = host;
         this.executorService = executorService;
+        if (VSphereSessionPool.ENABLED) {
+            this.sessionPool = new VSphereSessionPool();
+            long sweepIntervalMicros = Math.max(VSphereSessionPool.DEFAULT_IDLE_TIMEOUT_MICROS / 10,
+                    TimeUnit.SECONDS.toMicros(1));
+            this.executorService.scheduleWithFixedDelay(this::evictIdleSessions,
+                    sweepIntervalMicros, sweepIntervalMicros, TimeUnit.MICROSECONDS);
+        } else {
+            this.sessionPool = null;
+        }
+        this.taskWatcher = VSphereTaskWatcher.ENABLED
+                ? new VSphereTaskWatcher(executorService) : null;
     }
 
     public static VSphereIOThreadPool createDefault(ServiceHost host, int concurrency) {
@@ -73,13 +92,14 @@ public class VSphereIOThreadPool {
     public void submit(URI adapterReference, AuthCredentialsServiceState auth,
             ConnectionCallback callback) {
 
-        execute(adapterReference, auth, callback);
+        execute(adapterReference, auth, callback, null);
     }
 
     /**
-     * @see {@link #execute(URI, AuthCredentialsServiceState, ConnectionCallback)}
+     * @see {@link #execute(URI, AuthCredentialsServiceState, ConnectionCallback, Service)}
      *
      * @param sender
+     *            the service to which session pool stats are reported
      * @param adapterReference
      * @param authLink
      *            where to look for the credentials
@@ -102,7 +122,7 @@ public class VSphereIOThreadPool {
                     }
 
                     AuthCredentialsServiceState auth = o.getBody(AuthCredentialsServiceState.class);
-                    execute(adapterReference, auth, callback);
+                    execute(adapterReference, auth, callback, sender);
                 });
 
         sender.sendRequest(op);
@@ -119,8 +139,51 @@ public class VSphereIOThreadPool {
         this.executorService.submit(task);
     }
 
+    /**
+     * Returns the session pool, {@code null} if pooling is disabled.
+     */
+    public VSphereSessionPool getSessionPool() {
+        return this.sessionPool;
+    }
+
+    /**
+     * Awaits the end of a vSphere task. With the task watcher enabled, the calling thread is not
+     * blocked and the result is completed on a thread of this pool, after the connection may have
+     * been released. Otherwise the task is awaited in the calling thread with
+     * {@link VimUtils#waitTaskEnd(Connection, ManagedObjectReference)}.
+     *
+     * @param connection a connection to the vCenter of the task
+     * @param task the task to await
+     * @return the info of the ended task
+     */
+    public DeferredResult<TaskInfo> awaitTaskEnd(Connection connection,
+            ManagedObjectReference task) {
+        if (this.taskWatcher != null) {
+            return this.taskWatcher.watch(connection, task);
+        }
+
+        try {
+            return DeferredResult.completed(VimUtils.waitTaskEnd(connection, task));
+        } catch (Exception e) {
+            return DeferredResult.failed(e);
+        }
+    }
+
     private void execute(URI adapterReference, AuthCredentialsServiceState auth,
-            ConnectionCallback callback) {
+            ConnectionCallback callback, Service sender) {
+        if (this.sessionPool != null) {
+            executeCallback(adapterReference, auth, callback, sender);
+            return;
+        }
+
+        BasicConnection connection = createConnection(adapterReference, auth);
+
+        // don't connect now, but as late as possible as the session can expire
+        executeCallback(connection, callback);
+    }
+
+    private BasicConnection createConnection(URI adapterReference,
+            AuthCredentialsServiceState auth) {
         BasicConnection connection = new BasicConnection();
 
         // ignores the certificate for testing purposes
@@ -139,8 +202,47 @@ public class VSphereIOThreadPool {
 
         connection.setURI(adapterReference);
 
-        // don't connect now, but as late as possible as the session can expire
-        executeCallback(connection, callback);
+        return connection;
+    }
+
+    /**
+     * Runs the callback with a session leased from the pool. The credentials are decrypted only
+     * when a new session has to be logged in.
+     */
+    private void executeCallback(URI adapterReference, AuthCredentialsServiceState auth,
+            ConnectionCallback callback, Service sender) {
+        String credentialsKey = auth.type + ":" + auth.privateKeyId + ":"
+                + Utils.computeHash(String.valueOf(auth.privateKey));
+        OperationContext opContext = OperationContext.getOperationContext();
+        this.executorService.submit(() -> {
+            OperationContext.restoreOperationContext(opContext);
+            VSphereSessionPool.Lease lease;
+            try {
+                lease = this.sessionPool.acquire(adapterReference, credentialsKey,
+                        () -> createConnection(adapterReference, auth), sender);
+            } catch (Exception e) {
+                // also decryption and session pool failures, so the callback always runs
+                callback.doInConnection(null, toConnectionException(e));
+                return;
+            }
+
+            try {
+                callback.doInConnection(lease.getConnection(), null);
+            } catch (Exception e) {
+                logger.log(Level.SEVERE,
+                        "Uncaught exception in vSphere IO Pool: " + Utils.toString(e));
+            } finally {
+                this.sessionPool.release(lease);
+            }
+        });
+    }
+
+    private void evictIdleSessions() {
+        try {
+            this.sessionPool.evictIdle();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Error evicting idle vSphere sessions: " + Utils.toString(e));
+        }
     }
 
     private void executeCallback(BasicConnection connection, ConnectionCallback callback) {
@@ -150,8 +252,8 @@ public class VSphereIOThreadPool {
             try {
                 // login and session creation
                 connection.connect();
-            } catch (ConnectionException e) {
-                callback.doInConnection(null, e);
+            } catch (Exception e) {
+                callback.doInConnection(null, toConnectionException(e));
                 return;
             }
 
@@ -166,6 +268,13 @@ public class VSphereIOThreadPool {
         });
     }
 
+    private static ConnectionException toConnectionException(Exception e) {
+        if (e instanceof ConnectionException) {
+            return (ConnectionException) e;
+        }
+        return new ConnectionException("Cannot connect to vSphere: " + e.getMessage(), e);
+    }
+
     private void closeQuietly(BasicConnection connection) {
         try {
             connection.close();
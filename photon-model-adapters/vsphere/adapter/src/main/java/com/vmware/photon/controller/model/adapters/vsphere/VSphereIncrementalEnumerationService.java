@@ -28,14 +28,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 import com.vmware.photon.controller.model.ComputeProperties;
+import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.adapterapi.ComputeEnumerateResourceRequest;
 import com.vmware.photon.controller.model.adapterapi.EnumerationAction;
 import com.vmware.photon.controller.model.adapters.util.TaskManager;
 import com.vmware.photon.controller.model.adapters.vsphere.EnumerationClient.ObjectUpdateIterator;
+import com.vmware.photon.controller.model.adapters.vsphere.VSphereEnumerationWorkers.WorkerConnections;
 import com.vmware.photon.controller.model.adapters.vsphere.VsphereResourceCleanerService.ResourceCleanRequest;
 import com.vmware.photon.controller.model.adapters.vsphere.tagging.TagCache;
 import com.vmware.photon.controller.model.adapters.vsphere.util.MoRefKeyedMap;
@@ -89,6 +93,17 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
     public static final String PREFIX_NETWORK = "network";
     public static final String PREFIX_DATASTORE = "datastore";
 
+    /**
+     * Number of datacenters whose incremental changes are processed concurrently. With the
+     * default of 1 the datacenters, and the resource kinds within each of them, are processed one
+     * at a time. With a higher value, resource kinds of a datacenter which do not depend on each
+     * other are processed concurrently as well.
+     */
+    public static final String PROPERTY_NAME_DATACENTER_CONCURRENCY = UriPaths.PROPERTY_PREFIX
+            + "VSphereIncrementalEnumerationService.datacenterConcurrency";
+    private static final int DATACENTER_CONCURRENCY = Integer
+            .getInteger(PROPERTY_NAME_DATACENTER_CONCURRENCY, 1);
+
     public enum InterfaceStateMode {
         INTERFACE_STATE_WITH_OPAQUE_NETWORK,
         INTERFACE_STATE_WITH_DISTRIBUTED_VIRTUAL_PORT
@@ -232,58 +247,8 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
                             logInfo("Syncing storage profiles for vcenter [%s]", vCenter.getInstanceUuid());
                             VsphereStoragePolicyEnumerationHelper.syncStorageProfiles(this, enumerationClient, ctx);
 
-                            for (CollectorDetails collectorDetails : this.collectors) {
-                                logInfo("Retrieving  resources incremental data for data center: %s",
-                                        collectorDetails.datacenter);
-
-                                EnumerationProgress enumerationProgress = new EnumerationProgress(new HashSet<>(), request,
-                                        computeStateWithDesc, vapiConnection, collectorDetails.datacenter,
-                                        vCenter.getInstanceUuid());
-
-                                enumerationProgress.setDisksToStoragePolicyMap(ctx.getDiskToStoragePolicyAssociationMap());
-                                enumerationProgress.setDataStoresToStoragePolicyMap(ctx.getDataStoresToStoragePolicyMap());
-
-                                EnumerationClient client = new EnumerationClient(this.connection, computeStateWithDesc,
-                                        VimUtils.convertStringToMoRef(collectorDetails.datacenter));
-
-                                List<ObjectUpdate> resourcesUpdates = collectResourcesData(collectorDetails);
-
-                                List<ObjectUpdate> vmUpdates = collectVMData(collectorDetails);
-                                logInfo("Received resources updates for datacenter: %s : %s",
-                                        collectorDetails.datacenter, resourcesUpdates.size());
-                                logInfo("Received vm updates for datacenter: %s : %s",
-                                        collectorDetails.datacenter, vmUpdates.size());
-
-                                logInfo("Resources Updates: %s", Utils.toJson(resourcesUpdates));
-
-                                logInfo("VM Updates: %s", Utils.toJson(vmUpdates));
-
-                                if (!resourcesUpdates.isEmpty()) {
-                                    SegregatedOverlays segregatedOverlays =
-                                            segregateObjectUpdates(enumerationProgress, resourcesUpdates);
-                                    this.logInfo("Processing incremental changes for folders for datacenter [%s]", collectorDetails.datacenter);
-                                    VsphereFolderEnumerationHelper.handleFolderChanges(this, segregatedOverlays.folders, enumerationProgress, client);
-                                    logInfo("Processing incremental changes for networks for datacenter [%s]", collectorDetails.datacenter);
-                                    VSphereNetworkEnumerationHelper
-                                            .handleNetworkChanges(this, segregatedOverlays.networks, enumerationProgress, client);
-                                    logInfo("Processing incremental changes for Datastores for datacenter [%s]", collectorDetails.datacenter);
-                                    VsphereDatastoreEnumerationHelper
-                                            .handleDatastoreChanges(this, segregatedOverlays.datastores, enumerationProgress);
-                                    logInfo("Processing incremental changes for compute resource for datacenter [%s]", collectorDetails.datacenter);
-                                    VsphereComputeResourceEnumerationHelper
-                                            .handleComputeResourceChanges(this, segregatedOverlays.clusters, enumerationProgress, client, segregatedOverlays.hosts);
-                                    logInfo("Processing incremental changes for host system for datacenter [%s]", collectorDetails.datacenter);
-                                    VSphereHostSystemEnumerationHelper
-                                            .handleHostSystemChanges(this, segregatedOverlays.hosts, enumerationProgress, client);
-                                    logInfo("Processing incremental changes for resource pool for datacenter [%s]", collectorDetails.datacenter);
-                                    VSphereResourcePoolEnumerationHelper
-                                            .handleResourcePoolChanges(this, segregatedOverlays.resourcePools, enumerationProgress, client);
-                                }
-                                if (!vmUpdates.isEmpty()) {
-                                    logInfo("Processing incremental changes for virtual machines for datacenter [%s]", collectorDetails.datacenter);
-                                    VSphereVirtualMachineEnumerationHelper.handleVMChanges(this, vmUpdates, enumerationProgress, client);
-                                }
-                            }
+                            processDatacenters(request, computeStateWithDesc, vapiConnection,
+                                    ctx, vCenter.getInstanceUuid());
                             mgr.patchTask(TaskStage.FINISHED);
                         } catch (Exception exception) {
                             String msg = "Error processing PropertyCollector results during incremental retrieval";
@@ -300,6 +265,149 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
                 }, mgr).sendWith(this);
     }
 
+    /**
+     * Processes the incremental changes of all datacenters of the endpoint. Up to
+     * {@link #PROPERTY_NAME_DATACENTER_CONCURRENCY} datacenters are processed concurrently, and
+     * a failure of one datacenter is reported once all of them are done.
+     */
+    private void processDatacenters(ComputeEnumerateResourceRequest request,
+            ComputeStateWithDescription computeStateWithDesc, VapiConnection vapiConnection,
+            EnumerationProgress ctx, String vCenterUuid) throws Exception {
+        if (DATACENTER_CONCURRENCY <= 1) {
+            for (CollectorDetails collectorDetails : this.collectors) {
+                processDatacenter(new DatacenterUpdates(collectorDetails), request,
+                        computeStateWithDesc, vapiConnection, ctx, vCenterUuid, this.connection,
+                        null, null);
+            }
+            return;
+        }
+
+        // the property collectors belong to the session of the service connection, so the
+        // updates are collected with it before the datacenters are processed concurrently with
+        // connections of their own
+        List<DatacenterUpdates> updates = new ArrayList<>();
+        for (CollectorDetails collectorDetails : this.collectors) {
+            updates.add(new DatacenterUpdates(collectorDetails));
+        }
+        try (WorkerConnections connections = new WorkerConnections(
+                () -> this.connection.createUnmanagedCopy())) {
+            VSphereEnumerationWorkers.forEachConcurrently(updates, DATACENTER_CONCURRENCY,
+                    VSphereEnumerationWorkers.datacenterExecutor(), connections,
+                    (datacenterUpdates, connection) -> processDatacenter(datacenterUpdates,
+                            request, computeStateWithDesc, vapiConnection, ctx, vCenterUuid,
+                            connection, VSphereEnumerationWorkers.stepExecutor(), connections));
+        }
+    }
+
+    /**
+     * The incremental changes of a datacenter, collected with the service connection.
+     */
+    private class DatacenterUpdates {
+        private final String datacenter;
+        private final List<ObjectUpdate> resourcesUpdates;
+        private final List<ObjectUpdate> vmUpdates;
+
+        DatacenterUpdates(CollectorDetails collectorDetails) {
+            this.datacenter = collectorDetails.datacenter;
+            logInfo("Retrieving  resources incremental data for data center: %s",
+                    this.datacenter);
+            this.resourcesUpdates = collectResourcesData(collectorDetails);
+            this.vmUpdates = collectVMData(collectorDetails);
+        }
+    }
+
+    /**
+     * Processes the incremental changes of a single datacenter with the given connection.
+     * Resource kinds are processed in dependency order, kinds which do not depend on each other
+     * are processed concurrently on the given executor, each with a connection of its own, or
+     * one after the other when it is {@code null}.
+     */
+    private void processDatacenter(DatacenterUpdates updates,
+            ComputeEnumerateResourceRequest request,
+            ComputeStateWithDescription computeStateWithDesc, VapiConnection vapiConnection,
+            EnumerationProgress ctx, String vCenterUuid, Connection connection,
+            ExecutorService kindExecutor, WorkerConnections connections)
+            throws Exception {
+        String datacenter = updates.datacenter;
+        ManagedObjectReference datacenterMoRef = VimUtils.convertStringToMoRef(datacenter);
+
+        EnumerationProgress enumerationProgress = new EnumerationProgress(new HashSet<>(), request,
+                computeStateWithDesc, vapiConnection, datacenter, vCenterUuid);
+
+        enumerationProgress.setDisksToStoragePolicyMap(ctx.getDiskToStoragePolicyAssociationMap());
+        enumerationProgress.setDataStoresToStoragePolicyMap(ctx.getDataStoresToStoragePolicyMap());
+
+        EnumerationClient client = new EnumerationClient(connection, computeStateWithDesc,
+                datacenterMoRef);
+        // concurrent steps use clients on their own connections
+        Function<Connection, EnumerationClient> clientFor = c -> c == connection ? client
+                : new EnumerationClient(c, computeStateWithDesc, datacenterMoRef);
+
+        List<ObjectUpdate> resourcesUpdates = updates.resourcesUpdates;
+        List<ObjectUpdate> vmUpdates = updates.vmUpdates;
+        logInfo("Received resources updates for datacenter: %s : %s", datacenter,
+                resourcesUpdates.size());
+        logInfo("Received vm updates for datacenter: %s : %s", datacenter, vmUpdates.size());
+
+        logFinest(() -> String.format("Resources Updates: %s", Utils.toJson(resourcesUpdates)));
+        logFinest(() -> String.format("VM Updates: %s", Utils.toJson(vmUpdates)));
+
+        if (!resourcesUpdates.isEmpty()) {
+            SegregatedOverlays segregatedOverlays =
+                    segregateObjectUpdates(enumerationProgress, resourcesUpdates);
+            // folders, networks and datastores do not depend on each other. Datastores come
+            // first, on the datacenter thread, since they need no connection.
+            VSphereEnumerationWorkers.runConcurrently(kindExecutor, connections, connection,
+                    c -> {
+                        logInfo("Processing incremental changes for Datastores for datacenter [%s]",
+                                datacenter);
+                        VsphereDatastoreEnumerationHelper.handleDatastoreChanges(this,
+                                segregatedOverlays.datastores, enumerationProgress);
+                    },
+                    c -> {
+                        logInfo("Processing incremental changes for folders for datacenter [%s]",
+                                datacenter);
+                        VsphereFolderEnumerationHelper.handleFolderChanges(this,
+                                segregatedOverlays.folders, enumerationProgress,
+                                clientFor.apply(c));
+                    },
+                    c -> {
+                        logInfo("Processing incremental changes for networks for datacenter [%s]",
+                                datacenter);
+                        VSphereNetworkEnumerationHelper.handleNetworkChanges(this,
+                                segregatedOverlays.networks, enumerationProgress,
+                                clientFor.apply(c));
+                    });
+            logInfo("Processing incremental changes for compute resource for datacenter [%s]",
+                    datacenter);
+            VsphereComputeResourceEnumerationHelper.handleComputeResourceChanges(this,
+                    segregatedOverlays.clusters, enumerationProgress, client,
+                    segregatedOverlays.hosts);
+            // hosts and resource pools depend only on the compute resources
+            VSphereEnumerationWorkers.runConcurrently(kindExecutor, connections, connection,
+                    c -> {
+                        logInfo("Processing incremental changes for host system"
+                                + " for datacenter [%s]", datacenter);
+                        VSphereHostSystemEnumerationHelper.handleHostSystemChanges(this,
+                                segregatedOverlays.hosts, enumerationProgress,
+                                clientFor.apply(c));
+                    },
+                    c -> {
+                        logInfo("Processing incremental changes for resource pool"
+                                + " for datacenter [%s]", datacenter);
+                        VSphereResourcePoolEnumerationHelper.handleResourcePoolChanges(this,
+                                segregatedOverlays.resourcePools, enumerationProgress,
+                                clientFor.apply(c));
+                    });
+        }
+        if (!vmUpdates.isEmpty()) {
+            logInfo("Processing incremental changes for virtual machines for datacenter [%s]",
+                    datacenter);
+            VSphereVirtualMachineEnumerationHelper.handleVMChanges(this, vmUpdates,
+                    enumerationProgress, client);
+        }
+    }
+
     private void selfDeleteService() {
         this.sendRequest(Operation.createDelete(this.getUri()));
     }
@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.BasicConnection;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.ConnectionException;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.GetMoRef;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Pool of logged in vSphere sessions, keyed by vCenter and credentials.
+ *
+ * <p>A session is leased to a single user at a time and returned to the pool when the user is
+ * done with it. Sessions that were idle for a while are checked before being leased again and
+ * logged in again if vCenter no longer knows them, e.g. after a vCenter restart or session
+ * timeout. Sessions that vCenter rejected with a NotAuthenticated fault while leased are evicted
+ * when released, so the next lease logs in again. Sessions idle for longer than the idle timeout
+ * are logged out by {@link #evictIdle()}.
+ *
+ * <p>The number of pooled sessions per vCenter is bounded. When all of them are in use, a new
+ * session is logged in for the lease and logged out when it is released, as without pooling.
+ *
+ * <p>Pooling is disabled by default and is enabled with {@link #PROPERTY_NAME_ENABLED}.
+ */
+public class VSphereSessionPool {
+
+    public static final String PROPERTY_NAME_ENABLED = UriPaths.PROPERTY_PREFIX
+            + "VSphereSessionPool.enabled";
+    public static final boolean ENABLED = Boolean.getBoolean(PROPERTY_NAME_ENABLED);
+
+    public static final String PROPERTY_NAME_MAX_SESSIONS_PER_VCENTER = UriPaths.PROPERTY_PREFIX
+            + "VSphereSessionPool.maxSessionsPerVCenter";
+    public static final int DEFAULT_MAX_SESSIONS_PER_VCENTER = Integer
+            .getInteger(PROPERTY_NAME_MAX_SESSIONS_PER_VCENTER, 10);
+
+    /**
+     * Should stay below the session timeout of vCenter, which is 30 minutes by default.
+     */
+    public static final String PROPERTY_NAME_IDLE_TIMEOUT_SECONDS = UriPaths.PROPERTY_PREFIX
+            + "VSphereSessionPool.idleTimeoutSeconds";
+    public static final long DEFAULT_IDLE_TIMEOUT_MICROS = TimeUnit.SECONDS.toMicros(
+            Integer.getInteger(PROPERTY_NAME_IDLE_TIMEOUT_SECONDS, 600));
+
+    public static final String PROPERTY_NAME_VALIDATE_AFTER_SECONDS = UriPaths.PROPERTY_PREFIX
+            + "VSphereSessionPool.validateAfterSeconds";
+    public static final long DEFAULT_VALIDATE_AFTER_MICROS = TimeUnit.SECONDS.toMicros(
+            Integer.getInteger(PROPERTY_NAME_VALIDATE_AFTER_SECONDS, 60));
+
+    public static final String STAT_NAME_LEASE_COUNT = "vSphereSessionLeaseCount";
+    public static final String STAT_NAME_LOGIN_COUNT = "vSphereSessionLoginCount";
+    public static final String STAT_NAME_RELOGIN_COUNT = "vSphereSessionReloginCount";
+    public static final String STAT_NAME_EVICTION_COUNT = "vSphereSessionEvictionCount";
+    public static final String STAT_NAME_OPEN_SESSIONS = "vSphereSessionOpenCount";
+    public static final String STAT_NAME_IDLE_SESSIONS = "vSphereSessionIdleCount";
+    public static final String STAT_UNIT_COUNT = "count";
+
+    private static final String SESSION_MANAGER_CURRENT_SESSION = "currentSession";
+
+    private static final Logger logger = Logger.getLogger(VSphereSessionPool.class.getName());
+
+    private static class PooledSession {
+        private final String key;
+        private final URI uri;
+        private final BasicConnection connection;
+        private volatile long lastUsedMicros;
+
+        PooledSession(String key, URI uri, BasicConnection connection) {
+            this.key = key;
+            this.uri = uri;
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * A session leased from the pool. Must be released with {@link #release(Lease)}.
+     */
+    public static class Lease {
+        private final PooledSession session;
+        private final boolean pooled;
+
+        private Lease(PooledSession session, boolean pooled) {
+            this.session = session;
+            this.pooled = pooled;
+        }
+
+        public BasicConnection getConnection() {
+            return this.session.connection;
+        }
+    }
+
+    private final int maxSessionsPerVCenter;
+    private final long idleTimeoutMicros;
+    private final long validateAfterMicros;
+    private final Predicate<Connection> validator;
+
+    private final ConcurrentHashMap<String, Deque<PooledSession>> idleSessions =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<URI, AtomicInteger> openSessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong leaseCount = new AtomicLong();
+    private final AtomicLong loginCount = new AtomicLong();
+    private final AtomicLong reloginCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public VSphereSessionPool() {
+        this(DEFAULT_MAX_SESSIONS_PER_VCENTER, DEFAULT_IDLE_TIMEOUT_MICROS,
+                DEFAULT_VALIDATE_AFTER_MICROS, VSphereSessionPool::isSessionActive);
+    }
+
+    /**
+     * @param maxSessionsPerVCenter Maximum number of pooled sessions per vCenter.
+     * @param idleTimeoutMicros Time after which an unused session is logged out.
+     * @param validateAfterMicros Time after which an unused session is checked before being
+     *                            leased again.
+     * @param validator Tells whether the session of a connection is still active.
+     */
+    public VSphereSessionPool(int maxSessionsPerVCenter, long idleTimeoutMicros,
+            long validateAfterMicros, Predicate<Connection> validator) {
+        this.maxSessionsPerVCenter = maxSessionsPerVCenter;
+        this.idleTimeoutMicros = idleTimeoutMicros;
+        this.validateAfterMicros = validateAfterMicros;
+        this.validator = validator;
+    }
+
+    /**
+     * Leases a session to the given vCenter, logged in with the credentials identified by
+     * {@code credentialsKey}. An idle session is reused if there is one, otherwise a connection
+     * is created with {@code factory} and logged in.
+     *
+     * @throws ConnectionException if logging in fails
+     */
+    public Lease acquire(URI uri, String credentialsKey, Supplier<BasicConnection> factory,
+            Service service) {
+        String key = uri + "#" + credentialsKey;
+        this.leaseCount.incrementAndGet();
+        adjustStat(service, STAT_NAME_LEASE_COUNT);
+
+        Deque<PooledSession> idle = this.idleSessions.get(key);
+        PooledSession session = idle != null ? idle.pollFirst() : null;
+        if (session != null) {
+            revalidate(session, service);
+            reportSize(service);
+            return new Lease(session, true);
+        }
+
+        AtomicInteger open = this.openSessions.computeIfAbsent(uri, u -> new AtomicInteger());
+        boolean pooled = open.incrementAndGet() <= this.maxSessionsPerVCenter;
+        if (!pooled) {
+            open.decrementAndGet();
+        }
+
+        session = new PooledSession(key, uri, factory.get());
+        try {
+            login(session, service);
+        } catch (RuntimeException e) {
+            if (pooled) {
+                open.decrementAndGet();
+            }
+            throw e;
+        }
+        reportSize(service);
+        return new Lease(session, pooled);
+    }
+
+    /**
+     * Returns a leased session to the pool. Sessions closed by their user and sessions leased
+     * while the pool was full are logged out instead, as are sessions rejected by vCenter as not
+     * authenticated.
+     */
+    public void release(Lease lease) {
+        PooledSession session = lease.session;
+        if (!lease.pooled) {
+            closeQuietly(session.connection);
+            return;
+        }
+        if (session.connection.getUserSession() == null) {
+            // closed by its user
+            this.openSessions.get(session.uri).decrementAndGet();
+            return;
+        }
+        if (session.connection.isNotAuthenticated()) {
+            logger.fine(() -> String.format("Session to %s is no longer authenticated, evicting",
+                    session.uri));
+            evict(session);
+            return;
+        }
+        session.lastUsedMicros = Utils.getNowMicrosUtc();
+        this.idleSessions.computeIfAbsent(session.key, k -> new ConcurrentLinkedDeque<>())
+                .offerFirst(session);
+    }
+
+    /**
+     * Logs out sessions that were not used for the idle timeout.
+     */
+    public void evictIdle() {
+        long nowMicros = Utils.getNowMicrosUtc();
+        for (Deque<PooledSession> idle : this.idleSessions.values()) {
+            // the least recently used sessions are at the tail
+            Iterator<PooledSession> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledSession session = it.next();
+                if (nowMicros - session.lastUsedMicros <= this.idleTimeoutMicros) {
+                    break;
+                }
+                if (idle.removeLastOccurrence(session)) {
+                    evict(session);
+                }
+            }
+        }
+    }
+
+    /**
+     * Logs out all idle sessions. Leased sessions are logged out when released.
+     */
+    public void clear() {
+        for (Entry<String, Deque<PooledSession>> entry : this.idleSessions.entrySet()) {
+            PooledSession session;
+            while ((session = entry.getValue().pollLast()) != null) {
+                evict(session);
+            }
+        }
+    }
+
+    public long getLeaseCount() {
+        return this.leaseCount.get();
+    }
+
+    public long getLoginCount() {
+        return this.loginCount.get();
+    }
+
+    public long getReloginCount() {
+        return this.reloginCount.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * Returns the number of pooled sessions, leased or idle.
+     */
+    public int getOpenSessionCount() {
+        return this.openSessions.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    public int getIdleSessionCount() {
+        return this.idleSessions.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    /**
+     * Returns the current metrics of the pool.
+     */
+    public List<ServiceStat> getStats() {
+        List<ServiceStat> stats = new ArrayList<>();
+        stats.add(createStat(STAT_NAME_LEASE_COUNT, this.leaseCount.get()));
+        stats.add(createStat(STAT_NAME_LOGIN_COUNT, this.loginCount.get()));
+        stats.add(createStat(STAT_NAME_RELOGIN_COUNT, this.reloginCount.get()));
+        stats.add(createStat(STAT_NAME_EVICTION_COUNT, this.evictionCount.get()));
+        stats.add(createStat(STAT_NAME_OPEN_SESSIONS, getOpenSessionCount()));
+        stats.add(createStat(STAT_NAME_IDLE_SESSIONS, getIdleSessionCount()));
+        return stats;
+    }
+
+    private void login(PooledSession session, Service service) {
+        session.connection.connect();
+        this.loginCount.incrementAndGet();
+        adjustStat(service, STAT_NAME_LOGIN_COUNT);
+    }
+
+    /**
+     * Logs in again a session that vCenter no longer knows.
+     */
+    private void revalidate(PooledSession session, Service service) {
+        if (Utils.getNowMicrosUtc() - session.lastUsedMicros <= this.validateAfterMicros
+                || this.validator.test(session.connection)) {
+            return;
+        }
+        logger.fine(() -> String.format("Session to %s is no longer active, logging in again",
+                session.uri));
+        session.connection.closeQuietly();
+        try {
+            login(session, service);
+        } catch (RuntimeException e) {
+            this.openSessions.get(session.uri).decrementAndGet();
+            throw e;
+        }
+        this.reloginCount.incrementAndGet();
+        adjustStat(service, STAT_NAME_RELOGIN_COUNT);
+    }
+
+    private void evict(PooledSession session) {
+        this.openSessions.get(session.uri).decrementAndGet();
+        this.evictionCount.incrementAndGet();
+        closeQuietly(session.connection);
+    }
+
+    private static void closeQuietly(BasicConnection connection) {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Error closing connection to " + connection.getURI() + ": "
+                    + Utils.toString(e));
+        }
+    }
+
+    /**
+     * Checks the session by reading the current session of the session manager, which is not
+     * set if the session is not authenticated.
+     */
+    private static boolean isSessionActive(Connection connection) {
+        try {
+            Object currentSession = new GetMoRef(connection).entityProp(
+                    connection.getServiceContent().getSessionManager(),
+                    SESSION_MANAGER_CURRENT_SESSION);
+            return currentSession != null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void reportSize(Service service) {
+        setStat(service, STAT_NAME_OPEN_SESSIONS, getOpenSessionCount());
+        setStat(service, STAT_NAME_IDLE_SESSIONS, getIdleSessionCount());
+        setStat(service, STAT_NAME_EVICTION_COUNT, this.evictionCount.get());
+    }
+
+    private static void adjustStat(Service service, String statName) {
+        if (service == null) {
+            return;
+        }
+        ServiceStat stat = new ServiceStat();
+        stat.name = statName;
+        stat.unit = STAT_UNIT_COUNT;
+        service.adjustStat(stat, 1);
+    }
+
+    private static void setStat(Service service, String statName, double value) {
+        if (service == null) {
+            return;
+        }
+        ServiceStat stat = new ServiceStat();
+        stat.name = statName;
+        stat.unit = STAT_UNIT_COUNT;
+        service.setStat(stat, value);
+    }
+
+    private static ServiceStat createStat(String name, double value) {
+        ServiceStat stat = new ServiceStat();
+        stat.name = name;
+        stat.unit = STAT_UNIT_COUNT;
+        stat.latestValue = value;
+        return stat;
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.w3c.dom.Element;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.adapters.vsphere.util.VimPath;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.GetMoRef;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.WaitOptions;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Watches vSphere tasks until they end, with one property collector and one poller thread per
+ * vCenter, instead of a property filter and a blocked thread per task as with
+ * {@link VimUtils#waitTaskEnd(Connection, ManagedObjectReference)}.
+ *
+ * <p>The tasks of a vCenter are watched in a dedicated session, logged in with the credentials
+ * of the first watched task and logged out when no task was watched for the idle timeout. The
+ * results are completed on the given executor, never on the poller thread.
+ */
+public class VSphereTaskWatcher {
+
+    public static final String PROPERTY_NAME_ENABLED = UriPaths.PROPERTY_PREFIX
+            + "VSphereTaskWatcher.enabled";
+    public static final boolean ENABLED = Boolean.getBoolean(PROPERTY_NAME_ENABLED);
+
+    /**
+     * How long a poll waits for task updates, which is also the longest delay until a new task
+     * is watched.
+     */
+    public static final String PROPERTY_NAME_MAX_WAIT_SECONDS = UriPaths.PROPERTY_PREFIX
+            + "VSphereTaskWatcher.maxWaitSeconds";
+    public static final int DEFAULT_MAX_WAIT_SECONDS = Integer
+            .getInteger(PROPERTY_NAME_MAX_WAIT_SECONDS, 1);
+
+    public static final String PROPERTY_NAME_IDLE_TIMEOUT_SECONDS = UriPaths.PROPERTY_PREFIX
+            + "VSphereTaskWatcher.idleTimeoutSeconds";
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(
+            Integer.getInteger(PROPERTY_NAME_IDLE_TIMEOUT_SECONDS, 60));
+
+    /**
+     * Consecutive failures of a vCenter session after which its tasks are failed.
+     */
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    private static final Logger logger = Logger.getLogger(VSphereTaskWatcher.class.getName());
+
+    /**
+     * The vCenter calls of the poller, see {@link VimTaskCollector}.
+     */
+    interface TaskCollector {
+        /**
+         * Starts watching a task. The state of the task is reported by the next poll.
+         */
+        void addTask(ManagedObjectReference task) throws Exception;
+
+        void removeTask(ManagedObjectReference task);
+
+        /**
+         * Waits up to the given time for updates and returns the tasks that ended since the
+         * last poll.
+         */
+        List<ManagedObjectReference> pollEndedTasks(int maxWaitSeconds) throws Exception;
+
+        TaskInfo getTaskInfo(ManagedObjectReference task) throws Exception;
+
+        void close();
+    }
+
+    private final Executor executor;
+    private final int maxWaitSeconds;
+    private final long idleTimeoutMillis;
+    private final Map<String, VCenterWatcher> watchers = new ConcurrentHashMap<>();
+
+    public VSphereTaskWatcher(Executor executor) {
+        this(executor, DEFAULT_MAX_WAIT_SECONDS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    VSphereTaskWatcher(Executor executor, int maxWaitSeconds, long idleTimeoutMillis) {
+        this.executor = executor;
+        this.maxWaitSeconds = maxWaitSeconds;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Watches a task until it ends.
+     *
+     * @param connection a connection to the vCenter of the task, only used to log in the session
+     *                   of the watcher
+     * @param task the task to watch
+     * @return the info of the ended task
+     */
+    public DeferredResult<TaskInfo> watch(Connection connection, ManagedObjectReference task) {
+        String key = connection.getURI() + ":" + connection.getUsername() + ":"
+                + Utils.computeHash(String.valueOf(connection.getPassword()));
+        return watch(key, connection.getURI().getHost(),
+                () -> new VimTaskCollector(connection.createUnmanagedCopy()), task);
+    }
+
+    DeferredResult<TaskInfo> watch(String key, String vCenterName,
+            Supplier<TaskCollector> collectorFactory, ManagedObjectReference task) {
+        DeferredResult<TaskInfo> result = new DeferredResult<>();
+        this.watchers.compute(key, (k, watcher) -> {
+            if (watcher == null || !watcher.add(task, result)) {
+                watcher = new VCenterWatcher(k, vCenterName, collectorFactory);
+                watcher.add(task, result);
+                watcher.start();
+            }
+            return watcher;
+        });
+        return result;
+    }
+
+    /**
+     * Returns the number of vCenters with a running poller.
+     */
+    int getWatcherCount() {
+        return this.watchers.size();
+    }
+
+    /**
+     * The poller of the tasks of one vCenter and credentials.
+     */
+    private class VCenterWatcher implements Runnable {
+        private final String key;
+        private final String vCenterName;
+        private final Supplier<TaskCollector> collectorFactory;
+
+        /**
+         * Tasks to add to the collector, guarded by this.
+         */
+        private final Map<String, ManagedObjectReference> pendingTasks = new HashMap<>();
+
+        /**
+         * The results of the pending and watched tasks by task id, one for each call of
+         * {@link #add}, guarded by this.
+         */
+        private final Map<String, List<DeferredResult<TaskInfo>>> results = new HashMap<>();
+
+        /**
+         * Tasks added to the collector, only accessed by the poller thread.
+         */
+        private final Map<String, ManagedObjectReference> watchedTasks = new HashMap<>();
+
+        private TaskCollector collector;
+        private boolean stopped;
+
+        VCenterWatcher(String key, String vCenterName,
+                Supplier<TaskCollector> collectorFactory) {
+            this.key = key;
+            this.vCenterName = vCenterName;
+            this.collectorFactory = collectorFactory;
+        }
+
+        void start() {
+            Thread thread = new Thread(this, "vsphere-task-watcher-" + this.vCenterName);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Adds a task to watch, unless the watcher stopped. A task which is watched already is
+         * not added to the collector again, its end completes all its results.
+         */
+        synchronized boolean add(ManagedObjectReference task, DeferredResult<TaskInfo> result) {
+            if (this.stopped) {
+                return false;
+            }
+            List<DeferredResult<TaskInfo>> taskResults = this.results
+                    .computeIfAbsent(task.getValue(), k -> new ArrayList<>());
+            if (taskResults.isEmpty()) {
+                this.pendingTasks.put(task.getValue(), task);
+                notifyAll();
+            }
+            taskResults.add(result);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            long idleSinceMillis = System.currentTimeMillis();
+            int failures = 0;
+
+            while (true) {
+                try {
+                    if (!addPendingTasks(idleSinceMillis)) {
+                        break;
+                    }
+                    if (this.watchedTasks.isEmpty()) {
+                        continue;
+                    }
+
+                    for (ManagedObjectReference task : this.collector
+                            .pollEndedTasks(VSphereTaskWatcher.this.maxWaitSeconds)) {
+                        complete(task);
+                    }
+                    failures = 0;
+                    if (this.watchedTasks.isEmpty()) {
+                        idleSinceMillis = System.currentTimeMillis();
+                    }
+                } catch (Throwable e) {
+                    closeCollector();
+                    if (++failures >= MAX_CONSECUTIVE_FAILURES) {
+                        logger.log(Level.WARNING, String.format(
+                                "Failing vSphere tasks watched in %s: %s", this.vCenterName,
+                                Utils.toString(e)));
+                        failAll(e);
+                        idleSinceMillis = System.currentTimeMillis();
+                        failures = 0;
+                    } else {
+                        // the tasks are added again in a new session
+                        synchronized (this) {
+                            this.pendingTasks.putAll(this.watchedTasks);
+                        }
+                        this.watchedTasks.clear();
+                        backOff();
+                    }
+                }
+            }
+            closeCollector();
+        }
+
+        /**
+         * Adds the pending tasks to the collector, logging in if needed. Waits for tasks if
+         * none is watched.
+         *
+         * @return {@code false} if the watcher stopped after being idle
+         */
+        private boolean addPendingTasks(long idleSinceMillis) throws InterruptedException {
+            synchronized (this) {
+                if (this.watchedTasks.isEmpty() && this.pendingTasks.isEmpty()) {
+                    long idleMillis = System.currentTimeMillis() - idleSinceMillis;
+                    if (idleMillis >= VSphereTaskWatcher.this.idleTimeoutMillis) {
+                        this.stopped = true;
+                        VSphereTaskWatcher.this.watchers.remove(this.key, this);
+                        return false;
+                    }
+                    wait(VSphereTaskWatcher.this.idleTimeoutMillis - idleMillis);
+                    return true;
+                }
+                if (this.pendingTasks.isEmpty()) {
+                    return true;
+                }
+            }
+
+            // log in before taking the pending tasks, which are kept if the login fails
+            if (this.collector == null) {
+                this.collector = this.collectorFactory.get();
+            }
+            List<ManagedObjectReference> tasks;
+            synchronized (this) {
+                tasks = new ArrayList<>(this.pendingTasks.values());
+                this.pendingTasks.clear();
+            }
+            for (ManagedObjectReference task : tasks) {
+                try {
+                    this.collector.addTask(task);
+                    this.watchedTasks.put(task.getValue(), task);
+                } catch (Exception e) {
+                    // e.g. the task no longer exists
+                    fail(task, e);
+                }
+            }
+            return true;
+        }
+
+        private void backOff() {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(VSphereTaskWatcher.this.maxWaitSeconds));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void complete(ManagedObjectReference task) {
+            if (this.watchedTasks.remove(task.getValue()) == null) {
+                return;
+            }
+            this.collector.removeTask(task);
+
+            List<DeferredResult<TaskInfo>> taskResults;
+            synchronized (this) {
+                taskResults = this.results.remove(task.getValue());
+            }
+            if (taskResults == null) {
+                return;
+            }
+            try {
+                TaskInfo info = this.collector.getTaskInfo(task);
+                for (DeferredResult<TaskInfo> result : taskResults) {
+                    VSphereTaskWatcher.this.executor.execute(() -> result.complete(info));
+                }
+            } catch (Exception e) {
+                for (DeferredResult<TaskInfo> result : taskResults) {
+                    VSphereTaskWatcher.this.executor.execute(() -> result.fail(e));
+                }
+            }
+        }
+
+        private void fail(ManagedObjectReference task, Throwable e) {
+            List<DeferredResult<TaskInfo>> taskResults;
+            synchronized (this) {
+                taskResults = this.results.remove(task.getValue());
+            }
+            if (taskResults == null) {
+                return;
+            }
+            for (DeferredResult<TaskInfo> result : taskResults) {
+                VSphereTaskWatcher.this.executor.execute(() -> result.fail(e));
+            }
+        }
+
+        private void failAll(Throwable e) {
+            List<DeferredResult<TaskInfo>> failed = new ArrayList<>();
+            synchronized (this) {
+                this.results.values().forEach(failed::addAll);
+                this.results.clear();
+                this.pendingTasks.clear();
+            }
+            this.watchedTasks.clear();
+            for (DeferredResult<TaskInfo> result : failed) {
+                VSphereTaskWatcher.this.executor.execute(() -> result.fail(e));
+            }
+        }
+
+        private void closeCollector() {
+            if (this.collector != null) {
+                this.collector.close();
+                this.collector = null;
+            }
+        }
+    }
+
+    /**
+     * Watches the {@code info.state} of tasks with a property collector of its own session.
+     */
+    private static class VimTaskCollector implements TaskCollector {
+        private final Connection connection;
+        private final ManagedObjectReference propertyCollector;
+        private final Map<String, ManagedObjectReference> filters = new HashMap<>();
+        private String version = "";
+
+        VimTaskCollector(Connection connection) {
+            this.connection = connection;
+            try {
+                this.propertyCollector = connection.getVimPort().createPropertyCollector(
+                        connection.getServiceContent().getPropertyCollector());
+            } catch (Exception e) {
+                connection.closeQuietly();
+                throw new IllegalStateException("Cannot create property collector", e);
+            }
+        }
+
+        @Override
+        public void addTask(ManagedObjectReference task) throws Exception {
+            ObjectSpec objectSpec = new ObjectSpec();
+            objectSpec.setObj(task);
+            objectSpec.setSkip(Boolean.FALSE);
+
+            PropertySpec propertySpec = new PropertySpec();
+            propertySpec.setType(task.getType());
+            propertySpec.getPathSet().add(VimPath.task_info_state);
+
+            PropertyFilterSpec spec = new PropertyFilterSpec();
+            spec.getObjectSet().add(objectSpec);
+            spec.getPropSet().add(propertySpec);
+
+            this.filters.put(task.getValue(), this.connection.getVimPort()
+                    .createFilter(this.propertyCollector, spec, true));
+        }
+
+        @Override
+        public void removeTask(ManagedObjectReference task) {
+            ManagedObjectReference filter = this.filters.remove(task.getValue());
+            if (filter == null) {
+                return;
+            }
+            try {
+                this.connection.getVimPort().destroyPropertyFilter(filter);
+            } catch (Exception e) {
+                logger.log(Level.FINE, "Cannot destroy property filter: " + Utils.toString(e));
+            }
+        }
+
+        @Override
+        public List<ManagedObjectReference> pollEndedTasks(int maxWaitSeconds)
+                throws Exception {
+            WaitOptions options = new WaitOptions();
+            options.setMaxWaitSeconds(maxWaitSeconds);
+            UpdateSet updateSet = this.connection.getVimPort()
+                    .waitForUpdatesEx(this.propertyCollector, this.version, options);
+
+            List<ManagedObjectReference> endedTasks = new ArrayList<>();
+            if (updateSet == null) {
+                return endedTasks;
+            }
+            this.version = updateSet.getVersion();
+
+            for (PropertyFilterUpdate filterUpdate : updateSet.getFilterSet()) {
+                for (ObjectUpdate objectUpdate : filterUpdate.getObjectSet()) {
+                    for (PropertyChange change : objectUpdate.getChangeSet()) {
+                        if (change.getOp() == PropertyChangeOp.REMOVE
+                                || !VimPath.task_info_state.equals(change.getName())) {
+                            continue;
+                        }
+                        TaskInfoState state = toTaskInfoState(change.getVal());
+                        if (state == TaskInfoState.SUCCESS || state == TaskInfoState.ERROR) {
+                            endedTasks.add(objectUpdate.getObj());
+                        }
+                    }
+                }
+            }
+            return endedTasks;
+        }
+
+        @Override
+        public TaskInfo getTaskInfo(ManagedObjectReference task) throws Exception {
+            return new GetMoRef(this.connection).entityProp(task, VimPath.task_info);
+        }
+
+        @Override
+        public void close() {
+            this.connection.closeQuietly();
+        }
+
+        private static TaskInfoState toTaskInfoState(Object value) {
+            if (value instanceof TaskInfoState) {
+                return (TaskInfoState) value;
+            }
+            // the enum may not be deserialized, see WaitForValues
+            if (value instanceof Element) {
+                try {
+                    return TaskInfoState.fromValue(((Element) value).getTextContent());
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -14,47 +14,179 @@
 
 package com.vmware.photon.controller.model.adapters.vsphere.stats;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
+import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.vim25.PerfCounterInfo;
 import com.vmware.vim25.PerfStatsType;
 import com.vmware.vim25.PerfSummaryType;
 import com.vmware.vim25.PerformanceManagerUnit;
+import com.vmware.xenon.common.Utils;
 
 /**
  * https://www.vmware.com/support/developer/vc-sdk/visdk41pubs/ApiReference/vim.PerformanceManager.html#field_detail
+ *
+ * The counters are indexed once when the lookup is built: by key in an open addressing table of
+ * primitive ints, and by group/name/statsType/rollupType/unit in a hash map. A lookup is built
+ * per vCenter and kept until it is marked stale, which happens when a counter cannot be found,
+ * i.e. when the counter set of the vCenter has changed. A counter that is missing for good would
+ * mark every lookup stale, so a lookup is only reported stale once it is older than the refresh
+ * interval.
  */
 public class PerfCounterLookup {
 
-    private final List<PerfCounterInfo> counters;
+    public static final String PROPERTY_NAME_REFRESH_INTERVAL_SECONDS = UriPaths.PROPERTY_PREFIX
+            + "PerfCounterLookup.refreshIntervalSeconds";
+    public static final long DEFAULT_REFRESH_INTERVAL_MICROS = TimeUnit.SECONDS.toMicros(
+            Integer.getInteger(PROPERTY_NAME_REFRESH_INTERVAL_SECONDS, 600));
+
+    private static final int EMPTY_KEY = Integer.MIN_VALUE;
+
+    private final int[] keys;
+    private final PerfCounterInfo[] countersByKey;
+    private final int mask;
+
+    private final Map<CounterKey, PerfCounterInfo> countersByName;
+
+    private final long createdMicros;
+    private final long refreshIntervalMicros;
+
+    private volatile boolean stale;
 
     public PerfCounterLookup(List<PerfCounterInfo> counters) {
-        this.counters = counters;
+        this(counters, DEFAULT_REFRESH_INTERVAL_MICROS);
+    }
+
+    /**
+     * @param refreshIntervalMicros Time after which a lookup marked stale is rebuilt.
+     */
+    PerfCounterLookup(List<PerfCounterInfo> counters, long refreshIntervalMicros) {
+        this.createdMicros = Utils.getNowMicrosUtc();
+        this.refreshIntervalMicros = refreshIntervalMicros;
+
+        // keep the table at most half full so that probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(counters.size(), 1) * 2) * 2;
+        this.keys = new int[capacity];
+        this.countersByKey = new PerfCounterInfo[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(this.keys, EMPTY_KEY);
+
+        this.countersByName = new HashMap<>(counters.size() * 2);
+
+        for (PerfCounterInfo pci : counters) {
+            putByKey(pci);
+            // the first counter wins, as with a scan over the list
+            this.countersByName.putIfAbsent(new CounterKey(pci.getNameInfo().getKey(),
+                    pci.getGroupInfo().getKey(), pci.getStatsType(), pci.getRollupType(),
+                    pci.getUnitInfo().getKey()), pci);
+        }
     }
 
     public PerfCounterInfo getCounter(String name, String groupName, PerfStatsType type,
             PerfSummaryType rollupType,
             PerformanceManagerUnit unit) {
-        for (PerfCounterInfo pci : this.counters) {
-            if (pci.getNameInfo().getKey().equals(name) &&
-                    pci.getGroupInfo().getKey().equals(groupName) &&
-                    pci.getRollupType().equals(rollupType) &&
-                    pci.getStatsType().equals(type) &&
-                    pci.getUnitInfo().getKey().equals(unit.value())) {
-                return pci;
+        return this.countersByName
+                .get(new CounterKey(name, groupName, type, rollupType, unit.value()));
+    }
+
+    public PerfCounterInfo getCounterByKey(int key) {
+        if (key == EMPTY_KEY) {
+            return null;
+        }
+        for (int i = hash(key) & this.mask; ; i = (i + 1) & this.mask) {
+            int k = this.keys[i];
+            if (k == key) {
+                return this.countersByKey[i];
+            }
+            if (k == EMPTY_KEY) {
+                return null;
             }
         }
+    }
 
-        return null;
+    /**
+     * Marks this lookup as out of date with the counters of the vCenter, so that it is rebuilt
+     * the next time it is needed once it is older than the refresh interval.
+     */
+    public void markStale() {
+        this.stale = true;
     }
 
-    public PerfCounterInfo getCounterByKey(int key) {
-        for (PerfCounterInfo pci : this.counters) {
-            if (pci.getKey() == key) {
-                return pci;
+    public boolean isStale() {
+        return this.stale
+                && Utils.getNowMicrosUtc() - this.createdMicros >= this.refreshIntervalMicros;
+    }
+
+    private void putByKey(PerfCounterInfo pci) {
+        int key = pci.getKey();
+        if (key == EMPTY_KEY) {
+            return;
+        }
+        for (int i = hash(key) & this.mask; ; i = (i + 1) & this.mask) {
+            int k = this.keys[i];
+            if (k == key) {
+                // the first counter wins, as with a scan over the list
+                return;
+            }
+            if (k == EMPTY_KEY) {
+                this.keys[i] = key;
+                this.countersByKey[i] = pci;
+                return;
             }
         }
+    }
+
+    /**
+     * Spreads the bits of counter keys, which are mostly small consecutive numbers.
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
 
-        return null;
+    private static final class CounterKey {
+        private final String name;
+        private final String groupName;
+        private final PerfStatsType type;
+        private final PerfSummaryType rollupType;
+        private final String unit;
+        private final int hash;
+
+        CounterKey(String name, String groupName, PerfStatsType type,
+                PerfSummaryType rollupType, String unit) {
+            this.name = name;
+            this.groupName = groupName;
+            this.type = type;
+            this.rollupType = rollupType;
+            this.unit = unit;
+            this.hash = Objects.hash(name, groupName, type, rollupType, unit);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CounterKey)) {
+                return false;
+            }
+            CounterKey that = (CounterKey) o;
+            return this.hash == that.hash
+                    && Objects.equals(this.name, that.name)
+                    && Objects.equals(this.groupName, that.groupName)
+                    && this.type == that.type
+                    && this.rollupType == that.rollupType
+                    && Objects.equals(this.unit, that.unit);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
     }
 }
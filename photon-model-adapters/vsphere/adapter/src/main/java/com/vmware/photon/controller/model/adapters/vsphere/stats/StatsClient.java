@@ -23,11 +23,15 @@ import static com.vmware.vim25.PerformanceManagerUnit.PERCENT;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.vmware.photon.controller.model.adapters.vsphere.VimUtils;
 import com.vmware.photon.controller.model.adapters.vsphere.util.VimNames;
 import com.vmware.photon.controller.model.adapters.vsphere.util.connection.BaseHelper;
 import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
@@ -41,11 +45,13 @@ import com.vmware.vim25.PerfEntityMetricBase;
 import com.vmware.vim25.PerfMetricId;
 import com.vmware.vim25.PerfMetricIntSeries;
 import com.vmware.vim25.PerfMetricSeries;
+import com.vmware.vim25.PerfQuerySpec;
 import com.vmware.vim25.PerfStatsType;
 import com.vmware.vim25.PerfSummaryType;
 import com.vmware.vim25.PerformanceManagerUnit;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
 import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.Utils;
 
 public class StatsClient extends BaseHelper {
 
@@ -86,18 +92,26 @@ public class StatsClient extends BaseHelper {
     private final PerfCounterLookup perfCounterLookup;
 
     public StatsClient(Connection connection) throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        this(connection, createLookup(connection));
+    }
+
+    StatsClient(Connection connection, PerfCounterLookup perfCounterLookup) {
         super(connection);
-        this.perfCounterLookup = createLookup(connection);
+        this.perfCounterLookup = perfCounterLookup;
     }
 
     /**
      * cache perfCounters per connections. The call is slow as the response can be about 400kb
-     * of xml.
+     * of xml. The cached counters are fetched again only once they are found stale.
      * @param conn
      * @return
      */
     private static PerfCounterLookup createLookup(Connection conn) {
-        return lookups.computeIfAbsent(conn.getURI(), u -> {
+        return lookups.compute(conn.getURI(), (u, lookup) -> {
+            if (lookup != null && !lookup.isStale()) {
+                return lookup;
+            }
+
             GetMoRef get = new GetMoRef(conn);
             ArrayOfPerfCounterInfo counters;
             try {
@@ -131,6 +145,8 @@ public class StatsClient extends BaseHelper {
                 .getCounter(name, group, type, rollupType, unit);
 
         if (counter == null) {
+            // the counters of the vCenter may have changed since they were fetched
+            this.perfCounterLookup.markStale();
             String msg = String
                     .format("Cannot find metric for %s/%s/%s/%s/%s", group, name, type,
                             rollupType.value(),
@@ -154,15 +170,79 @@ public class StatsClient extends BaseHelper {
         List<PerfEntityMetricBase> metrics = getVimPort().queryPerf(PERF_MGR_MOREF,
                 Collections.singletonList(ctx.getSpec()));
 
-        List<ServiceStat> res = new ArrayList<>();
-
         if (metrics.isEmpty()) {
             // nothing fetched
             return Collections.emptyList();
         }
 
         // the metrics for the single entity
-        PerfEntityMetric m = (PerfEntityMetric) metrics.get(0);
+        return toStats(ctx, (PerfEntityMetric) metrics.get(0));
+    }
+
+    /**
+     * Fetches the default metrics of many entities at once. The entities are queried in chunks of
+     * {@code chunkSize}, each chunk with a single queryPerf call carrying one {@link PerfQuerySpec}
+     * per entity. If the call for a chunk fails, for example because one of its entities was
+     * deleted meanwhile, the entities of the chunk are queried one by one and the ones that fail
+     * are skipped.
+     *
+     * @param entities VMs, hosts and clusters to retrieve metrics for
+     * @param chunkSize maximum number of entities per queryPerf call
+     * @return the stats per entity, keyed by {@link VimUtils#convertMoRefToString}. Entities
+     *         without metrics are not present.
+     */
+    public Map<String, List<ServiceStat>> retrieveMetrics(List<ManagedObjectReference> entities,
+            int chunkSize) {
+        Map<String, List<ServiceStat>> res = new HashMap<>();
+
+        for (int i = 0; i < entities.size(); i += chunkSize) {
+            Map<String, StatCollectionContext> contexts = new HashMap<>();
+            List<PerfQuerySpec> specs = new ArrayList<>();
+            for (ManagedObjectReference entity : entities
+                    .subList(i, Math.min(i + chunkSize, entities.size()))) {
+                StatCollectionContext ctx = new StatCollectionContext(entity);
+                ctx.limitResults(DEFAULT_INTERVAL_ID, COLLECT_INTERVAL_HOURS, TimeUnit.HOURS);
+                addDefaultMetrics(ctx);
+                contexts.put(VimUtils.convertMoRefToString(entity), ctx);
+                specs.add(ctx.getSpec());
+            }
+
+            List<PerfEntityMetricBase> metrics;
+            try {
+                metrics = getVimPort().queryPerf(PERF_MGR_MOREF, specs);
+            } catch (Exception e) {
+                logger.warning(String.format("Bulk query of %d entities failed, querying them one"
+                        + " by one: %s", specs.size(), e.getMessage()));
+                retrieveMetricsOneByOne(contexts, res);
+                continue;
+            }
+
+            for (PerfEntityMetricBase metric : metrics) {
+                String entity = VimUtils.convertMoRefToString(metric.getEntity());
+                StatCollectionContext ctx = contexts.get(entity);
+                if (ctx != null && metric instanceof PerfEntityMetric) {
+                    res.put(entity, toStats(ctx, (PerfEntityMetric) metric));
+                }
+            }
+        }
+
+        return res;
+    }
+
+    private void retrieveMetricsOneByOne(Map<String, StatCollectionContext> contexts,
+            Map<String, List<ServiceStat>> res) {
+        for (Map.Entry<String, StatCollectionContext> entry : contexts.entrySet()) {
+            try {
+                res.put(entry.getKey(), querySingleEntity(entry.getValue()));
+            } catch (Exception e) {
+                logger.log(Level.WARNING, String.format("Cannot retrieve metrics for %s: %s",
+                        entry.getKey(), Utils.toString(e)));
+            }
+        }
+    }
+
+    private List<ServiceStat> toStats(StatCollectionContext ctx, PerfEntityMetric m) {
+        List<ServiceStat> res = new ArrayList<>();
 
         for (PerfMetricSeries pms : m.getValue()) {
             PerfMetricId metricId = pms.getId();
@@ -171,6 +251,9 @@ public class StatsClient extends BaseHelper {
 
             PerfCounterInfo counter = this.perfCounterLookup
                     .getCounterByKey(metricId.getCounterId());
+            if (counter == null) {
+                this.perfCounterLookup.markStale();
+            }
 
             ServiceStat stat = factory.createStat(counter, m.getSampleInfo(), series.getValue());
             if (stat != null) {
@@ -14,31 +14,71 @@
 package com.vmware.photon.controller.model.adapters.vsphere.stats;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.stream.Collectors;
 
+import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.adapterapi.ComputeStatsRequest;
 import com.vmware.photon.controller.model.adapterapi.ComputeStatsResponse.ComputeStats;
 import com.vmware.photon.controller.model.adapters.vsphere.CustomProperties;
 import com.vmware.photon.controller.model.adapters.vsphere.ProvisionContext;
 import com.vmware.photon.controller.model.adapters.vsphere.VSphereIOThreadPoolAllocator;
 import com.vmware.photon.controller.model.adapters.vsphere.VSphereUriPaths;
+import com.vmware.photon.controller.model.adapters.vsphere.VimUtils;
 import com.vmware.photon.controller.model.adapters.vsphere.util.VimNames;
+import com.vmware.photon.controller.model.query.QueryUtils.QueryByPages;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.photon.controller.model.tasks.monitoring.SingleResourceStatsCollectionTaskService.SingleResourceStatsCollectionTaskState;
 import com.vmware.photon.controller.model.tasks.monitoring.SingleResourceStatsCollectionTaskService.SingleResourceTaskCollectionStage;
+import com.vmware.photon.controller.model.util.ClusterUtil.ServiceTypeCluster;
 import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceStats.ServiceStat;
 import com.vmware.xenon.common.StatelessService;
 import com.vmware.xenon.common.TaskState.TaskStage;
 import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification;
 
 public class VSphereAdapterStatsService extends StatelessService {
 
     public static final String SELF_LINK = VSphereUriPaths.STATS_SERVICE;
 
+    /**
+     * When set, the stats of all VMs, hosts and clusters of an endpoint are collected in bulk when
+     * stats are requested for the endpoint compute host, and requests for the individual computes
+     * are completed without stats. The endpoint compute host must be part of the collected
+     * resource pool.
+     */
+    public static final String PROPERTY_NAME_BULK_COLLECTION = UriPaths.PROPERTY_PREFIX
+            + "VSphereAdapterStatsService.bulkCollection";
+    private static final boolean BULK_COLLECTION = Boolean
+            .getBoolean(PROPERTY_NAME_BULK_COLLECTION);
+
+    /**
+     * Number of entities queried with a single queryPerf call in bulk collection.
+     */
+    public static final String PROPERTY_NAME_BULK_QUERY_SIZE = UriPaths.PROPERTY_PREFIX
+            + "VSphereAdapterStatsService.bulkQuerySize";
+    private static final int BULK_QUERY_SIZE = Integer
+            .getInteger(PROPERTY_NAME_BULK_QUERY_SIZE, 100);
+
+    /**
+     * Number of computes whose stats are sent to the collection task with a single PATCH in bulk
+     * collection.
+     */
+    public static final String PROPERTY_NAME_BULK_PATCH_SIZE = UriPaths.PROPERTY_PREFIX
+            + "VSphereAdapterStatsService.bulkPatchSize";
+    private static final int BULK_PATCH_SIZE = Integer
+            .getInteger(PROPERTY_NAME_BULK_PATCH_SIZE, 500);
+
     @Override
     public void handlePatch(Operation op) {
         if (!op.hasBody()) {
@@ -56,6 +96,15 @@ public class VSphereAdapterStatsService extends StatelessService {
                 ctx.mgr.patchTask(TaskStage.FINISHED);
                 return;
             }
+            if (BULK_COLLECTION) {
+                if (isEndpointHost(ctx)) {
+                    collectBulkStats(ctx, statsRequest);
+                } else {
+                    // collected along with all computes of the endpoint
+                    sendStats(statsRequest, Collections.emptyList(), true);
+                }
+                return;
+            }
             collectStats(ctx, statsRequest);
         });
     }
@@ -118,9 +167,127 @@ public class VSphereAdapterStatsService extends StatelessService {
                 });
     }
 
+    /**
+     * The endpoint compute host is the only compute without a vSphere type.
+     */
+    private boolean isEndpointHost(ProvisionContext ctx) {
+        return CustomProperties.of(ctx.child).getString(CustomProperties.TYPE) == null;
+    }
+
+    /**
+     * Collects the stats of all VMs, hosts and clusters of the endpoint over a single connection
+     * and sends them to the collection task in batches of {@link #BULK_PATCH_SIZE} computes.
+     */
+    private void collectBulkStats(ProvisionContext ctx, ComputeStatsRequest statsRequest) {
+        Query query = Query.Builder.create()
+                .addKindFieldClause(ComputeState.class)
+                .addInClause(QuerySpecification.buildCompositeFieldName(
+                        ComputeState.FIELD_NAME_CUSTOM_PROPERTIES, CustomProperties.TYPE),
+                        Arrays.asList(VimNames.TYPE_VM, VimNames.TYPE_HOST,
+                                VimNames.TYPE_COMPUTE_RESOURCE,
+                                VimNames.TYPE_CLUSTER_COMPUTE_RESOURCE))
+                .build();
+
+        QueryByPages<ComputeState> queryByPages = new QueryByPages<>(getHost(), query,
+                ComputeState.class, ctx.child.tenantLinks, ctx.child.endpointLink)
+                .setClusterType(ServiceTypeCluster.INVENTORY_SERVICE);
+
+        Map<String, String> computeLinksByMoRef = new HashMap<>();
+        queryByPages.queryDocuments(compute -> {
+            String moRef = CustomProperties.of(compute).getString(CustomProperties.MOREF);
+            if (moRef != null) {
+                computeLinksByMoRef.put(moRef, compute.documentSelfLink);
+            }
+        }).whenComplete((ignore, e) -> {
+            if (e != null) {
+                ctx.failWithMessage("Error querying computes of endpoint", e);
+                return;
+            }
+            collectBulkStats(ctx, statsRequest, computeLinksByMoRef);
+        });
+    }
+
+    private void collectBulkStats(ProvisionContext ctx, ComputeStatsRequest statsRequest,
+            Map<String, String> computeLinksByMoRef) {
+        ctx.pool.submit(ctx.getAdapterManagementReference(), ctx.vSphereCredentials,
+                (conn, ce) -> {
+                    if (ctx.fail(ce)) {
+                        return;
+                    }
+
+                    StatsClient client;
+                    try {
+                        client = new StatsClient(conn);
+                    } catch (Exception e) {
+                        ctx.failWithMessage("Error connecting to PerformanceManager", e);
+                        return;
+                    }
+
+                    List<ManagedObjectReference> entities = computeLinksByMoRef.keySet().stream()
+                            .map(VimUtils::convertStringToMoRef)
+                            .collect(Collectors.toList());
+
+                    List<ComputeStats> statsList;
+                    try {
+                        statsList = toComputeStats(
+                                client.retrieveMetrics(entities, BULK_QUERY_SIZE),
+                                computeLinksByMoRef);
+                    } catch (Exception e) {
+                        ctx.failWithMessage("Error retrieving stats", e);
+                        return;
+                    }
+
+                    logFine(() -> String.format("Collected stats of %d of %d computes of %s",
+                            statsList.size(), entities.size(), ctx.child.endpointLink));
+                    sendStatsInBatches(ctx, statsRequest, statsList, 0);
+                });
+    }
+
+    /**
+     * Sends the batches one after the other, so that the final batch which completes the
+     * collection task is processed last.
+     */
+    private void sendStatsInBatches(ProvisionContext ctx, ComputeStatsRequest statsRequest,
+            List<ComputeStats> statsList, int fromIndex) {
+        int toIndex = Math.min(fromIndex + BULK_PATCH_SIZE, statsList.size());
+        boolean isFinalBatch = toIndex == statsList.size();
+
+        sendStats(statsRequest, new ArrayList<>(statsList.subList(fromIndex, toIndex)),
+                isFinalBatch).whenComplete((o, e) -> {
+                    if (e != null) {
+                        ctx.failWithMessage("Error persisting stats", e);
+                        return;
+                    }
+                    if (!isFinalBatch) {
+                        sendStatsInBatches(ctx, statsRequest, statsList, toIndex);
+                    }
+                });
+    }
+
     private void persistStats(List<ServiceStat> stats, ComputeStatsRequest statsRequest) {
+        ComputeStats cs = createComputeStats(statsRequest.resourceReference.toString(), stats);
+        sendStats(statsRequest, Collections.singletonList(cs), true);
+    }
+
+    /**
+     * Maps the stats retrieved per entity moref back to the computes of the entities. Entities
+     * that are not known computes are skipped.
+     */
+    static List<ComputeStats> toComputeStats(Map<String, List<ServiceStat>> statsByMoRef,
+            Map<String, String> computeLinksByMoRef) {
+        List<ComputeStats> statsList = new ArrayList<>();
+        for (Entry<String, List<ServiceStat>> entry : statsByMoRef.entrySet()) {
+            String computeLink = computeLinksByMoRef.get(entry.getKey());
+            if (computeLink != null) {
+                statsList.add(createComputeStats(computeLink, entry.getValue()));
+            }
+        }
+        return statsList;
+    }
+
+    private static ComputeStats createComputeStats(String computeLink, List<ServiceStat> stats) {
         ComputeStats cs = new ComputeStats();
-        cs.computeLink = statsRequest.resourceReference.toString();
+        cs.computeLink = computeLink;
         cs.statValues = new HashMap<>();
 
         if (stats != null) {
@@ -128,16 +295,20 @@ public class VSphereAdapterStatsService extends StatelessService {
                 cs.statValues.put(stat.name, Collections.singletonList(stat));
             }
         }
+        return cs;
+    }
 
+    private DeferredResult<Operation> sendStats(ComputeStatsRequest statsRequest,
+            List<ComputeStats> statsList, boolean isFinalBatch) {
         SingleResourceStatsCollectionTaskState respBody =
                 new SingleResourceStatsCollectionTaskState();
-        respBody.statsList = new ArrayList<>();
-        respBody.statsList.add(cs);
+        respBody.statsList = new ArrayList<>(statsList);
+        respBody.isFinalBatch = isFinalBatch;
         respBody.taskStage = SingleResourceTaskCollectionStage.valueOf(statsRequest.nextStage);
         respBody.statsAdapterReference = UriUtils.buildUri(getHost(), SELF_LINK);
 
         // Verify if this makes sense? These tasks should always be local to deployment?
-        this.sendRequest(Operation.createPatch(statsRequest.taskReference)
+        return this.sendWithDeferredResult(Operation.createPatch(statsRequest.taskReference)
                 .setBody(respBody));
     }
 
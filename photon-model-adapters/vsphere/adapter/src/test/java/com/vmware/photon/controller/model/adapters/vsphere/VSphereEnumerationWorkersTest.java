@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapters.vsphere.VSphereEnumerationWorkers.WorkerConnections;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
+import com.vmware.xenon.common.OperationContext;
+
+/**
+ * Unit test for {@link VSphereEnumerationWorkers}
+ */
+public class VSphereEnumerationWorkersTest {
+
+    private final ExecutorService datacenterExecutor = Executors.newFixedThreadPool(2);
+    private final ExecutorService stepExecutor = Executors.newFixedThreadPool(4);
+
+    private final List<Connection> createdConnections = Collections
+            .synchronizedList(new ArrayList<>());
+    private final Set<Connection> closedConnections = ConcurrentHashMap.newKeySet();
+
+    @After
+    public void tearDown() {
+        this.datacenterExecutor.shutdownNow();
+        this.stepExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testForEachConcurrentlyBoundsConcurrency() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        Set<Connection> inUse = ConcurrentHashMap.newKeySet();
+        Set<Integer> processed = ConcurrentHashMap.newKeySet();
+
+        try (WorkerConnections connections = new WorkerConnections(this::createConnection)) {
+            VSphereEnumerationWorkers.forEachConcurrently(items(10), 2, this.stepExecutor,
+                    connections, (item, connection) -> {
+                        // a connection is never used by two workers at once
+                        assertTrue(inUse.add(connection));
+                        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                        Thread.sleep(10);
+                        active.decrementAndGet();
+                        inUse.remove(connection);
+                        processed.add(item);
+                    });
+        }
+
+        assertEquals(10, processed.size());
+        assertTrue(maxActive.get() <= 2);
+        // the connections are reused by the next items and closed at the end
+        assertTrue(this.createdConnections.size() <= 2);
+        assertEquals(this.createdConnections.size(), this.closedConnections.size());
+    }
+
+    @Test
+    public void testForEachConcurrentlyContinuesAfterFailure() throws Exception {
+        Set<Integer> processed = ConcurrentHashMap.newKeySet();
+        List<Connection> failedConnection = new ArrayList<>();
+        IllegalStateException failure = new IllegalStateException("datacenter 3 failed");
+
+        try (WorkerConnections connections = new WorkerConnections(this::createConnection)) {
+            VSphereEnumerationWorkers.forEachConcurrently(items(6), 2, this.stepExecutor,
+                    connections, (item, connection) -> {
+                        if (item == 3) {
+                            failedConnection.add(connection);
+                            throw failure;
+                        }
+                        processed.add(item);
+                    });
+            fail("Failure of datacenter 3 expected");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+
+        assertEquals(5, processed.size());
+        // the connection of the failed worker is not reused
+        assertTrue(this.closedConnections.contains(failedConnection.get(0)));
+        assertEquals(this.createdConnections.size(), this.closedConnections.size());
+    }
+
+    @Test(timeout = 10000)
+    public void testRunConcurrentlyUsesOwnConnections() throws Exception {
+        Connection datacenterConnection = createConnection();
+        List<Connection> stepConnections = Collections.synchronizedList(new ArrayList<>());
+        // every step waits for the others, so they can only complete if run concurrently
+        CountDownLatch running = new CountDownLatch(3);
+
+        try (WorkerConnections connections = new WorkerConnections(this::createConnection)) {
+            VSphereEnumerationWorkers.ConnectionStep step = c -> {
+                stepConnections.add(c);
+                running.countDown();
+                assertTrue(running.await(5, TimeUnit.SECONDS));
+            };
+            VSphereEnumerationWorkers.runConcurrently(this.stepExecutor, connections,
+                    datacenterConnection, step, step, step);
+        }
+
+        assertEquals(3, stepConnections.size());
+        assertEquals(1, Collections.frequency(stepConnections, datacenterConnection));
+        assertEquals(3, stepConnections.stream().distinct().count());
+        assertFalse(this.closedConnections.contains(datacenterConnection));
+    }
+
+    @Test
+    public void testRunConcurrentlyWithoutExecutor() throws Exception {
+        Connection datacenterConnection = createConnection();
+        List<Connection> stepConnections = new ArrayList<>();
+
+        VSphereEnumerationWorkers.ConnectionStep step = stepConnections::add;
+        VSphereEnumerationWorkers.runConcurrently(null, null, datacenterConnection, step, step);
+
+        assertEquals(Arrays.asList(datacenterConnection, datacenterConnection), stepConnections);
+        assertEquals(1, this.createdConnections.size());
+    }
+
+    @Test
+    public void testRunConcurrentlyReportsFirstFailureAfterAllSteps() throws Exception {
+        AtomicInteger completed = new AtomicInteger();
+        IllegalStateException failure = new IllegalStateException("step failed");
+
+        try (WorkerConnections connections = new WorkerConnections(this::createConnection)) {
+            VSphereEnumerationWorkers.runConcurrently(this.stepExecutor, connections,
+                    createConnection(),
+                    c -> {
+                        throw failure;
+                    },
+                    c -> {
+                        Thread.sleep(50);
+                        completed.incrementAndGet();
+                    });
+            fail("Step failure expected");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+        assertEquals(1, completed.get());
+    }
+
+    /**
+     * Runs more datacenters than there are datacenter threads, each waiting for steps on the
+     * step executor, the way the incremental enumeration nests them.
+     */
+    @Test(timeout = 10000)
+    public void testNestedWorkDoesNotDeadlock() throws Exception {
+        AtomicInteger steps = new AtomicInteger();
+        String contextId = "enumeration-" + System.nanoTime();
+        OperationContext.setContextId(contextId);
+        try (WorkerConnections connections = new WorkerConnections(this::createConnection)) {
+            VSphereEnumerationWorkers.forEachConcurrently(items(8), 4, this.datacenterExecutor,
+                    connections, (item, connection) -> {
+                        VSphereEnumerationWorkers.ConnectionStep step = c -> {
+                            // the operation context of the caller is propagated
+                            assertEquals(contextId, OperationContext.getContextId());
+                            Thread.sleep(5);
+                            steps.incrementAndGet();
+                        };
+                        VSphereEnumerationWorkers.runConcurrently(this.stepExecutor,
+                                connections, connection, step, step, step);
+                    });
+        } finally {
+            OperationContext.setContextId(null);
+        }
+        assertEquals(8 * 3, steps.get());
+    }
+
+    private static List<Integer> items(int count) {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+
+    private Connection createConnection() {
+        Connection[] connection = new Connection[1];
+        connection[0] = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "closeQuietly":
+                        this.closedConnections.add(connection[0]);
+                        return null;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return "connection-" + System.identityHashCode(proxy);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        this.createdConnections.add(connection[0]);
+        return connection[0];
+    }
+}
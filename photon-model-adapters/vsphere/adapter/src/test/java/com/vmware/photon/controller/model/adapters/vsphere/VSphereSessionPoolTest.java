@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapters.vsphere.VSphereSessionPool.Lease;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.BasicConnection;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.BasicConnection.BasicConnectionException;
+import com.vmware.vim25.UserSession;
+
+/**
+ * Unit test for {@link VSphereSessionPool}
+ */
+public class VSphereSessionPoolTest {
+
+    private static final URI VCENTER = URI.create("https://vcenter.local/sdk");
+    private static final long HOUR_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    /**
+     * Counts logins and logouts instead of talking to vCenter.
+     */
+    private static class TestConnection extends BasicConnection {
+        private int loginCount;
+        private int logoutCount;
+        private UserSession session;
+        private boolean failLogin;
+        private boolean notAuthenticated;
+
+        @Override
+        public void connect() {
+            if (this.failLogin) {
+                throw new BasicConnectionException("failed to connect", null);
+            }
+            this.loginCount++;
+            this.session = new UserSession();
+            this.notAuthenticated = false;
+        }
+
+        @Override
+        public void close() {
+            if (this.session != null) {
+                this.logoutCount++;
+            }
+            this.session = null;
+        }
+
+        @Override
+        public UserSession getUserSession() {
+            return this.session;
+        }
+
+        @Override
+        public boolean isNotAuthenticated() {
+            return this.notAuthenticated;
+        }
+
+        @Override
+        public URI getURI() {
+            return VCENTER;
+        }
+    }
+
+    private final AtomicBoolean sessionActive = new AtomicBoolean(true);
+
+    private VSphereSessionPool createPool(int maxSessions, long idleTimeoutMicros,
+            long validateAfterMicros) {
+        return new VSphereSessionPool(maxSessions, idleTimeoutMicros, validateAfterMicros,
+                connection -> this.sessionActive.get());
+    }
+
+    @Test
+    public void testSessionIsReused() {
+        VSphereSessionPool pool = createPool(2, HOUR_MICROS, HOUR_MICROS);
+
+        Lease lease = pool.acquire(VCENTER, "user", TestConnection::new, null);
+        TestConnection connection = (TestConnection) lease.getConnection();
+        pool.release(lease);
+
+        lease = pool.acquire(VCENTER, "user", TestConnection::new, null);
+        assertSame(connection, lease.getConnection());
+        assertEquals(1, connection.loginCount);
+        assertEquals(0, connection.logoutCount);
+
+        // other credentials get their own session
+        Lease other = pool.acquire(VCENTER, "admin", TestConnection::new, null);
+        assertNotSame(connection, other.getConnection());
+        pool.release(other);
+        pool.release(lease);
+
+        assertEquals(3, pool.getLeaseCount());
+        assertEquals(2, pool.getLoginCount());
+        assertEquals(2, pool.getOpenSessionCount());
+        assertEquals(2, pool.getIdleSessionCount());
+    }
+
+    @Test
+    public void testSessionsOverLimitAreNotPooled() {
+        VSphereSessionPool pool = createPool(1, HOUR_MICROS, HOUR_MICROS);
+
+        Lease first = pool.acquire(VCENTER, "user", TestConnection::new, null);
+        Lease second = pool.acquire(VCENTER, "user", TestConnection::new, null);
+        assertEquals(1, pool.getOpenSessionCount());
+
+        pool.release(second);
+        assertEquals(1, ((TestConnection) second.getConnection()).logoutCount);
+        pool.release(first);
+        assertEquals(0, ((TestConnection) first.getConnection()).logoutCount);
+        assertEquals(1, pool.getIdleSessionCount());
+    }
+
+    @Test
+    public void testSessionClosedByUserIsNotPooled() {
+        VSphereSessionPool pool = createPool(1, HOUR_MICROS, HOUR_MICROS);
+
+        Lease lease = pool.acquire(VCENTER, "user", TestConnection::new, null);
+        lease.getConnection().close();
+        pool.release(lease);
+        assertEquals(0, pool.getOpenSessionCount());
+        assertEquals(0, pool.getIdleSessionCount());
+
+        lease = pool.acquire(VCENTER, "user", TestConnection::new, null);
+        assertEquals(1, pool.getOpenSessionCount());
+        pool.release(lease);
+    }
+
+    @Test
+    public void testInactiveSessionIsLoggedInAgain() throws Exception {
+        VSphereSessionPool pool = createPool(1, HOUR_MICROS, 0);
+
+        Lease lease = pool.acquire(VCENTER, "user", TestConnection::new, null);
+        TestConnection connection = (TestConnection) lease.getConnection();
+        pool.release(lease);
+        Thread.sleep(1);
+
+        this.sessionActive.set(false);
+        lease = pool.acquire(VCENTER, "user", TestConnection::new, null);
+        assertSame(connection, lease.getConnection());
+        assertEquals(2, connection.loginCount);
+        assertEquals(1, pool.getReloginCount());
+        pool.release(lease);
+    }
+
+    @Test
+    public void testNotAuthenticatedSessionIsEvicted() {
+        // validation is not due, so only the fault tells that the session is gone
+        VSphereSessionPool pool = createPool(1, HOUR_MICROS, HOUR_MICROS);
+
+        Lease lease = pool.acquire(VCENTER, "user", TestConnection::new, null);
+        TestConnection connection = (TestConnection) lease.getConnection();
+        connection.notAuthenticated = true;
+        pool.release(lease);
+        assertEquals(0, pool.getIdleSessionCount());
+        assertEquals(0, pool.getOpenSessionCount());
+        assertEquals(1, pool.getEvictionCount());
+        assertEquals(1, connection.logoutCount);
+
+        lease = pool.acquire(VCENTER, "user", TestConnection::new, null);
+        assertNotSame(connection, lease.getConnection());
+        assertEquals(2, pool.getLoginCount());
+        pool.release(lease);
+        assertEquals(1, pool.getIdleSessionCount());
+    }
+
+    @Test
+    public void testIdleSessionsAreEvicted() throws Exception {
+        VSphereSessionPool pool = createPool(2, TimeUnit.MILLISECONDS.toMicros(10), HOUR_MICROS);
+
+        Lease lease = pool.acquire(VCENTER, "user", TestConnection::new, null);
+        TestConnection connection = (TestConnection) lease.getConnection();
+        pool.release(lease);
+        pool.evictIdle();
+        assertEquals(1, pool.getIdleSessionCount());
+
+        Thread.sleep(50);
+        pool.evictIdle();
+        assertEquals(0, pool.getIdleSessionCount());
+        assertEquals(0, pool.getOpenSessionCount());
+        assertEquals(1, pool.getEvictionCount());
+        assertEquals(1, connection.logoutCount);
+    }
+
+    @Test
+    public void testFailedLoginReleasesSlot() {
+        VSphereSessionPool pool = createPool(1, HOUR_MICROS, HOUR_MICROS);
+
+        try {
+            pool.acquire(VCENTER, "user", () -> {
+                TestConnection connection = new TestConnection();
+                connection.failLogin = true;
+                return connection;
+            }, null);
+            fail("Login failure expected");
+        } catch (BasicConnectionException e) {
+            assertEquals(0, pool.getOpenSessionCount());
+        }
+
+        Lease lease = pool.acquire(VCENTER, "user", TestConnection::new, null);
+        pool.release(lease);
+        assertEquals(1, pool.getIdleSessionCount());
+    }
+
+    @Test
+    public void testClear() {
+        VSphereSessionPool pool = createPool(2, HOUR_MICROS, HOUR_MICROS);
+
+        Lease lease = pool.acquire(VCENTER, "user", TestConnection::new, null);
+        TestConnection connection = (TestConnection) lease.getConnection();
+        pool.release(lease);
+
+        pool.clear();
+        assertEquals(0, pool.getOpenSessionCount());
+        assertEquals(1, connection.logoutCount);
+        assertFalse(pool.getStats().isEmpty());
+        assertTrue(pool.getStats().stream()
+                .anyMatch(s -> s.name.equals(VSphereSessionPool.STAT_NAME_EVICTION_COUNT)
+                        && s.latestValue == 1));
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import static com.vmware.photon.controller.model.resources.util.PhotonModelUtils.waitToComplete;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapters.vsphere.VSphereTaskWatcher.TaskCollector;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+import com.vmware.xenon.common.DeferredResult;
+
+/**
+ * Unit test for {@link VSphereTaskWatcher}
+ */
+public class VSphereTaskWatcherTest {
+
+    private static final long IDLE_TIMEOUT_MILLIS = 200;
+
+    /**
+     * Reports the tasks ended with {@link #end(String)} instead of talking to vCenter.
+     */
+    private static class TestCollector implements TaskCollector {
+        private final Set<String> tasks = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger addedTasks = new AtomicInteger();
+        private final BlockingQueue<ManagedObjectReference> endedTasks =
+                new LinkedBlockingQueue<>();
+        private volatile boolean failPolls;
+        private volatile boolean failAddTask;
+        private volatile boolean closed;
+
+        void end(String taskId) {
+            this.endedTasks.add(task(taskId));
+        }
+
+        @Override
+        public void addTask(ManagedObjectReference task) {
+            if (this.failAddTask) {
+                throw new IllegalStateException("task not found");
+            }
+            this.addedTasks.incrementAndGet();
+            this.tasks.add(task.getValue());
+        }
+
+        @Override
+        public void removeTask(ManagedObjectReference task) {
+            this.tasks.remove(task.getValue());
+        }
+
+        @Override
+        public List<ManagedObjectReference> pollEndedTasks(int maxWaitSeconds)
+                throws Exception {
+            if (this.failPolls) {
+                throw new IllegalStateException("session expired");
+            }
+            List<ManagedObjectReference> result = new ArrayList<>();
+            ManagedObjectReference task = this.endedTasks.poll(10, TimeUnit.MILLISECONDS);
+            if (task != null) {
+                result.add(task);
+                this.endedTasks.drainTo(result);
+            }
+            return result;
+        }
+
+        @Override
+        public TaskInfo getTaskInfo(ManagedObjectReference task) {
+            TaskInfo info = new TaskInfo();
+            info.setKey(task.getValue());
+            info.setState(TaskInfoState.SUCCESS);
+            return info;
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+
+    private final AtomicInteger collectorCount = new AtomicInteger();
+
+    @Test
+    public void testCompleteTasksOfVCenter() {
+        VSphereTaskWatcher watcher = new VSphereTaskWatcher(Runnable::run, 0,
+                IDLE_TIMEOUT_MILLIS);
+        TestCollector collector = new TestCollector();
+
+        List<DeferredResult<TaskInfo>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(watch(watcher, "vc1", collector, "task-" + i));
+        }
+        for (int i = 2; i >= 0; i--) {
+            collector.end("task-" + i);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            TaskInfo info = waitToComplete(results.get(i));
+            assertEquals("task-" + i, info.getKey());
+            assertEquals(TaskInfoState.SUCCESS, info.getState());
+        }
+        // all tasks were watched by one session and their filters removed
+        assertEquals(1, this.collectorCount.get());
+        assertEquals(1, watcher.getWatcherCount());
+        assertTrue(collector.tasks.isEmpty());
+
+        // another vCenter has its own poller
+        TestCollector otherCollector = new TestCollector();
+        DeferredResult<TaskInfo> other = watch(watcher, "vc2", otherCollector, "task-0");
+        otherCollector.end("task-0");
+        waitToComplete(other);
+        assertEquals(2, this.collectorCount.get());
+    }
+
+    @Test
+    public void testWatchTaskTwice() {
+        VSphereTaskWatcher watcher = new VSphereTaskWatcher(Runnable::run, 0,
+                IDLE_TIMEOUT_MILLIS);
+        TestCollector collector = new TestCollector();
+
+        DeferredResult<TaskInfo> first = watch(watcher, "vc1", collector, "task-1");
+        DeferredResult<TaskInfo> second = watch(watcher, "vc1", collector, "task-1");
+        collector.end("task-1");
+
+        assertEquals("task-1", waitToComplete(first).getKey());
+        assertEquals("task-1", waitToComplete(second).getKey());
+        assertEquals(1, collector.addedTasks.get());
+    }
+
+    @Test
+    public void testFailAllResultsOfTaskNotAdded() {
+        VSphereTaskWatcher watcher = new VSphereTaskWatcher(Runnable::run, 0,
+                IDLE_TIMEOUT_MILLIS);
+        TestCollector collector = new TestCollector();
+        collector.failAddTask = true;
+
+        List<DeferredResult<TaskInfo>> results = new ArrayList<>();
+        results.add(watch(watcher, "vc1", collector, "task-1"));
+        results.add(watch(watcher, "vc1", collector, "task-1"));
+
+        for (DeferredResult<TaskInfo> result : results) {
+            try {
+                waitToComplete(result);
+                fail("Failure expected");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    @Test
+    public void testStopWhenIdle() throws Exception {
+        VSphereTaskWatcher watcher = new VSphereTaskWatcher(Runnable::run, 0,
+                IDLE_TIMEOUT_MILLIS);
+        TestCollector collector = new TestCollector();
+
+        DeferredResult<TaskInfo> result = watch(watcher, "vc1", collector, "task-1");
+        collector.end("task-1");
+        waitToComplete(result);
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (watcher.getWatcherCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(IDLE_TIMEOUT_MILLIS / 4);
+        }
+        assertEquals(0, watcher.getWatcherCount());
+        assertTrue(collector.closed);
+
+        // a new session is logged in for the next task
+        TestCollector nextCollector = new TestCollector();
+        result = watch(watcher, "vc1", nextCollector, "task-2");
+        nextCollector.end("task-2");
+        waitToComplete(result);
+        assertEquals(2, this.collectorCount.get());
+    }
+
+    @Test
+    public void testFailTasksAfterRepeatedFailures() {
+        VSphereTaskWatcher watcher = new VSphereTaskWatcher(Runnable::run, 0,
+                IDLE_TIMEOUT_MILLIS);
+        TestCollector collector = new TestCollector();
+        collector.failPolls = true;
+
+        try {
+            waitToComplete(watch(watcher, "vc1", collector, "task-1"));
+            fail("Failure expected");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // a new session is logged in after each failure
+        assertEquals(3, this.collectorCount.get());
+    }
+
+    private DeferredResult<TaskInfo> watch(VSphereTaskWatcher watcher, String vCenter,
+            TestCollector collector, String taskId) {
+        return watcher.watch(vCenter, vCenter, () -> {
+            this.collectorCount.incrementAndGet();
+            return collector;
+        }, task(taskId));
+    }
+
+    private static ManagedObjectReference task(String taskId) {
+        ManagedObjectReference task = new ManagedObjectReference();
+        task.setType("Task");
+        task.setValue(taskId);
+        return task;
+    }
+}
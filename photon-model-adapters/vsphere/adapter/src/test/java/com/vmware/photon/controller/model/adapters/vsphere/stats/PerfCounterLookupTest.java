@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import com.vmware.vim25.ElementDescription;
+import com.vmware.vim25.PerfCounterInfo;
+import com.vmware.vim25.PerfStatsType;
+import com.vmware.vim25.PerfSummaryType;
+import com.vmware.vim25.PerformanceManagerUnit;
+
+/**
+ * Unit test for {@link PerfCounterLookup}
+ */
+public class PerfCounterLookupTest {
+    private static final Logger logger = Logger.getLogger(PerfCounterLookupTest.class.getName());
+
+    private static final String[] GROUPS = { "cpu", "mem", "net", "disk", "sys", "power" };
+
+    /**
+     * Number of counters and of lookups done by {@link #testLookupThroughput()}. Can be raised
+     * through system properties to run it as a benchmark.
+     */
+    private final int counterCount = Integer
+            .getInteger("test.perfCounterLookup.counterCount", 600);
+    private final int lookupCount = Integer
+            .getInteger("test.perfCounterLookup.lookupCount", 200_000);
+
+    @Test
+    public void testGetCounter() {
+        List<PerfCounterInfo> counters = createCounters(this.counterCount);
+        PerfCounterLookup lookup = new PerfCounterLookup(counters);
+
+        for (PerfCounterInfo pci : counters) {
+            assertSame(pci, lookup.getCounterByKey(pci.getKey()));
+            assertSame(pci, lookup.getCounter(pci.getNameInfo().getKey(),
+                    pci.getGroupInfo().getKey(), pci.getStatsType(), pci.getRollupType(),
+                    PerformanceManagerUnit.fromValue(pci.getUnitInfo().getKey())));
+        }
+
+        PerfCounterInfo first = counters.get(0);
+        assertNull(lookup.getCounterByKey(-1));
+        assertNull(lookup.getCounterByKey(Integer.MIN_VALUE));
+        assertNull(lookup.getCounter(first.getNameInfo().getKey(),
+                first.getGroupInfo().getKey(), first.getStatsType(), PerfSummaryType.MAXIMUM,
+                PerformanceManagerUnit.fromValue(first.getUnitInfo().getKey())));
+    }
+
+    @Test
+    public void testSparseKeys() {
+        List<PerfCounterInfo> counters = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            counters.add(createCounter(i * 65536 + 7, "name" + i, "cpu"));
+        }
+        PerfCounterLookup lookup = new PerfCounterLookup(counters);
+        for (PerfCounterInfo pci : counters) {
+            assertSame(pci, lookup.getCounterByKey(pci.getKey()));
+        }
+        assertNull(lookup.getCounterByKey(8));
+    }
+
+    @Test
+    public void testFirstCounterWins() {
+        PerfCounterInfo first = createCounter(1, "usage", "cpu");
+        PerfCounterInfo duplicate = createCounter(1, "usage", "cpu");
+        PerfCounterLookup lookup = new PerfCounterLookup(Arrays.asList(first, duplicate));
+
+        assertSame(first, lookup.getCounterByKey(1));
+        assertSame(first, lookup.getCounter("usage", "cpu", PerfStatsType.RATE,
+                PerfSummaryType.AVERAGE, PerformanceManagerUnit.PERCENT));
+    }
+
+    @Test
+    public void testStale() {
+        PerfCounterLookup lookup = new PerfCounterLookup(new ArrayList<>(), 0);
+        assertFalse(lookup.isStale());
+        lookup.markStale();
+        assertTrue(lookup.isStale());
+    }
+
+    @Test
+    public void testStaleAfterRefreshInterval() {
+        PerfCounterLookup lookup = new PerfCounterLookup(new ArrayList<>(),
+                TimeUnit.HOURS.toMicros(1));
+        lookup.markStale();
+        // a counter missing for good does not rebuild the lookup on every miss
+        assertFalse(lookup.isStale());
+    }
+
+    /**
+     * Compares the lookup against a scan over the counter list, the way StatsClient resolves the
+     * counter of every returned metric series, and logs the throughput of both.
+     */
+    @Test
+    public void testLookupThroughput() {
+        List<PerfCounterInfo> counters = createCounters(this.counterCount);
+        PerfCounterLookup lookup = new PerfCounterLookup(counters);
+
+        int[] keys = new int[this.lookupCount];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = counters.get((int) ((i * 2654435761L) % counters.size())).getKey();
+        }
+
+        // warm up both paths
+        int found = scan(counters, keys) + lookup(lookup, keys);
+        assertEquals(2 * keys.length, found);
+
+        long scanStart = System.nanoTime();
+        scan(counters, keys);
+        long scanNanos = System.nanoTime() - scanStart;
+
+        long lookupStart = System.nanoTime();
+        lookup(lookup, keys);
+        long lookupNanos = System.nanoTime() - lookupStart;
+
+        logger.info(String.format("%d lookups over %d counters: scan %d ms, index %d ms",
+                keys.length, counters.size(), TimeUnit.NANOSECONDS.toMillis(scanNanos),
+                TimeUnit.NANOSECONDS.toMillis(lookupNanos)));
+    }
+
+    private static int scan(List<PerfCounterInfo> counters, int[] keys) {
+        int found = 0;
+        for (int key : keys) {
+            for (PerfCounterInfo pci : counters) {
+                if (pci.getKey() == key) {
+                    found++;
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    private static int lookup(PerfCounterLookup lookup, int[] keys) {
+        int found = 0;
+        for (int key : keys) {
+            if (lookup.getCounterByKey(key) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static List<PerfCounterInfo> createCounters(int count) {
+        List<PerfCounterInfo> counters = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            counters.add(createCounter(i + 1, "name" + (i / GROUPS.length),
+                    GROUPS[i % GROUPS.length]));
+        }
+        return counters;
+    }
+
+    private static PerfCounterInfo createCounter(int key, String name, String group) {
+        PerfCounterInfo pci = new PerfCounterInfo();
+        pci.setKey(key);
+        pci.setNameInfo(createDescription(name));
+        pci.setGroupInfo(createDescription(group));
+        pci.setUnitInfo(createDescription(PerformanceManagerUnit.PERCENT.value()));
+        pci.setStatsType(PerfStatsType.RATE);
+        pci.setRollupType(PerfSummaryType.AVERAGE);
+        return pci;
+    }
+
+    private static ElementDescription createDescription(String key) {
+        ElementDescription description = new ElementDescription();
+        description.setKey(key);
+        return description;
+    }
+}
@@ -13,8 +13,17 @@
 
 package com.vmware.photon.controller.model.adapters.vsphere.stats;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -22,14 +31,226 @@ import org.junit.Test;
 
 import com.vmware.photon.controller.model.adapters.vsphere.EnumerationClientTest;
 import com.vmware.photon.controller.model.adapters.vsphere.TestProperties;
+import com.vmware.photon.controller.model.adapters.vsphere.VimUtils;
 import com.vmware.photon.controller.model.adapters.vsphere.util.VimNames;
 import com.vmware.photon.controller.model.adapters.vsphere.util.connection.BasicConnection;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
+import com.vmware.vim25.ElementDescription;
 import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.PerfCounterInfo;
+import com.vmware.vim25.PerfEntityMetric;
+import com.vmware.vim25.PerfEntityMetricBase;
+import com.vmware.vim25.PerfMetricId;
+import com.vmware.vim25.PerfMetricIntSeries;
+import com.vmware.vim25.PerfQuerySpec;
+import com.vmware.vim25.PerfSampleInfo;
+import com.vmware.vim25.PerfStatsType;
+import com.vmware.vim25.PerfSummaryType;
+import com.vmware.vim25.PerformanceManagerUnit;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.VimPortType;
 import com.vmware.xenon.common.ServiceStats.ServiceStat;
 
 public class StatsClientTest {
     Logger logger = Logger.getLogger(EnumerationClientTest.class.getName());
 
+    private static final String CPU_UTILIZATION_PCT = "daily.cpuUtilizationPct";
+    private static final String FAILING_VM = "vm-13";
+
+    /**
+     * Entities of the queryPerf calls made to the fake vCenter.
+     */
+    private final List<List<String>> queryPerfCalls = new ArrayList<>();
+
+    @Test
+    public void testRetrieveMetricsInChunks() {
+        StatsClient client = createClient();
+        List<ManagedObjectReference> vms = createVms(1, 10);
+
+        Map<String, List<ServiceStat>> stats = client.retrieveMetrics(vms, 4);
+
+        // 10 entities in chunks of 4
+        assertEquals(3, this.queryPerfCalls.size());
+        assertEquals(4, this.queryPerfCalls.get(0).size());
+        assertEquals(4, this.queryPerfCalls.get(1).size());
+        assertEquals(2, this.queryPerfCalls.get(2).size());
+        assertEquals(10, stats.size());
+    }
+
+    @Test
+    public void testRetrieveMetricsMapsResultsToEntities() {
+        StatsClient client = createClient();
+        List<ManagedObjectReference> vms = createVms(1, 5);
+        ManagedObjectReference host = createMoRef(VimNames.TYPE_HOST, "host-7");
+        List<ManagedObjectReference> entities = new ArrayList<>(vms);
+        entities.add(host);
+
+        Map<String, List<ServiceStat>> stats = client.retrieveMetrics(entities, 100);
+
+        assertEquals(1, this.queryPerfCalls.size());
+        assertEquals(6, stats.size());
+        for (ManagedObjectReference entity : entities) {
+            List<ServiceStat> entityStats = stats.get(VimUtils.convertMoRefToString(entity));
+            // the fake vCenter reports the number of the entity as its CPU utilization
+            assertEquals(entity.getValue(), entityNumber(entity),
+                    getStat(entityStats, CPU_UTILIZATION_PCT).latestValue, 0);
+        }
+    }
+
+    @Test
+    public void testRetrieveMetricsWithFailureInChunk() {
+        StatsClient client = createClient();
+        List<ManagedObjectReference> vms = createVms(10, 16);
+
+        Map<String, List<ServiceStat>> stats = client.retrieveMetrics(vms, 4);
+
+        // the chunk with the failing VM is queried again one entity at a time
+        assertEquals(2 + 4, this.queryPerfCalls.size());
+        assertEquals(Arrays.asList("vm-10", "vm-11", "vm-12", FAILING_VM),
+                this.queryPerfCalls.get(0));
+        for (List<String> call : this.queryPerfCalls.subList(1, 5)) {
+            assertEquals(1, call.size());
+        }
+
+        assertEquals(Arrays.asList("vm-14", "vm-15", "vm-16"), this.queryPerfCalls.get(5));
+
+        assertEquals(6, stats.size());
+        for (ManagedObjectReference vm : vms) {
+            String key = VimUtils.convertMoRefToString(vm);
+            assertEquals(key, !vm.getValue().equals(FAILING_VM), stats.containsKey(key));
+        }
+    }
+
+    @Test
+    public void testRetrieveMetricsSkipsEntitiesWithoutMetrics() {
+        StatsClient client = createClient();
+        List<ManagedObjectReference> entities = new ArrayList<>(createVms(1, 3));
+        // not reported by the fake vCenter
+        entities.add(createMoRef(VimNames.TYPE_VM, "vm-0"));
+
+        Map<String, List<ServiceStat>> stats = client.retrieveMetrics(entities, 100);
+
+        assertEquals(3, stats.size());
+        assertFalse(stats.containsKey(VimUtils.convertMoRefToString(entities.get(3))));
+    }
+
+    private StatsClient createClient() {
+        VimPortType vimPort = (VimPortType) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { VimPortType.class },
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("queryPerf")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    @SuppressWarnings("unchecked")
+                    List<PerfQuerySpec> specs = (List<PerfQuerySpec>) args[1];
+                    return queryPerf(specs);
+                });
+        Connection connection = (Connection) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("getVimPort")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    return vimPort;
+                });
+
+        return new StatsClient(connection, new PerfCounterLookup(Arrays.asList(
+                createCounter(1, "usage", "cpu", PerfStatsType.RATE,
+                        PerformanceManagerUnit.PERCENT),
+                createCounter(2, "usagemhz", "cpu", PerfStatsType.RATE,
+                        PerformanceManagerUnit.MEGA_HERTZ),
+                createCounter(3, "consumed", "mem", PerfStatsType.ABSOLUTE,
+                        PerformanceManagerUnit.KILO_BYTES))));
+    }
+
+    /**
+     * Fails the calls for more than one entity if one of them is {@link #FAILING_VM}, as well as
+     * the call for that VM alone, and reports nothing for entity number 0.
+     */
+    private List<PerfEntityMetricBase> queryPerf(List<PerfQuerySpec> specs)
+            throws RuntimeFaultFaultMsg {
+        List<String> entities = new ArrayList<>();
+        for (PerfQuerySpec spec : specs) {
+            entities.add(spec.getEntity().getValue());
+        }
+        this.queryPerfCalls.add(entities);
+        if (entities.contains(FAILING_VM)) {
+            throw new RuntimeFaultFaultMsg("The object has already been deleted");
+        }
+
+        List<PerfEntityMetricBase> res = new ArrayList<>();
+        for (PerfQuerySpec spec : specs) {
+            long number = entityNumber(spec.getEntity());
+            if (number == 0) {
+                continue;
+            }
+            PerfEntityMetric metric = new PerfEntityMetric();
+            metric.setEntity(spec.getEntity());
+            PerfSampleInfo sample = new PerfSampleInfo();
+            sample.setInterval(300);
+            sample.setTimestamp(VimUtils.convertMillisToXmlCalendar(System.currentTimeMillis()));
+            metric.getSampleInfo().add(sample);
+            for (PerfMetricId metricId : spec.getMetricId()) {
+                PerfMetricIntSeries series = new PerfMetricIntSeries();
+                series.setId(metricId);
+                // CPU utilization is reported in hundredths of a percent
+                series.getValue().add(number * 100);
+                metric.getValue().add(series);
+            }
+            res.add(metric);
+        }
+        // vCenter does not keep the order of the query specs
+        Collections.reverse(res);
+        return res;
+    }
+
+    private static long entityNumber(ManagedObjectReference entity) {
+        return Long.parseLong(entity.getValue().substring(entity.getValue().indexOf('-') + 1));
+    }
+
+    private static ServiceStat getStat(List<ServiceStat> stats, String name) {
+        for (ServiceStat stat : stats) {
+            if (stat.name.equals(name)) {
+                return stat;
+            }
+        }
+        fail("missing stat " + name);
+        return null;
+    }
+
+    private static List<ManagedObjectReference> createVms(int from, int to) {
+        List<ManagedObjectReference> vms = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            vms.add(createMoRef(VimNames.TYPE_VM, "vm-" + i));
+        }
+        return vms;
+    }
+
+    private static ManagedObjectReference createMoRef(String type, String value) {
+        ManagedObjectReference ref = new ManagedObjectReference();
+        ref.setType(type);
+        ref.setValue(value);
+        return ref;
+    }
+
+    private static PerfCounterInfo createCounter(int key, String name, String group,
+            PerfStatsType statsType, PerformanceManagerUnit unit) {
+        PerfCounterInfo pci = new PerfCounterInfo();
+        pci.setKey(key);
+        pci.setNameInfo(createDescription(name));
+        pci.setGroupInfo(createDescription(group));
+        pci.setUnitInfo(createDescription(unit.value()));
+        pci.setStatsType(statsType);
+        pci.setRollupType(PerfSummaryType.AVERAGE);
+        return pci;
+    }
+
+    private static ElementDescription createDescription(String key) {
+        ElementDescription description = new ElementDescription();
+        description.setKey(key);
+        return description;
+    }
+
     @Test
     public void test() throws Exception {
         String url = System.getProperty(TestProperties.VC_URL);
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapterapi.ComputeStatsResponse.ComputeStats;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+
+/**
+ * Unit test for {@link VSphereAdapterStatsService}
+ */
+public class VSphereAdapterStatsServiceTest {
+
+    @Test
+    public void testToComputeStats() {
+        Map<String, String> computeLinksByMoRef = new HashMap<>();
+        computeLinksByMoRef.put("VirtualMachine:vm-1", "/resources/compute/vm-1");
+        computeLinksByMoRef.put("HostSystem:host-2", "/resources/compute/host-2");
+        computeLinksByMoRef.put("VirtualMachine:vm-3", "/resources/compute/vm-3");
+
+        ServiceStat vmStat = createStat("daily.cpuUtilizationPct", 12);
+        ServiceStat hostStat = createStat("daily.memoryUsedBytes", 1024);
+        Map<String, List<ServiceStat>> statsByMoRef = new HashMap<>();
+        statsByMoRef.put("VirtualMachine:vm-1", Collections.singletonList(vmStat));
+        statsByMoRef.put("HostSystem:host-2", Collections.singletonList(hostStat));
+        // not a compute of the endpoint
+        statsByMoRef.put("VirtualMachine:vm-4", Collections.singletonList(vmStat));
+
+        List<ComputeStats> statsList = VSphereAdapterStatsService
+                .toComputeStats(statsByMoRef, computeLinksByMoRef);
+
+        // vm-3 has no stats and vm-4 is not known
+        assertEquals(2, statsList.size());
+        Map<String, ComputeStats> statsByLink = new HashMap<>();
+        for (ComputeStats cs : statsList) {
+            statsByLink.put(cs.computeLink, cs);
+        }
+        assertSame(vmStat, statsByLink.get("/resources/compute/vm-1").statValues
+                .get(vmStat.name).get(0));
+        assertSame(hostStat, statsByLink.get("/resources/compute/host-2").statValues
+                .get(hostStat.name).get(0));
+    }
+
+    private static ServiceStat createStat(String name, double value) {
+        ServiceStat stat = new ServiceStat();
+        stat.name = name;
+        stat.latestValue = value;
+        return stat;
+    }
+}
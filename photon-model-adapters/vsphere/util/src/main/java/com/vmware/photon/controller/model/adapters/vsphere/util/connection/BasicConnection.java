@@ -17,14 +17,16 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import javax.net.ssl.TrustManager;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.ws.Binding;
 import javax.xml.ws.BindingProvider;
-import javax.xml.ws.handler.HandlerResolver;
+import javax.xml.ws.handler.Handler;
 import javax.xml.ws.handler.MessageContext;
 
 import io.netty.handler.codec.http.HttpHeaderNames;
@@ -59,9 +61,18 @@ public class BasicConnection implements Connection {
     public static final String SERVICE_INSTANCE = "ServiceInstance";
     private static final String PBM_SERVICE_INSTANCE_TYPE = "PbmServiceInstance";
     private static final String REQUEST_TIMEOUT = "com.sun.xml.internal.ws.request.timeout";
-    private static VimService VIM_SERVICE;
+
+    /**
+     * The service descriptors, built once per JVM as parsing the WSDLs and bootstrapping their
+     * JAXB contexts is the most expensive part of a connection. Ports are created per connection
+     * and do not share handlers, so logins do not need a global lock.
+     */
+    private static final class Services {
+        static final VimService VIM_SERVICE = new VimService();
+        static final PbmService PBM_SERVICE = new PbmService();
+    }
+
     private VimPortType vimPort;
-    private PbmService pbmService;
     private PbmPortType pbmPort;
     private ServiceContent serviceContent;
     private PbmServiceInstanceContent pbmServiceContent;
@@ -79,6 +90,7 @@ public class BasicConnection implements Connection {
     private Map<String, List<String>> headers;
     private long requestTimeoutMillis = -1;
     private TrustManager trustManager;
+    private final NotAuthenticatedHandler notAuthenticatedHandler = new NotAuthenticatedHandler();
 
     public void setURI(URI uri) {
         this.uri = uri;
@@ -108,12 +120,7 @@ public class BasicConnection implements Connection {
 
     @Override
     public VimService getVimService() {
-        synchronized (BasicConnection.class) {
-            if (VIM_SERVICE == null) {
-                VIM_SERVICE = new VimService();
-            }
-        }
-        return this.VIM_SERVICE;
+        return Services.VIM_SERVICE;
     }
 
     @Override
@@ -123,7 +130,7 @@ public class BasicConnection implements Connection {
 
     @Override
     public PbmService getPbmService() {
-        return this.pbmService;
+        return Services.PBM_SERVICE;
     }
 
     @Override
@@ -224,41 +231,39 @@ public class BasicConnection implements Connection {
             throws RuntimeFaultFaultMsg, InvalidLocaleFaultMsg, InvalidLoginFaultMsg,
             com.vmware.pbm.RuntimeFaultFaultMsg {
 
+        this.vimPort = createVimPort();
+        updateBindingProvider(getBindingsProvider(), this.uri.toString());
+        this.notAuthenticatedHandler.reset();
+        addHandler(getBindingsProvider(), this.notAuthenticatedHandler);
+
         if (this.token != null) {
-            /* This lock exists because header handlers are set per VimService.
-            LoginByToken and normal login with username and password are using different sets of
-            header handlers. If the correct handlers are not set, the connection will fail */
-            synchronized (BasicConnection.class) {
-                HandlerResolver defaultResolver = getVimService().getHandlerResolver();
-                HeaderHandlerResolver handlerResolver = new HeaderHandlerResolver();
-                handlerResolver.addHandler(new TimeStampHandler());
-                handlerResolver.addHandler(new SamlTokenExtractionHandler());
-
-                try {
-                    handlerResolver.addHandler(new SamlTokenHandler(SamlUtils.createSamlDocument
-                            (this.token).getDocumentElement()));
-                    getVimService().setHandlerResolver(handlerResolver);
-                } catch (ParserConfigurationException | SAXException | IOException e) {
-                    throw new RuntimeFaultFaultMsg("Unable to authenticate", e);
-                }
-
-                this.vimPort = getVimService().getVimPort();
-                updateBindingProvider(getBindingsProvider(), this.uri.toString());
+            // the SAML handlers are only set on the port of this connection, for the login
+            Binding binding = getBindingsProvider().getBinding();
+            @SuppressWarnings("rawtypes")
+            List<Handler> defaultHandlerChain = binding.getHandlerChain();
+            @SuppressWarnings("rawtypes")
+            List<Handler> handlerChain = new ArrayList<>();
+            handlerChain.add(new TimeStampHandler());
+            handlerChain.add(new SamlTokenExtractionHandler());
+            try {
+                handlerChain.add(new SamlTokenHandler(SamlUtils.createSamlDocument
+                        (this.token).getDocumentElement()));
+            } catch (ParserConfigurationException | SAXException | IOException e) {
+                throw new RuntimeFaultFaultMsg("Unable to authenticate", e);
+            }
+            binding.setHandlerChain(handlerChain);
+
+            try {
                 this.serviceContent = this.vimPort
                         .retrieveServiceContent(this.getServiceInstanceReference());
-
-                try {
-                    this.userSession = this.vimPort.loginByToken(
-                            this.serviceContent.getSessionManager(),
-                            null);
-                } finally {
-                    getVimService().setHandlerResolver(defaultResolver);
-                }
+                this.userSession = this.vimPort.loginByToken(
+                        this.serviceContent.getSessionManager(),
+                        null);
+            } finally {
+                binding.setHandlerChain(defaultHandlerChain);
             }
 
         } else {
-            this.vimPort = getVimService().getVimPort();
-            updateBindingProvider(getBindingsProvider(), this.uri.toString());
             this.serviceContent = this.vimPort
                     .retrieveServiceContent(this.getServiceInstanceReference());
 
@@ -283,15 +288,8 @@ public class BasicConnection implements Connection {
         tokens = tokens[0].split("=");
         String extractedCookie = tokens[1];
 
-        // PbmPortType
-        this.pbmService = new PbmService();
-        // Setting the header resolver for adding the VC session cookie to the
-        // requests for authentication
-        HeaderHandlerResolver headerResolver = new HeaderHandlerResolver();
-        headerResolver.addHandler(new VcSessionHandler(extractedCookie));
-        this.pbmService.setHandlerResolver(headerResolver);
-
-        this.pbmPort = this.pbmService.getPbmPort();
+        // PbmPortType, adding the VC session cookie to the requests for authentication
+        this.pbmPort = createPbmPort(new VcSessionHandler(extractedCookie));
         updateBindingProvider((BindingProvider) this.pbmPort,
                 this.getSpbmURL().toString());
 
@@ -299,6 +297,33 @@ public class BasicConnection implements Connection {
                 .pbmRetrieveServiceContent(this.getPbmServiceInstanceReference());
     }
 
+    /**
+     * Creates a port of the shared {@link VimService}.
+     */
+    static VimPortType createVimPort() {
+        return Services.VIM_SERVICE.getVimPort();
+    }
+
+    /**
+     * Creates a port of the shared {@link PbmService} with its own handler chain.
+     */
+    @SuppressWarnings("rawtypes")
+    static PbmPortType createPbmPort(Handler... handlers) {
+        PbmPortType port = Services.PBM_SERVICE.getPbmPort();
+        List<Handler> handlerChain = new ArrayList<>();
+        Collections.addAll(handlerChain, handlers);
+        ((BindingProvider) port).getBinding().setHandlerChain(handlerChain);
+        return port;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static void addHandler(BindingProvider bindingProvider, Handler handler) {
+        Binding binding = bindingProvider.getBinding();
+        List<Handler> handlerChain = binding.getHandlerChain();
+        handlerChain.add(handler);
+        binding.setHandlerChain(handlerChain);
+    }
+
     private void updateRequestTimeout() {
         if (this.requestTimeoutMillis > 0 && getBindingsProvider() != null) {
             getBindingsProvider().getRequestContext()
@@ -345,7 +370,6 @@ public class BasicConnection implements Connection {
             this.serviceContent = null;
             this.vimPort = null;
             this.pbmPort = null;
-            this.pbmService = null;
         }
     }
 
@@ -367,6 +391,14 @@ public class BasicConnection implements Connection {
         return this.ignoreSslErrors;
     }
 
+    /**
+     * Returns whether vCenter rejected a request of this connection because its session is not
+     * authenticated, since it was last connected.
+     */
+    public boolean isNotAuthenticated() {
+        return this.notAuthenticatedHandler.isNotAuthenticated();
+    }
+
     public void setIgnoreSslErrors(boolean ignoreSslErrors) {
         this.ignoreSslErrors = ignoreSslErrors;
     }
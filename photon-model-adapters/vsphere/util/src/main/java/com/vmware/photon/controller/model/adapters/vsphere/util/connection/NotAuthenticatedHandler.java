@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.util.connection;
+
+import java.util.Iterator;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import javax.xml.soap.Detail;
+import javax.xml.soap.DetailEntry;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPFault;
+import javax.xml.ws.handler.MessageContext;
+import javax.xml.ws.handler.soap.SOAPHandler;
+import javax.xml.ws.handler.soap.SOAPMessageContext;
+
+/**
+ * Handler class to remember that vCenter rejected a request because the session is not
+ * authenticated, e.g. after the session timed out or vCenter was restarted. The fault is still
+ * thrown to the caller, the connection only needs to be logged in again before being reused.
+ */
+public final class NotAuthenticatedHandler implements SOAPHandler<SOAPMessageContext> {
+
+    private static final String NOT_AUTHENTICATED_FAULT = "NotAuthenticatedFault";
+
+    private volatile boolean notAuthenticated;
+
+    /**
+     * Returns whether a request was rejected with a NotAuthenticated fault since the last
+     * {@link #reset()}.
+     */
+    public boolean isNotAuthenticated() {
+        return this.notAuthenticated;
+    }
+
+    public void reset() {
+        this.notAuthenticated = false;
+    }
+
+    @Override
+    public boolean handleMessage(SOAPMessageContext smc) {
+        return true;
+    }
+
+    @Override
+    public boolean handleFault(SOAPMessageContext smc) {
+        try {
+            SOAPFault fault = smc.getMessage().getSOAPBody().getFault();
+            Detail detail = fault != null ? fault.getDetail() : null;
+            if (detail == null) {
+                return true;
+            }
+            Iterator<?> entries = detail.getDetailEntries();
+            while (entries.hasNext()) {
+                DetailEntry entry = (DetailEntry) entries.next();
+                if (NOT_AUTHENTICATED_FAULT.equals(entry.getLocalName())) {
+                    this.notAuthenticated = true;
+                }
+            }
+        } catch (SOAPException e) {
+            // the fault is reported to the caller anyway
+        }
+        return true;
+    }
+
+    @Override
+    public void close(MessageContext arg0) {
+    }
+
+    @Override
+    public Set<QName> getHeaders() {
+        return null;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.util.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.handler.Handler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.pbm.PbmPortType;
+import com.vmware.pbm.PbmService;
+import com.vmware.vim25.VimPortType;
+import com.vmware.xenon.common.CommandLineArgumentParser;
+
+/**
+ * Unit test for {@link BasicConnection}
+ */
+public class BasicConnectionTest {
+
+    private static final Logger logger = Logger.getLogger(BasicConnectionTest.class.getName());
+
+    /**
+     * Number of connections set up by {@link #testPortSetupThroughput()}. Can be raised through
+     * system properties to run it as a benchmark.
+     */
+    public int portSetupIterations = 2;
+
+    @Before
+    public void setUp() {
+        CommandLineArgumentParser.parseFromProperties(this);
+    }
+
+    @Test
+    public void testSharedServices() {
+        BasicConnection first = new BasicConnection();
+        BasicConnection second = new BasicConnection();
+
+        assertSame(first.getVimService(), second.getVimService());
+        assertSame(first.getPbmService(), second.getPbmService());
+        assertNotSame(BasicConnection.createVimPort(), BasicConnection.createVimPort());
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void testPortHandlerChains() {
+        PbmPortType first = BasicConnection.createPbmPort(new VcSessionHandler("first"));
+        PbmPortType second = BasicConnection.createPbmPort(new VcSessionHandler("second"),
+                new TimeStampHandler());
+
+        List<Handler> firstChain = ((BindingProvider) first).getBinding().getHandlerChain();
+        List<Handler> secondChain = ((BindingProvider) second).getBinding().getHandlerChain();
+        assertEquals(1, firstChain.size());
+        assertEquals(2, secondChain.size());
+        assertNotSame(firstChain.get(0), secondChain.get(0));
+
+        // the shared service does not get the handlers of the ports
+        assertTrue(((BindingProvider) new BasicConnection().getPbmService().getPbmPort())
+                .getBinding().getHandlerChain().isEmpty());
+    }
+
+    /**
+     * Compares the local cost of setting up the ports of a connection, which used to build a
+     * {@link PbmService} for every connection, with ports of the shared services.
+     */
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void testPortSetupThroughput() {
+        int iterations = this.portSetupIterations;
+
+        // warm up the shared services
+        BasicConnection.createVimPort();
+        BasicConnection.createPbmPort();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            PbmService pbmService = new PbmService();
+            pbmService.getPbmPort();
+            BasicConnection.createVimPort();
+        }
+        long perServiceMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)
+                / iterations;
+
+        VimPortType previousVimPort = null;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            VimPortType vimPort = BasicConnection.createVimPort();
+            PbmPortType pbmPort = BasicConnection.createPbmPort(new VcSessionHandler("cookie"));
+
+            // every connection gets its own ports, with its own handlers
+            assertNotSame(previousVimPort, vimPort);
+            List<Handler> handlerChain = ((BindingProvider) pbmPort).getBinding()
+                    .getHandlerChain();
+            assertEquals(1, handlerChain.size());
+            assertTrue(handlerChain.get(0) instanceof VcSessionHandler);
+            previousVimPort = vimPort;
+        }
+        long sharedServiceMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)
+                / iterations;
+
+        logger.info(String.format("Port setup per connection: %d us with a new PbmService, "
+                + "%d us with the shared services", perServiceMicros, sharedServiceMicros));
+    }
+}
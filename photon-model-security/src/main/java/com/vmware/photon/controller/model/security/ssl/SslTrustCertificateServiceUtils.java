@@ -14,7 +14,6 @@
 package com.vmware.photon.controller.model.security.ssl;
 
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 
@@ -23,13 +22,8 @@ import com.vmware.photon.controller.model.query.QueryUtils;
 import com.vmware.photon.controller.model.security.service.SslTrustCertificateService.SslTrustCertificateState;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceHost;
-import com.vmware.xenon.common.ServiceSubscriptionState.ServiceSubscriber;
-import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
-import com.vmware.xenon.services.common.QueryTask;
 import com.vmware.xenon.services.common.QueryTask.Query;
-import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
-import com.vmware.xenon.services.common.ServiceUriPaths;
 
 /**
  * Helper class allowing sharing continuous queries between multiple components for performance
@@ -42,15 +36,6 @@ class SslTrustCertificateServiceUtils {
      */
     private static final String QUERY_TASK_SELF_LINK_PREFIX = UUID.randomUUID().toString();
 
-    /**
-     * Default query expiration is 10 minutes and cannot be set to infinite. Here we choose a very
-     * long expiration period which should be fine for all practical reasons.
-     * <p>
-     * Note that since local query tasks are not persistent, this expiration interval restarts at
-     * every host start.
-     */
-    private static final long QUERY_TASK_EXPIRATION_DAYS = 5 * 365; // 5 years
-
     /** Used for the pagination. */
     private static final String PROPERTY_QUERY_SIZE = "SslTrustCertificateServiceUtils.QUERY_SIZE";
     private static final int DEFAULT_QUERY_SIZE = 100;
@@ -62,48 +47,13 @@ class SslTrustCertificateServiceUtils {
      * certificate will receive the notification.
      */
     static void subscribe(ServiceHost host, Consumer<Operation> consumer) {
-        QueryTask task = getQueryTask();
-        QueryUtils.createQueryTaskOperation(host, task, null)
-                .setReferer(host.getUri())
-                .setCompletion((o, e) -> {
-                    if (e != null && o.getStatusCode() != Operation.STATUS_CODE_CONFLICT) {
+        QueryUtils.subscribeToContinuousQuery(host, SslTrustCertificateState.class,
+                QUERY_TASK_SELF_LINK_PREFIX, null, consumer)
+                .whenComplete((queryTaskLink, e) -> {
+                    if (e != null) {
                         host.log(Level.SEVERE, Utils.toString(e));
-                        return;
                     }
-
-                    String taskUriPath = UriUtils.buildUriPath(
-                            ServiceUriPaths.CORE_LOCAL_QUERY_TASKS, task.documentSelfLink);
-                    Operation subscribePost = Operation.createPost(host, taskUriPath)
-                            .setReferer(host.getUri())
-                            .setConnectionSharing(true)
-                            .setCompletion((op, ex) -> {
-                                if (ex != null) {
-                                    host.log(Level.SEVERE, Utils.toString(ex));
-                                }
-                            });
-
-                    host.log(Level.INFO, "Subscribing to a continuous task: %s", taskUriPath);
-                    host.startSubscriptionService(subscribePost, consumer,
-                            ServiceSubscriber.create(false));
-                }).sendWith(host);
-    }
-
-    private static QueryTask getQueryTask() {
-
-        Query computeQuery = Query.Builder.create()
-                .addKindFieldClause(SslTrustCertificateState.class)
-                .build();
-        QueryTask task = QueryTask.Builder
-                .create()
-                .addOption(QueryOption.CONTINUOUS)
-                .addOption(QueryOption.EXPAND_CONTENT)
-                .setQuery(computeQuery).build();
-
-        task.documentSelfLink = QUERY_TASK_SELF_LINK_PREFIX;
-        task.documentExpirationTimeMicros = Utils.fromNowMicrosUtc(
-                TimeUnit.DAYS.toMicros(QUERY_TASK_EXPIRATION_DAYS));
-
-        return task;
+                });
     }
 
     static void loadCertificates(ServiceHost host, Consumer<SslTrustCertificateState> consumer) {
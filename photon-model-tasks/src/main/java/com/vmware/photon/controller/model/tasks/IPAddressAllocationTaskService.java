@@ -22,12 +22,12 @@ import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOp
 import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.SINGLE_ASSIGNMENT;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
@@ -46,10 +46,10 @@ import com.vmware.photon.controller.model.resources.IPAddressService.IPAddressSt
 import com.vmware.photon.controller.model.resources.SubnetRangeService.SubnetRangeState;
 import com.vmware.photon.controller.model.resources.SubnetService.SubnetState;
 import com.vmware.photon.controller.model.resources.util.PhotonModelUtils;
-import com.vmware.photon.controller.model.support.IPVersion;
 import com.vmware.photon.controller.model.tasks.ServiceTaskCallback.ServiceTaskCallbackResponse;
+import com.vmware.photon.controller.model.tasks.helpers.SubnetRangeAllocationIndex;
+import com.vmware.photon.controller.model.tasks.helpers.SubnetRangeAllocationIndex.Reservation;
 import com.vmware.photon.controller.model.util.ClusterUtil.ServiceTypeCluster;
-import com.vmware.photon.controller.model.util.IpHelper;
 import com.vmware.photon.controller.model.util.SubnetValidator;
 import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
@@ -74,6 +74,15 @@ public class IPAddressAllocationTaskService extends
 
     public static final String CUSTOM_PROPERTY_SUFFIX_IP_ADDRESS_LINK = "-IPAddressLink";
 
+    /**
+     * The number of times the allocation of an IP for a resource is retried with another IP,
+     * after other allocations got the IP first.
+     */
+    public static final String PROPERTY_NAME_MAX_ALLOCATION_RETRIES = UriPaths.PROPERTY_PREFIX
+            + "IPAddressAllocationTaskService.maxAllocationRetries";
+    private static final int MAX_ALLOCATION_RETRIES = Integer.getInteger(
+            PROPERTY_NAME_MAX_ALLOCATION_RETRIES, 10);
+
     /**
      * Service context that is created for passing intermediate data between async calls.
      * Used only during allocation.
@@ -95,11 +104,8 @@ public class IPAddressAllocationTaskService extends
         /*A reference to state that gets passed in to the request*/
         public IPAddressAllocationTaskState serviceState;
 
-        /*All the ips associated with the subnet state*/
-        public List<IPAddressState> ipAddressStates;
-
-        /*Existing IP addresses in the subnet that are not available*/
-        public Set<Long> unavailableIpAddresses;
+        /*Allocation index of every subnet range, in the order of the subnet range states*/
+        public Map<String, SubnetRangeAllocationIndex> subnetRangeIndexes = new LinkedHashMap<>();
 
         /*The string is the resource link. And the list is the list of all ip addresses assigned
           to that resource.*/
@@ -108,13 +114,8 @@ public class IPAddressAllocationTaskService extends
         /*This field is a summation of all the IPs required by all the resources*/
         public int requestedIpCount;
 
-        /*The total possible IP addresses in all the subnet ranges*/
-        public int maxPossibleIpsCount;
-
         public IPAddressAllocationContext() {
             this.subnetRangeStates = new ArrayList<>();
-            this.ipAddressStates = new ArrayList<>();
-            this.unavailableIpAddresses = new HashSet<>();
         }
 
         public DeferredResult<IPAddressAllocationContext> populate(
@@ -126,9 +127,8 @@ public class IPAddressAllocationTaskService extends
             return this.populateContextWithSubnet(ipAddressAllocationTaskService, state.subnetLink)
                     .thenCompose(ctxt -> populateContextWithExistingSubnetRanges
                             (ipAddressAllocationTaskService))
-                    .thenCompose(ctxt -> populateContextWithExistingIpAddresses
+                    .thenCompose(ctxt -> populateContextWithSubnetRangeIndexes
                             (ipAddressAllocationTaskService))
-                    .thenCompose(ctxt -> this.setUnAvailableIps())
                     .thenCompose(ctxt -> this.setRequiredIpCounts());
         }
 
@@ -179,42 +179,38 @@ public class IPAddressAllocationTaskService extends
         }
 
         /**
-         * This method finds all the IP address documents in the subnet and adds it to the context.
-         *
-         * The way this is done is, we iterate thru all the subnet ranges in the subnet. We get the
-         * subnet range document self link. Then we query IP address docs that hold a reference to this
-         * subnet range document self link.
-         * @return
+         * Looks up the allocation index of every subnet range in the subnet and adds it to the
+         * context. An index is built from the IP address documents of its range only the first
+         * time the range is used on this host, or after it has been invalidated.
          */
-        private DeferredResult<IPAddressAllocationContext> populateContextWithExistingIpAddresses(
+        private DeferredResult<IPAddressAllocationContext> populateContextWithSubnetRangeIndexes(
                 IPAddressAllocationTaskService ipAddressAllocationTaskService) {
 
-            List<DeferredResult<List<IPAddressState>>> results = new ArrayList<>();
+            List<DeferredResult<SubnetRangeAllocationIndex>> results = new ArrayList<>();
 
             for (SubnetRangeState subnetRangeState : this.subnetRangeStates) {
-                results.add(retrieveExistingIpAddressesFromRange(ipAddressAllocationTaskService,
-                        subnetRangeState));
+                results.add(SubnetRangeAllocationIndex.getOrBuild(
+                        ipAddressAllocationTaskService.getHost(), subnetRangeState));
             }
 
-            return DeferredResult.allOf(results).thenApply((lstIps) -> {
-                lstIps.forEach((item) -> this.ipAddressStates.addAll(item));
-
+            return DeferredResult.allOf(results).thenApply(indexes -> {
+                this.subnetRangeIndexes.clear();
+                indexes.forEach(index -> this.subnetRangeIndexes.put(index.subnetRangeLink, index));
                 return this;
             });
         }
 
-        private DeferredResult<IPAddressAllocationContext> setUnAvailableIps() {
-
-            List<IPAddressState> existingIpStates = this.ipAddressStates;
-
-            //Add ips that are not available
-            for (IPAddressState ipState : existingIpStates) {
-                if (ipState.ipAddressStatus != IPAddressState.IPAddressStatus.AVAILABLE) {
-                    this.unavailableIpAddresses
-                            .add(IpHelper.ipStringToLong(ipState.ipAddress));
-                }
+        /**
+         * Drops the allocation indexes of all subnet ranges in the subnet and builds them again
+         * from the IP address documents.
+         */
+        private DeferredResult<IPAddressAllocationContext> rebuildSubnetRangeIndexes(
+                IPAddressAllocationTaskService ipAddressAllocationTaskService) {
+            for (SubnetRangeState subnetRangeState : this.subnetRangeStates) {
+                SubnetRangeAllocationIndex.invalidate(ipAddressAllocationTaskService.getHost(),
+                        subnetRangeState.documentSelfLink);
             }
-            return DeferredResult.completed(this);
+            return populateContextWithSubnetRangeIndexes(ipAddressAllocationTaskService);
         }
 
         /*Every connected resource has a count that tells you how many IPs are needed */
@@ -226,32 +222,11 @@ public class IPAddressAllocationTaskService extends
             return DeferredResult.completed(this);
         }
 
-        /**
-         * Retrieves existing IP address resources created with different status within a specific range
-         *
-         * @param rangeState Subnet range information.
-         * @return List of IP Addresses created within that range.
-         */
-        private DeferredResult<List<IPAddressState>> retrieveExistingIpAddressesFromRange(
-                IPAddressAllocationTaskService ipAddressAllocationTaskService,
-                SubnetRangeState rangeState) {
-            QueryTask.Query getIpAddressQuery = QueryTask.Query.Builder.create()
-                    .addKindFieldClause(IPAddressState.class)
-                    .addFieldClause(IPAddressState.FIELD_NAME_SUBNET_RANGE_LINK,
-                            rangeState.documentSelfLink)
-                    .build();
-
-            QueryUtils.QueryByPages<IPAddressState> queryByPages = new QueryUtils.QueryByPages<>(
-                    ipAddressAllocationTaskService.getHost(),
-                    getIpAddressQuery,
-                    IPAddressState.class,
-                    null)
-                    .setQueryTaskTenantLinks(rangeState.tenantLinks);
-            queryByPages.setClusterType(ServiceTypeCluster.INVENTORY_SERVICE);
-
-            return queryByPages.collectDocuments(toList());
+        /*The number of IPs that can still be allocated from all the subnet ranges*/
+        private int getAvailableIpsCount() {
+            return this.subnetRangeIndexes.values().stream()
+                    .mapToInt(SubnetRangeAllocationIndex::getAvailableCount).sum();
         }
-
     }
 
     /**
@@ -693,28 +668,9 @@ public class IPAddressAllocationTaskService extends
                         proceedTo(IPAddressAllocationTaskState.SubStage.FINISHED, null);
                         return;
                     }
-                    checkEnoughIPsAvailableOrFail(ctxt);
-                    int requiredIpCount = ctxt.requestedIpCount;
-
-                    allocateFromExistingIPswithRetry(ctxt)
-                            .thenCompose((outCtxt) ->
-                            {
-                                int allocatedIpCount = getAllocatedIpsCount(outCtxt);
-
-                                if (allocatedIpCount < requiredIpCount) {
-                                    //When we allocate IP addresses we first try to pick from existing IP
-                                    // address documents, that are in available state. Usually, these are
-                                    // IP addresses that became available from a previous de-allocation.
-                                    // If we can't fulfill out IP address requirements by these pre existing
-                                    // IP addresses, then we create new IP address documents in lucene
-                                    logInfo("Could not allocate from existing IP address documents. "
-                                            + "Hence creating new IPs.");
-                                    return createNewIpsWithRetry(outCtxt);
-                                } else {
-                                    //else pass through
-                                    return DeferredResult.completed(outCtxt);
-                                }
-                            })
+
+                    checkEnoughIPsAvailable(ctxt)
+                            .thenCompose(this::allocateIps)
                             .thenAccept((context) -> proceedTo(
                                     IPAddressAllocationTaskState.SubStage.FINISHED, s -> addResultToState(context, s)))
                             .exceptionally((e) -> {
@@ -735,173 +691,101 @@ public class IPAddressAllocationTaskService extends
     }
 
     /**
-     * Here we try to allocate IPs from existing IP address docs by finding docs
-     * whose status is set to available.
+     * We go thru all the resources that requested an IP and allocate as many IPs as each of them
+     * needs.
      *
-     * We iterate thru every connected resource that had an IP address requested for.
-     * If that resource had lesser IPs than it needed, then we try to find if there are any
-     * existing available IPs in the subnet, that can be assigned to these resources.
-     *
-     * @param context Allocation context information.
+     * @param context IPAddressAllocationContext
+     * @return a deferred result of IPAddressAllocationContext
      */
-    private DeferredResult<IPAddressAllocationContext> allocateFromExistingIPs(
+    private DeferredResult<IPAddressAllocationContext> allocateIps(
             IPAddressAllocationContext context) {
+        Map<String, Integer> connectedResourceLinks = context.serviceState.connectedResourceToRequiredIpCountMap;
 
-        try {
-            Map<String, Integer> connectedResourceToReqIpCountMap =
-                    context.serviceState.connectedResourceToRequiredIpCountMap;
-            List<DeferredResult<Void>> results = new ArrayList<>();
-
-            for (String connectedResourceLink : connectedResourceToReqIpCountMap.keySet()) {
-                //Try allocating from existing IPs
+        List<DeferredResult<Void>> results = new ArrayList<>();
 
-                int ipsRequiredForResCount = connectedResourceToReqIpCountMap
-                        .get(connectedResourceLink);
+        for (String connectedResourceLink : connectedResourceLinks.keySet()) {
 
-                int allocatedIpCountForRes = 0;
-
-                if (context.connectedResourceToAllocatedIpsMap.get
-                        (connectedResourceLink) != null) {
-                    //Check how many IPs have already been allocated to this resource
-                    allocatedIpCountForRes = context.connectedResourceToAllocatedIpsMap.get
-                            (connectedResourceLink).size();
-                }
-
-                for (int i = allocatedIpCountForRes; i < ipsRequiredForResCount; i++) {
-                    results.add(assignExistingIpToResource(context, connectedResourceLink)
-                            .thenAccept((ipAddressState) -> {
-                                if (ipAddressState != null) {
-                                    String ipAddress = ipAddressState.ipAddress;
-                                    logInfo("Successfully allocated IP %s for resource %s",
-                                            ipAddress, connectedResourceLink);
-                                    long longIpAddr = IpHelper.ipStringToLong(ipAddress);
-                                    context.unavailableIpAddresses.add(longIpAddr);
-                                    addIpToContext(context, connectedResourceLink,
-                                            ipAddressState);
-                                }
-                            }));
-                }
+            int ipsRequiredForResCount = connectedResourceLinks.get(connectedResourceLink);
 
+            for (int i = 0; i < ipsRequiredForResCount; i++) {
+                results.add(allocateIpForSingleResource(context, connectedResourceLink, 0)
+                        .thenAccept((ipAddressState) -> {
+                            logInfo("Successfully allocated IP %s for resource %s",
+                                    ipAddressState.ipAddress, connectedResourceLink);
+                            addIpToContext(context, connectedResourceLink, ipAddressState);
+                        }));
             }
-
-            return DeferredResult.allOf(results).thenApply((ignore) -> context);
-        } catch (Exception ex) {
-            return DeferredResult.failed(ex);
         }
 
+        return DeferredResult.allOf(results).thenApply((ignore) -> context);
     }
 
     /**
-     * The context has all the existing IP address documents owned by the subnet.
-     * We go through each of those IP address docs and check if it's status is available.
-     * If it is, we allocate it to the passed in, connected resource.
+     * Reserves the next free IP from the allocation indexes of the subnet ranges, in the order of
+     * the ranges, and records it in the IP address documents. IPs that have an existing IP address
+     * document in available state are preferred over IPs that do not have a document yet.
      *
-     * @param context IPAddressAllocationContext
+     * Multiple hosts can hand out the same IP, since every host has its own index. Only one of
+     * them is granted the IP address document and others will fail. In that case the IP stays
+     * marked as used in the index and we retry with the next free IP, up to
+     * {@link #MAX_ALLOCATION_RETRIES} times. On any other failure the IP is released in the index
+     * and the allocation fails.
+     *
+     * @param context               IPAddressAllocationContext
      * @param connectedResourceLink The resource that needs an IP address
+     * @param retry                 The number of IPs already lost to other allocations
      * @return A DeferredResult of an IPAddressState
-     *
      */
-    private DeferredResult<IPAddressState> assignExistingIpToResource(IPAddressAllocationContext context,
-            String connectedResourceLink) {
+    private DeferredResult<IPAddressState> allocateIpForSingleResource(
+            IPAddressAllocationContext context, String connectedResourceLink, int retry) {
+
+        for (SubnetRangeState subnetRangeState : context.subnetRangeStates) {
+            SubnetRangeAllocationIndex index = context.subnetRangeIndexes
+                    .get(subnetRangeState.documentSelfLink);
+            Reservation reservation = index.reserve();
+            if (reservation == null) {
+                continue;
+            }
 
-        List<IPAddressState> existingIpAddressStates = context.ipAddressStates;
-        DeferredResult<IPAddressState> returnIp = new DeferredResult<>();
-
-        for (IPAddressState addressState : existingIpAddressStates) {
-            Long longIp = IpHelper.ipStringToLong(addressState.ipAddress);
-            if (addressState.ipAddressStatus == IPAddressState.IPAddressStatus.AVAILABLE
-                    && (!context.unavailableIpAddresses.contains(longIp))) {
-                context.unavailableIpAddresses.add(longIp);
-                addressState.ipAddressStatus = IPAddressState.IPAddressStatus.ALLOCATED;
-                addressState.connectedResourceLink = connectedResourceLink;
-                logInfo("Picking an existing IP %s for resource %s", addressState.ipAddress,
+            DeferredResult<IPAddressState> deferredIpAddr;
+            if (reservation.ipAddressLink != null) {
+                logInfo("Picking an existing IP %s for resource %s", reservation.ipAddress,
                         connectedResourceLink);
-                return updateExistingIpAddressResource(addressState, context);
+                deferredIpAddr = allocateExistingIpAddressResource(reservation,
+                        subnetRangeState, connectedResourceLink);
             } else {
-                context.unavailableIpAddresses.add(longIp);
+                deferredIpAddr = createNewIpAddressResource(reservation.ipAddress,
+                        subnetRangeState, connectedResourceLink);
             }
-        }
-
-        returnIp.complete(null);
-        return returnIp;
-    }
-
-    /**
-     * We go thru all the resources and check if they got enough IPs allocated to them.
-     * If not we create new IPs (within the subnet ranges) for them.
-     *
-     * @param context IPAddressAllocationContext
-     * @return a deferred result of IPAddressAllocationContext
-     */
-    private DeferredResult<IPAddressAllocationContext> createNewIps(
-            IPAddressAllocationContext context) {
-        try {
-            Map<String, Integer> connectedResourceLinks = context.serviceState.connectedResourceToRequiredIpCountMap;
-
-            List<DeferredResult<Void>> results = new ArrayList<>();
 
-            for (String connectedResourceLink : connectedResourceLinks.keySet()) {
-
-                int ipsRequiredForResCount = connectedResourceLinks.get(connectedResourceLink);
-                int allocatedIpCountForRes = 0;
-
-                if (context.connectedResourceToAllocatedIpsMap.get(connectedResourceLink) != null) {
-                   //Check how many IPs have already been allocated to this resource
-                    allocatedIpCountForRes = context.connectedResourceToAllocatedIpsMap.get
-                            (connectedResourceLink).size();
-                }
-
-                for (int i = allocatedIpCountForRes; i < ipsRequiredForResCount; i++) {
-
-                    results.add(
-                            createNewIpForSingleResource(context, connectedResourceLink).thenAccept(
-                                    (ipAddressState) ->
-                                    {
-                                        if (ipAddressState != null) {
-                                            String ipAddress = ipAddressState.ipAddress;
-                                            logInfo("Successfully created IP %s for resource %s",
-                                                    ipAddress, connectedResourceLink);
-                                            long longIpAddr = IpHelper.ipStringToLong(ipAddress);
-                                            context.unavailableIpAddresses.add(longIpAddr);
-                                            addIpToContext(context, connectedResourceLink,
-                                                    ipAddressState);
-                                        }
+            return deferredIpAddr
+                    .handle((ipAddressState, e) -> e)
+                    .thenCompose(e -> {
+                        if (e == null) {
+                            return deferredIpAddr;
+                        }
+                        return isAllocatedByOther(reservation,
+                                subnetRangeState.documentSelfLink, connectedResourceLink, e)
+                                .thenCompose(allocatedByOther -> {
+                                    if (!allocatedByOther) {
+                                        index.release(reservation);
+                                        return DeferredResult.failed(e);
                                     }
-                            ));
-
-                }
-
-            }
-
-            return DeferredResult.allOf(results).thenApply((ignore) -> context);
-
-        } catch (Exception ex) {
-            return DeferredResult.failed(ex);
-        }
-    }
-
-    private DeferredResult<IPAddressState> createNewIpForSingleResource(IPAddressAllocationContext context,
-            String connectedResourceLink) {
-
-        List<SubnetRangeState> subnetRangeStates = context.subnetRangeStates;
-        DeferredResult<IPAddressState> deferredIpAddr;
-
-        for (SubnetRangeState subnetRangeState : subnetRangeStates) {
-
-            if (!subnetRangeState.ipVersion.equals(IPVersion.IPv4)) {
-                //If IPV6 then skip to next IP range.
-                logWarning(
-                        "Skipping allocation from IP address range %s. Currently, only IPV4 is supported",
-                        subnetRangeState.documentSelfLink);
-                continue;
-            }
-
-            deferredIpAddr = createIpInRange(context, connectedResourceLink, subnetRangeState);
-
-            if (deferredIpAddr != null) {
-                return deferredIpAddr;
-            }
-
+                                    if (retry >= MAX_ALLOCATION_RETRIES) {
+                                        return DeferredResult.failed(new IllegalStateException(
+                                                String.format("Couldn't allocate an IP address "
+                                                        + "for resource %s. The last %d IP "
+                                                        + "addresses were allocated by other "
+                                                        + "requests", connectedResourceLink,
+                                                        retry + 1)));
+                                    }
+                                    logInfo("IP %s was allocated by another request, retrying "
+                                            + "resource %s with another IP.",
+                                            reservation.ipAddress, connectedResourceLink);
+                                    return allocateIpForSingleResource(context,
+                                            connectedResourceLink, retry + 1);
+                                });
+                    });
         }
 
         String msg = String.format("Couldn't allocate an IP address for resource %s. No IP "
@@ -911,30 +795,44 @@ public class IPAddressAllocationTaskService extends
     }
 
     /**
-     * This method goes thru all the IP addresses in the subnet range. If that IP is not in the
-     * unavailable IP list, then a new IP address doc for that IP gets created.
-     * @param context
-     * @param connectedResourceLink
-     * @param subnetRangeState
-     * @return
+     * Returns whether an allocation failed because another request was granted the IP. That is the
+     * case when the IP address document is not modified by the request, or when it exists and is
+     * no longer available for the resource.
      */
-    private DeferredResult<IPAddressState> createIpInRange(IPAddressAllocationContext context,
-            String connectedResourceLink, SubnetRangeState subnetRangeState) {
-        DeferredResult<IPAddressState> returnIp = null;
-        long beginAddress = IpHelper.ipStringToLong(subnetRangeState.startIPAddress);
-        long endAddress = IpHelper.ipStringToLong(subnetRangeState.endIPAddress);
-
-        for (long address = beginAddress; address <= endAddress; address++) {
-            if (!context.unavailableIpAddresses.contains(address)) {
-                context.unavailableIpAddresses.add(address);
-                String ipAddress = IpHelper.longToIpString(address);
-                returnIp = createNewIpAddressResource(ipAddress,
-                        subnetRangeState.documentSelfLink,
-                        connectedResourceLink, context);
-                break;
-            }
+    private DeferredResult<Boolean> isAllocatedByOther(Reservation reservation,
+            String subnetRangeLink, String connectedResourceLink, Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause() : failure;
+        if (cause instanceof ConcurrentRequestException) {
+            return DeferredResult.completed(Boolean.TRUE);
         }
-        return returnIp;
+
+        String ipAddressLink = reservation.ipAddressLink != null ? reservation.ipAddressLink
+                : generateIPAddressDocumentSelfLink(subnetRangeLink, reservation.ipAddress);
+        return sendWithDeferredResult(Operation.createGet(this, ipAddressLink),
+                IPAddressState.class)
+                .handle((ipAddressState, e) -> e == null
+                        && ipAddressState.ipAddressStatus != IPAddressStatus.AVAILABLE
+                        && !connectedResourceLink.equals(ipAddressState.connectedResourceLink));
+    }
+
+    /**
+     * Allocates an IP that already has an IP address document in available state.
+     *
+     * @param reservation           IP address reserved from the allocation index.
+     * @param subnetRangeState      Subnet range of the existing IP address resource.
+     * @param connectedResourceLink Link to the resource this IP is assigned to.
+     */
+    private DeferredResult<IPAddressState> allocateExistingIpAddressResource(
+            Reservation reservation, SubnetRangeState subnetRangeState,
+            String connectedResourceLink) {
+        IPAddressState addressState = new IPAddressState();
+        addressState.ipAddressStatus = IPAddressState.IPAddressStatus.ALLOCATED;
+        addressState.ipAddress = reservation.ipAddress;
+        addressState.subnetRangeLink = subnetRangeState.documentSelfLink;
+        addressState.connectedResourceLink = connectedResourceLink;
+        addressState.documentSelfLink = reservation.ipAddressLink;
+        return updateExistingIpAddressResource(addressState);
     }
 
     /**
@@ -944,17 +842,18 @@ public class IPAddressAllocationTaskService extends
      * requests are invoked at the same time, they end up creating single IP Address resource. Only one of them
      * succeeds in their PATCH and the other one will retry the allocation operation.
      *
-     * @param ipAddress               IP address to use for the new IP address resource.
-     * @param subnetRangeResourceLink Subnet range resource link to use for the new IP address resource.
-     * @param connectedResourceLink   Link to the resource this IP is assigned to.
+     * @param ipAddress             IP address to use for the new IP address resource.
+     * @param subnetRangeState      Subnet range to use for the new IP address resource.
+     * @param connectedResourceLink Link to the resource this IP is assigned to.
      */
     private DeferredResult<IPAddressState> createNewIpAddressResource(String ipAddress,
-            String subnetRangeResourceLink,
-            String connectedResourceLink,
-            IPAddressAllocationContext context) {
+            SubnetRangeState subnetRangeState,
+            String connectedResourceLink) {
+        String subnetRangeResourceLink = subnetRangeState.documentSelfLink;
         IPAddressState ipAddressState = new IPAddressState();
         ipAddressState.ipAddressStatus = IPAddressState.IPAddressStatus.AVAILABLE;
         ipAddressState.ipAddress = ipAddress;
+        ipAddressState.ipVersion = subnetRangeState.ipVersion;
         ipAddressState.subnetRangeLink = subnetRangeResourceLink;
         ipAddressState.documentSelfLink = generateIPAddressDocumentSelfLink(subnetRangeResourceLink,
                 ipAddress);
@@ -970,10 +869,7 @@ public class IPAddressAllocationTaskService extends
                     availableIPAddress.connectedResourceLink = connectedResourceLink;
                     return availableIPAddress;
                 })
-                .thenCompose(
-                        (availableIPAddress) -> (updateExistingIpAddressResource
-                                (availableIPAddress, context)
-                        ));
+                .thenCompose(this::updateExistingIpAddressResource);
 
     }
 
@@ -983,7 +879,7 @@ public class IPAddressAllocationTaskService extends
      * @param addressState New IP address state.
      */
     private DeferredResult<IPAddressState> updateExistingIpAddressResource(
-            IPAddressState addressState, IPAddressAllocationContext context) {
+            IPAddressState addressState) {
         DeferredResult<IPAddressState> ipAddressStateDeferredResult = new DeferredResult<>();
 
         sendRequest(Operation.createPatch(this, addressState.documentSelfLink)
@@ -998,13 +894,9 @@ public class IPAddressAllocationTaskService extends
                         String msg = String
                                 .format("IP Address %s is already allocated. Will re-attempt allocation with a different IP Address.",
                                         addressState.ipAddress);
-                        long longIpAddr = IpHelper.ipStringToLong(addressState.ipAddress);
-                        context.unavailableIpAddresses.add(longIpAddr);
                         ipAddressStateDeferredResult
                                 .fail(new ConcurrentRequestException(msg));
                     } else {
-                        long longIpAddr = IpHelper.ipStringToLong(addressState.ipAddress);
-                        context.unavailableIpAddresses.add(longIpAddr);
                         ipAddressStateDeferredResult.complete(addressState);
                     }
                 }));
@@ -1156,184 +1048,56 @@ public class IPAddressAllocationTaskService extends
         sendRequest(Operation.createPatch(state.serviceTaskCallback.serviceURI).setBody(result));
     }
 
-    private void checkEnoughIPsAvailableOrFail(IPAddressAllocationContext context) {
-        int requiredIpCounts = context.requestedIpCount;
-        setMaxPossibleIpCountInSubnet(context);
-        int countOfTotalPossibleIPs = context.maxPossibleIpsCount;
-        int availableIpsCount =
-                countOfTotalPossibleIPs - context.unavailableIpAddresses.size();
-
-        if (requiredIpCounts > availableIpsCount) {
-            String message = String.format("%d IPs are required to complete the task" +
-                            " but only %d IPs were available in the subnet %s",
-                    requiredIpCounts, availableIpsCount, context.subnetState.documentSelfLink);
-            throw new CompletionException(new Exception(message));
-        }
-
-    }
-
-    private int getAllocatedIpsCount(IPAddressAllocationContext context) {
-        Map<String, List<IPAddressState>> allocatedMap = context
-                .connectedResourceToAllocatedIpsMap;
-        int allocatedIpCount = 0;
-
-        for (String resource : allocatedMap.keySet()) {
-            allocatedIpCount = allocatedIpCount + allocatedMap.get(resource).size();
+    /**
+     * Checks whether the subnet ranges have enough free IPs for the request. The allocation
+     * indexes may not know about IPs that have been made available through other hosts, so they
+     * are rebuilt from the IP address documents once before the task is failed.
+     *
+     * @param context IPAddressAllocationContext
+     * @return a deferred result of IPAddressAllocationContext
+     */
+    private DeferredResult<IPAddressAllocationContext> checkEnoughIPsAvailable(
+            IPAddressAllocationContext context) {
+        if (context.requestedIpCount <= context.getAvailableIpsCount()) {
+            return DeferredResult.completed(context);
         }
 
-        return allocatedIpCount;
-    }
+        logInfo("Not enough IPs available in the allocation index of subnet %s. Rebuilding it.",
+                context.subnetState.documentSelfLink);
 
-    private void setMaxPossibleIpCountInSubnet(IPAddressAllocationContext context) {
-        List<SubnetRangeState> subnetRangeStates = context.subnetRangeStates;
-        int maxIps = 0;
+        return context.rebuildSubnetRangeIndexes(this).thenApply(ctxt -> {
+            int requiredIpCounts = ctxt.requestedIpCount;
+            int availableIpsCount = ctxt.getAvailableIpsCount();
 
-        for (SubnetRangeState subnetRangeState : subnetRangeStates) {
-            Long startIP = IpHelper.ipStringToLong(subnetRangeState.startIPAddress);
-            Long endIP = IpHelper.ipStringToLong(subnetRangeState.endIPAddress);
-            maxIps = maxIps + (int) (endIP - startIP) + 1;
-        }
-        context.maxPossibleIpsCount = maxIps;
+            if (requiredIpCounts > availableIpsCount) {
+                String message = String.format("%d IPs are required to complete the task" +
+                                " but only %d IPs were available in the subnet %s",
+                        requiredIpCounts, availableIpsCount, ctxt.subnetState.documentSelfLink);
+                throw new CompletionException(new Exception(message));
+            }
+            return ctxt;
+        });
     }
 
-
     private void addIpToContext(IPAddressAllocationContext context, String connectedResourceLink,
             IPAddressState ipAddressState) {
-        context.connectedResourceToAllocatedIpsMap
-                .computeIfAbsent(connectedResourceLink, k -> new ArrayList<>());
+        // The IP may have been allocated without going through the allocation index, e.g. when
+        // a specific IP is requested.
+        SubnetRangeAllocationIndex index = SubnetRangeAllocationIndex.get(getHost(),
+                ipAddressState.subnetRangeLink);
+        if (index != null) {
+            index.markUsed(ipAddressState.ipAddress);
+        }
 
-        List<IPAddressState> ipStatesForResource = context.connectedResourceToAllocatedIpsMap.get
-                (connectedResourceLink);
+        List<IPAddressState> ipStatesForResource = context.connectedResourceToAllocatedIpsMap
+                .computeIfAbsent(connectedResourceLink,
+                        k -> Collections.synchronizedList(new ArrayList<>()));
 
         logInfo("Adding to context, resource %s mapping to IP %s",connectedResourceLink,
                 ipAddressState.ipAddress);
         ipStatesForResource.add(ipAddressState);
     }
 
-    /**
-     * We try to allocate existing IP address docs to the connected resources that requested an IP.
-     *
-     * We perform retries on this method because multiple threads could see the same IP document
-     * as available and request for it. Only one thread will be granted this IP and others will
-     * fail. In that case we want to retry and look for another IP address doc that may be available.
-     * We keep retrying as long as there are existing IP address docs with their state as available.
-     *
-     * @param context
-     * @return
-     */
-    private DeferredResult<IPAddressAllocationContext> allocateFromExistingIPswithRetry(
-            IPAddressAllocationContext context) {
-        int requiredIpCount = context.requestedIpCount;
-
-        DeferredResult<IPAddressAllocationContext> deferredResult = new DeferredResult<>();
-
-        allocateFromExistingIPs(context).whenComplete((result, exception) -> {
-            if (exception == null) {
-                deferredResult.complete(context);
-            } else if (exception instanceof ConcurrentRequestException
-                    || exception instanceof CompletionException) {
-                //Comes in here when there is a ConcurrentRequestException exception
-                //If there are IP address docs with state as available try again.
-                long availableStatusCount = context.ipAddressStates.stream().filter(state -> state
-                        .ipAddressStatus == IPAddressStatus.AVAILABLE).count();
-
-                if (availableStatusCount > 0) {
-
-                    if (getAllocatedIpsCount(context) < requiredIpCount) {
-
-                        logInfo("Retrying to allocate from existing IPs.");
-
-                        //Before we retry, we query to find all the existing IP address documents
-                        //And then we use that list to figure out the unavailable IPs
-                        context.populateContextWithExistingIpAddresses(this)
-                                .thenCompose(IPAddressAllocationContext::setUnAvailableIps)
-                                .thenCompose((refreshedIPsCtxt) ->
-                                        allocateFromExistingIPswithRetry(refreshedIPsCtxt))
-                                .whenComplete((completedContext, e) -> {
-                                    if (e != null) {
-                                        deferredResult.fail(e);
-                                    } else {
-                                        deferredResult.complete(completedContext);
-                                    }
-                                });
-                    } else {
-                        //There is an exception but you still have enough IPs
-                        //Should not come in here
-                        logWarning("Unexpected code path for ip allocation for %s", context
-                                .subnetState.documentSelfLink);
-                        deferredResult.complete(context);
-                    }
-                } else {
-                    //No more available IPs left left.
-                    logInfo("Could not allocate from existing IPs. %s", exception.getMessage());
-                    deferredResult.complete(context);
-                }
-            } else {
-                // For all other exceptions
-                logInfo("Could not allocate from existing IPs. %s", exception.getMessage());
-                deferredResult.complete(context);
-            }
-        });
-        return deferredResult;
-
-    }
-
-    /**
-     *
-     * @param context
-     * @return
-     */
-    private DeferredResult<IPAddressAllocationContext> createNewIpsWithRetry(
-            IPAddressAllocationContext context) {
-        int requiredIpCount = context.requestedIpCount;
-
-        DeferredResult<IPAddressAllocationContext> deferredResult = new DeferredResult<>();
-
-        createNewIps(context).whenComplete((result, exception) -> {
-            if (exception == null) {
-                deferredResult.complete(context);
-            } else if (exception instanceof ConcurrentRequestException
-                    || exception instanceof CompletionException) {
-                //Comes in here when there is an exception
-                if (context.maxPossibleIpsCount > context.unavailableIpAddresses.size()) {
-                    logInfo("Retrying to create new IPs.");
-
-                    if (getAllocatedIpsCount(context) < requiredIpCount) {
-
-                        context.populateContextWithExistingIpAddresses(this)
-                                .thenCompose(IPAddressAllocationContext::setUnAvailableIps)
-                                .thenCompose((refreshedIPsCtxt) ->
-                                        createNewIpsWithRetry(refreshedIPsCtxt))
-                                .whenComplete((completedContext, e) -> {
-                                    if (e != null) {
-                                        deferredResult.fail(e);
-                                    } else {
-                                        deferredResult.complete(completedContext);
-                                    }
-                                });
-                    } else {
-                        //There is an exception but you still have enough IPs
-                        //Should not come in here
-                        logWarning("Unexpected code path for ip allocation for %s", context
-                                .subnetState.documentSelfLink);
-                        deferredResult.complete(context);
-                    }
-
-                } else {
-                    //No more IPs left in ranges left. Fail method call.
-                    logSevere("No more IPs available for allocation. Failing task.");
-                    deferredResult.fail(exception);
-                }
-
-            } else {
-                // For all other exceptions, fail request
-                deferredResult.fail(exception);
-            }
-        });
-        return deferredResult;
-
-    }
-
     private void addResultToState(IPAddressAllocationContext context, IPAddressAllocationTaskState
             state) {
 
@@ -1427,8 +1191,8 @@ public class IPAddressAllocationTaskService extends
                                             });
                                 } else {
                                     // Create new IP resource
-                                    createNewIpAddressResource(ipAddress, ctxt.subnetRangeState.documentSelfLink,
-                                            connectedResourceLink, ctxt)
+                                    createNewIpAddressResource(ipAddress, ctxt.subnetRangeState,
+                                            connectedResourceLink)
                                             .whenComplete((ipAddressState1, e) -> {
                                                 if (e != null) {
                                                     failTask(e,
@@ -1492,7 +1256,7 @@ public class IPAddressAllocationTaskService extends
     private SubnetRangeState findSubnetRangeForIp(IPAddressAllocationContext context, String ipAddress) {
         Optional<SubnetRangeState> result = context.subnetRangeStates.stream()
                 .filter(subnetRange -> SubnetValidator.isIpInBetween(subnetRange.startIPAddress,
-                        subnetRange.endIPAddress, IPVersion.IPv4, ipAddress))
+                        subnetRange.endIPAddress, subnetRange.ipVersion, ipAddress))
                 .findFirst();
         if (result.isPresent()) {
             return result.get();
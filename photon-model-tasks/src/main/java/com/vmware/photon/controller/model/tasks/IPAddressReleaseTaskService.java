@@ -23,6 +23,7 @@ import java.util.stream.Collectors;
 import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.query.QueryUtils;
 import com.vmware.photon.controller.model.resources.IPAddressService;
+import com.vmware.photon.controller.model.tasks.helpers.SubnetRangeAllocationIndex;
 import com.vmware.photon.controller.model.util.ClusterUtil.ServiceTypeCluster;
 import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
@@ -115,6 +116,7 @@ public class IPAddressReleaseTaskService extends StatelessService {
                                     ipAddressState.ipAddress, e.getMessage());
                         } else {
                             logInfo("The IP address %s is made available", ipAddressState.ipAddress);
+                            markReusableInAllocationIndex(ipAddressState);
                         }
                     });
 
@@ -123,4 +125,16 @@ public class IPAddressReleaseTaskService extends StatelessService {
 
         return DeferredResult.allOf(ipAddressOperations);
     }
+
+    /**
+     * Lets allocations on this host pick the IP address without rebuilding the allocation index of
+     * its subnet range.
+     */
+    private void markReusableInAllocationIndex(IPAddressService.IPAddressState ipAddressState) {
+        SubnetRangeAllocationIndex index = SubnetRangeAllocationIndex.get(getHost(),
+                ipAddressState.subnetRangeLink);
+        if (index != null) {
+            index.markReusable(ipAddressState.ipAddress, ipAddressState.documentSelfLink);
+        }
+    }
 }
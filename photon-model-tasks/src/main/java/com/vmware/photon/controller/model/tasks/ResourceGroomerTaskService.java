@@ -135,6 +135,18 @@ public class ResourceGroomerTaskService
             AUTH_CREDENTIALS_SERVICE_STATE_KIND
     );
 
+    /**
+     * Fields of the documents used to collect their endpoint links. The other fields, which are
+     * most of the document content, are not selected.
+     */
+    private static final Collection<String> DOCUMENT_FIELD_NAMES = Arrays.asList(
+            ServiceDocument.FIELD_NAME_SELF_LINK,
+            ServiceDocument.FIELD_NAME_KIND,
+            ResourceState.FIELD_NAME_ENDPOINT_LINK,
+            ResourceState.FIELD_NAME_ENDPOINT_LINKS,
+            ResourceState.FIELD_NAME_CUSTOM_PROPERTIES,
+            ImageState.FIELD_NAME_ENDPOINT_TYPE);
+
     public enum SubStage {
         /**
          * Query for resource documents, process the first query page and populate
@@ -812,11 +824,18 @@ public class ResourceGroomerTaskService
             }
         }
 
-        QueryTask queryTask = QueryTask.Builder.createDirectTask()
+        QueryTask.Builder queryTaskBuilder = QueryTask.Builder.createDirectTask()
                 .setQuery(query)
-                .addOption(QueryOption.EXPAND_CONTENT)
-                .setResultLimit(QUERY_RESULT_LIMIT)
-                .build();
+                .setResultLimit(QUERY_RESULT_LIMIT);
+
+        if (isEndpointQuery) {
+            queryTaskBuilder.addOption(QueryOption.EXPAND_CONTENT);
+        } else {
+            queryTaskBuilder.addOption(QueryOption.EXPAND_SELECTED_FIELDS);
+            DOCUMENT_FIELD_NAMES.forEach(queryTaskBuilder::addSelectTerm);
+        }
+
+        QueryTask queryTask = queryTaskBuilder.build();
 
         if (isEndpointQuery) {
             queryTask.querySpec.options.add(QueryOption.INCLUDE_DELETED);
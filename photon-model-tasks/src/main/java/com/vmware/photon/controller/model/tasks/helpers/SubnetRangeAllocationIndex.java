@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks.helpers;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.query.QueryUtils.QueryByPages;
+import com.vmware.photon.controller.model.resources.IPAddressService.IPAddressState;
+import com.vmware.photon.controller.model.resources.IPAddressService.IPAddressState.IPAddressStatus;
+import com.vmware.photon.controller.model.resources.SubnetRangeService.SubnetRangeState;
+import com.vmware.photon.controller.model.support.IPVersion;
+import com.vmware.photon.controller.model.util.ClusterUtil.ServiceTypeCluster;
+import com.vmware.photon.controller.model.util.IpHelper;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask.Query;
+
+/**
+ * In-memory allocation index of a single {@link SubnetRangeState}.
+ *
+ * <p>Every address of the range is represented by one bit at its offset from the start address:
+ * {@code used} marks addresses that cannot be handed out (allocated, released or reserved by an
+ * in-flight allocation). Addresses that already have an {@link IPAddressState} document in
+ * {@link IPAddressStatus#AVAILABLE} state are kept in {@code reusable} together with the link of
+ * that document. Both IPv4 and IPv6 ranges are handled through the numeric offset; IPv6 ranges
+ * larger than {@link #MAX_INDEXED_ADDRESSES} are indexed up to that size.
+ *
+ * <p>The index is built once per host from the {@link IPAddressState} documents of the range and
+ * then kept current by the allocation and release paths, so that an allocation does not need a
+ * range-wide query. The {@link IPAddressState} documents remain the source of truth: an address
+ * picked from a stale index is rejected by the document itself and simply marked as used here.
+ */
+public class SubnetRangeAllocationIndex {
+
+    public static final String PROPERTY_NAME_INDEX_EXPIRATION_SECONDS = UriPaths.PROPERTY_PREFIX
+            + "ipam.allocation.index.expiration.seconds";
+    private static final long INDEX_EXPIRATION_MICROS = TimeUnit.SECONDS.toMicros(Long.getLong(
+            PROPERTY_NAME_INDEX_EXPIRATION_SECONDS, TimeUnit.MINUTES.toSeconds(30)));
+
+    /**
+     * Upper bound of the addresses indexed per range. Practically limits only IPv6 ranges.
+     */
+    public static final int MAX_INDEXED_ADDRESSES = 1 << 24;
+
+    private static final Map<String, SubnetRangeAllocationIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * An address reserved from the index.
+     */
+    public static class Reservation {
+        public final String ipAddress;
+
+        /**
+         * Link of the {@link IPAddressState} document in AVAILABLE state for the address, or
+         * {@code null} if a new document has to be created.
+         */
+        public final String ipAddressLink;
+
+        private Reservation(String ipAddress, String ipAddressLink) {
+            this.ipAddress = ipAddress;
+            this.ipAddressLink = ipAddressLink;
+        }
+    }
+
+    public final String subnetRangeLink;
+    public final IPVersion ipVersion;
+
+    private final BigInteger startAddress;
+    private final int capacity;
+    private final long expirationMicros;
+
+    private final BitSet used;
+    private final TreeMap<Integer, String> reusable;
+    private int usedCount;
+    private int nextOffset;
+
+    SubnetRangeAllocationIndex(SubnetRangeState subnetRangeState) {
+        this.subnetRangeLink = subnetRangeState.documentSelfLink;
+        this.ipVersion = subnetRangeState.ipVersion != null ? subnetRangeState.ipVersion
+                : IPVersion.IPv4;
+        this.startAddress = IpHelper.ipStringToBigInteger(subnetRangeState.startIPAddress);
+
+        BigInteger size = IpHelper.ipStringToBigInteger(subnetRangeState.endIPAddress)
+                .subtract(this.startAddress).add(BigInteger.ONE);
+        this.capacity = size.signum() <= 0 ? 0
+                : size.min(BigInteger.valueOf(MAX_INDEXED_ADDRESSES)).intValue();
+        this.expirationMicros = Utils.getNowMicrosUtc() + INDEX_EXPIRATION_MICROS;
+
+        this.used = new BitSet(this.capacity);
+        this.reusable = new TreeMap<>();
+    }
+
+    /**
+     * Returns the index of the given range, building it from the {@link IPAddressState} documents
+     * of the range if this host has no valid index yet.
+     */
+    public static DeferredResult<SubnetRangeAllocationIndex> getOrBuild(ServiceHost host,
+            SubnetRangeState subnetRangeState) {
+        String key = indexKey(host, subnetRangeState.documentSelfLink);
+        SubnetRangeAllocationIndex index = indexes.get(key);
+        if (index != null && !index.isExpired()) {
+            return DeferredResult.completed(index);
+        }
+
+        SubnetRangeAllocationIndex newIndex = new SubnetRangeAllocationIndex(subnetRangeState);
+
+        Query getIpAddressQuery = Query.Builder.create()
+                .addKindFieldClause(IPAddressState.class)
+                .addFieldClause(IPAddressState.FIELD_NAME_SUBNET_RANGE_LINK,
+                        subnetRangeState.documentSelfLink)
+                .build();
+
+        QueryByPages<IPAddressState> queryByPages = new QueryByPages<>(host,
+                getIpAddressQuery, IPAddressState.class, null)
+                .setQueryTaskTenantLinks(subnetRangeState.tenantLinks);
+        queryByPages.setClusterType(ServiceTypeCluster.INVENTORY_SERVICE);
+
+        return queryByPages.queryDocuments(newIndex::update)
+                .thenApply(ignore -> {
+                    // Another allocation may have built the index concurrently. Keep the one
+                    // that is already in use, since it holds the in-flight reservations.
+                    SubnetRangeAllocationIndex current = indexes.compute(key,
+                            (k, existing) -> existing != null && !existing.isExpired()
+                                    ? existing : newIndex);
+                    return current;
+                });
+    }
+
+    /**
+     * Returns the index of the given range if this host has already built it, {@code null}
+     * otherwise.
+     */
+    public static SubnetRangeAllocationIndex get(ServiceHost host, String subnetRangeLink) {
+        return indexes.get(indexKey(host, subnetRangeLink));
+    }
+
+    /**
+     * Drops the index of the given range, so that the next allocation rebuilds it.
+     */
+    public static void invalidate(ServiceHost host, String subnetRangeLink) {
+        indexes.remove(indexKey(host, subnetRangeLink));
+    }
+
+    /**
+     * Reflects the status of an {@link IPAddressState} document in the index.
+     */
+    public void update(IPAddressState ipAddressState) {
+        if (ipAddressState.ipAddressStatus == IPAddressStatus.AVAILABLE) {
+            markReusable(ipAddressState.ipAddress, ipAddressState.documentSelfLink);
+        } else {
+            markUsed(ipAddressState.ipAddress);
+        }
+    }
+
+    /**
+     * Reserves the next free address. Addresses with an existing AVAILABLE document are preferred
+     * over addresses that have never been allocated.
+     *
+     * @return the reserved address or {@code null} if the range is exhausted
+     */
+    public synchronized Reservation reserve() {
+        Entry<Integer, String> reusableEntry = this.reusable.pollFirstEntry();
+        if (reusableEntry != null) {
+            setUsed(reusableEntry.getKey());
+            return new Reservation(toIpString(reusableEntry.getKey()), reusableEntry.getValue());
+        }
+
+        int offset = nextClearOffset(this.nextOffset);
+        if (offset < 0) {
+            offset = nextClearOffset(0);
+        }
+        if (offset < 0) {
+            return null;
+        }
+        setUsed(offset);
+        this.nextOffset = offset + 1;
+        return new Reservation(toIpString(offset), null);
+    }
+
+    /**
+     * Returns a reserved address to the index, when it could not be allocated for another reason
+     * than another allocation of the address.
+     */
+    public synchronized void release(Reservation reservation) {
+        int offset = toOffset(reservation.ipAddress);
+        if (offset < 0) {
+            return;
+        }
+        clearUsed(offset);
+        if (reservation.ipAddressLink != null) {
+            this.reusable.put(offset, reservation.ipAddressLink);
+        } else if (offset < this.nextOffset) {
+            this.nextOffset = offset;
+        }
+    }
+
+    /**
+     * Marks the address as not available for allocation.
+     */
+    public synchronized void markUsed(String ipAddress) {
+        int offset = toOffset(ipAddress);
+        if (offset >= 0) {
+            this.reusable.remove(offset);
+            setUsed(offset);
+        }
+    }
+
+    /**
+     * Marks the address as available for allocation through its existing document.
+     */
+    public synchronized void markReusable(String ipAddress, String ipAddressLink) {
+        int offset = toOffset(ipAddress);
+        if (offset >= 0) {
+            clearUsed(offset);
+            this.reusable.put(offset, ipAddressLink);
+        }
+    }
+
+    /**
+     * Returns the number of addresses that can still be reserved.
+     */
+    public synchronized int getAvailableCount() {
+        return this.capacity - this.usedCount;
+    }
+
+    public synchronized boolean isUsed(String ipAddress) {
+        int offset = toOffset(ipAddress);
+        return offset >= 0 && this.used.get(offset);
+    }
+
+    public boolean isExpired() {
+        return Utils.getNowMicrosUtc() > this.expirationMicros;
+    }
+
+    private int nextClearOffset(int fromOffset) {
+        int offset = this.used.nextClearBit(fromOffset);
+        return offset < this.capacity ? offset : -1;
+    }
+
+    private void setUsed(int offset) {
+        if (!this.used.get(offset)) {
+            this.used.set(offset);
+            this.usedCount++;
+        }
+    }
+
+    private void clearUsed(int offset) {
+        if (this.used.get(offset)) {
+            this.used.clear(offset);
+            this.usedCount--;
+        }
+    }
+
+    private int toOffset(String ipAddress) {
+        if (ipAddress == null) {
+            return -1;
+        }
+        BigInteger offset = IpHelper.ipStringToBigInteger(ipAddress).subtract(this.startAddress);
+        if (offset.signum() < 0 || offset.compareTo(BigInteger.valueOf(this.capacity)) >= 0) {
+            return -1;
+        }
+        return offset.intValue();
+    }
+
+    private String toIpString(int offset) {
+        return IpHelper.bigIntegerToIpString(this.startAddress.add(BigInteger.valueOf(offset)),
+                this.ipVersion);
+    }
+
+    private static String indexKey(ServiceHost host, String subnetRangeLink) {
+        return host.getId() + subnetRangeLink;
+    }
+}
@@ -34,6 +34,8 @@ import java.util.concurrent.TimeUnit;
 import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.monitoring.InMemoryResourceMetricService;
 import com.vmware.photon.controller.model.monitoring.InMemoryResourceMetricService.InMemoryResourceMetric;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsBlockService;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsBlockService.ResourceMetricsBlock;
 import com.vmware.photon.controller.model.monitoring.ResourceMetricsService;
 import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.ResourceMetrics;
 import com.vmware.photon.controller.model.query.QueryUtils;
@@ -706,6 +708,11 @@ public class SingleResourceStatsAggregationTaskService extends
                         }
                     }
                 }
+                if (ResourceMetricsBlockService.BLOCK_STORAGE_ENABLED) {
+                    overallQueryBuilder.addClause(buildRawMetricsBlockQuery(resourceId,
+                            metricKey, range, binSize));
+                    continue;
+                }
                 Query.Builder builder = Query.Builder.create(Occurance.SHOULD_OCCUR);
                 builder.addKindFieldClause(ResourceMetrics.class);
                 builder.addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK,
@@ -754,23 +761,18 @@ public class SingleResourceStatsAggregationTaskService extends
                     }
                     Map<String, List<ResourceMetrics>> rawMetricsForKey = new HashMap<>();
                     for (Object obj : response.results.documents.values()) {
-                        ResourceMetrics rawMetric = Utils.fromJson(obj, ResourceMetrics.class);
-                        for (RollupMetricHolder metric : rollupMetricHolder) {
-                            for (String rawMetricKey : rawMetric.entries.keySet()) {
-                                if (!rawMetricKey.contains(stripRollupKey(metric.rollupKey))) {
-                                    continue;
-                                }
-                                // we want to consider raw metrics with the specified key and the appropriate timestamp
-                                if ((metric.beginTimestampMicros == null ||
-                                        rawMetric.timestampMicrosUtc >= metric.beginTimestampMicros)) {
-                                    List<ResourceMetrics> rawMetricResultSet = rawMetricsForKey
-                                            .get(metric.rollupKey);
-                                    if (rawMetricResultSet == null) {
-                                        rawMetricResultSet = new ArrayList<>();
-                                        rawMetricsForKey.put(metric.rollupKey, rawMetricResultSet);
-                                    }
-                                    rawMetricResultSet.add(rawMetric);
-                                }
+                        if (!ResourceMetricsBlockService.BLOCK_STORAGE_ENABLED) {
+                            addRawMetric(Utils.fromJson(obj, ResourceMetrics.class),
+                                    rollupMetricHolder, rawMetricsForKey);
+                            continue;
+                        }
+                        ResourceMetricsBlock block = Utils.fromJson(obj,
+                                ResourceMetricsBlock.class);
+                        for (ResourceMetrics rawMetric : ResourceMetricsBlockService
+                                .toResourceMetrics(block)) {
+                            // same value range as queried for document per data point metrics
+                            if (rawMetric.entries.get(block.metricName) >= 0.0) {
+                                addRawMetric(rawMetric, rollupMetricHolder, rawMetricsForKey);
                             }
                         }
                     }
@@ -779,6 +781,46 @@ public class SingleResourceStatsAggregationTaskService extends
                 });
     }
 
+    private Query buildRawMetricsBlockQuery(String resourceId, String metricKey, Long range,
+            int binSize) {
+        Query.Builder builder = Query.Builder.create(Occurance.SHOULD_OCCUR);
+        builder.addKindFieldClause(ResourceMetricsBlock.class);
+        builder.addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK,
+                UriUtils.buildUriPath(ResourceMetricsBlockService.FACTORY_LINK,
+                        ResourceMetricsBlockService.buildBlockLinkPrefix(resourceId)),
+                MatchType.PREFIX);
+        builder.addFieldClause(ResourceMetricsBlock.FIELD_NAME_METRIC_NAME, metricKey);
+        if (range != null && range != 0) {
+            builder.addRangeClause(ResourceMetricsBlock.FIELD_NAME_LAST_TIMESTAMP,
+                    NumericRange.createGreaterThanOrEqualRange(
+                            StatsUtil.computeIntervalBeginMicros(range - 1, binSize)));
+        }
+        return builder.build();
+    }
+
+    private void addRawMetric(ResourceMetrics rawMetric,
+            Set<RollupMetricHolder> rollupMetricHolder,
+            Map<String, List<ResourceMetrics>> rawMetricsForKey) {
+        for (RollupMetricHolder metric : rollupMetricHolder) {
+            for (String rawMetricKey : rawMetric.entries.keySet()) {
+                if (!rawMetricKey.contains(stripRollupKey(metric.rollupKey))) {
+                    continue;
+                }
+                // we want to consider raw metrics with the specified key and the appropriate timestamp
+                if ((metric.beginTimestampMicros == null ||
+                        rawMetric.timestampMicrosUtc >= metric.beginTimestampMicros)) {
+                    List<ResourceMetrics> rawMetricResultSet = rawMetricsForKey
+                            .get(metric.rollupKey);
+                    if (rawMetricResultSet == null) {
+                        rawMetricResultSet = new ArrayList<>();
+                        rawMetricsForKey.put(metric.rollupKey, rawMetricResultSet);
+                    }
+                    rawMetricResultSet.add(rawMetric);
+                }
+            }
+        }
+    }
+
     private void aggregateMetrics(SingleResourceStatsAggregationTaskState currentState,
             QueryTask resourceQueryTask, Map<String, List<ResourceMetrics>> rawMetricsForKey,
             Map<String, SortedMap<Long, List<TimeBin>>> inMemoryStats) {
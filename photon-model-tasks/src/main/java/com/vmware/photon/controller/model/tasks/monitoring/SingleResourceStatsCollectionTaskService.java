@@ -29,6 +29,8 @@ import com.vmware.photon.controller.model.adapterapi.ComputeStatsResponse.Comput
 import com.vmware.photon.controller.model.constants.PhotonModelConstants;
 import com.vmware.photon.controller.model.monitoring.InMemoryResourceMetricService;
 import com.vmware.photon.controller.model.monitoring.InMemoryResourceMetricService.InMemoryResourceMetric;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsBlockService;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsBlockService.ResourceMetricsBlock;
 import com.vmware.photon.controller.model.monitoring.ResourceMetricsService;
 import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.ResourceMetrics;
 import com.vmware.photon.controller.model.query.QueryUtils;
@@ -422,10 +424,21 @@ public class SingleResourceStatsCollectionTaskService
                 }
             }
         }
-        for (ResourceMetrics metrics : metricsList) {
-            operations.add(Operation.createPost(UriUtils.buildUri(
-                    ClusterUtil.getClusterUri(getHost(), ServiceTypeCluster.METRIC_SERVICE),
-                    ResourceMetricsService.FACTORY_LINK)).setBodyNoCloning(metrics));
+        if (ResourceMetricsBlockService.BLOCK_STORAGE_ENABLED) {
+            // Append the data points to the compressed per metric blocks instead of storing a
+            // document per data point.
+            for (ResourceMetricsBlock block : ResourceMetricsBlockService
+                    .fromResourceMetrics(metricsList)) {
+                operations.add(Operation.createPost(UriUtils.buildUri(
+                        ClusterUtil.getClusterUri(getHost(), ServiceTypeCluster.METRIC_SERVICE),
+                        ResourceMetricsBlockService.FACTORY_LINK)).setBodyNoCloning(block));
+            }
+        } else {
+            for (ResourceMetrics metrics : metricsList) {
+                operations.add(Operation.createPost(UriUtils.buildUri(
+                        ClusterUtil.getClusterUri(getHost(), ServiceTypeCluster.METRIC_SERVICE),
+                        ResourceMetricsService.FACTORY_LINK)).setBodyNoCloning(metrics));
+            }
         }
         if (currentState.publishInMemory) {
             for (InMemoryResourceMetric metric : inMemoryMetricsList) {
@@ -582,6 +595,11 @@ public class SingleResourceStatsCollectionTaskService
         String statsAdapterLink = getAdapterLinkFromURI(patchUri);
         String lastSuccessfulRunMetricKey = getLastCollectionMetricKeyForAdapterLink(
                 statsAdapterLink, false);
+        if (ResourceMetricsBlockService.BLOCK_STORAGE_ENABLED) {
+            populateLastCollectionTimeFromMetricsBlocks(currentState, computeStatsRequest,
+                    patchUri, tenantLinks, lastSuccessfulRunMetricKey);
+            return;
+        }
         Query.Builder builder = Query.Builder.create();
         builder.addKindFieldClause(ResourceMetrics.class);
         builder.addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK,
@@ -627,6 +645,55 @@ public class SingleResourceStatsCollectionTaskService
                 });
     }
 
+    /**
+     * Same as {@link #populateLastCollectionTimeFromPersistenceStore} for metrics persisted by
+     * {@link ResourceMetricsBlockService}: the last data point of the latest block of the last
+     * successful run metric is the last collection time.
+     */
+    private void populateLastCollectionTimeFromMetricsBlocks(
+            SingleResourceStatsCollectionTaskState currentState,
+            ComputeStatsRequest computeStatsRequest, URI patchUri, List<String> tenantLinks,
+            String lastSuccessfulRunMetricKey) {
+        Query query = Query.Builder.create()
+                .addKindFieldClause(ResourceMetricsBlock.class)
+                .addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK,
+                        UriUtils.buildUriPath(ResourceMetricsBlockService.FACTORY_LINK,
+                                ResourceMetricsBlockService
+                                        .buildBlockLinkPrefix(currentState.computeLink)),
+                        MatchType.PREFIX)
+                .addFieldClause(ResourceMetricsBlock.FIELD_NAME_METRIC_NAME,
+                        lastSuccessfulRunMetricKey)
+                .build();
+        QueryTask task = QueryTask.Builder.createDirectTask()
+                .addOption(QueryOption.SORT)
+                .orderDescending(ResourceMetricsBlock.FIELD_NAME_LAST_TIMESTAMP, TypeName.LONG)
+                .addOption(QueryOption.TOP_RESULTS)
+                .setResultLimit(1)
+                .addOption(QueryOption.EXPAND_CONTENT)
+                .setQuery(query).build();
+        task.tenantLinks = tenantLinks;
+        QueryUtils.startQueryTask(this, task, ServiceTypeCluster.METRIC_SERVICE)
+                .whenComplete((responseTask, e) -> {
+                    if (e != null) {
+                        logSevere(
+                                "Could not get the last collection time from persisted metrics: %s",
+                                Utils.toString(e));
+                        sendStatsRequestToAdapter(currentState,
+                                patchUri, computeStatsRequest);
+                        return;
+                    }
+                    if (responseTask.results.documentCount > 0) {
+                        Object blockObj = responseTask.results.documents
+                                .get(responseTask.results.documentLinks.get(0));
+                        ResourceMetricsBlock block = Utils.fromJson(blockObj,
+                                ResourceMetricsBlock.class);
+                        computeStatsRequest.lastCollectionTimeMicrosUtc =
+                                block.lastTimestampMicrosUtc;
+                    }
+                    sendStatsRequestToAdapter(currentState, patchUri, computeStatsRequest);
+                });
+    }
+
     /**
      * Sends the Stats request to the Stats adapter
      */
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.resources.IPAddressService.IPAddressState;
+import com.vmware.photon.controller.model.resources.IPAddressService.IPAddressState.IPAddressStatus;
+import com.vmware.photon.controller.model.resources.SubnetRangeService.SubnetRangeState;
+import com.vmware.photon.controller.model.support.IPVersion;
+import com.vmware.photon.controller.model.tasks.helpers.SubnetRangeAllocationIndex.Reservation;
+
+/**
+ * Unit test for {@link SubnetRangeAllocationIndex}
+ */
+public class SubnetRangeAllocationIndexTest {
+
+    private static final String SUBNET_RANGE_LINK = "/resources/subnet-ranges/range-1";
+
+    @Test
+    public void testReserveInOrderUntilExhausted() {
+        SubnetRangeAllocationIndex index = createIndex("12.12.12.2", "12.12.12.4", IPVersion.IPv4);
+        assertEquals(3, index.getAvailableCount());
+
+        assertEquals("12.12.12.2", index.reserve().ipAddress);
+        assertEquals("12.12.12.3", index.reserve().ipAddress);
+        assertEquals("12.12.12.4", index.reserve().ipAddress);
+
+        assertEquals(0, index.getAvailableCount());
+        assertNull(index.reserve());
+    }
+
+    @Test
+    public void testExistingAvailableAddressesArePreferred() {
+        SubnetRangeAllocationIndex index = createIndex("12.12.12.2", "12.12.12.6", IPVersion.IPv4);
+        index.update(createIpAddressState("12.12.12.2", IPAddressStatus.ALLOCATED));
+        index.update(createIpAddressState("12.12.12.3", IPAddressStatus.RELEASED));
+        index.update(createIpAddressState("12.12.12.5", IPAddressStatus.AVAILABLE));
+        assertEquals(3, index.getAvailableCount());
+
+        Reservation reservation = index.reserve();
+        assertEquals("12.12.12.5", reservation.ipAddress);
+        assertEquals(SUBNET_RANGE_LINK + "_12.12.12.5", reservation.ipAddressLink);
+
+        reservation = index.reserve();
+        assertEquals("12.12.12.4", reservation.ipAddress);
+        assertNull(reservation.ipAddressLink);
+
+        assertEquals("12.12.12.6", index.reserve().ipAddress);
+        assertNull(index.reserve());
+    }
+
+    @Test
+    public void testMarkUsedAndReusable() {
+        SubnetRangeAllocationIndex index = createIndex("10.0.0.1", "10.0.0.2", IPVersion.IPv4);
+        index.markUsed("10.0.0.1");
+        assertTrue(index.isUsed("10.0.0.1"));
+        assertEquals(1, index.getAvailableCount());
+
+        // Marking an address twice does not change the count.
+        index.markUsed("10.0.0.1");
+        assertEquals(1, index.getAvailableCount());
+
+        // Addresses outside of the range are ignored.
+        index.markUsed("10.0.0.3");
+        assertEquals(1, index.getAvailableCount());
+
+        index.markReusable("10.0.0.1", "/resources/ip-addresses/ip-1");
+        assertFalse(index.isUsed("10.0.0.1"));
+        assertEquals(2, index.getAvailableCount());
+        assertEquals("/resources/ip-addresses/ip-1", index.reserve().ipAddressLink);
+    }
+
+    @Test
+    public void testReleaseReservation() {
+        SubnetRangeAllocationIndex index = createIndex("10.0.0.1", "10.0.0.3", IPVersion.IPv4);
+        index.update(createIpAddressState("10.0.0.3", IPAddressStatus.AVAILABLE));
+
+        Reservation existing = index.reserve();
+        Reservation first = index.reserve();
+        Reservation second = index.reserve();
+        assertEquals("10.0.0.3", existing.ipAddress);
+        assertEquals("10.0.0.1", first.ipAddress);
+        assertEquals("10.0.0.2", second.ipAddress);
+        assertNull(index.reserve());
+
+        // Released addresses are reserved again, with their existing document.
+        index.release(first);
+        index.release(existing);
+        assertEquals(2, index.getAvailableCount());
+        assertEquals(existing.ipAddressLink, index.reserve().ipAddressLink);
+        assertEquals("10.0.0.1", index.reserve().ipAddress);
+        assertNull(index.reserve());
+    }
+
+    @Test
+    public void testIPv6Range() {
+        SubnetRangeAllocationIndex index = createIndex("fc00:10:118:136:fcd8:d68d:9701:8975",
+                "fc00:10:118:136:fcd8:d68d:9701:8977", IPVersion.IPv6);
+        assertEquals(3, index.getAvailableCount());
+
+        index.markUsed("fc00:10:118:136:fcd8:d68d:9701:8975");
+        assertEquals("fc00:10:118:136:fcd8:d68d:9701:8976", index.reserve().ipAddress);
+        assertEquals("fc00:10:118:136:fcd8:d68d:9701:8977", index.reserve().ipAddress);
+        assertNull(index.reserve());
+    }
+
+    @Test
+    public void testLargeIPv6RangeIsBounded() {
+        SubnetRangeAllocationIndex index = createIndex("fc00::", "fc00::ffff:ffff:ffff",
+                IPVersion.IPv6);
+        assertEquals(SubnetRangeAllocationIndex.MAX_INDEXED_ADDRESSES, index.getAvailableCount());
+        assertEquals("fc00:0:0:0:0:0:0:0", index.reserve().ipAddress);
+    }
+
+    private static SubnetRangeAllocationIndex createIndex(String startIPAddress,
+            String endIPAddress, IPVersion ipVersion) {
+        SubnetRangeState subnetRangeState = new SubnetRangeState();
+        subnetRangeState.documentSelfLink = SUBNET_RANGE_LINK;
+        subnetRangeState.startIPAddress = startIPAddress;
+        subnetRangeState.endIPAddress = endIPAddress;
+        subnetRangeState.ipVersion = ipVersion;
+        return new SubnetRangeAllocationIndex(subnetRangeState);
+    }
+
+    private static IPAddressState createIpAddressState(String ipAddress,
+            IPAddressStatus ipAddressStatus) {
+        IPAddressState ipAddressState = new IPAddressState();
+        ipAddressState.ipAddress = ipAddress;
+        ipAddressState.ipAddressStatus = ipAddressStatus;
+        ipAddressState.subnetRangeLink = SUBNET_RANGE_LINK;
+        ipAddressState.documentSelfLink = SUBNET_RANGE_LINK + "_" + ipAddress;
+        return ipAddressState;
+    }
+}
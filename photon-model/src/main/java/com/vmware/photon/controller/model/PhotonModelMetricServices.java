@@ -17,6 +17,7 @@ import static com.vmware.photon.controller.model.util.StartServicesHelper.Servic
 
 import java.util.List;
 
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsBlockService;
 import com.vmware.photon.controller.model.monitoring.ResourceMetricsService;
 import com.vmware.photon.controller.model.resources.util.PhotonModelUtils;
 import com.vmware.photon.controller.model.util.StartServicesHelper;
@@ -34,7 +35,9 @@ import com.vmware.xenon.common.UriUtils;
 public class PhotonModelMetricServices {
 
     public static final ServiceMetadata[] SERVICES_METADATA = {
-            factoryService(ResourceMetricsService.class, ResourceMetricsService::createFactory)
+            factoryService(ResourceMetricsService.class, ResourceMetricsService::createFactory),
+            factoryService(ResourceMetricsBlockService.class,
+                    ResourceMetricsBlockService::createFactory)
     };
 
     public static final String[] LINKS = StartServicesHelper.getServiceLinks(SERVICES_METADATA);
@@ -43,6 +46,7 @@ public class PhotonModelMetricServices {
         DeferredResult<List<Operation>> dr = StartServicesHelper.startServices(host,
                 SERVICES_METADATA);
         setFactoryToAvailable(host, ResourceMetricsService.FACTORY_LINK);
+        setFactoryToAvailable(host, ResourceMetricsBlockService.FACTORY_LINK);
         return dr;
     }
 
@@ -14,6 +14,7 @@
 package com.vmware.photon.controller.model;
 
 import static com.vmware.photon.controller.model.util.StartServicesHelper.ServiceMetadata.factoryService;
+import static com.vmware.photon.controller.model.util.StartServicesHelper.ServiceMetadata.service;
 
 import java.util.List;
 
@@ -43,6 +44,7 @@ import com.vmware.photon.controller.model.resources.StorageDescriptionService;
 import com.vmware.photon.controller.model.resources.SubnetRangeService;
 import com.vmware.photon.controller.model.resources.SubnetService;
 import com.vmware.photon.controller.model.resources.TagFactoryService;
+import com.vmware.photon.controller.model.resources.TagInfoCacheService;
 import com.vmware.photon.controller.model.resources.TagService;
 import com.vmware.photon.controller.model.resources.util.PhotonModelUtils;
 import com.vmware.photon.controller.model.util.StartServicesHelper;
@@ -77,6 +79,8 @@ public class PhotonModelServices {
             factoryService(EndpointService.class),
             factoryService(ImageService.class),
             factoryService(TagService.class, TagFactoryService::new),
+            service(TagInfoCacheService.class)
+                    .requirePrivileged(true),
             factoryService(LoadBalancerDescriptionService.class),
             factoryService(LoadBalancerService.class),
             factoryService(RouterService.class),
@@ -43,4 +43,5 @@ public class ReleaseConstants {
     public static final int RELEASE_VERSION_0_6_49 = 649;
     public static final int RELEASE_VERSION_0_6_50 = 650;
     public static final int RELEASE_VERSION_0_6_51 = 651;
+    public static final int RELEASE_VERSION_0_6_61 = 661;
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map.Entry;
+import java.util.function.DoubleBinaryOperator;
+
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.AggregationType;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.TimeBin;
+
+/**
+ * Compact form of {@link TimeSeriesStats}, which keeps the bins in primitive arrays sorted by bin
+ * id instead of a map of {@link TimeBin} objects with boxed values.
+ *
+ * <p>Bins are merged with {@link #merge(TimeSeriesStats)} in time proportional to the number of
+ * bins, combining count, average, minimum, maximum, sum and latest value of bins with the same
+ * id. As with {@link TimeSeriesStats}, only the newest {@link #numBins} bins are kept.
+ *
+ * <p>Only the values of the enabled aggregation types are kept, the arrays of the other ones are
+ * {@code null}.
+ */
+public class CompactTimeSeriesStats {
+
+    public int numBins;
+    public long binDurationMillis;
+    public EnumSet<AggregationType> aggregationType;
+
+    /**
+     * Number of bins in use, at the start of the arrays.
+     */
+    public int size;
+    public long[] binIds;
+    public double[] counts;
+    public double[] avgs;
+    public double[] mins;
+    public double[] maxs;
+    public double[] sums;
+    public double[] latests;
+
+    public CompactTimeSeriesStats() {
+    }
+
+    public CompactTimeSeriesStats(int numBins, long binDurationMillis,
+            EnumSet<AggregationType> aggregationType) {
+        this.numBins = numBins;
+        this.binDurationMillis = binDurationMillis;
+        this.aggregationType = aggregationType;
+        this.binIds = new long[numBins];
+        this.counts = new double[numBins];
+        this.avgs = allocate(AggregationType.AVG);
+        this.mins = allocate(AggregationType.MIN);
+        this.maxs = allocate(AggregationType.MAX);
+        this.sums = allocate(AggregationType.SUM);
+        this.latests = allocate(AggregationType.LATEST);
+    }
+
+    private double[] allocate(AggregationType type) {
+        return this.aggregationType != null && this.aggregationType.contains(type)
+                ? new double[this.numBins] : null;
+    }
+
+    /**
+     * Creates the compact form of the given stats.
+     */
+    public static CompactTimeSeriesStats fromTimeSeriesStats(TimeSeriesStats stats) {
+        CompactTimeSeriesStats compact = new CompactTimeSeriesStats(stats.numBins,
+                stats.binDurationMillis, stats.aggregationType);
+        compact.merge(stats);
+        return compact;
+    }
+
+    /**
+     * Expands these stats to a {@link TimeSeriesStats}.
+     */
+    public TimeSeriesStats toTimeSeriesStats() {
+        TimeSeriesStats stats = new TimeSeriesStats(this.numBins, this.binDurationMillis,
+                this.aggregationType);
+        for (int i = 0; i < this.size; i++) {
+            TimeBin bin = new TimeBin();
+            bin.count = this.counts[i];
+            bin.avg = toValue(this.avgs, i);
+            bin.min = toValue(this.mins, i);
+            bin.max = toValue(this.maxs, i);
+            bin.sum = toValue(this.sums, i);
+            bin.latest = toValue(this.latests, i);
+            stats.bins.put(this.binIds[i], bin);
+        }
+        return stats;
+    }
+
+    /**
+     * Merges the bins of the given stats into these stats.
+     */
+    public void merge(TimeSeriesStats stats) {
+        for (Entry<Long, TimeBin> bin : stats.bins.entrySet()) {
+            TimeBin value = bin.getValue();
+            mergeBin(bin.getKey(), value.count, toDouble(value.avg), toDouble(value.min),
+                    toDouble(value.max), toDouble(value.sum), toDouble(value.latest));
+        }
+    }
+
+    /**
+     * Merges the bins of the given stats into these stats.
+     */
+    public void merge(CompactTimeSeriesStats stats) {
+        for (int i = 0; i < stats.size; i++) {
+            mergeBin(stats.binIds[i], stats.counts[i], valueAt(stats.avgs, i),
+                    valueAt(stats.mins, i), valueAt(stats.maxs, i), valueAt(stats.sums, i),
+                    valueAt(stats.latests, i));
+        }
+    }
+
+    private void mergeBin(long binId, double count, double avg, double min, double max,
+            double sum, double latest) {
+        int i = Arrays.binarySearch(this.binIds, 0, this.size, binId);
+        if (i >= 0) {
+            double total = this.counts[i] + count;
+            if (this.avgs != null) {
+                if (Double.isNaN(this.avgs[i])) {
+                    this.avgs[i] = avg;
+                } else if (!Double.isNaN(avg) && total > 0) {
+                    this.avgs[i] = (this.avgs[i] * this.counts[i] + avg * count) / total;
+                }
+            }
+            this.counts[i] = total;
+            combine(this.mins, i, min, Math::min);
+            combine(this.maxs, i, max, Math::max);
+            combine(this.sums, i, sum, Double::sum);
+            // the merged bin is the more recent one
+            combine(this.latests, i, latest, (current, value) -> value);
+            return;
+        }
+
+        int insertAt = -(i + 1);
+        if (this.size == this.numBins) {
+            if (insertAt == 0) {
+                // older than all the kept bins
+                return;
+            }
+            // drop the oldest bin
+            shift(1, 0, insertAt - 1);
+            insertAt--;
+        } else {
+            shift(insertAt, insertAt + 1, this.size - insertAt);
+            this.size++;
+        }
+        this.binIds[insertAt] = binId;
+        this.counts[insertAt] = count;
+        setValue(this.avgs, insertAt, avg);
+        setValue(this.mins, insertAt, min);
+        setValue(this.maxs, insertAt, max);
+        setValue(this.sums, insertAt, sum);
+        setValue(this.latests, insertAt, latest);
+    }
+
+    private void shift(int from, int to, int length) {
+        System.arraycopy(this.binIds, from, this.binIds, to, length);
+        System.arraycopy(this.counts, from, this.counts, to, length);
+        shift(this.avgs, from, to, length);
+        shift(this.mins, from, to, length);
+        shift(this.maxs, from, to, length);
+        shift(this.sums, from, to, length);
+        shift(this.latests, from, to, length);
+    }
+
+    private static void shift(double[] values, int from, int to, int length) {
+        if (values != null) {
+            System.arraycopy(values, from, values, to, length);
+        }
+    }
+
+    /**
+     * Combines the value at the given index with the given value. A missing value, stored as
+     * {@link Double#NaN}, is replaced.
+     */
+    private static void combine(double[] values, int i, double value,
+            DoubleBinaryOperator operator) {
+        if (values == null || Double.isNaN(value)) {
+            return;
+        }
+        values[i] = Double.isNaN(values[i]) ? value : operator.applyAsDouble(values[i], value);
+    }
+
+    private static void setValue(double[] values, int i, double value) {
+        if (values != null) {
+            values[i] = value;
+        }
+    }
+
+    private static double valueAt(double[] values, int i) {
+        return values != null ? values[i] : Double.NaN;
+    }
+
+    private static double toDouble(Double value) {
+        return value != null ? value : Double.NaN;
+    }
+
+    private static Double toValue(double[] values, int i) {
+        return values == null || Double.isNaN(values[i]) ? null : values[i];
+    }
+}
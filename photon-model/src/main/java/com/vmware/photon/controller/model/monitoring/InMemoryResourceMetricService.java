@@ -13,21 +13,23 @@
 
 package com.vmware.photon.controller.model.monitoring;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.TimeUnit;
 
 import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.xenon.common.FactoryService;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceStats.TimeSeriesStats;
-import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.TimeBin;
 import com.vmware.xenon.common.StatefulService;
 
 /**
  * In-memory stateful service used to hold timeseries data for a resource
  * grouped by a specified time windows
+ *
+ * The time series are kept as {@link CompactTimeSeriesStats} and expanded to
+ * {@link TimeSeriesStats} when the state is retrieved.
  */
 public class InMemoryResourceMetricService extends StatefulService {
 
@@ -49,35 +51,86 @@ public class InMemoryResourceMetricService extends StatefulService {
          * Map of metric key to the time series stats
          */
         public Map <String, TimeSeriesStats> timeSeriesStats;
+
+        /**
+         * Map of metric key to the time series stats, as kept by the service. Set instead of
+         * {@link #timeSeriesStats} in the service state.
+         */
+        public Map<String, CompactTimeSeriesStats> compactTimeSeriesStats;
+    }
+
+    @Override
+    public void handleStart(Operation start) {
+        if (!start.hasBody()) {
+            start.complete();
+            return;
+        }
+        InMemoryResourceMetric state = getBody(start);
+        compact(state, state);
+        start.setBody(state).complete();
     }
 
     @Override
     public void handlePut(Operation put) {
         if (!put.hasBody()) {
             put.fail(new IllegalArgumentException("body is required"));
+            return;
         }
 
         try {
             InMemoryResourceMetric currentState = getState(put);
             InMemoryResourceMetric updatedState = getBody(put);
-            // merge the state
-            for (Entry<String, TimeSeriesStats> tsStats : updatedState.timeSeriesStats.entrySet()) {
-                TimeSeriesStats currentStats = currentState.timeSeriesStats.get(tsStats.getKey());
+            // merge the bins of the update into the state
+            compact(updatedState, currentState);
+            setState(put, currentState);
+            put.setBody(expand(currentState)).complete();
+        } catch (Throwable t) {
+            put.fail(t);
+        }
+    }
+
+    @Override
+    public void handleGet(Operation get) {
+        get.setBody(expand(getState(get))).complete();
+    }
+
+    /**
+     * Merges the time series of {@code source} into the compact time series of {@code target}.
+     */
+    private static void compact(InMemoryResourceMetric source, InMemoryResourceMetric target) {
+        if (target.compactTimeSeriesStats == null) {
+            target.compactTimeSeriesStats = new HashMap<>();
+        }
+        if (source.timeSeriesStats != null) {
+            for (Entry<String, TimeSeriesStats> tsStats : source.timeSeriesStats.entrySet()) {
+                CompactTimeSeriesStats currentStats = target.compactTimeSeriesStats
+                        .get(tsStats.getKey());
                 if (currentStats == null) {
-                    currentState.timeSeriesStats.put(tsStats.getKey(), tsStats.getValue());
+                    target.compactTimeSeriesStats.put(tsStats.getKey(),
+                            CompactTimeSeriesStats.fromTimeSeriesStats(tsStats.getValue()));
                 } else {
-                    for (Entry<Long, TimeBin> bin : tsStats.getValue().bins.entrySet()) {
-                        for (int i = 0; i < bin.getValue().count; i++) {
-                            currentStats.add(TimeUnit.MILLISECONDS.toMicros(bin.getKey()), bin.getValue().avg, bin.getValue().avg);
-                        }
-                    }
+                    currentStats.merge(tsStats.getValue());
                 }
             }
-            setState(put, currentState);
-            put.setBody(currentState).complete();
-        } catch (Throwable t) {
-            put.fail(t);
         }
+        target.timeSeriesStats = null;
+    }
+
+    /**
+     * Returns a copy of the given state with the time series expanded.
+     */
+    private static InMemoryResourceMetric expand(InMemoryResourceMetric state) {
+        InMemoryResourceMetric expanded = new InMemoryResourceMetric();
+        state.copyTo(expanded);
+        expanded.timeSeriesStats = new HashMap<>();
+        if (state.compactTimeSeriesStats != null) {
+            for (Entry<String, CompactTimeSeriesStats> tsStats : state.compactTimeSeriesStats
+                    .entrySet()) {
+                expanded.timeSeriesStats.put(tsStats.getKey(),
+                        tsStats.getValue().toTimeSeriesStats());
+            }
+        }
+        return expanded;
     }
 
     @Override
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import java.util.Arrays;
+
+/**
+ * Compact encoding of a series of (timestamp, value) data points of a single metric.
+ *
+ * <p>Timestamps are stored as delta-of-deltas and values as the XOR against the previous value,
+ * both written with variable bit lengths. Metrics collected at a regular interval with slowly
+ * changing values compress to a few bits per data point.
+ *
+ * <p>Layout: point count (32 bits), first timestamp (64 bits), first value (64 bits), followed by
+ * one timestamp and one value record per remaining data point.
+ */
+public final class MetricsBlockCodec {
+
+    private MetricsBlockCodec() {
+    }
+
+    /**
+     * Decoded data points, sorted by timestamp.
+     */
+    public static class DataPoints {
+        public final long[] timestamps;
+        public final double[] values;
+
+        public DataPoints(long[] timestamps, double[] values) {
+            if (timestamps.length != values.length) {
+                throw new IllegalArgumentException("timestamps and values differ in length");
+            }
+            this.timestamps = timestamps;
+            this.values = values;
+        }
+
+        public int size() {
+            return this.timestamps.length;
+        }
+    }
+
+    /**
+     * Encodes the given data points. Timestamps must be in ascending order.
+     */
+    public static byte[] encode(DataPoints points) {
+        BitWriter writer = new BitWriter(16 + points.size() * 2);
+        writer.writeBits(points.size(), 32);
+        if (points.size() == 0) {
+            return writer.toByteArray();
+        }
+
+        long prevTimestamp = points.timestamps[0];
+        long prevDelta = 0;
+        long prevValue = Double.doubleToRawLongBits(points.values[0]);
+        int prevLeading = Integer.MAX_VALUE;
+        int prevTrailing = 0;
+        writer.writeBits(prevTimestamp, 64);
+        writer.writeBits(prevValue, 64);
+
+        for (int i = 1; i < points.size(); i++) {
+            long timestamp = points.timestamps[i];
+            if (timestamp < prevTimestamp) {
+                throw new IllegalArgumentException("timestamps are not in ascending order");
+            }
+            long delta = timestamp - prevTimestamp;
+            writeDeltaOfDelta(writer, delta - prevDelta);
+            prevTimestamp = timestamp;
+            prevDelta = delta;
+
+            long value = Double.doubleToRawLongBits(points.values[i]);
+            long xor = value ^ prevValue;
+            prevValue = value;
+            if (xor == 0) {
+                writer.writeBit(false);
+                continue;
+            }
+            writer.writeBit(true);
+            int leading = Long.numberOfLeadingZeros(xor);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (leading >= prevLeading && trailing >= prevTrailing) {
+                // the meaningful bits fit into the window of the previous value
+                writer.writeBit(false);
+                writer.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+            } else {
+                writer.writeBit(true);
+                int meaningful = 64 - leading - trailing;
+                writer.writeBits(leading, 6);
+                writer.writeBits(meaningful - 1, 6);
+                writer.writeBits(xor >>> trailing, meaningful);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decodes data points previously encoded with {@link #encode(DataPoints)}.
+     */
+    public static DataPoints decode(byte[] data) {
+        BitReader reader = new BitReader(data);
+        int count = (int) reader.readBits(32);
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        if (count == 0) {
+            return new DataPoints(timestamps, values);
+        }
+
+        long prevTimestamp = reader.readBits(64);
+        long prevDelta = 0;
+        long prevValue = reader.readBits(64);
+        int prevLeading = 0;
+        int prevTrailing = 0;
+        timestamps[0] = prevTimestamp;
+        values[0] = Double.longBitsToDouble(prevValue);
+
+        for (int i = 1; i < count; i++) {
+            long delta = prevDelta + readDeltaOfDelta(reader);
+            prevTimestamp += delta;
+            prevDelta = delta;
+            timestamps[i] = prevTimestamp;
+
+            if (reader.readBit()) {
+                if (reader.readBit()) {
+                    prevLeading = (int) reader.readBits(6);
+                    int meaningful = (int) reader.readBits(6) + 1;
+                    prevTrailing = 64 - prevLeading - meaningful;
+                }
+                long xor = reader.readBits(64 - prevLeading - prevTrailing) << prevTrailing;
+                prevValue ^= xor;
+            }
+            values[i] = Double.longBitsToDouble(prevValue);
+        }
+        return new DataPoints(timestamps, values);
+    }
+
+    /**
+     * Merges two sets of data points. On equal timestamps the value from {@code newer} wins.
+     */
+    public static DataPoints merge(DataPoints existing, DataPoints newer) {
+        long[] timestamps = new long[existing.size() + newer.size()];
+        double[] values = new double[timestamps.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < existing.size() || j < newer.size()) {
+            if (j == newer.size() || (i < existing.size()
+                    && existing.timestamps[i] < newer.timestamps[j])) {
+                timestamps[k] = existing.timestamps[i];
+                values[k++] = existing.values[i++];
+            } else {
+                if (i < existing.size() && existing.timestamps[i] == newer.timestamps[j]) {
+                    i++;
+                }
+                timestamps[k] = newer.timestamps[j];
+                values[k++] = newer.values[j++];
+            }
+        }
+        if (k == timestamps.length) {
+            return new DataPoints(timestamps, values);
+        }
+        return new DataPoints(Arrays.copyOf(timestamps, k), Arrays.copyOf(values, k));
+    }
+
+    private static void writeDeltaOfDelta(BitWriter writer, long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            writer.writeBit(false);
+        } else if (deltaOfDelta >= -64 && deltaOfDelta <= 63) {
+            writer.writeBits(0b10, 2);
+            writer.writeBits(deltaOfDelta, 7);
+        } else if (deltaOfDelta >= -256 && deltaOfDelta <= 255) {
+            writer.writeBits(0b110, 3);
+            writer.writeBits(deltaOfDelta, 9);
+        } else if (deltaOfDelta >= -2048 && deltaOfDelta <= 2047) {
+            writer.writeBits(0b1110, 4);
+            writer.writeBits(deltaOfDelta, 12);
+        } else if (deltaOfDelta >= Integer.MIN_VALUE && deltaOfDelta <= Integer.MAX_VALUE) {
+            writer.writeBits(0b11110, 5);
+            writer.writeBits(deltaOfDelta, 32);
+        } else {
+            writer.writeBits(0b11111, 5);
+            writer.writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader reader) {
+        if (!reader.readBit()) {
+            return 0;
+        }
+        if (!reader.readBit()) {
+            return reader.readSignedBits(7);
+        }
+        if (!reader.readBit()) {
+            return reader.readSignedBits(9);
+        }
+        if (!reader.readBit()) {
+            return reader.readSignedBits(12);
+        }
+        if (!reader.readBit()) {
+            return reader.readSignedBits(32);
+        }
+        return reader.readBits(64);
+    }
+
+    private static class BitWriter {
+        private byte[] buffer;
+        private int bitPosition;
+
+        BitWriter(int initialCapacity) {
+            this.buffer = new byte[Math.max(initialCapacity, 16)];
+        }
+
+        void writeBit(boolean bit) {
+            ensureCapacity(1);
+            if (bit) {
+                this.buffer[this.bitPosition >>> 3] |= 0x80 >>> (this.bitPosition & 7);
+            }
+            this.bitPosition++;
+        }
+
+        /**
+         * Writes the lowest {@code count} bits of {@code value}, most significant bit first.
+         */
+        void writeBits(long value, int count) {
+            ensureCapacity(count);
+            while (count > 0) {
+                int bitOffset = this.bitPosition & 7;
+                int chunk = Math.min(8 - bitOffset, count);
+                int bits = (int) (value >>> (count - chunk)) & ((1 << chunk) - 1);
+                this.buffer[this.bitPosition >>> 3] |= bits << (8 - bitOffset - chunk);
+                this.bitPosition += chunk;
+                count -= chunk;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(this.buffer, (this.bitPosition + 7) >>> 3);
+        }
+
+        private void ensureCapacity(int bits) {
+            int requiredBytes = (this.bitPosition + bits + 7) >>> 3;
+            if (requiredBytes > this.buffer.length) {
+                this.buffer = Arrays.copyOf(this.buffer,
+                        Math.max(requiredBytes, this.buffer.length * 2));
+            }
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] buffer;
+        private int bitPosition;
+
+        BitReader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        boolean readBit() {
+            checkAvailable(1);
+            boolean bit = (this.buffer[this.bitPosition >>> 3]
+                    & (0x80 >>> (this.bitPosition & 7))) != 0;
+            this.bitPosition++;
+            return bit;
+        }
+
+        long readBits(int count) {
+            checkAvailable(count);
+            long value = 0;
+            while (count > 0) {
+                int bitOffset = this.bitPosition & 7;
+                int chunk = Math.min(8 - bitOffset, count);
+                int bits = (this.buffer[this.bitPosition >>> 3] >>> (8 - bitOffset - chunk))
+                        & ((1 << chunk) - 1);
+                value = (value << chunk) | bits;
+                this.bitPosition += chunk;
+                count -= chunk;
+            }
+            return value;
+        }
+
+        long readSignedBits(int count) {
+            long value = readBits(count);
+            // sign extend
+            return (value << (64 - count)) >> (64 - count);
+        }
+
+        private void checkAvailable(int bits) {
+            if (this.bitPosition + bits > this.buffer.length * 8) {
+                throw new IllegalArgumentException("truncated metrics block");
+            }
+        }
+    }
+}
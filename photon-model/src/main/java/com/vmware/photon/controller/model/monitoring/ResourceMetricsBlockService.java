@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.photon.controller.model.ServiceUtils;
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.monitoring.MetricsBlockCodec.DataPoints;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.ResourceMetrics;
+import com.vmware.xenon.common.FactoryService;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption;
+import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
+import com.vmware.xenon.common.StatefulService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QueryTerm.MatchType;
+
+/**
+ * Persistent store of raw metrics in compressed blocks.
+ *
+ * <p>Each {@link ResourceMetricsBlock} holds the data points of a single metric of a single
+ * resource for a fixed time window, encoded with {@link MetricsBlockCodec}. Block links are
+ * derived from the resource, the metric and the window start, so data points are appended by
+ * POSTing a block with the new points to the factory: the idempotent POST is converted to a PUT
+ * that merges them into the existing block.
+ *
+ * <p>Blocks are produced from and expanded back to {@link ResourceMetrics}, so callers keep
+ * working with the {@link ResourceMetricsService} model while the number of stored documents
+ * drops from one per data point to one per metric and time window.
+ *
+ * <p>When {@link #BLOCK_STORAGE_ENABLED} is set, raw metrics are no longer stored as
+ * {@link ResourceMetrics} documents, so every reader of raw metrics has to query blocks instead,
+ * with {@link #createBlocksQueryBuilder(String)} and {@link #toResourceMetrics(Collection)}.
+ */
+public class ResourceMetricsBlockService extends StatefulService {
+
+    public static final String FACTORY_LINK = UriPaths.MONITORING + "/resource-metrics-blocks";
+
+    public static final String PROPERTY_NAME_BLOCK_STORAGE_ENABLED = UriPaths.PROPERTY_PREFIX
+            + "ResourceMetricsBlockService.enabled";
+    public static final boolean BLOCK_STORAGE_ENABLED = Boolean
+            .getBoolean(PROPERTY_NAME_BLOCK_STORAGE_ENABLED);
+
+    public static final String PROPERTY_NAME_BLOCK_DURATION_MINUTES = UriPaths.PROPERTY_PREFIX
+            + "ResourceMetricsBlockService.blockDurationMinutes";
+    public static final long BLOCK_DURATION_MICROS = TimeUnit.MINUTES.toMicros(Long.getLong(
+            PROPERTY_NAME_BLOCK_DURATION_MINUTES, TimeUnit.HOURS.toMinutes(1)));
+
+    private static final String SEPARATOR = "_";
+
+    public static FactoryService createFactory() {
+        return FactoryService.createIdempotent(ResourceMetricsBlockService.class);
+    }
+
+    public ResourceMetricsBlockService() {
+        super(ResourceMetricsBlock.class);
+        super.toggleOption(ServiceOption.PERSISTENCE, true);
+        super.toggleOption(ServiceOption.ON_DEMAND_LOAD, true);
+        super.toggleOption(ServiceOption.REPLICATION, true);
+        super.toggleOption(ServiceOption.OWNER_SELECTION, true);
+        super.toggleOption(ServiceOption.IDEMPOTENT_POST, true);
+    }
+
+    public static class ResourceMetricsBlock extends ServiceDocument {
+        public static final String FIELD_NAME_RESOURCE_LINK = "resourceLink";
+        public static final String FIELD_NAME_METRIC_NAME = "metricName";
+        public static final String FIELD_NAME_FIRST_TIMESTAMP = "firstTimestampMicrosUtc";
+        public static final String FIELD_NAME_LAST_TIMESTAMP = "lastTimestampMicrosUtc";
+
+        @Documentation(description = "Link of the resource the metric belongs to")
+        @UsageOption(option = PropertyUsageOption.REQUIRED)
+        public String resourceLink;
+
+        @Documentation(description = "Name of the metric")
+        @UsageOption(option = PropertyUsageOption.REQUIRED)
+        public String metricName;
+
+        @Documentation(description = "Start of the time window covered by this block")
+        @UsageOption(option = PropertyUsageOption.REQUIRED)
+        public Long blockStartMicrosUtc;
+
+        @Documentation(description = "Timestamp of the first data point in this block")
+        @PropertyOptions(indexing = PropertyIndexingOption.SORT)
+        public Long firstTimestampMicrosUtc;
+
+        @Documentation(description = "Timestamp of the last data point in this block")
+        @PropertyOptions(indexing = PropertyIndexingOption.SORT)
+        public Long lastTimestampMicrosUtc;
+
+        @Documentation(description = "Number of data points in this block")
+        public Integer pointCount;
+
+        @Documentation(description = "Base64 encoded data points, see MetricsBlockCodec")
+        @UsageOption(option = PropertyUsageOption.REQUIRED)
+        @PropertyOptions(indexing = PropertyIndexingOption.STORE_ONLY)
+        public String encodedPoints;
+
+        @PropertyOptions(indexing = {
+                PropertyIndexingOption.CASE_INSENSITIVE,
+                PropertyIndexingOption.EXPAND,
+                PropertyIndexingOption.FIXED_ITEM_NAME })
+        public Map<String, String> customProperties;
+    }
+
+    @Override
+    public void handleStart(Operation start) {
+        try {
+            ResourceMetricsBlock state = processInput(start);
+            setDataPoints(state, getDataPoints(state));
+            start.setBody(state).complete();
+        } catch (Throwable t) {
+            start.fail(t);
+        }
+    }
+
+    @Override
+    public void handlePut(Operation put) {
+        if (!put.hasPragmaDirective(Operation.PRAGMA_DIRECTIVE_POST_TO_PUT)) {
+            // blocks are only appended to through the factory
+            put.fail(Operation.STATUS_CODE_BAD_METHOD);
+            return;
+        }
+
+        try {
+            ResourceMetricsBlock currentState = getState(put);
+            ResourceMetricsBlock newState = processInput(put);
+
+            setDataPoints(currentState, MetricsBlockCodec.merge(getDataPoints(currentState),
+                    getDataPoints(newState)));
+            if (newState.customProperties != null) {
+                if (currentState.customProperties == null) {
+                    currentState.customProperties = new HashMap<>();
+                }
+                currentState.customProperties.putAll(newState.customProperties);
+            }
+            currentState.documentExpirationTimeMicros = Math.max(
+                    currentState.documentExpirationTimeMicros,
+                    newState.documentExpirationTimeMicros);
+            setState(put, currentState);
+            put.setBody(currentState).complete();
+        } catch (Throwable t) {
+            put.fail(t);
+        }
+    }
+
+    @Override
+    public ServiceDocument getDocumentTemplate() {
+        ServiceDocument template = super.getDocumentTemplate();
+        ServiceUtils.setRetentionLimit(template);
+        return template;
+    }
+
+    private ResourceMetricsBlock processInput(Operation op) {
+        if (!op.hasBody()) {
+            throw (new IllegalArgumentException("body is required"));
+        }
+        ResourceMetricsBlock state = op.getBody(ResourceMetricsBlock.class);
+        Utils.validateState(getStateDescription(), state);
+        return state;
+    }
+
+    /**
+     * Returns the link of the block holding the data point of the given resource and metric at
+     * the given time.
+     */
+    public static String buildBlockLink(String resourceLink, String metricName,
+            long timestampMicrosUtc) {
+        return UriUtils.buildUriPath(FACTORY_LINK,
+                buildBlockLinkPrefix(resourceLink) + Utils.computeHash(metricName)
+                        + SEPARATOR + computeBlockStartMicros(timestampMicrosUtc));
+    }
+
+    /**
+     * Returns the self link prefix shared by all blocks of the given resource.
+     */
+    public static String buildBlockLinkPrefix(String resourceLink) {
+        return UriUtils.getLastPathSegment(resourceLink) + SEPARATOR;
+    }
+
+    public static long computeBlockStartMicros(long timestampMicrosUtc) {
+        return timestampMicrosUtc - (timestampMicrosUtc % BLOCK_DURATION_MICROS);
+    }
+
+    public static DataPoints getDataPoints(ResourceMetricsBlock block) {
+        return MetricsBlockCodec.decode(Base64.getDecoder().decode(block.encodedPoints));
+    }
+
+    public static void setDataPoints(ResourceMetricsBlock block, DataPoints points) {
+        block.encodedPoints = Base64.getEncoder().encodeToString(MetricsBlockCodec.encode(points));
+        block.pointCount = points.size();
+        if (points.size() > 0) {
+            block.firstTimestampMicrosUtc = points.timestamps[0];
+            block.lastTimestampMicrosUtc = points.timestamps[points.size() - 1];
+        }
+    }
+
+    /**
+     * Groups the data points of the given metrics into blocks per resource, metric and time
+     * window. The resource of a metric is taken from its
+     * {@link ResourceMetrics#PROPERTY_RESOURCE_LINK} custom property; metrics without it are
+     * skipped.
+     */
+    public static Collection<ResourceMetricsBlock> fromResourceMetrics(
+            Collection<ResourceMetrics> metrics) {
+        Map<String, ResourceMetricsBlock> blocks = new LinkedHashMap<>();
+        Map<String, TreeMap<Long, Double>> pointsByBlock = new HashMap<>();
+        for (ResourceMetrics metric : metrics) {
+            String resourceLink = metric.customProperties == null ? null
+                    : metric.customProperties.get(ResourceMetrics.PROPERTY_RESOURCE_LINK);
+            if (resourceLink == null || metric.entries == null) {
+                continue;
+            }
+            for (Entry<String, Double> entry : metric.entries.entrySet()) {
+                String blockLink = buildBlockLink(resourceLink, entry.getKey(),
+                        metric.timestampMicrosUtc);
+                ResourceMetricsBlock block = blocks.get(blockLink);
+                if (block == null) {
+                    block = new ResourceMetricsBlock();
+                    block.documentSelfLink = blockLink;
+                    block.resourceLink = resourceLink;
+                    block.metricName = entry.getKey();
+                    block.blockStartMicrosUtc = computeBlockStartMicros(metric.timestampMicrosUtc);
+                    block.customProperties = new HashMap<>();
+                    blocks.put(blockLink, block);
+                    pointsByBlock.put(blockLink, new TreeMap<>());
+                }
+                block.customProperties.putAll(metric.customProperties);
+                block.documentExpirationTimeMicros = Math.max(block.documentExpirationTimeMicros,
+                        metric.documentExpirationTimeMicros);
+                pointsByBlock.get(blockLink).put(metric.timestampMicrosUtc, entry.getValue());
+            }
+        }
+
+        for (ResourceMetricsBlock block : blocks.values()) {
+            TreeMap<Long, Double> points = pointsByBlock.get(block.documentSelfLink);
+            long[] timestamps = new long[points.size()];
+            double[] values = new double[points.size()];
+            int i = 0;
+            for (Entry<Long, Double> point : points.entrySet()) {
+                timestamps[i] = point.getKey();
+                values[i++] = point.getValue();
+            }
+            setDataPoints(block, new DataPoints(timestamps, values));
+        }
+        return blocks.values();
+    }
+
+    /**
+     * Returns a query builder for the blocks of the given resource.
+     */
+    public static Query.Builder createBlocksQueryBuilder(String resourceLink) {
+        return Query.Builder.create()
+                .addKindFieldClause(ResourceMetricsBlock.class)
+                .addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK,
+                        UriUtils.buildUriPath(FACTORY_LINK, buildBlockLinkPrefix(resourceLink)),
+                        MatchType.PREFIX);
+    }
+
+    /**
+     * Expands the blocks returned by a query into one {@link ResourceMetrics} per timestamp with
+     * the entries of all metrics at that timestamp, latest first, as the metrics would have been
+     * stored by {@link ResourceMetricsService}.
+     *
+     * @param blockDocuments The expanded documents of a query for blocks.
+     */
+    public static List<ResourceMetrics> toResourceMetrics(Collection<Object> blockDocuments) {
+        Map<Long, ResourceMetrics> metricsByTimestamp = new HashMap<>();
+        for (Object blockDocument : blockDocuments) {
+            ResourceMetricsBlock block = Utils.fromJson(blockDocument, ResourceMetricsBlock.class);
+            for (ResourceMetrics point : toResourceMetrics(block)) {
+                ResourceMetrics metrics = metricsByTimestamp.get(point.timestampMicrosUtc);
+                if (metrics == null) {
+                    point.customProperties = point.customProperties == null ? new HashMap<>()
+                            : new HashMap<>(point.customProperties);
+                    metricsByTimestamp.put(point.timestampMicrosUtc, point);
+                } else {
+                    metrics.entries.putAll(point.entries);
+                    if (point.customProperties != null) {
+                        metrics.customProperties.putAll(point.customProperties);
+                    }
+                }
+            }
+        }
+        List<ResourceMetrics> metrics = new ArrayList<>(metricsByTimestamp.values());
+        metrics.sort(Comparator.comparing((ResourceMetrics m) -> m.timestampMicrosUtc)
+                .reversed());
+        return metrics;
+    }
+
+    /**
+     * Expands a block into one {@link ResourceMetrics} per data point, as they would have been
+     * stored by {@link ResourceMetricsService}.
+     */
+    public static List<ResourceMetrics> toResourceMetrics(ResourceMetricsBlock block) {
+        DataPoints points = getDataPoints(block);
+        List<ResourceMetrics> metrics = new ArrayList<>(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            ResourceMetrics metric = new ResourceMetrics();
+            metric.documentSelfLink = block.documentSelfLink;
+            metric.documentExpirationTimeMicros = block.documentExpirationTimeMicros;
+            metric.timestampMicrosUtc = points.timestamps[i];
+            metric.entries = new HashMap<>();
+            metric.entries.put(block.metricName, points.values[i]);
+            metric.customProperties = block.customProperties;
+            metrics.add(metric);
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.query;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vmware.photon.controller.model.query.QueryUtils.QueryTemplate;
+
+/**
+ * Latency and result size metrics of the queries run by {@link QueryTemplate}s, per document
+ * class queried for.
+ */
+public class QueryMetrics {
+
+    private static final Map<String, QueryMetrics> metrics = new ConcurrentHashMap<>();
+
+    private final LongAdder queryCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder pageCount = new LongAdder();
+    private final LongAdder resultCount = new LongAdder();
+    private final LongAdder totalLatencyMicros = new LongAdder();
+    private final LongAccumulator maxLatencyMicros = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Returns the metrics by simple name of the document class queried for.
+     */
+    public static Map<String, QueryMetrics> getMetrics() {
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /**
+     * Returns the metrics of queries for the given document class.
+     */
+    public static QueryMetrics getMetrics(Class<?> documentClass) {
+        return metrics.computeIfAbsent(documentClass.getSimpleName(), k -> new QueryMetrics());
+    }
+
+    static void record(Class<?> documentClass, long latencyMicros, long pages, long results,
+            boolean failed) {
+        QueryMetrics queryMetrics = getMetrics(documentClass);
+        queryMetrics.queryCount.increment();
+        if (failed) {
+            queryMetrics.failureCount.increment();
+        }
+        queryMetrics.pageCount.add(pages);
+        queryMetrics.resultCount.add(results);
+        queryMetrics.totalLatencyMicros.add(latencyMicros);
+        queryMetrics.maxLatencyMicros.accumulate(latencyMicros);
+    }
+
+    public long getQueryCount() {
+        return this.queryCount.sum();
+    }
+
+    public long getFailureCount() {
+        return this.failureCount.sum();
+    }
+
+    public long getPageCount() {
+        return this.pageCount.sum();
+    }
+
+    /**
+     * Returns the number of documents or links passed to the consumers of the queries.
+     */
+    public long getResultCount() {
+        return this.resultCount.sum();
+    }
+
+    public long getTotalLatencyMicros() {
+        return this.totalLatencyMicros.sum();
+    }
+
+    public long getMaxLatencyMicros() {
+        return this.maxLatencyMicros.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("queries=%d, failures=%d, pages=%d, results=%d, "
+                        + "totalLatencyMicros=%d, maxLatencyMicros=%d",
+                getQueryCount(), getFailureCount(), getPageCount(), getResultCount(),
+                getTotalLatencyMicros(), getMaxLatencyMicros());
+    }
+}
@@ -15,12 +15,14 @@ package com.vmware.photon.controller.model.query;
 
 import static java.util.stream.Collector.Characteristics.IDENTITY_FINISH;
 
+import java.util.Collection;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collector;
 
 import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.Utils;
 
 /**
  * Represents a query strategy, such as query-by-pages and query-top-results.
@@ -43,6 +45,41 @@ public interface QueryStrategy<T extends ServiceDocument> {
      */
     DeferredResult<Void> queryLinks(Consumer<String> linkConsumer);
 
+    /**
+     * Query for all documents which satisfy passed query, with only the given fields set. Use it
+     * instead of {@link #queryDocuments(Consumer)} if only a handful of fields of the documents
+     * are needed.
+     * <p>
+     * By default the complete documents are queried. Implementations should select only the
+     * given fields from the index.
+     *
+     * @param fieldNames
+     *            The names of the document fields to select.
+     * @param documentConsumer
+     *            The callback interface of documents consumer.
+     */
+    default DeferredResult<Void> querySelectedFields(Collection<String> fieldNames,
+            Consumer<T> documentConsumer) {
+        return queryDocuments(documentConsumer);
+    }
+
+    /**
+     * Query for projections of all documents which satisfy passed query. A projection is an
+     * instance of the given class whose public fields are set from the same named fields of the
+     * document, as selected by {@link #querySelectedFields(Collection, Consumer)}.
+     *
+     * @param projectionClass
+     *            The class of the projections, declaring a subset of the document fields.
+     * @param projectionConsumer
+     *            The callback interface of projections consumer.
+     */
+    default <P> DeferredResult<Void> queryProjections(Class<P> projectionClass,
+            Consumer<P> projectionConsumer) {
+        return querySelectedFields(QueryUtils.getProjectionFieldNames(projectionClass),
+                document -> projectionConsumer.accept(
+                        Utils.fromJson(Utils.toJson(document), projectionClass)));
+    }
+
     /**
      * Performs a mutable reduction operation on the elements of this query using a
      * {@code Collector}. The method is inspired by {@code Stream#collect(Collector)}.
@@ -80,4 +117,24 @@ public interface QueryStrategy<T extends ServiceDocument> {
                 ? (R) container
                 : collector.finisher().apply(container));
     }
+
+    /**
+     * Performs a mutable reduction operation on the projections of the documents of this query
+     * using a {@code Collector}. The method is inspired by {@code Stream#collect(Collector)}.
+     *
+     * @see #queryProjections(Class, Consumer)
+     */
+    @SuppressWarnings("unchecked")
+    default <P, R, A> DeferredResult<R> collectProjections(Class<P> projectionClass,
+            Collector<P, A, R> collector) {
+
+        A container = collector.supplier().get();
+        BiConsumer<A, P> accumulator = collector.accumulator();
+
+        return queryProjections(projectionClass, projection -> {
+            accumulator.accept(container, projection);
+        }).thenApply(ignore -> collector.characteristics().contains(IDENTITY_FINISH)
+                ? (R) container
+                : collector.finisher().apply(container));
+    }
 }
\ No newline at end of file
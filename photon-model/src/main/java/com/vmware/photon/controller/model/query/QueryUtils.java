@@ -13,12 +13,25 @@
 
 package com.vmware.photon.controller.model.query;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 
@@ -38,6 +51,7 @@ import com.vmware.xenon.common.Operation.AuthorizationContext;
 import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.ServiceSubscriptionState.ServiceSubscriber;
 import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
@@ -69,6 +83,26 @@ public class QueryUtils {
     public static final long QUERY_TASK_RETRY_INTERVAL_MILLIS = Long
             .getLong(QUERY_TASK_RETRY_INTERVAL_MILLIS_PROPERTY, 300);
 
+    /**
+     * The first retry interval of adaptive polling, which is doubled on every retry up to
+     * {@link #QUERY_TASK_RETRY_INTERVAL_MILLIS}.
+     *
+     * @see QueryTemplate#setAdaptivePolling(boolean)
+     */
+    public static final String QUERY_TASK_MIN_RETRY_INTERVAL_MILLIS_PROPERTY =
+            UriPaths.PROPERTY_PREFIX + "query.minRetryIntervalMillis";
+    public static final long QUERY_TASK_MIN_RETRY_INTERVAL_MILLIS = Long
+            .getLong(QUERY_TASK_MIN_RETRY_INTERVAL_MILLIS_PROPERTY, 10);
+
+    /**
+     * Default query expiration is 10 minutes and cannot be set to infinite. Continuous queries
+     * expire after a very long period instead, which should be fine for all practical reasons.
+     * <p>
+     * Note that since local query tasks are not persistent, this expiration interval restarts at
+     * every host start.
+     */
+    public static final long CONTINUOUS_QUERY_TASK_EXPIRATION_DAYS = 5 * 365; // 5 years
+
     public static final long MINUTE_IN_MICROS = TimeUnit.MINUTES.toMicros(1);
     public static final long TEN_MINUTES_IN_MICROS = TimeUnit.MINUTES.toMicros(10);
 
@@ -268,6 +302,81 @@ public class QueryUtils {
                 .setConnectionSharing(true);
     }
 
+    /**
+     * Subscribes the given consumer to a new local continuous query over the documents of the
+     * given kind. The consumer is notified with a query task holding the changed documents and
+     * must complete the notification.
+     *
+     * @return the link of the continuous query task, to delete it when no longer needed
+     */
+    public static DeferredResult<String> subscribeToContinuousQuery(ServiceHost host,
+            Class<? extends ServiceDocument> kind, AuthorizationContext authorizationContext,
+            Consumer<Operation> consumer) {
+        // continuous queries are not persisted, so a new link for every start is fine
+        return subscribeToContinuousQuery(host, kind, UUID.randomUUID().toString(),
+                authorizationContext, consumer);
+    }
+
+    /**
+     * Subscribes the given consumer to the local continuous query with the given self link over
+     * the documents of the given kind. The query is created by the first subscriber, so it can be
+     * shared between the components of a host.
+     *
+     * @return the link of the continuous query task
+     */
+    public static DeferredResult<String> subscribeToContinuousQuery(ServiceHost host,
+            Class<? extends ServiceDocument> kind, String queryTaskSelfLink,
+            AuthorizationContext authorizationContext, Consumer<Operation> consumer) {
+        QueryTask task = QueryTask.Builder.create()
+                .addOption(QueryOption.CONTINUOUS)
+                .addOption(QueryOption.EXPAND_CONTENT)
+                .setQuery(Query.Builder.create().addKindFieldClause(kind).build())
+                .build();
+        task.documentSelfLink = queryTaskSelfLink;
+        task.documentExpirationTimeMicros = Utils.fromNowMicrosUtc(
+                TimeUnit.DAYS.toMicros(CONTINUOUS_QUERY_TASK_EXPIRATION_DAYS));
+
+        DeferredResult<String> result = new DeferredResult<>();
+        Operation createOp = createQueryTaskOperation(host, task, null)
+                .setReferer(host.getUri());
+        setAuthorizationContext(createOp, authorizationContext);
+        createOp.setCompletion((o, e) -> {
+            if (e != null && o.getStatusCode() != Operation.STATUS_CODE_CONFLICT) {
+                result.fail(e);
+                return;
+            }
+
+            String taskUriPath = UriUtils.buildUriPath(
+                    ServiceUriPaths.CORE_LOCAL_QUERY_TASKS, task.documentSelfLink);
+            Operation subscribePost = Operation.createPost(host, taskUriPath)
+                    .setReferer(host.getUri())
+                    .setConnectionSharing(true)
+                    .setCompletion((op, ex) -> {
+                        if (ex != null) {
+                            host.log(Level.SEVERE, "Cannot subscribe to %s: %s", taskUriPath,
+                                    Utils.toString(ex));
+                        }
+                    });
+            setAuthorizationContext(subscribePost, authorizationContext);
+
+            host.log(Level.FINE, "Subscribing to a continuous query: %s", taskUriPath);
+            host.startSubscriptionService(subscribePost, consumer,
+                    ServiceSubscriber.create(false));
+            result.complete(taskUriPath);
+        }).sendWith(host);
+        return result;
+    }
+
+    /**
+     * Sets the given authorization context on the operation, unless it is {@code null}.
+     */
+    private static void setAuthorizationContext(Operation op,
+            AuthorizationContext authorizationContext) {
+        if (authorizationContext != null) {
+            op.setAuthorizationContext(authorizationContext);
+        }
+    }
+
     /**
      * Add {@code endpointLink} constraint to passed query builder depending on document class.
      */
@@ -313,6 +422,20 @@ public class QueryUtils {
         return qBuilder;
     }
 
+    /**
+     * Returns the names of the public instance fields of the given projection class, i.e. the
+     * document fields to select for {@link QueryStrategy#queryProjections(Class, Consumer)}.
+     */
+    public static List<String> getProjectionFieldNames(Class<?> projectionClass) {
+        List<String> fieldNames = new ArrayList<>();
+        for (Field field : projectionClass.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers())) {
+                fieldNames.add(field.getName());
+            }
+        }
+        return fieldNames;
+    }
+
     /**
      * Query strategy template.
      *
@@ -346,6 +469,7 @@ public class QueryUtils {
         protected final List<String> tenantLinks;
 
         protected boolean isDirectQuery = true;
+        protected boolean isAdaptivePolling = false;
         protected URI referer;
         protected ServiceEndpointLocator serviceLocator;
         protected List<String> queryTaskTenantLinks;
@@ -505,6 +629,19 @@ public class QueryUtils {
             return self();
         }
 
+        /**
+         * Set whether to poll a non-direct query task with increasing intervals, starting with
+         * {@link QueryUtils#QUERY_TASK_MIN_RETRY_INTERVAL_MILLIS}, instead of a fixed
+         * {@link QueryUtils#QUERY_TASK_RETRY_INTERVAL_MILLIS}.
+         * <p>
+         * Default value, if not set, is {@code false}.
+         */
+        public DESC setAdaptivePolling(boolean isAdaptivePolling) {
+            this.isAdaptivePolling = isAdaptivePolling;
+
+            return self();
+        }
+
         /**
          * Set custom tenant links list to use for REST operations.
          * <p>
@@ -569,6 +706,60 @@ public class QueryUtils {
             return queryImpl(queryTaskBuilder, linkConsumer);
         }
 
+        /**
+         * Selects only the given fields from the index, using
+         * {@link QueryOption#EXPAND_SELECTED_FIELDS}. The self link is always selected.
+         */
+        @Override
+        public DeferredResult<Void> querySelectedFields(Collection<String> fieldNames,
+                Consumer<T> documentConsumer) {
+
+            return queryImpl(newSelectedFieldsQueryTaskBuilder(fieldNames), documentConsumer,
+                    this.documentClass);
+        }
+
+        /**
+         * Selects only the fields of the projection class from the index and deserializes the
+         * selected fields directly to projections, without creating documents of type T.
+         */
+        @Override
+        public <P> DeferredResult<Void> queryProjections(Class<P> projectionClass,
+                Consumer<P> projectionConsumer) {
+
+            return queryImpl(
+                    newSelectedFieldsQueryTaskBuilder(getProjectionFieldNames(projectionClass)),
+                    projectionConsumer, projectionClass);
+        }
+
+        /**
+         * Query for documents which satisfy passed query until the predicate returns
+         * {@code false}. The remaining documents are neither deserialized nor passed to the
+         * predicate, and no further pages are retrieved.
+         *
+         * @param documentPredicate
+         *            The callback interface of documents consumer, returning whether to continue.
+         */
+        public DeferredResult<Void> queryDocumentsWhile(Predicate<T> documentPredicate) {
+
+            QueryTask.Builder queryTaskBuilder = newQueryTaskBuilder()
+                    .addOption(QueryOption.EXPAND_CONTENT);
+            return queryImpl(queryTaskBuilder, new QueryRun<>(documentPredicate));
+        }
+
+        /**
+         * Query for document links which satisfy passed query until the predicate returns
+         * {@code false}. No further pages are retrieved afterwards.
+         *
+         * @param linkPredicate
+         *            The callback interface of document links consumer, returning whether to
+         *            continue.
+         */
+        public DeferredResult<Void> queryLinksWhile(Predicate<String> linkPredicate) {
+
+            QueryTask.Builder queryTaskBuilder = newQueryTaskBuilder();
+            return queryImpl(queryTaskBuilder, new QueryRun<>(linkPredicate));
+        }
+
         /**
          * Descendants might override this method to customize the default query task build logic.
          * For example add option such as {@link QueryOption#TOP_RESULTS}.
@@ -583,6 +774,20 @@ public class QueryUtils {
                     .setResultLimit(getResultLimit());
         }
 
+        private QueryTask.Builder newSelectedFieldsQueryTaskBuilder(
+                Collection<String> fieldNames) {
+
+            QueryTask.Builder queryTaskBuilder = newQueryTaskBuilder()
+                    .addOption(QueryOption.EXPAND_SELECTED_FIELDS)
+                    .addSelectTerm(ServiceDocument.FIELD_NAME_SELF_LINK);
+            for (String fieldName : fieldNames) {
+                if (!ServiceDocument.FIELD_NAME_SELF_LINK.equals(fieldName)) {
+                    queryTaskBuilder.addSelectTerm(fieldName);
+                }
+            }
+            return queryTaskBuilder;
+        }
+
         protected void setContext(Operation queryTaskOp) {
             if (this.authorizationContext != null) {
                 queryTaskOp.setAuthorizationContext(this.authorizationContext);
@@ -592,7 +797,25 @@ public class QueryUtils {
         @SuppressWarnings("rawtypes")
         private DeferredResult<Void> queryImpl(
                 QueryTask.Builder queryTaskBuilder,
-                Consumer resultConsumer) {
+                Consumer consumer) {
+
+            return queryImpl(queryTaskBuilder, consumer, this.documentClass);
+        }
+
+        /**
+         * @param resultClass
+         *            The class the expanded or selected documents are deserialized to.
+         */
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private DeferredResult<Void> queryImpl(
+                QueryTask.Builder queryTaskBuilder,
+                Consumer consumer,
+                Class<?> resultClass) {
+
+            final QueryRun resultConsumer = consumer instanceof QueryRun
+                    ? (QueryRun) consumer
+                    : new QueryRun<>(consumer);
+            resultConsumer.resultClass = resultClass;
 
             // Prepare QueryTask
             final QueryTask queryTask = queryTaskBuilder.build();
@@ -606,15 +829,28 @@ public class QueryUtils {
 
             setContext(createQueryTaskOp);
 
-            this.host.log(this.level,
-                    this.msg + ": STARTED with QT = " + Utils.toJsonHtml(queryTask));
+            this.host.log(this.level, "%s: STARTED with QT = %s",
+                    this.msg, lazy(() -> Utils.toJsonHtml(queryTask)));
 
             // Initiate the query
             return this.host.sendWithDeferredResult(createQueryTaskOp)
                     // Wait for QT to complete, if not direct
                     .thenCompose(this::waitForQueryTaskToComplete)
                     // Delegate to descendant to actually do QT processing
-                    .thenCompose(qtOp -> handleQueryTask(qtOp, resultConsumer));
+                    .thenCompose(qtOp -> handleQueryTask(qtOp, resultConsumer))
+                    .whenComplete((ignore, e) -> {
+                        long latencyMicros = TimeUnit.NANOSECONDS.toMicros(
+                                System.nanoTime() - resultConsumer.startNanos);
+                        long pages = resultConsumer.pages.sum();
+                        long results = resultConsumer.results.sum();
+
+                        QueryMetrics.record(this.documentClass, latencyMicros, pages, results,
+                                e != null);
+
+                        this.host.log(this.level, "%s: %s in %d ms: %d results in %d pages",
+                                this.msg, e != null ? "FAILED" : "FINISHED",
+                                TimeUnit.MICROSECONDS.toMillis(latencyMicros), results, pages);
+                    });
         }
 
         /**
@@ -675,12 +911,20 @@ public class QueryUtils {
                     this.host.schedule(
                             () -> waitForQueryTaskToCompleteRecursively(
                                     getQtOp, qtCompletionDR, retries),
-                            QUERY_TASK_RETRY_INTERVAL_MILLIS,
+                            getRetryIntervalMillis(retries.get()),
                             TimeUnit.MILLISECONDS);
                 }
             });
         }
 
+        private long getRetryIntervalMillis(int retries) {
+            if (!this.isAdaptivePolling) {
+                return QUERY_TASK_RETRY_INTERVAL_MILLIS;
+            }
+            long interval = QUERY_TASK_MIN_RETRY_INTERVAL_MILLIS << Math.min(retries - 1, 20);
+            return Math.max(1, Math.min(interval, QUERY_TASK_RETRY_INTERVAL_MILLIS));
+        }
+
         /**
          * Helper method to be used by descendants to consume the QT results (in case of pagination
          * it's just current page).
@@ -691,30 +935,75 @@ public class QueryUtils {
         @SuppressWarnings({ "rawtypes", "unchecked" })
         protected void handleQueryTaskResults(QueryTask qt, Consumer resultConsumer) {
 
+            // documents are deserialized one by one, when they are consumed
+            Stream resultsStream = getRawResults(qt, resultConsumer)
+                    .stream()
+                    .filter(rawResult -> !isExited(resultConsumer))
+                    .map(rawResult -> toResult(qt, resultConsumer, rawResult));
+
+            consumeQueryTaskResults(resultsStream, resultConsumer);
+        }
+
+        /**
+         * Returns the raw results of the QT (in case of pagination it's just current page), i.e.
+         * the serialized documents or the document links, to be converted by
+         * {@link #toResult(QueryTask, Consumer, Object)}.
+         */
+        @SuppressWarnings("rawtypes")
+        protected Collection<?> getRawResults(QueryTask qt, Consumer resultConsumer) {
+
             this.host.log(this.level, "%s: PROCESS %s docs",
                     this.msg, qt.results.documentCount);
 
-            if (qt.results.documentCount == 0) {
-                return;
+            if (resultConsumer instanceof QueryRun) {
+                ((QueryRun) resultConsumer).pages.increment();
             }
 
-            Stream resultsStream = Stream.empty();
+            if (qt.results.documentCount == 0) {
+                return Collections.emptyList();
+            }
 
-            if (qt.querySpec.options.contains(QueryOption.EXPAND_CONTENT)) {
-                // Get document STATEs as Stream<T>
+            if (isExpanded(qt)) {
+                // Get document STATEs
                 if (qt.results.documents != null && !qt.results.documents.isEmpty()) {
-                    resultsStream = qt.results.documents
-                            .values()
-                            .stream()
-                            .map(json -> Utils.fromJson(json, this.documentClass));
+                    return qt.results.documents.values();
                 }
-            } else {
-                // Get document LINKs as Stream<String>
-                // NOTE: documentLinks is non-NULL, so it's safe to use without check.
-                resultsStream = qt.results.documentLinks.stream();
+                return Collections.emptyList();
             }
+            // Get document LINKs
+            // NOTE: documentLinks is non-NULL, so it's safe to use without check.
+            return qt.results.documentLinks;
+        }
 
-            consumeQueryTaskResults(resultsStream, resultConsumer);
+        /**
+         * Converts a raw result returned by {@link #getRawResults(QueryTask, Consumer)} to the
+         * result passed to the consumer: the document of type T, the projection or the document
+         * link.
+         */
+        @SuppressWarnings("rawtypes")
+        protected Object toResult(QueryTask qt, Consumer resultConsumer, Object rawResult) {
+            if (!isExpanded(qt)) {
+                return rawResult;
+            }
+            Class<?> resultClass = resultConsumer instanceof QueryRun
+                    && ((QueryRun) resultConsumer).resultClass != null
+                    ? ((QueryRun) resultConsumer).resultClass
+                    : this.documentClass;
+            return Utils.fromJson(rawResult, resultClass);
+        }
+
+        private static boolean isExpanded(QueryTask qt) {
+            return qt.querySpec.options.contains(QueryOption.EXPAND_CONTENT)
+                    || qt.querySpec.options.contains(QueryOption.EXPAND_SELECTED_FIELDS);
+        }
+
+        /**
+         * Returns whether the given result consumer of a {@code queryDocumentsWhile} or
+         * {@code queryLinksWhile} query does not accept further results.
+         */
+        @SuppressWarnings("rawtypes")
+        protected static boolean isExited(Consumer resultConsumer) {
+            return resultConsumer instanceof QueryRun && ((QueryRun) resultConsumer).exited;
         }
 
         /**
@@ -727,6 +1016,63 @@ public class QueryUtils {
             resultsStream.forEach(resultConsumer);
         }
 
+        /**
+         * Returns an object whose {@code toString()} is the supplied message, so that the message
+         * is only built if it is logged.
+         */
+        private static Object lazy(Supplier<String> messageSupplier) {
+            return new Object() {
+                @Override
+                public String toString() {
+                    return messageSupplier.get();
+                }
+            };
+        }
+
+        /**
+         * The result consumer of one query, which counts the consumed pages and results and
+         * stops consuming once the predicate of a {@code queryDocumentsWhile} or
+         * {@code queryLinksWhile} query returns {@code false}.
+         */
+        private static final class QueryRun<M> implements Consumer<M> {
+
+            final long startNanos = System.nanoTime();
+            final LongAdder pages = new LongAdder();
+            final LongAdder results = new LongAdder();
+
+            private final Consumer<M> consumer;
+            private final Predicate<M> predicate;
+
+            Class<?> resultClass;
+
+            volatile boolean exited;
+
+            QueryRun(Consumer<M> consumer) {
+                this.consumer = consumer;
+                this.predicate = null;
+            }
+
+            QueryRun(Predicate<M> predicate) {
+                this.consumer = null;
+                this.predicate = predicate;
+            }
+
+            @Override
+            public void accept(M result) {
+                if (this.predicate == null) {
+                    this.results.increment();
+                    this.consumer.accept(result);
+                    return;
+                }
+                if (this.exited) {
+                    return;
+                }
+                this.results.increment();
+                if (!this.predicate.test(result)) {
+                    this.exited = true;
+                }
+            }
+        }
     }
 
     /**
@@ -824,6 +1170,9 @@ public class QueryUtils {
         }
 
         private int maxPageSize = getDefaultMaxPageSize();
+        private int prefetchPages = 0;
+        private int consumerWorkers = 1;
+        private boolean isOrderedConsumption = true;
 
         public QueryByPages(ServiceHost host,
                 Query query,
@@ -860,6 +1209,33 @@ public class QueryUtils {
             return this;
         }
 
+        /**
+         * Configure the number of pages to retrieve ahead, while the results of the current page
+         * are consumed.
+         * <p>
+         * Default value, if not set, is {@code 0}, i.e. the next page is retrieved once the
+         * results of the current page are consumed.
+         */
+        public QueryByPages<T> setPrefetchPages(int prefetchPages) {
+            this.prefetchPages = prefetchPages;
+            return this;
+        }
+
+        /**
+         * Configure parallel consumption of the results by up to {@code workers} tasks on the
+         * host executor. If {@code ordered}, all results of a page are consumed before the results
+         * of the next page, otherwise the results of a page are consumed while the results of the
+         * previous page are still consumed. The consumer must be thread safe.
+         * <p>
+         * Default value, if not set, is one worker, i.e. the results are passed sequentially to
+         * the consumer.
+         */
+        public QueryByPages<T> setParallelConsumption(int workers, boolean ordered) {
+            this.consumerWorkers = workers;
+            this.isOrderedConsumption = ordered;
+            return this;
+        }
+
         /**
          * Return the number of max documents per page.
          */
@@ -877,17 +1253,19 @@ public class QueryUtils {
                 Operation queryTaskOp,
                 Consumer resultConsumer) {
 
+            if (this.prefetchPages > 0 || this.consumerWorkers > 1) {
+                return new PageStream(resultConsumer).start(queryTaskOp);
+            }
+
             final QueryTask queryTask = queryTaskOp.getBody(QueryTask.class);
 
             final String pageLink = queryTask.results.nextPageLink;
 
-            if (pageLink == null) {
-                this.host.log(this.level, this.msg + ": FINISHED");
-
+            if (pageLink == null || isExited(resultConsumer)) {
                 return DeferredResult.completed((Void) null);
             }
 
-            this.host.log(this.level, this.msg + ": PAGE %s", pageLink);
+            this.host.log(this.level, "%s: PAGE %s", this.msg, pageLink);
 
             // For any subsequent get-page call we use the Host of previous Op!
             Operation getQueryTaskOp = Operation
@@ -908,6 +1286,225 @@ public class QueryUtils {
                     // Handle NEXT page of results
                     .thenCompose(qtOp -> handleQueryTask(qtOp, resultConsumer));
         }
+
+        /**
+         * Retrieves the pages of one query ahead of their consumption, and consumes their results
+         * sequentially or in parallel, see {@link #setPrefetchPages(int)} and
+         * {@link #setParallelConsumption(int, boolean)}.
+         */
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private final class PageStream {
+
+            private final Consumer resultConsumer;
+            private final DeferredResult<Void> completion = new DeferredResult<>();
+            private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+            /**
+             * Pages which are retrieved or being retrieved, in page order.
+             */
+            private final Deque<CompletableFuture<Operation>> pages = new ArrayDeque<>();
+            private Operation lastPageOp;
+            private String nextPageLink;
+            private boolean isFetching;
+
+            /**
+             * Results waiting for a free worker, in case of parallel consumption.
+             */
+            private final Deque<Runnable> pendingResults = new ArrayDeque<>();
+            private int runningWorkers;
+            private CompletableFuture<Void> previousPageConsumed =
+                    CompletableFuture.completedFuture(null);
+
+            PageStream(Consumer resultConsumer) {
+                this.resultConsumer = resultConsumer;
+            }
+
+            DeferredResult<Void> start(Operation queryTaskOp) {
+                synchronized (this) {
+                    this.lastPageOp = queryTaskOp;
+                    this.nextPageLink = queryTaskOp.getBody(QueryTask.class).results.nextPageLink;
+                }
+                consumePages();
+                return this.completion;
+            }
+
+            /**
+             * Starts retrieving the next page, unless it is retrieved already, there is no next
+             * page or {@code maxPages} pages are retrieved but not consumed yet.
+             */
+            private void fetchAhead(int maxPages) {
+                CompletableFuture<Operation> page = new CompletableFuture<>();
+                Operation getQueryTaskOp;
+                synchronized (this) {
+                    if (this.isFetching || this.nextPageLink == null
+                            || this.pages.size() >= maxPages
+                            || this.failure.get() != null || isExited(this.resultConsumer)) {
+                        return;
+                    }
+                    this.isFetching = true;
+                    this.pages.add(page);
+
+                    QueryByPages.this.host.log(QueryByPages.this.level, "%s: PAGE %s",
+                            QueryByPages.this.msg, this.nextPageLink);
+
+                    // For any subsequent get-page call we use the Host of previous Op!
+                    getQueryTaskOp = Operation
+                            .createGet(UriUtils.buildUri(this.lastPageOp.getUri(),
+                                    this.nextPageLink))
+                            .setReferer(QueryByPages.this.referer);
+                }
+
+                setContext(getQueryTaskOp);
+
+                QueryByPages.this.host.sendWithDeferredResult(getQueryTaskOp)
+                        .whenComplete((qtOp, e) -> {
+                            if (e != null) {
+                                page.completeExceptionally(e);
+                                return;
+                            }
+                            synchronized (this) {
+                                this.isFetching = false;
+                                this.lastPageOp = qtOp;
+                                this.nextPageLink = qtOp.getBody(QueryTask.class)
+                                        .results.nextPageLink;
+                            }
+                            fetchAhead(QueryByPages.this.prefetchPages);
+                            page.complete(qtOp);
+                        });
+            }
+
+            /**
+             * Consumes the retrieved pages in order. Loops over the pages which are retrieved
+             * and consumed already, and continues asynchronously otherwise.
+             */
+            private void consumePages() {
+                while (true) {
+                    fetchAhead(Math.max(1, QueryByPages.this.prefetchPages));
+
+                    CompletableFuture<Operation> page;
+                    synchronized (this) {
+                        page = this.pages.poll();
+                    }
+                    if (page == null) {
+                        // no more pages, wait for the results still being consumed
+                        this.previousPageConsumed.whenComplete((ignore, e) -> finish(e));
+                        return;
+                    }
+
+                    CompletableFuture<Void> pageConsumed = page.thenCompose(this::consumePage);
+                    if (!pageConsumed.isDone()) {
+                        pageConsumed.whenComplete((ignore, e) -> {
+                            if (e != null) {
+                                finish(e);
+                            } else {
+                                consumePages();
+                            }
+                        });
+                        return;
+                    }
+                    if (pageConsumed.isCompletedExceptionally()) {
+                        pageConsumed.whenComplete((ignore, e) -> finish(e));
+                        return;
+                    }
+                }
+            }
+
+            /**
+             * Consumes the results of the given page. The returned future is completed once the
+             * results of the next page may be consumed.
+             */
+            private CompletableFuture<Void> consumePage(Operation qtOp) {
+                QueryTask qt = qtOp.getBody(QueryTask.class);
+
+                if (QueryByPages.this.consumerWorkers <= 1) {
+                    CompletableFuture<Void> pageConsumed = new CompletableFuture<>();
+                    try {
+                        handleQueryTaskResults(qt, this.resultConsumer);
+                        pageConsumed.complete(null);
+                    } catch (Throwable e) {
+                        pageConsumed.completeExceptionally(e);
+                    }
+                    return pageConsumed;
+                }
+
+                Collection<?> rawResults = getRawResults(qt, this.resultConsumer);
+                CompletableFuture<Void> pageConsumed = new CompletableFuture<>();
+                if (rawResults.isEmpty()) {
+                    pageConsumed.complete(null);
+                } else {
+                    AtomicInteger remaining = new AtomicInteger(rawResults.size());
+                    for (Object rawResult : rawResults) {
+                        submit(() -> {
+                            try {
+                                if (this.failure.get() == null
+                                        && !isExited(this.resultConsumer)) {
+                                    this.resultConsumer.accept(
+                                            toResult(qt, this.resultConsumer, rawResult));
+                                }
+                            } catch (Throwable e) {
+                                this.failure.compareAndSet(null, e);
+                            } finally {
+                                if (remaining.decrementAndGet() == 0) {
+                                    Throwable e = this.failure.get();
+                                    if (e != null) {
+                                        pageConsumed.completeExceptionally(e);
+                                    } else {
+                                        pageConsumed.complete(null);
+                                    }
+                                }
+                            }
+                        });
+                    }
+                }
+
+                if (QueryByPages.this.isOrderedConsumption) {
+                    return pageConsumed;
+                }
+                // let the results of the next page be consumed along with the ones of this page
+                CompletableFuture<Void> previous = this.previousPageConsumed;
+                this.previousPageConsumed = pageConsumed;
+                return previous;
+            }
+
+            /**
+             * Runs the given result consumption on a free worker, or queues it until a worker
+             * becomes free.
+             */
+            private void submit(Runnable consumption) {
+                synchronized (this) {
+                    if (this.runningWorkers >= QueryByPages.this.consumerWorkers) {
+                        this.pendingResults.add(consumption);
+                        return;
+                    }
+                    this.runningWorkers++;
+                }
+
+                Runnable worker = () -> {
+                    Runnable next = consumption;
+                    while (next != null) {
+                        next.run();
+                        synchronized (this) {
+                            next = this.pendingResults.poll();
+                            if (next == null) {
+                                this.runningWorkers--;
+                            }
+                        }
+                    }
+                };
+                // run on the calling thread if the executor does not accept the worker
+                PhotonModelUtils.runInExecutor(QueryByPages.this.host.getExecutor(), worker,
+                        e -> worker.run());
+            }
+
+            private void finish(Throwable e) {
+                if (e == null) {
+                    this.completion.complete(null);
+                } else {
+                    this.completion.fail(e instanceof CompletionException
+                            ? e : new CompletionException(e));
+                }
+            }
+        }
     }
 
     /**
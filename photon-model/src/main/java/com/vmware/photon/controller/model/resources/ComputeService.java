@@ -69,6 +69,7 @@ public class ComputeService extends StatefulService {
         public static final String FIELD_NAME_DISK_LINKS = "diskLinks";
         public static final String FIELD_NAME_TYPE = "type";
         public static final String FIELD_NAME_INSTANCE_TYPE = "instanceType";
+        public static final String FIELD_NAME_ZONE_ID = "zoneId";
 
         /**
          * URI reference to corresponding ComputeDescription.
@@ -51,6 +51,7 @@ public class ResourceState extends ServiceDocument {
     public static final String FIELD_NAME_CREATION_TIME_MICROS = "creationTimeMicros";
     public static final String FIELD_NAME_COMPUTE_HOST_LINK = "computeHostLink";
     public static final String FIELD_NAME_EXPANDED_TAGS = "expandedTags";
+    public static final String FIELD_NAME_ENUMERATION_FINGERPRINT = "enumerationFingerprint";
 
     /**
      * Contains information about an assigned tag.
@@ -241,6 +242,17 @@ public class ResourceState extends ServiceDocument {
     @Since(ReleaseConstants.RELEASE_VERSION_0_6_49)
     public Long documentCreationTimeMicros;
 
+    /**
+     * Fingerprint of the state as last written by enumeration, used to skip unchanged states on
+     * the next enumeration. Reserved for enumeration: it is not part of the resource description
+     * and should be neither set nor interpreted by clients.
+     */
+    @UsageOption(option = PropertyUsageOption.SERVICE_USE)
+    @UsageOption(option = PropertyUsageOption.AUTO_MERGE_IF_NOT_NULL)
+    @PropertyOptions(indexing = PropertyIndexingOption.EXCLUDE_FROM_SIGNATURE)
+    @Since(ReleaseConstants.RELEASE_VERSION_0_6_61)
+    public String enumerationFingerprint;
+
     public void copyTo(ResourceState target) {
         super.copyTo(target);
 
@@ -257,5 +269,6 @@ public class ResourceState extends ServiceDocument {
         target.endpointLinks = this.endpointLinks;
         target.computeHostLink = this.computeHostLink;
         target.documentCreationTimeMicros = this.documentCreationTimeMicros;
+        target.enumerationFingerprint = this.enumerationFingerprint;
     }
 }
@@ -229,7 +229,8 @@ public class ResourceUtils {
     }
 
     /**
-     * Populates the resource tags based on the tag links.
+     * Populates the resource tags based on the tag links. The tags are taken from the
+     * {@link TagInfoCache} of the host, if it is started.
      */
     public static <T extends ResourceState> DeferredResult<Void> populateTags(Service service,
             T currentState) {
@@ -242,6 +243,25 @@ public class ResourceUtils {
             return DeferredResult.completed(null);
         }
 
+        TagInfoCache tagInfoCache = TagInfoCache.getInstance(service.getHost());
+        if (tagInfoCache != null) {
+            return tagInfoCache.getTagInfos(service, currentState.tagLinks)
+                    .handle((tagInfos, e) -> {
+                        if (e != null) {
+                            service.getHost().log(Level.WARNING, "Error populating tags in "
+                                    + "resource %s: %s", currentState.documentSelfLink,
+                                    e.getMessage());
+                            currentState.expandedTags = null;
+                        } else {
+                            currentState.expandedTags = currentState.tagLinks.stream()
+                                    .map(tagInfos::get)
+                                    .filter(Objects::nonNull)
+                                    .collect(Collectors.toList());
+                        }
+                        return (Void) null;
+                    });
+        }
+
         List<DeferredResult<TagState>> tagGetDrs = currentState.tagLinks.stream()
                 .map(tagLink -> {
                     Operation tagGetOp = Operation.createGet(service.getHost(), tagLink);
@@ -278,7 +298,7 @@ public class ResourceUtils {
         return tagInfo;
     }
 
-    private static String encodeTag(String key, String value) {
+    static String encodeTag(String key, String value) {
         return (key != null ? key : "")
                 + TagInfo.KEY_VALUE_SEPARATOR
                 + (value != null ? value : "");
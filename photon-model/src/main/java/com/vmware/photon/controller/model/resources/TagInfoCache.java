@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.resources;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.query.QueryUtils;
+import com.vmware.photon.controller.model.query.QueryUtils.QueryByPages;
+import com.vmware.photon.controller.model.resources.ResourceState.TagInfo;
+import com.vmware.photon.controller.model.resources.TagService.TagState;
+import com.vmware.photon.controller.model.resources.TagService.TagState.TagOrigin;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Operation.AuthorizationContext;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+
+/**
+ * Bounded, per host cache of the {@link TagInfo} of {@link TagState}s, keyed by tag link.
+ * <p>
+ * Key and value of a tag never change, so cached entries are only refreshed or dropped when the
+ * tag is updated or deleted, which the cache learns from a continuous query over the tags. The
+ * cache is started by {@link TagInfoCacheService}, which also publishes its statistics. Missing
+ * entries are loaded with one query for all of them; tags the query does not return, e.g. because
+ * they are not replicated to this host yet, are fetched one by one.
+ * <p>
+ * Besides the tag info, an entry keeps the fields of the tag which an idempotent POST of the tag
+ * may change, see {@link #isCurrent(TagState)}.
+ */
+public class TagInfoCache {
+
+    public static final String PROPERTY_NAME_MAX_SIZE = UriPaths.PROPERTY_PREFIX
+            + "TagInfoCache.maxSize";
+
+    /**
+     * Maximum number of cached tags. A value of zero or less disables the cache.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private static final Map<ServiceHost, TagInfoCache> caches = new ConcurrentHashMap<>();
+
+    private final ServiceHost host;
+    private final AuthorizationContext authorizationContext;
+    private final Map<String, CachedTag> tags;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    private volatile String queryTaskLink;
+
+    /**
+     * The cached fields of a tag.
+     */
+    private static class CachedTag {
+        final String tag;
+        final Boolean external;
+        final EnumSet<TagOrigin> origins;
+        final Boolean deleted;
+        final long version;
+
+        CachedTag(TagState tagState) {
+            this.tag = ResourceUtils.encodeTag(tagState.key, tagState.value);
+            this.external = tagState.external;
+            this.origins = tagState.origins == null || tagState.origins.isEmpty()
+                    ? EnumSet.noneOf(TagOrigin.class) : EnumSet.copyOf(tagState.origins);
+            this.deleted = tagState.deleted;
+            this.version = tagState.documentVersion;
+        }
+    }
+
+    TagInfoCache(ServiceHost host, AuthorizationContext authorizationContext, int maxSize) {
+        this.host = host;
+        this.authorizationContext = authorizationContext;
+        this.tags = Collections.synchronizedMap(
+                new LinkedHashMap<String, CachedTag>(16, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, CachedTag> eldest) {
+                        if (size() > maxSize) {
+                            TagInfoCache.this.evictionCount.increment();
+                            return true;
+                        }
+                        return false;
+                    }
+                });
+    }
+
+    /**
+     * Starts the cache of the given host, which subscribes for tag changes, unless the cache is
+     * disabled through {@link #PROPERTY_NAME_MAX_SIZE}.
+     *
+     * @param authorizationContext
+     *         authorization context used to subscribe for tag changes
+     */
+    static void start(ServiceHost host, AuthorizationContext authorizationContext) {
+        int maxSize = Integer.getInteger(PROPERTY_NAME_MAX_SIZE, DEFAULT_MAX_SIZE);
+        if (maxSize <= 0) {
+            return;
+        }
+        TagInfoCache cache = new TagInfoCache(host, authorizationContext, maxSize);
+        if (caches.putIfAbsent(host, cache) != null) {
+            return;
+        }
+        cache.subscribe();
+    }
+
+    /**
+     * Stops the cache of the given host and its continuous query.
+     */
+    static void stop(ServiceHost host) {
+        TagInfoCache cache = caches.remove(host);
+        if (cache == null || cache.queryTaskLink == null) {
+            return;
+        }
+        Operation.createDelete(host, cache.queryTaskLink)
+                .setReferer(host.getUri())
+                .setAuthorizationContext(cache.authorizationContext)
+                .sendWith(host);
+    }
+
+    /**
+     * Returns the cache of the given host, {@code null} if it is not started or disabled.
+     */
+    public static TagInfoCache getInstance(ServiceHost host) {
+        return caches.get(host);
+    }
+
+    /**
+     * Returns the tag infos of the given tag links, by tag link. Tags that cannot be retrieved are
+     * missing from the result.
+     *
+     * @param service
+     *         the service on behalf of which the missing tags are retrieved
+     */
+    public DeferredResult<Map<String, TagInfo>> getTagInfos(Service service,
+            Collection<String> tagLinks) {
+        Map<String, TagInfo> tagInfos = new HashMap<>();
+        List<String> missingLinks = new ArrayList<>();
+        for (String tagLink : tagLinks) {
+            CachedTag cachedTag = this.tags.get(tagLink);
+            if (cachedTag != null) {
+                this.hitCount.increment();
+                tagInfos.put(tagLink, toTagInfo(cachedTag));
+            } else {
+                this.missCount.increment();
+                missingLinks.add(tagLink);
+            }
+        }
+        if (missingLinks.isEmpty()) {
+            return DeferredResult.completed(tagInfos);
+        }
+
+        return load(missingLinks)
+                .thenCompose(loaded -> {
+                    List<DeferredResult<TagState>> tagGetDrs = missingLinks.stream()
+                            .filter(tagLink -> !loaded.containsKey(tagLink))
+                            .map(tagLink -> get(service, tagLink))
+                            .collect(Collectors.toList());
+                    loaded.forEach((tagLink, tagState) -> tagInfos.put(tagLink,
+                            toTagInfo(new CachedTag(tagState))));
+                    return DeferredResult.allOf(tagGetDrs);
+                })
+                .thenApply(tagStates -> {
+                    for (TagState tagState : tagStates) {
+                        if (tagState != null) {
+                            tagInfos.put(tagState.documentSelfLink,
+                                    toTagInfo(new CachedTag(tagState)));
+                        }
+                    }
+                    return tagInfos;
+                });
+    }
+
+    /**
+     * Returns whether the given tag is cached and an idempotent POST of it would not modify the
+     * cached state.
+     */
+    public boolean isCurrent(TagState tagState) {
+        CachedTag cachedTag = this.tags.get(tagState.documentSelfLink);
+        if (cachedTag == null) {
+            return false;
+        }
+        if (tagState.external != null && (cachedTag.external == null
+                || (Boolean.TRUE.equals(cachedTag.external)
+                        && Boolean.FALSE.equals(tagState.external)))) {
+            return false;
+        }
+        if (tagState.origins != null && !cachedTag.origins.containsAll(tagState.origins)) {
+            return false;
+        }
+        return tagState.deleted == null || Objects.equals(tagState.deleted, cachedTag.deleted);
+    }
+
+    /**
+     * Adds or refreshes the given tag unless a newer version of it is cached already.
+     */
+    public void put(TagState tagState) {
+        if (tagState != null && tagState.documentSelfLink != null) {
+            this.tags.merge(tagState.documentSelfLink, new CachedTag(tagState),
+                    TagInfoCache::newer);
+        }
+    }
+
+    /**
+     * Removes the tag with the given link.
+     */
+    public void invalidate(String tagLink) {
+        this.tags.remove(tagLink);
+    }
+
+    public long getHitCount() {
+        return this.hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return this.missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return this.evictionCount.sum();
+    }
+
+    public int size() {
+        return this.tags.size();
+    }
+
+    private static CachedTag newer(CachedTag current, CachedTag updated) {
+        return updated.version >= current.version ? updated : current;
+    }
+
+    private static TagInfo toTagInfo(CachedTag cachedTag) {
+        TagInfo tagInfo = new TagInfo();
+        tagInfo.tag = cachedTag.tag;
+        return tagInfo;
+    }
+
+    /**
+     * Loads and caches the tags with the given links with one query.
+     */
+    private DeferredResult<Map<String, TagState>> load(Collection<String> tagLinks) {
+        Query query = Query.Builder.create()
+                .addKindFieldClause(TagState.class)
+                .addInClause(ServiceDocument.FIELD_NAME_SELF_LINK, tagLinks)
+                .build();
+
+        Map<String, TagState> loaded = new ConcurrentHashMap<>();
+        return new QueryByPages<>(this.host, query, TagState.class, null)
+                .queryDocuments(tagState -> {
+                    put(tagState);
+                    loaded.put(tagState.documentSelfLink, tagState);
+                })
+                .handle((ignore, e) -> {
+                    if (e != null) {
+                        this.host.log(Level.WARNING, "Error querying %d tags: %s",
+                                tagLinks.size(), e.getMessage());
+                    }
+                    return loaded;
+                });
+    }
+
+    private DeferredResult<TagState> get(Service service, String tagLink) {
+        Operation tagGetOp = Operation.createGet(service.getHost(), tagLink);
+        return service.sendWithDeferredResult(tagGetOp, TagState.class)
+                .thenApply(tagState -> {
+                    put(tagState);
+                    return tagState;
+                })
+                .exceptionally(e -> {
+                    // just log and ignore errors
+                    this.host.log(Level.WARNING, "Error expanding tag %s: %s", tagLink,
+                            e.getMessage());
+                    return null;
+                });
+    }
+
+    private void tagsChanged(Operation notification) {
+        notification.complete();
+        QueryTask queryTask = notification.getBody(QueryTask.class);
+        if (queryTask.results == null || queryTask.results.documents == null) {
+            return;
+        }
+        for (Object document : queryTask.results.documents.values()) {
+            TagState tagState = Utils.fromJson(document, TagState.class);
+            if (Action.DELETE.toString().equals(tagState.documentUpdateAction)) {
+                invalidate(tagState.documentSelfLink);
+            } else {
+                // only refresh tags which are in use
+                this.tags.computeIfPresent(tagState.documentSelfLink,
+                        (link, cachedTag) -> newer(cachedTag, new CachedTag(tagState)));
+            }
+        }
+    }
+
+    /**
+     * Subscribes for tag changes with a continuous query over the tags.
+     */
+    private void subscribe() {
+        QueryUtils.subscribeToContinuousQuery(this.host, TagState.class,
+                this.authorizationContext, this::tagsChanged)
+                .whenComplete((queryTaskLink, e) -> {
+                    if (e != null) {
+                        this.host.log(Level.SEVERE, "Cannot subscribe for tag changes: %s",
+                                Utils.toString(e));
+                        return;
+                    }
+                    this.queryTaskLink = queryTaskLink;
+                });
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.resources;
+
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.StatelessService;
+
+/**
+ * Starts the {@link TagInfoCache} of its host and publishes the cache statistics as stats of
+ * this service, i.e. on /resources/tag-info-cache/stats.
+ */
+public class TagInfoCacheService extends StatelessService {
+
+    public static final String SELF_LINK = UriPaths.RESOURCES + "/tag-info-cache";
+
+    public static final String STAT_NAME_HIT_COUNT = "tagInfoCacheHitCount";
+    public static final String STAT_NAME_MISS_COUNT = "tagInfoCacheMissCount";
+    public static final String STAT_NAME_HIT_RATIO = "tagInfoCacheHitRatio";
+    public static final String STAT_NAME_EVICTION_COUNT = "tagInfoCacheEvictionCount";
+    public static final String STAT_NAME_SIZE = "tagInfoCacheSize";
+    public static final String STAT_UNIT_COUNT = "count";
+    public static final String STAT_UNIT_RATIO = "ratio";
+
+    public static final long STATS_PUBLISH_INTERVAL_MICROS = TimeUnit.SECONDS.toMicros(10);
+
+    public TagInfoCacheService() {
+        super.toggleOption(ServiceOption.PERIODIC_MAINTENANCE, true);
+        super.setMaintenanceIntervalMicros(STATS_PUBLISH_INTERVAL_MICROS);
+    }
+
+    @Override
+    public void handleStart(Operation start) {
+        TagInfoCache.start(getHost(), getSystemAuthorizationContext());
+        start.complete();
+    }
+
+    @Override
+    public void handleStop(Operation stop) {
+        TagInfoCache.stop(getHost());
+        super.handleStop(stop);
+    }
+
+    @Override
+    public void handlePeriodicMaintenance(Operation maintenance) {
+        maintenance.complete();
+        publishStats();
+    }
+
+    /**
+     * Sets the stats of this service to the current statistics of the cache.
+     */
+    void publishStats() {
+        TagInfoCache cache = TagInfoCache.getInstance(getHost());
+        if (cache == null) {
+            return;
+        }
+        long hitCount = cache.getHitCount();
+        long missCount = cache.getMissCount();
+        long lookupCount = hitCount + missCount;
+
+        setStat(STAT_NAME_HIT_COUNT, STAT_UNIT_COUNT, hitCount);
+        setStat(STAT_NAME_MISS_COUNT, STAT_UNIT_COUNT, missCount);
+        setStat(STAT_NAME_HIT_RATIO, STAT_UNIT_RATIO,
+                lookupCount > 0 ? (double) hitCount / lookupCount : 0);
+        setStat(STAT_NAME_EVICTION_COUNT, STAT_UNIT_COUNT, cache.getEvictionCount());
+        setStat(STAT_NAME_SIZE, STAT_UNIT_COUNT, cache.size());
+    }
+
+    private void setStat(String name, String unit, double value) {
+        ServiceStat stat = new ServiceStat();
+        stat.name = name;
+        stat.unit = unit;
+        setStat(stat, value);
+    }
+}
@@ -13,11 +13,14 @@
 
 package com.vmware.photon.controller.model.util;
 
+import java.math.BigInteger;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 
+import com.vmware.photon.controller.model.support.IPVersion;
+
 /**
  * Utility methods for dealing with IP addresses.
  */
@@ -83,6 +86,45 @@ public class IpHelper {
         }
     }
 
+    /**
+     * Convert an IPv4 or IPv6 address string to its unsigned numeric value.
+     *
+     * @param ip IPv4 or IPv6 address
+     * @return non-negative numeric value of the address
+     */
+    public static BigInteger ipStringToBigInteger(String ip) {
+        try {
+            return new BigInteger(1, InetAddress.getByName(ip).getAddress());
+        } catch (UnknownHostException ex) {
+            throw new IllegalArgumentException(ip + " is not an IP address", ex);
+        }
+    }
+
+    /**
+     * Convert an unsigned numeric address value to an ip string of the given version.
+     *
+     * @param ip        non-negative numeric value of the address
+     * @param ipVersion version of the address
+     * @return ip string
+     */
+    public static String bigIntegerToIpString(BigInteger ip, IPVersion ipVersion) {
+        int length = IPVersion.IPv6.equals(ipVersion) ? 16 : 4;
+        byte[] value = ip.toByteArray();
+        if (ip.signum() < 0 || value.length > length + 1
+                || (value.length == length + 1 && value[0] != 0)) {
+            throw new IllegalArgumentException("Invalid " + ipVersion + " address value " + ip);
+        }
+        byte[] address = new byte[length];
+        int copyLength = Math.min(value.length, length);
+        System.arraycopy(value, value.length - copyLength, address, length - copyLength,
+                copyLength);
+        try {
+            return InetAddress.getByAddress(address).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid IP " + ip);
+        }
+    }
+
     /**
      * Convert an host byte order long to byte array in network byte order.
      *
@@ -13,6 +13,8 @@
 
 package com.vmware.photon.controller.model.util;
 
+import java.math.BigInteger;
+
 import io.netty.util.internal.StringUtil;
 
 import org.apache.commons.net.util.SubnetUtils;
@@ -118,23 +120,12 @@ public class SubnetValidator {
             String endAddress,
             IPVersion ipVersion,
             String ipAddress) {
-        if (!IPVersion.IPv4.equals(ipVersion)) {
-            throw new UnsupportedOperationException(
-                    "Support for IPv6 IP address is not yet implemented");
-        }
+        BigInteger ip = IpHelper.ipStringToBigInteger(ipAddress);
 
-        boolean isIpGreaterThanStart = false;
-        boolean isIpLessThanEnd = false;
-
-        if ((IpHelper.ipStringToLong(endAddress) - IpHelper.ipStringToLong(ipAddress))
-                >= 0) {
-            isIpLessThanEnd = true;
-        }
-
-        if ((IpHelper.ipStringToLong(ipAddress) - IpHelper.ipStringToLong(startAddress))
-                >= 0) {
-            isIpGreaterThanStart = true;
-        }
+        boolean isIpGreaterThanStart = ip
+                .compareTo(IpHelper.ipStringToBigInteger(startAddress)) >= 0;
+        boolean isIpLessThanEnd = ip
+                .compareTo(IpHelper.ipStringToBigInteger(endAddress)) <= 0;
 
         return (isIpGreaterThanStart && isIpLessThanEnd);
     }
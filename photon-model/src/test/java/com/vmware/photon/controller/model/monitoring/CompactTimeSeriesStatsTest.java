@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.AggregationType;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.TimeBin;
+
+/**
+ * Unit test for {@link CompactTimeSeriesStats}
+ */
+public class CompactTimeSeriesStatsTest {
+
+    private static final long BIN_DURATION_MILLIS = 1000;
+    private static final double DELTA = 0.0001;
+
+    @Test
+    public void testRoundTrip() {
+        TimeSeriesStats stats = createStats(3, EnumSet.allOf(AggregationType.class));
+        addBin(stats, 1000, 2, 1.5, 1.0, 2.0, 3.0, 2.0);
+        addBin(stats, 3000, 1, 4.0, 4.0, 4.0, 4.0, 4.0);
+
+        TimeSeriesStats expanded = CompactTimeSeriesStats.fromTimeSeriesStats(stats)
+                .toTimeSeriesStats();
+        assertEquals(stats.numBins, expanded.numBins);
+        assertEquals(stats.binDurationMillis, expanded.binDurationMillis);
+        assertEquals(stats.bins.keySet(), expanded.bins.keySet());
+        assertBin(expanded.bins.get(1000L), 2, 1.5, 1.0, 2.0, 3.0, 2.0);
+        assertBin(expanded.bins.get(3000L), 1, 4.0, 4.0, 4.0, 4.0, 4.0);
+    }
+
+    @Test
+    public void testMergeCombinesBins() {
+        TimeSeriesStats stats = createStats(2, EnumSet.allOf(AggregationType.class));
+        addBin(stats, 1000, 2, 1.5, 1.0, 2.0, 3.0, 2.0);
+        CompactTimeSeriesStats compact = CompactTimeSeriesStats.fromTimeSeriesStats(stats);
+
+        TimeSeriesStats update = createStats(2, EnumSet.allOf(AggregationType.class));
+        addBin(update, 1000, 1, 6.0, 6.0, 6.0, 6.0, 6.0);
+        compact.merge(update);
+
+        TimeBin bin = compact.toTimeSeriesStats().bins.get(1000L);
+        // average weighted by count, extremes and sum of both bins, latest of the update
+        assertBin(bin, 3, 3.0, 1.0, 6.0, 9.0, 6.0);
+    }
+
+    @Test
+    public void testMergeKeepsNewestBins() {
+        CompactTimeSeriesStats compact = new CompactTimeSeriesStats(2, BIN_DURATION_MILLIS,
+                EnumSet.of(AggregationType.AVG));
+
+        TimeSeriesStats update = createStats(2, EnumSet.of(AggregationType.AVG));
+        addBin(update, 2000, 1, 2.0, null, null, null, null);
+        addBin(update, 4000, 1, 4.0, null, null, null, null);
+        compact.merge(update);
+
+        // older than the kept bins
+        update = createStats(2, EnumSet.of(AggregationType.AVG));
+        addBin(update, 1000, 1, 1.0, null, null, null, null);
+        compact.merge(update);
+        assertEquals(2, compact.size);
+        assertEquals(2000, compact.binIds[0]);
+
+        // newer than the kept bins, the oldest one is dropped
+        update = createStats(2, EnumSet.of(AggregationType.AVG));
+        addBin(update, 3000, 1, 3.0, null, null, null, null);
+        compact.merge(update);
+        assertEquals(2, compact.size);
+        assertEquals(3000, compact.binIds[0]);
+        assertEquals(4000, compact.binIds[1]);
+
+        TimeBin bin = compact.toTimeSeriesStats().bins.get(3000L);
+        assertBin(bin, 1, 3.0, null, null, null, null);
+    }
+
+    @Test
+    public void testMergeCompact() {
+        CompactTimeSeriesStats compact = new CompactTimeSeriesStats(4, BIN_DURATION_MILLIS,
+                EnumSet.of(AggregationType.AVG, AggregationType.MAX));
+        TimeSeriesStats update = createStats(4, EnumSet.of(AggregationType.AVG,
+                AggregationType.MAX));
+        addBin(update, 1000, 1, 1.0, null, 1.0, null, null);
+        compact.merge(update);
+
+        CompactTimeSeriesStats other = CompactTimeSeriesStats.fromTimeSeriesStats(update);
+        compact.merge(other);
+
+        assertEquals(1, compact.size);
+        assertBin(compact.toTimeSeriesStats().bins.get(1000L), 2, 1.0, null, 1.0, null, null);
+    }
+
+    private static TimeSeriesStats createStats(int numBins, EnumSet<AggregationType> types) {
+        return new TimeSeriesStats(numBins, BIN_DURATION_MILLIS, types);
+    }
+
+    private static void addBin(TimeSeriesStats stats, long binId, double count, Double avg,
+            Double min, Double max, Double sum, Double latest) {
+        TimeBin bin = new TimeBin();
+        bin.count = count;
+        bin.avg = avg;
+        bin.min = min;
+        bin.max = max;
+        bin.sum = sum;
+        bin.latest = latest;
+        stats.bins.put(binId, bin);
+    }
+
+    private static void assertBin(TimeBin bin, double count, Double avg, Double min, Double max,
+            Double sum, Double latest) {
+        assertEquals(count, bin.count, DELTA);
+        assertValue(avg, bin.avg);
+        assertValue(min, bin.min);
+        assertValue(max, bin.max);
+        assertValue(sum, bin.sum);
+        assertValue(latest, bin.latest);
+    }
+
+    private static void assertValue(Double expected, Double actual) {
+        if (expected == null) {
+            assertNull(actual);
+        } else {
+            assertEquals(expected, actual, DELTA);
+        }
+    }
+}
@@ -36,6 +36,7 @@ import com.vmware.photon.controller.model.helpers.BaseModelTest;
 import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.ServiceStats.TimeSeriesStats;
 import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.AggregationType;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.TimeBin;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
 
@@ -131,5 +132,41 @@ public class InMemoryResourceMetricServiceTest extends Suite {
             assertTrue(returnState.timeSeriesStats.get("key1").bins.values().iterator().next().count == 2);
             assertTrue(returnState.timeSeriesStats.get("key1").bins.values().iterator().next().avg == 1.5);
         }
+
+        @Test
+        public void testPutMergesAllAggregations() throws Throwable {
+            long nowMicros = Utils.getNowMicrosUtc();
+            InMemoryResourceMetricService.InMemoryResourceMetric metric =
+                    new InMemoryResourceMetricService.InMemoryResourceMetric();
+            metric.documentSelfLink = "all-aggregations";
+            metric.timeSeriesStats = new HashMap<>();
+            TimeSeriesStats statsEntry = new TimeSeriesStats(2, HOUR_IN_MILLIS,
+                    EnumSet.allOf(AggregationType.class));
+            statsEntry.add(nowMicros, 1, 1);
+            statsEntry.add(nowMicros, 3, 3);
+            metric.timeSeriesStats.put("key1", statsEntry);
+            postServiceSynchronously(InMemoryResourceMetricService.FACTORY_LINK, metric,
+                    InMemoryResourceMetricService.InMemoryResourceMetric.class);
+
+            metric.timeSeriesStats = new HashMap<>();
+            statsEntry = new TimeSeriesStats(2, HOUR_IN_MILLIS,
+                    EnumSet.allOf(AggregationType.class));
+            statsEntry.add(nowMicros, 8, 8);
+            metric.timeSeriesStats.put("key1", statsEntry);
+            postServiceSynchronously(InMemoryResourceMetricService.FACTORY_LINK, metric,
+                    InMemoryResourceMetricService.InMemoryResourceMetric.class);
+
+            InMemoryResourceMetricService.InMemoryResourceMetric returnState =
+                    getServiceSynchronously(UriUtils.buildUriPath(
+                            InMemoryResourceMetricService.FACTORY_LINK, metric.documentSelfLink),
+                            InMemoryResourceMetricService.InMemoryResourceMetric.class);
+            TimeBin bin = returnState.timeSeriesStats.get("key1").bins.values().iterator().next();
+            assertEquals(3, bin.count, 0);
+            assertEquals(4, bin.avg, 0.001);
+            assertEquals(1, bin.min, 0);
+            assertEquals(8, bin.max, 0);
+            assertEquals(12, bin.sum, 0);
+            assertEquals(8, bin.latest, 0);
+        }
     }
 }
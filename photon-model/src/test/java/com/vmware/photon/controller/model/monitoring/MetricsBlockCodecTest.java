@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.monitoring.MetricsBlockCodec.DataPoints;
+
+/**
+ * Unit test for {@link MetricsBlockCodec}
+ */
+public class MetricsBlockCodecTest {
+
+    private static final long START_MICROS = 1514764800000000L;
+
+    @Test
+    public void testEmpty() {
+        DataPoints decoded = MetricsBlockCodec
+                .decode(MetricsBlockCodec.encode(new DataPoints(new long[0], new double[0])));
+        assertEquals(0, decoded.size());
+    }
+
+    @Test
+    public void testRegularIntervalCompresses() {
+        int count = 60;
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = START_MICROS + i * TimeUnit.MINUTES.toMicros(1);
+            values[i] = i % 10 == 0 ? 42.0 + i : 42.0;
+        }
+        DataPoints points = new DataPoints(timestamps, values);
+        byte[] encoded = MetricsBlockCodec.encode(points);
+
+        // 16 bytes per uncompressed data point
+        assertTrue("encoded size " + encoded.length, encoded.length < count * 16 / 4);
+        assertRoundTrip(points);
+    }
+
+    @Test
+    public void testIrregularValuesRoundTrip() {
+        Random random = new Random(7);
+        int count = 500;
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        long timestamp = START_MICROS;
+        for (int i = 0; i < count; i++) {
+            // mix of small jitter, large gaps and duplicate timestamps
+            timestamp += i % 50 == 0 ? TimeUnit.DAYS.toMicros(3) : random.nextInt(5000);
+            timestamps[i] = timestamp;
+            values[i] = i % 7 == 0 ? Double.NaN : random.nextGaussian() * 1000;
+        }
+        values[1] = Double.MAX_VALUE;
+        values[2] = -0.0;
+        assertRoundTrip(new DataPoints(timestamps, values));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnorderedTimestamps() {
+        MetricsBlockCodec.encode(new DataPoints(new long[] { 2, 1 }, new double[] { 1, 1 }));
+    }
+
+    @Test
+    public void testMerge() {
+        DataPoints existing = new DataPoints(new long[] { 1, 3, 5 }, new double[] { 1, 3, 5 });
+        DataPoints newer = new DataPoints(new long[] { 2, 3, 6 }, new double[] { 2, 30, 6 });
+
+        DataPoints merged = MetricsBlockCodec.merge(existing, newer);
+        assertArrayEquals(new long[] { 1, 2, 3, 5, 6 }, merged.timestamps);
+        assertArrayEquals(new double[] { 1, 2, 30, 5, 6 }, merged.values, 0);
+    }
+
+    private static void assertRoundTrip(DataPoints points) {
+        DataPoints decoded = MetricsBlockCodec.decode(MetricsBlockCodec.encode(points));
+        assertArrayEquals(points.timestamps, decoded.timestamps);
+        assertEquals(points.size(), decoded.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals(Double.doubleToRawLongBits(points.values[i]),
+                    Double.doubleToRawLongBits(decoded.values[i]));
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.helpers.BaseModelTest;
+import com.vmware.photon.controller.model.monitoring.MetricsBlockCodec.DataPoints;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsBlockService.ResourceMetricsBlock;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.ResourceMetrics;
+
+import com.vmware.xenon.common.CommandLineArgumentParser;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+
+/**
+ * This class implements tests for the {@link ResourceMetricsBlockService} class.
+ */
+public class ResourceMetricsBlockServiceTest extends BaseModelTest {
+
+    private static final String METRIC_NAME = "CPUUtilizationPercent";
+    private static final long START_MICROS = ResourceMetricsBlockService
+            .computeBlockStartMicros(Utils.getNowMicrosUtc());
+    private static final long INTERVAL_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    /**
+     * Number of resources, metrics per resource and data points per metric used by
+     * {@link #testThroughputAgainstDocumentPerDataPoint()}. Can be raised through system
+     * properties to run it as a benchmark.
+     */
+    public int resourceCount = 5;
+    public int metricCount = 5;
+    public int pointCount = 30;
+
+    /**
+     * Data points sent per request, as one stats collection run would.
+     */
+    public int pointsPerCollection = 5;
+
+    @Before
+    public final void beforeTest() throws Throwable {
+        CommandLineArgumentParser.parseFromProperties(this);
+    }
+
+    @Test
+    public void testAppendMergesDataPoints() throws Throwable {
+        String resourceLink = "/resources/compute/" + UUID.randomUUID();
+        List<ResourceMetrics> metrics = buildResourceMetrics(resourceLink, 1, 10);
+
+        for (ResourceMetricsBlock block : ResourceMetricsBlockService
+                .fromResourceMetrics(metrics.subList(0, 6))) {
+            postServiceSynchronously(ResourceMetricsBlockService.FACTORY_LINK, block,
+                    ResourceMetricsBlock.class);
+        }
+        // the overlapping data point is replaced, the rest is appended
+        ResourceMetricsBlock returnState = null;
+        for (ResourceMetricsBlock block : ResourceMetricsBlockService
+                .fromResourceMetrics(metrics.subList(5, 10))) {
+            returnState = postServiceSynchronously(ResourceMetricsBlockService.FACTORY_LINK,
+                    block, ResourceMetricsBlock.class);
+        }
+
+        ResourceMetricsBlock block = getServiceSynchronously(returnState.documentSelfLink,
+                ResourceMetricsBlock.class);
+        assertEquals(resourceLink, block.resourceLink);
+        assertEquals(METRIC_NAME + "0", block.metricName);
+        assertEquals(10, block.pointCount.intValue());
+        assertEquals(START_MICROS, block.firstTimestampMicrosUtc.longValue());
+        assertEquals(START_MICROS + 9 * INTERVAL_MICROS, block.lastTimestampMicrosUtc.longValue());
+
+        List<ResourceMetrics> expanded = ResourceMetricsBlockService.toResourceMetrics(block);
+        assertEquals(10, expanded.size());
+        for (int i = 0; i < expanded.size(); i++) {
+            assertEquals(metrics.get(i).timestampMicrosUtc, expanded.get(i).timestampMicrosUtc);
+            assertEquals(metrics.get(i).entries.get(block.metricName),
+                    expanded.get(i).entries.get(block.metricName));
+            assertEquals(resourceLink, expanded.get(i).customProperties
+                    .get(ResourceMetrics.PROPERTY_RESOURCE_LINK));
+        }
+    }
+
+    @Test
+    public void testFromResourceMetricsSplitsBlocks() {
+        String resourceLink = "/resources/compute/" + UUID.randomUUID();
+        long pointsPerBlock = ResourceMetricsBlockService.BLOCK_DURATION_MICROS / INTERVAL_MICROS;
+        List<ResourceMetrics> metrics = buildResourceMetrics(resourceLink, 2,
+                (int) pointsPerBlock + 1);
+
+        Collection<ResourceMetricsBlock> blocks = ResourceMetricsBlockService
+                .fromResourceMetrics(metrics);
+        // two metrics, each spilling one data point into the next block
+        assertEquals(4, blocks.size());
+        for (ResourceMetricsBlock block : blocks) {
+            assertTrue(block.documentSelfLink.startsWith(UriUtils.buildUriPath(
+                    ResourceMetricsBlockService.FACTORY_LINK,
+                    ResourceMetricsBlockService.buildBlockLinkPrefix(resourceLink))));
+            DataPoints points = ResourceMetricsBlockService.getDataPoints(block);
+            assertEquals(block.pointCount.intValue(), points.size());
+            assertEquals(ResourceMetricsBlockService.computeBlockStartMicros(
+                    points.timestamps[0]), block.blockStartMicrosUtc.longValue());
+        }
+    }
+
+    @Test
+    public void testQueryBlocksAsResourceMetrics() throws Throwable {
+        String resourceLink = "/resources/compute/" + UUID.randomUUID();
+        List<ResourceMetrics> metrics = buildResourceMetrics(resourceLink, 2, 5);
+        postInParallel(ResourceMetricsBlockService.FACTORY_LINK,
+                new ArrayList<>(ResourceMetricsBlockService.fromResourceMetrics(metrics)));
+        // blocks of another resource are not returned
+        postInParallel(ResourceMetricsBlockService.FACTORY_LINK,
+                new ArrayList<>(ResourceMetricsBlockService.fromResourceMetrics(
+                        buildResourceMetrics("/resources/compute/" + UUID.randomUUID(), 1, 5))));
+
+        QueryTask queryTask = QueryTask.Builder.createDirectTask()
+                .addOption(QueryOption.EXPAND_CONTENT)
+                .setQuery(ResourceMetricsBlockService.createBlocksQueryBuilder(resourceLink)
+                        .build())
+                .build();
+        QueryTask response = querySynchronously(queryTask);
+        assertEquals(2, response.results.documents.size());
+
+        List<ResourceMetrics> expanded = ResourceMetricsBlockService
+                .toResourceMetrics(response.results.documents.values());
+        // one per timestamp with the entries of both metrics, latest first
+        assertEquals(metrics.size(), expanded.size());
+        for (int i = 0; i < expanded.size(); i++) {
+            ResourceMetrics expected = metrics.get(metrics.size() - 1 - i);
+            assertEquals(expected.timestampMicrosUtc, expanded.get(i).timestampMicrosUtc);
+            assertEquals(expected.entries, expanded.get(i).entries);
+            assertEquals(resourceLink, expanded.get(i).customProperties
+                    .get(ResourceMetrics.PROPERTY_RESOURCE_LINK));
+        }
+    }
+
+    @Test
+    public void testPutIsNotSupported() throws Throwable {
+        String resourceLink = "/resources/compute/" + UUID.randomUUID();
+        ResourceMetricsBlock block = ResourceMetricsBlockService
+                .fromResourceMetrics(buildResourceMetrics(resourceLink, 1, 1)).iterator().next();
+        postServiceSynchronously(ResourceMetricsBlockService.FACTORY_LINK, block,
+                ResourceMetricsBlock.class);
+
+        Operation put = Operation
+                .createPut(UriUtils.buildUri(this.host, block.documentSelfLink))
+                .setBody(block);
+        this.host.sendAndWaitExpectFailure(put, Operation.STATUS_CODE_BAD_METHOD);
+    }
+
+    @Test
+    public void testMissingBody() throws Throwable {
+        postServiceSynchronously(ResourceMetricsBlockService.FACTORY_LINK, null,
+                ResourceMetricsBlock.class, IllegalArgumentException.class);
+    }
+
+    /**
+     * Persists the same data points once as a {@link ResourceMetrics} document per data point and
+     * once appended to {@link ResourceMetricsBlock}s in collection sized batches, and logs the
+     * throughput and the number of documents of both.
+     */
+    @Test
+    public void testThroughputAgainstDocumentPerDataPoint() throws Throwable {
+        List<List<ResourceMetrics>> collections = new ArrayList<>();
+        for (int r = 0; r < this.resourceCount; r++) {
+            String resourceLink = "/resources/compute/" + UUID.randomUUID();
+            List<ResourceMetrics> metrics = buildResourceMetrics(resourceLink,
+                    this.metricCount, this.pointCount);
+            for (int i = 0; i < metrics.size(); i += this.pointsPerCollection) {
+                collections.add(metrics.subList(i,
+                        Math.min(i + this.pointsPerCollection, metrics.size())));
+            }
+        }
+        int dataPoints = this.resourceCount * this.metricCount * this.pointCount;
+
+        long documentStart = System.nanoTime();
+        for (List<ResourceMetrics> collection : collections) {
+            List<ServiceDocument> documents = new ArrayList<>();
+            for (ResourceMetrics metrics : collection) {
+                ResourceMetrics document = Utils.clone(metrics);
+                document.documentSelfLink = UUID.randomUUID().toString();
+                documents.add(document);
+            }
+            postInParallel(ResourceMetricsService.FACTORY_LINK, documents);
+        }
+        long documentMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - documentStart);
+
+        long blockStart = System.nanoTime();
+        for (List<ResourceMetrics> collection : collections) {
+            postInParallel(ResourceMetricsBlockService.FACTORY_LINK,
+                    new ArrayList<>(ResourceMetricsBlockService.fromResourceMetrics(collection)));
+        }
+        long blockMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - blockStart);
+
+        long documentCount = countDocuments(ResourceMetrics.class);
+        long blockCount = countDocuments(ResourceMetricsBlock.class);
+        this.host.log(Level.INFO,
+                "%d data points: document per data point %d ms (%d documents), "
+                        + "blocks %d ms (%d documents)",
+                dataPoints, documentMillis, documentCount, blockMillis, blockCount);
+
+        assertTrue(blockCount < documentCount);
+    }
+
+    private void postInParallel(String factoryLink, List<? extends ServiceDocument> documents) {
+        TestContext ctx = this.host.testCreate(documents.size());
+        for (ServiceDocument document : documents) {
+            this.host.send(Operation.createPost(this.host, factoryLink)
+                    .setBody(document)
+                    .setCompletion(ctx.getCompletion()));
+        }
+        this.host.testWait(ctx);
+    }
+
+    private long countDocuments(Class<? extends ServiceDocument> type) throws Throwable {
+        QueryTask queryTask = QueryTask.Builder.createDirectTask()
+                .addOption(QueryOption.COUNT)
+                .setQuery(Query.Builder.create().addKindFieldClause(type).build())
+                .build();
+        return querySynchronously(queryTask).results.documentCount;
+    }
+
+    /**
+     * Builds one {@link ResourceMetrics} per data point, the way stats collection does.
+     */
+    private static List<ResourceMetrics> buildResourceMetrics(String resourceLink,
+            int metricCount, int pointCount) {
+        List<ResourceMetrics> metricsList = new ArrayList<>();
+        for (int i = 0; i < pointCount; i++) {
+            ResourceMetrics metrics = new ResourceMetrics();
+            metrics.timestampMicrosUtc = START_MICROS + i * INTERVAL_MICROS;
+            metrics.documentExpirationTimeMicros = Utils.getNowMicrosUtc()
+                    + TimeUnit.DAYS.toMicros(1);
+            metrics.entries = new HashMap<>();
+            for (int m = 0; m < metricCount; m++) {
+                metrics.entries.put(METRIC_NAME + m, (double) ((i + m) % 20));
+            }
+            metrics.customProperties = new HashMap<>(Collections.singletonMap(
+                    ResourceMetrics.PROPERTY_RESOURCE_LINK, resourceLink));
+            metricsList.add(metrics);
+        }
+        return metricsList;
+    }
+}
@@ -14,21 +14,26 @@
 package com.vmware.photon.controller.model.query;
 
 import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 
 import static com.vmware.photon.controller.model.resources.util.PhotonModelUtils.waitToComplete;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.Test;
 
@@ -40,7 +45,9 @@ import com.vmware.photon.controller.model.query.QueryUtils.QueryTop;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.services.common.QueryTask;
 import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.ServiceUriPaths;
 
 /**
  * Tests for {@link QueryByPages} and {@link QueryTop} classes.
@@ -86,6 +93,206 @@ public class QueryUtilsTest extends BaseModelTest {
         doTest(cd, expected, Collections.singletonList("http://tenant"));
     }
 
+    @Test
+    public void testQueryWhile() throws Throwable {
+
+        final ComputeDescription cd = ModelUtils.createComputeDescription(this, null, null);
+        for (int i = 0; i < 5; i++) {
+            ModelUtils.createCompute(this, cd);
+        }
+
+        Query queryForReferrers = QueryUtils.queryForReferrers(
+                cd.documentSelfLink,
+                ComputeState.class,
+                ComputeState.FIELD_NAME_DESCRIPTION_LINK);
+
+        QueryMetrics metrics = QueryMetrics.getMetrics(ComputeState.class);
+        long queryCount = metrics.getQueryCount();
+        long pageCount = metrics.getPageCount();
+        long resultCount = metrics.getResultCount();
+
+        // stop in the second of three pages
+        List<String> consumed = new ArrayList<>();
+        waitToComplete(new QueryByPages<>(getHost(), queryForReferrers, ComputeState.class, null)
+                .setMaxPageSize(2)
+                .queryDocumentsWhile(cs -> consumed.add(cs.documentSelfLink)
+                        && consumed.size() < 3));
+        assertThat(consumed.size(), equalTo(3));
+        assertThat(metrics.getPageCount(), equalTo(pageCount + 2));
+
+        // stop in the first page
+        consumed.clear();
+        waitToComplete(new QueryByPages<>(getHost(), queryForReferrers, ComputeState.class, null)
+                .setMaxPageSize(2)
+                .queryLinksWhile(link -> consumed.add(link) && consumed.size() < 1));
+        assertThat(consumed.size(), equalTo(1));
+
+        // no page after the one the consumer stopped in was fetched
+        assertThat(metrics.getQueryCount(), equalTo(queryCount + 2));
+        assertThat(metrics.getPageCount(), equalTo(pageCount + 3));
+        assertThat(metrics.getResultCount(), equalTo(resultCount + 4));
+    }
+
+    /**
+     * Projection of a compute with only two of its fields.
+     */
+    public static class ComputeProjection {
+        public String id;
+        public String documentSelfLink;
+    }
+
+    @Test
+    public void testSubscribeToContinuousQuery() throws Throwable {
+
+        Set<String> changedLinks = ConcurrentHashMap.newKeySet();
+        String queryTaskLink = waitToComplete(QueryUtils.subscribeToContinuousQuery(getHost(),
+                ComputeDescription.class, null, notification -> {
+                    notification.complete();
+                    QueryTask queryTask = notification.getBody(QueryTask.class);
+                    if (queryTask.results != null && queryTask.results.documents != null) {
+                        changedLinks.addAll(queryTask.results.documents.keySet());
+                    }
+                }));
+        assertThat(queryTaskLink.startsWith(ServiceUriPaths.CORE_LOCAL_QUERY_TASKS),
+                equalTo(true));
+
+        final ComputeDescription cd = ModelUtils.createComputeDescription(this, null, null);
+
+        this.host.waitFor("The new compute description was not notified",
+                () -> changedLinks.contains(cd.documentSelfLink));
+    }
+
+    @Test
+    public void testQuerySelectedFields() throws Throwable {
+
+        final ComputeDescription cd = ModelUtils.createComputeDescription(this, null, null);
+
+        final Set<String> expectedIds = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            expectedIds.add(ModelUtils.createCompute(this, cd).id);
+        }
+
+        Query queryForReferrers = QueryUtils.queryForReferrers(
+                cd.documentSelfLink,
+                ComputeState.class,
+                ComputeState.FIELD_NAME_DESCRIPTION_LINK);
+
+        List<ComputeState> computes = new ArrayList<>();
+        waitToComplete(new QueryByPages<>(getHost(), queryForReferrers, ComputeState.class, null)
+                .querySelectedFields(Collections.singleton(ComputeState.FIELD_NAME_ID),
+                        computes::add));
+
+        assertThat(computes.size(), equalTo(expectedIds.size()));
+        for (ComputeState compute : computes) {
+            assertThat(compute.documentSelfLink, notNullValue());
+            // unselected fields are not set
+            assertThat(compute.address, nullValue());
+            assertThat(compute.descriptionLink, nullValue());
+        }
+        assertThat(computes.stream().map(cs -> cs.id).collect(toSet()), equalTo(expectedIds));
+
+        List<ComputeProjection> projections = waitToComplete(
+                new QueryTop<>(getHost(), queryForReferrers, ComputeState.class, null)
+                        .collectProjections(ComputeProjection.class, toList()));
+
+        assertThat(projections.size(), equalTo(expectedIds.size()));
+        assertThat(projections.stream().map(p -> p.id).collect(toSet()), equalTo(expectedIds));
+        assertThat(projections.stream().map(p -> p.documentSelfLink).collect(toSet()),
+                equalTo(computes.stream().map(cs -> cs.documentSelfLink).collect(toSet())));
+    }
+
+    @Test
+    public void testQueryByPagesStreaming() throws Throwable {
+
+        final ComputeDescription cd = ModelUtils.createComputeDescription(this, null, null);
+
+        final Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 7; i++) {
+            expected.add(ModelUtils.createCompute(this, cd).documentSelfLink);
+        }
+
+        Query queryForReferrers = QueryUtils.queryForReferrers(
+                cd.documentSelfLink,
+                ComputeState.class,
+                ComputeState.FIELD_NAME_DESCRIPTION_LINK);
+
+        List<QueryByPages<ComputeState>> queryStrategies = Arrays.asList(
+                // prefetching, sequential consumption
+                new QueryByPages<>(getHost(), queryForReferrers, ComputeState.class, null)
+                        .setMaxPageSize(2)
+                        .setPrefetchPages(2),
+                // prefetching, ordered parallel consumption
+                new QueryByPages<>(getHost(), queryForReferrers, ComputeState.class, null)
+                        .setMaxPageSize(2)
+                        .setPrefetchPages(1)
+                        .setParallelConsumption(3, true),
+                // unordered parallel consumption of non-direct query with adaptive polling
+                new QueryByPages<>(getHost(), queryForReferrers, ComputeState.class, null)
+                        .setMaxPageSize(2)
+                        .setParallelConsumption(2, false)
+                        .setDirect(false)
+                        .setAdaptivePolling(true));
+
+        for (QueryByPages<ComputeState> queryStrategy : queryStrategies) {
+            Set<String> actual = ConcurrentHashMap.newKeySet();
+            waitToComplete(queryStrategy.queryDocuments(cs -> actual.add(cs.documentSelfLink)));
+            assertThat(actual, equalTo(expected));
+
+            Set<String> actualLinks = waitToComplete(queryStrategy.collectLinks(
+                    toCollection(ConcurrentHashMap::newKeySet)));
+            assertThat(actualLinks, equalTo(expected));
+        }
+
+        // consumer errors are propagated
+        Throwable failure = waitToComplete(new QueryByPages<>(getHost(), queryForReferrers,
+                ComputeState.class, null)
+                .setPrefetchPages(1)
+                .setParallelConsumption(2, true)
+                .queryDocuments(cs -> {
+                    throw new RuntimeException("consume error");
+                })
+                .handle((v, e) -> e));
+        assertThat(failure, instanceOf(CompletionException.class));
+        assertThat(failure.getCause().getMessage(), equalTo("consume error"));
+    }
+
+    @Test
+    public void testQueryByPagesOrderedParallelConsumption() throws Throwable {
+
+        final ComputeDescription cd = ModelUtils.createComputeDescription(this, null, null);
+        for (int i = 0; i < 7; i++) {
+            ModelUtils.createCompute(this, cd);
+        }
+
+        Query queryForReferrers = QueryUtils.queryForReferrers(
+                cd.documentSelfLink,
+                ComputeState.class,
+                ComputeState.FIELD_NAME_DESCRIPTION_LINK);
+        int pageSize = 2;
+
+        // the results in page order, as consumed sequentially
+        List<String> expected = waitToComplete(new QueryByPages<>(getHost(), queryForReferrers,
+                ComputeState.class, null)
+                .setMaxPageSize(pageSize)
+                .collectDocuments(mapping(cs -> cs.documentSelfLink, toList())));
+        assertThat(expected.size(), equalTo(7));
+
+        List<String> actual = Collections.synchronizedList(new ArrayList<>());
+        waitToComplete(new QueryByPages<>(getHost(), queryForReferrers, ComputeState.class, null)
+                .setMaxPageSize(pageSize)
+                .setPrefetchPages(1)
+                .setParallelConsumption(3, true)
+                .queryDocuments(cs -> actual.add(cs.documentSelfLink)));
+
+        // the results of a page are consumed in any order, but before those of the next page
+        assertThat(actual.size(), equalTo(expected.size()));
+        for (int start = 0; start < expected.size(); start += pageSize) {
+            int end = Math.min(start + pageSize, expected.size());
+            assertThat(new HashSet<>(actual.subList(start, end)),
+                    equalTo(new HashSet<>(expected.subList(start, end))));
+        }
+    }
+
     private void doTest(ComputeDescription cd, Set<String> expected, List<String> tenantLinks) {
 
         Query queryForReferrers = QueryUtils.queryForReferrers(
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.resources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.helpers.BaseModelTest;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.TagService.TagState;
+import com.vmware.photon.controller.model.resources.TagService.TagState.TagOrigin;
+
+/**
+ * Unit test for {@link TagInfoCache}
+ */
+public class TagInfoCacheTest extends BaseModelTest {
+
+    @Test
+    public void testPopulateTagsFromCache() throws Throwable {
+        TagInfoCache cache = TagInfoCache.getInstance(this.host);
+        assertNotNull(cache);
+
+        String key = UUID.randomUUID().toString();
+        TagState tag1 = createTag(key, "1");
+        TagState tag2 = createTag(key, "2");
+
+        long missCount = cache.getMissCount();
+        ComputeState compute = createCompute(tag1, tag2);
+        assertEquals(missCount + 2, cache.getMissCount());
+        assertTags(compute, key + "\n1", key + "\n2");
+
+        long hitCount = cache.getHitCount();
+        compute = createCompute(tag1, tag2);
+        assertEquals(hitCount + 2, cache.getHitCount());
+        assertTags(compute, key + "\n1", key + "\n2");
+
+        // deleted tags are dropped from the cache and not expanded any more
+        deleteServiceSynchronously(tag2.documentSelfLink);
+        this.host.waitFor("Deleted tag is still cached", () -> !cache.isCurrent(tag2));
+
+        compute = createCompute(tag1, tag2);
+        assertTags(compute, key + "\n1");
+    }
+
+    @Test
+    public void testIsCurrent() throws Throwable {
+        TagInfoCache cache = TagInfoCache.getInstance(this.host);
+
+        TagState tag = new TagState();
+        tag.key = UUID.randomUUID().toString();
+        tag.value = "1";
+        tag.external = Boolean.TRUE;
+        tag.origins = EnumSet.of(TagOrigin.DISCOVERED);
+        tag.deleted = Boolean.FALSE;
+        tag = postServiceSynchronously(TagService.FACTORY_LINK, tag, TagState.class);
+        assertFalse(cache.isCurrent(tag));
+
+        cache.put(tag);
+        assertTrue(cache.isCurrent(tag));
+
+        // a POST with a new origin or a local tag would change the tag
+        tag.origins = EnumSet.of(TagOrigin.SYSTEM);
+        assertFalse(cache.isCurrent(tag));
+        tag.origins = EnumSet.of(TagOrigin.DISCOVERED);
+        tag.external = Boolean.FALSE;
+        assertFalse(cache.isCurrent(tag));
+
+        // older versions do not replace newer ones
+        tag.external = Boolean.TRUE;
+        tag.deleted = Boolean.TRUE;
+        tag.documentVersion--;
+        cache.put(tag);
+        tag.deleted = Boolean.FALSE;
+        assertTrue(cache.isCurrent(tag));
+
+        cache.invalidate(tag.documentSelfLink);
+        assertFalse(cache.isCurrent(tag));
+    }
+
+    private TagState createTag(String key, String value) throws Throwable {
+        TagState tag = new TagState();
+        tag.key = key;
+        tag.value = value;
+        return postServiceSynchronously(TagService.FACTORY_LINK, tag, TagState.class);
+    }
+
+    private ComputeState createCompute(TagState... tags) throws Throwable {
+        ComputeState compute = new ComputeState();
+        compute.descriptionLink = "cdLink";
+        compute.tagLinks = new HashSet<>();
+        for (TagState tag : tags) {
+            compute.tagLinks.add(tag.documentSelfLink);
+        }
+        return postServiceSynchronously(ComputeService.FACTORY_LINK, compute, ComputeState.class);
+    }
+
+    private static void assertTags(ComputeState compute, String... expected) {
+        List<String> tags = compute.expandedTags.stream()
+                .map(t -> t.tag)
+                .collect(Collectors.toList());
+        assertEquals(expected.length, tags.size());
+        assertTrue(tags.containsAll(Arrays.asList(expected)));
+    }
+}